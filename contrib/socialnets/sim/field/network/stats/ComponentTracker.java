@@ -0,0 +1,451 @@
+/*
+  Copyright 2010 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.network.stats;
+import sim.field.network.*;
+import sim.util.*;
+import ec.util.*;
+import java.util.*;
+
+/**
+ * Keeps track of the connected components of an undirected Network (or the weakly connected components of a
+ * directed one) as nodes and edges are added and removed, so that you needn't call
+ * ConnectivityStatistics.getConnectedComponents(...) again every time the Network changes.  The tracker registers
+ * itself as a NetworkListener of the Network when it is constructed; call detach() when you no longer need it.
+ *
+ * <p>Each component is given a small integer label.  Labels are not contiguous, and a label may be reused once
+ * its component has vanished, so don't hold on to them across changes to the Network.
+ *
+ * <p>The tracker maintains a spanning forest of the Network: the edges which joined two components when they were
+ * added.  Finding a node's component, the component's size, or whether the Network is connected is O(1) (plus a
+ * hash lookup to find the node).  Adding a node is O(1).  Adding an edge is O(1) if it lies within a component, and
+ * otherwise relabels the nodes of the smaller of the two components it joins, which is O(log n) amortized.
+ * Removing an edge which isn't in the spanning forest is O(1).  Removing one which is splits a tree of the forest
+ * in two: the tracker searches both halves at once, stopping as soon as it finishes the smaller half or finds an
+ * edge joining it to the larger one, so the cost is proportional to the edges of the smaller half.  Removing a
+ * node removes its edges first.  Wholesale changes (Network.clear(), Network.removeAllEdges()) cause a rebuild
+ * from scratch, which is O(#nodes + #edges).
+ *
+ * <p>The methods which take a node throw a RuntimeException if the node isn't in the Network (if it has been
+ * removed, say), just as Network.getNodeIndex(...) does.
+ */
+
+public class ComponentTracker implements NetworkListener, java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    final Network network;
+
+    // by node index, as in the Network's allNodes bag
+    int[] label = new int[0];       // the node's component
+    int[] position = new int[0];    // the node's position in its component's members
+    int[] mark = new int[0];        // scratch, used when splitting
+
+    // by label.  A label is free if its bag is null or empty.
+    IntBag[] members = new IntBag[0];
+    int numLabels;                  // labels ever handed out since the last rebuild
+    final IntBag freeLabels = new IntBag();
+    int numComponents;
+
+    // the spanning forest
+    final HashSet treeEdges = new HashSet();
+
+    int stamp;
+    final IntBag sideA = new IntBag();
+    final IntBag sideB = new IntBag();
+
+    public ComponentTracker(final Network network)
+        {
+        this.network = network;
+        rebuild();
+        network.addListener(this);
+        }
+
+    public Network getNetwork() { return network; }
+
+    /** Unregisters the tracker from its Network.  After this the tracker no longer follows the Network's changes. */
+    public void detach()
+        {
+        network.removeListener(this);
+        }
+
+    /** Returns the label of the component containing the node.  Throws a RuntimeException if the node isn't in the Network. */
+    public int getComponent(final Object node)
+        {
+        return label[nodeIndex(node)];
+        }
+
+    /** Returns the number of nodes in the component containing the node.  Throws a RuntimeException if the node
+        isn't in the Network. */
+    public int getComponentSize(final Object node)
+        {
+        return members[label[nodeIndex(node)]].numObjs;
+        }
+
+    /** Returns true if there is a path between the two nodes, ignoring the direction of edges.  Throws a
+        RuntimeException if either node isn't in the Network. */
+    public boolean areConnected(final Object node1, final Object node2)
+        {
+        return label[nodeIndex(node1)] == label[nodeIndex(node2)];
+        }
+
+    public int getNumComponents()
+        {
+        return numComponents;
+        }
+
+    /** Returns true if the Network is connected (or weakly connected, if it's directed).  An empty Network is connected. */
+    public boolean isConnected()
+        {
+        return numComponents <= 1;
+        }
+
+    /** Returns the sizes of the components, in no particular order.  This is O(#components). */
+    public int[] getComponentSizes()
+        {
+        int[] sizes = new int[numComponents];
+        int count = 0;
+        for(int i = 0; i < members.length; i++)
+            if (members[i] != null && members[i].numObjs > 0)
+                sizes[count++] = members[i].numObjs;
+        return sizes;
+        }
+
+    /** Returns the components as a Bag of Bags of nodes, as ConnectivityStatistics.getConnectedComponents(...) does.
+        This is O(#nodes). */
+    public Bag getComponents()
+        {
+        final Object[] nodes = network.allNodes.objs;
+        Bag components = new Bag(numComponents);
+        for(int i = 0; i < members.length; i++)
+            {
+            IntBag m = members[i];
+            if (m == null || m.numObjs == 0) continue;
+            Bag component = new Bag(m.numObjs);
+            for(int j = 0; j < m.numObjs; j++)
+                component.add(nodes[m.objs[j]]);
+            components.add(component);
+            }
+        return components;
+        }
+
+    /** Recomputes the components from scratch.  You'd only need this if you changed the Network while the tracker
+        was detached (and then reattached it with Network.addListener(...)). */
+    public void rebuild()
+        {
+        final int n = network.allNodes.numObjs;
+        label = new int[n];
+        position = new int[n];
+        mark = new int[n];
+        members = new IntBag[n];
+        numLabels = 0;
+        freeLabels.clear();
+        numComponents = 0;
+        treeEdges.clear();
+        stamp = 1;
+
+        // breadth-first search from each unvisited node, using mark[] as the visited flag
+        for(int i = 0; i < n; i++)
+            {
+            if (mark[i] != 0) continue;
+            int lab = newLabel();
+            IntBag queue = members[lab];
+            addToComponent(i, lab);
+            mark[i] = stamp;
+            for(int head = 0; head < queue.numObjs; head++)
+                {
+                int x = queue.objs[head];
+                Object node = network.allNodes.objs[x];
+                Network.IndexOutIn ioi = (Network.IndexOutIn)(network.indexOutInHash.get(node));
+                for(int b = 0; b < 2; b++)
+                    {
+                    Bag edges = (b == 0 ? ioi.out : ioi.in);
+                    if (edges == null || (b == 1 && ioi.in == ioi.out)) continue;
+                    for(int k = 0; k < edges.numObjs; k++)
+                        {
+                        Edge e = (Edge)(edges.objs[k]);
+                        int y = index(e.getOtherNode(node));
+                        if (mark[y] == 0)
+                            {
+                            mark[y] = stamp;
+                            addToComponent(y, lab);
+                            treeEdges.add(e);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+    // NetworkListener methods
+
+    public void nodeAdded(final Network network, final Object node)
+        {
+        if (network != this.network) return;
+        int x = network.allNodes.numObjs - 1;       // the Network adds nodes at the end
+        if (x >= label.length)
+            {
+            int len = Math.max(x + 1, label.length * 2);
+            label = grow(label, len);
+            position = grow(position, len);
+            mark = grow(mark, len);
+            }
+        mark[x] = 0;
+        addToComponent(x, newLabel());
+        }
+
+    public void nodeRemoved(final Network network, final Object node, final int index)
+        {
+        if (network != this.network) return;
+        // the node's edges are gone, so it's alone in its component
+        removeFromComponent(index);
+
+        // the Network moved its last node into the removed node's slot
+        int last = network.allNodes.numObjs;
+        if (index != last)
+            {
+            int lab = label[last];
+            int pos = position[last];
+            label[index] = lab;
+            position[index] = pos;
+            mark[index] = mark[last];
+            members[lab].objs[pos] = index;
+            }
+        }
+
+    public void edgeAdded(final Network network, final Edge edge)
+        {
+        if (network != this.network) return;
+        int l1 = label[index(edge.getFrom())];
+        int l2 = label[index(edge.getTo())];
+        if (l1 == l2) return;
+
+        // relabel the smaller component
+        IntBag small = members[l1];
+        int into = l2;
+        if (small.numObjs > members[l2].numObjs) { small = members[l2]; into = l1; }
+        while(small.numObjs > 0)
+            addToComponent(removeFromComponent(small.objs[small.numObjs - 1]), into);
+        treeEdges.add(edge);
+        }
+
+    public void edgeRemoved(final Network network, final Edge edge)
+        {
+        if (network != this.network) return;
+        if (!treeEdges.remove(edge)) return;      // the forest, and hence the components, are unchanged
+
+        // The forest's tree is now in two halves.  Grow both halves over the forest at once until one is
+        // finished or we find a non-forest edge which joins them.
+        nextStamp();
+        final int stampA = stamp - 1;
+        final int stampB = stamp;
+        final IntBag a = sideA;
+        final IntBag b = sideB;
+        a.clear();
+        b.clear();
+        int u = index(edge.getFrom());
+        int v = index(edge.getTo());
+        a.add(u);
+        mark[u] = stampA;
+        b.add(v);
+        mark[v] = stampB;
+        int headA = 0;
+        int headB = 0;
+        while(true)
+            {
+            if (headA == a.numObjs) { split(a, stampA); break; }
+            if (headB == b.numObjs) { split(b, stampB); break; }
+            if (expand(a.objs[headA++], a, stampA, stampB)) break;
+            if (expand(b.objs[headB++], b, stampB, stampA)) break;
+            }
+        a.clear();
+        b.clear();
+        }
+
+    public void networkReset(final Network network)
+        {
+        if (network != this.network) return;
+        rebuild();
+        }
+
+    // Adds the forest neighbors of x to the side.  Returns true, having added the edge to the forest, if x has
+    // a non-forest edge to the other side.
+    boolean expand(final int x, final IntBag side, final int mine, final int theirs)
+        {
+        final Object node = network.allNodes.objs[x];
+        final Network.IndexOutIn ioi = (Network.IndexOutIn)(network.indexOutInHash.get(node));
+        for(int b = 0; b < 2; b++)
+            {
+            Bag edges = (b == 0 ? ioi.out : ioi.in);
+            if (edges == null || (b == 1 && ioi.in == ioi.out)) continue;
+            for(int k = 0; k < edges.numObjs; k++)
+                {
+                Edge e = (Edge)(edges.objs[k]);
+                int y = index(e.getOtherNode(node));
+                int m = mark[y];
+                if (m == mine) continue;
+                if (m == theirs)        // no forest edge joins the halves, so this isn't one
+                    {
+                    treeEdges.add(e);
+                    return true;
+                    }
+                if (treeEdges.contains(e))
+                    {
+                    mark[y] = mine;
+                    side.add(y);
+                    }
+                }
+            }
+        return false;
+        }
+
+    // The side is a finished half of a tree.  If some edge joins it to the rest of its component, adds the edge
+    // to the forest; otherwise gives the side a component of its own.
+    void split(final IntBag side, final int mine)
+        {
+        for(int i = 0; i < side.numObjs; i++)
+            {
+            final Object node = network.allNodes.objs[side.objs[i]];
+            final Network.IndexOutIn ioi = (Network.IndexOutIn)(network.indexOutInHash.get(node));
+            for(int b = 0; b < 2; b++)
+                {
+                Bag edges = (b == 0 ? ioi.out : ioi.in);
+                if (edges == null || (b == 1 && ioi.in == ioi.out)) continue;
+                for(int k = 0; k < edges.numObjs; k++)
+                    {
+                    Edge e = (Edge)(edges.objs[k]);
+                    if (mark[index(e.getOtherNode(node))] != mine)
+                        {
+                        treeEdges.add(e);
+                        return;
+                        }
+                    }
+                }
+            }
+
+        int lab = newLabel();
+        for(int i = 0; i < side.numObjs; i++)
+            addToComponent(removeFromComponent(side.objs[i]), lab);
+        }
+
+    // index(node) for the public methods, which may be handed anything
+    int nodeIndex(final Object node)
+        {
+        Network.IndexOutIn ioi = (Network.IndexOutIn)(network.indexOutInHash.get(node));
+        if (ioi == null)
+            throw new RuntimeException("Object parameter is not a node in the network.");
+        if (ioi.index >= label.length)      // added while we were detached
+            throw new RuntimeException("Node was added while the ComponentTracker was detached: call rebuild().");
+        return ioi.index;
+        }
+
+    int index(final Object node)
+        {
+        return ((Network.IndexOutIn)(network.indexOutInHash.get(node))).index;
+        }
+
+    int newLabel()
+        {
+        numComponents++;
+        if (freeLabels.numObjs > 0)
+            return freeLabels.pop();
+        if (numLabels == members.length)
+            {
+            IntBag[] m = new IntBag[Math.max(1, members.length * 2)];
+            System.arraycopy(members, 0, m, 0, members.length);
+            members = m;
+            }
+        members[numLabels] = new IntBag();
+        return numLabels++;
+        }
+
+    void addToComponent(final int x, final int lab)
+        {
+        IntBag m = members[lab];
+        label[x] = lab;
+        position[x] = m.numObjs;
+        m.add(x);
+        }
+
+    // returns x
+    int removeFromComponent(final int x)
+        {
+        int lab = label[x];
+        IntBag m = members[lab];
+        int pos = position[x];
+        m.remove(pos);
+        if (pos < m.numObjs) position[m.objs[pos]] = pos;
+        if (m.numObjs == 0)
+            {
+            freeLabels.add(lab);
+            numComponents--;
+            }
+        return x;
+        }
+
+    void nextStamp()
+        {
+        if (stamp >= Integer.MAX_VALUE - 2)
+            {
+            Arrays.fill(mark, 0);
+            stamp = 1;
+            }
+        stamp += 2;
+        }
+
+    static int[] grow(int[] array, int length)
+        {
+        int[] a = new int[length];
+        System.arraycopy(array, 0, a, 0, array.length);
+        return a;
+        }
+
+    /** Compares keeping the components of a random Network up to date with a ComponentTracker against calling
+        ConnectivityStatistics.getConnectedComponents(...) after every round of changes. */
+    public static void main(String[] args)
+        {
+        final int NODES = 20000;
+        final int EDGES = NODES / 2;      // sparse: getConnectedComponents recurses through each component
+        final int TICKS = 200;
+        final int CHANGES = EDGES / 100;    // edges replaced per tick
+        final int TRIALS = 3;
+
+        for(int trial = 0; trial < TRIALS; trial++)
+            {
+            for(int which = 0; which < 2; which++)
+                {
+                MersenneTwisterFast random = new MersenneTwisterFast(trial);
+                Network network = new Network(false);
+                for(int i = 0; i < NODES; i++)
+                    network.addNode(new Integer(i));
+                Edge[] edges = new Edge[EDGES];
+                for(int i = 0; i < EDGES; i++)
+                    {
+                    edges[i] = new Edge(new Integer(random.nextInt(NODES)), new Integer(random.nextInt(NODES)), null);
+                    network.addEdge(edges[i]);
+                    }
+
+                long ms = System.currentTimeMillis();
+                ComponentTracker tracker = (which == 0 ? new ComponentTracker(network) : null);
+                int components = 0;
+                for(int t = 0; t < TICKS; t++)
+                    {
+                    for(int i = 0; i < CHANGES; i++)
+                        {
+                        int e = random.nextInt(EDGES);
+                        network.removeEdge(edges[e]);
+                        edges[e] = new Edge(new Integer(random.nextInt(NODES)), new Integer(random.nextInt(NODES)), null);
+                        network.addEdge(edges[e]);
+                        }
+                    components += (tracker != null ? tracker.getNumComponents() :
+                        ConnectivityStatistics.getConnectedComponents(network).numObjs);
+                    }
+                System.out.println((which == 0 ? "ComponentTracker:       " : "getConnectedComponents: ") +
+                    (System.currentTimeMillis() - ms) + " ms for " + TICKS + " ticks (" + components + " components in all)");
+                }
+            }
+        }
+    }
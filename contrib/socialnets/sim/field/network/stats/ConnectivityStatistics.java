@@ -119,7 +119,8 @@ public class ConnectivityStatistics
     /** 
      * Computes the connected components of an undirected OR
      * the weakly connected components of an directed graph
-     * graph using DFS.
+     * graph using DFS.  If you need the components again and again as the network
+     * changes, a ComponentTracker will keep them up to date far more cheaply.
      * @return A Bag of Bags of nodes. 
      */
     public static Bag getConnectedComponents( final Network network)
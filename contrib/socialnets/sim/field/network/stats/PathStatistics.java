@@ -0,0 +1,455 @@
+/*
+  Copyright 2010 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.network.stats;
+import sim.field.network.*;
+import ec.util.*;
+import java.util.concurrent.*;
+
+/**
+   Shortest-path centralities -- betweenness, closeness, and eccentricity -- computed one source node at a time
+   over a NetworkSnapshot, optionally split among several threads.  Unlike the matrix methods in NetworkStatistics,
+   these never build an n x n matrix: each thread needs only O(n) memory of its own, and the whole computation
+   takes O(nm) time for unweighted networks (O(nm + n^2 log n) for weighted ones), where n is the number of nodes
+   and m the number of edges.  This makes them practical for networks of tens or hundreds of thousands of nodes.
+   For still larger networks there are sampled versions, which do the computation from only k randomly chosen
+   source ("pivot") nodes and scale the result accordingly.
+
+   <p>All methods return an array of values indexed by node index in the snapshot (that is, the index of the
+   node in the Network's allNodes bag).  If <i>weighted</i> is true, distances are sums of edge weights
+   (snapshot.outWeights, which must be positive for betweenness, and not negative otherwise: a RuntimeException is thrown
+   if they aren't); otherwise each edge counts as 1.  Paths are only considered
+   equally short if their lengths are exactly equal.
+
+   <p>Betweenness is computed with Brandes' algorithm.  The betweenness of node v is the sum, over all pairs of other
+   nodes s and t, of the fraction of shortest paths from s to t which go through v.  In undirected networks each
+   pair of nodes is counted once, as in actorcentrality.BetweennessCentrality.  Closeness is 1 over the sum of the
+   distances from a node to all the others, or 0 if some node can't be reached, as in
+   actorcentrality.ClosenessCentrality.  Eccentricity is the longest distance from a node to any other, or
+   Double.POSITIVE_INFINITY if some node can't be reached, as in NetworkStatistics.getNodeEccentricity(...).
+
+   <p>If <i>threads</i> is 0, one thread per available processor is used.  The threads come from a pool shared by all
+   calls, so they're not built anew each time.  The results may differ in the last few bits
+   depending on the number of threads, as sums are done in a different order.
+*/
+
+public class PathStatistics
+    {
+    /** Returns the betweenness of every node in the snapshot. */
+    public static double[] getBetweenness(final NetworkSnapshot snapshot, final boolean weighted, final int threads)
+        {
+        return betweenness(snapshot, weighted, allSources(snapshot.numNodes), threads);
+        }
+
+    /** Estimates the betweenness of every node in the snapshot from the shortest paths starting at only
+        <i>pivots</i> randomly chosen nodes, scaled up by numNodes / pivots.  If pivots &gt;= numNodes, this is
+        the same as getBetweenness(...).  */
+    public static double[] getSampledBetweenness(final NetworkSnapshot snapshot, final boolean weighted, final int pivots, final MersenneTwisterFast random, final int threads)
+        {
+        int[] sources = pickSources(snapshot.numNodes, pivots, random);
+        double[] result = betweenness(snapshot, weighted, sources, threads);
+        if (sources.length < snapshot.numNodes)
+            {
+            double scale = snapshot.numNodes / (double) sources.length;
+            for(int i = 0; i < result.length; i++)
+                result[i] *= scale;
+            }
+        return result;
+        }
+
+    /** Returns the closeness of every node in the snapshot. */
+    public static double[] getCloseness(final NetworkSnapshot snapshot, final boolean weighted, final int threads)
+        {
+        final int n = snapshot.numNodes;
+        final double[] result = new double[n];
+        run(snapshot, weighted, false, false, allSources(n), threads, new Visitor()
+            {
+            public void visit(Worker worker, int source)
+                {
+                double sum = 0;
+                for(int i = 0; i < n; i++)
+                    sum += worker.dist[i];
+                result[source] = (sum == Double.POSITIVE_INFINITY ? 0 : 1.0 / sum);
+                }
+            });
+        return result;
+        }
+
+    /** Estimates the closeness of every node in the snapshot from its distances to only <i>pivots</i> randomly
+        chosen nodes: the sum of the distances to all nodes is estimated as (numNodes - 1) / pivots times
+        the sum of the distances to the pivots.  If pivots &gt;= numNodes, this is the same as getCloseness(...). */
+    public static double[] getSampledCloseness(final NetworkSnapshot snapshot, final boolean weighted, final int pivots, final MersenneTwisterFast random, final int threads)
+        {
+        final int n = snapshot.numNodes;
+        final int[] sources = pickSources(n, pivots, random);
+        if (sources.length == n)
+            return getCloseness(snapshot, weighted, threads);
+
+        // the distance from each node TO each pivot is found by searching backwards from the pivot
+        final double[][] sums = new double[chunks(sources.length, threads)][n];
+        run(snapshot, weighted, true, false, sources, threads, new Visitor()
+            {
+            public void visit(Worker worker, int source)
+                {
+                double[] sum = sums[worker.chunk];
+                double[] dist = worker.dist;
+                for(int i = 0; i < n; i++)
+                    sum[i] += dist[i];
+                }
+            });
+        double[] result = new double[n];
+        double scale = (n - 1) / (double) sources.length;
+        for(int i = 0; i < n; i++)
+            {
+            double sum = 0;
+            for(int j = 0; j < sums.length; j++)
+                sum += sums[j][i];
+            result[i] = (sum == Double.POSITIVE_INFINITY ? 0 : 1.0 / (sum * scale));
+            }
+        return result;
+        }
+
+    /** Returns the eccentricity of every node in the snapshot. */
+    public static double[] getEccentricity(final NetworkSnapshot snapshot, final boolean weighted, final int threads)
+        {
+        final int n = snapshot.numNodes;
+        final double[] result = new double[n];
+        run(snapshot, weighted, false, false, allSources(n), threads, new Visitor()
+            {
+            public void visit(Worker worker, int source)
+                {
+                double max = 0;
+                for(int i = 0; i < n; i++)
+                    if (worker.dist[i] > max) max = worker.dist[i];
+                result[source] = max;
+                }
+            });
+        return result;
+        }
+
+
+
+    //// BRANDES
+
+    static double[] betweenness(final NetworkSnapshot snapshot, final boolean weighted, final int[] sources, final int threads)
+        {
+        final int n = snapshot.numNodes;
+        final double[][] partial = new double[chunks(sources.length, threads)][n];
+        run(snapshot, weighted, false, true, sources, threads, new Visitor()
+            {
+            public void visit(Worker worker, int source)
+                {
+                worker.accumulateDependencies(partial[worker.chunk]);
+                }
+            });
+
+        double[] result = new double[n];
+        for(int j = 0; j < partial.length; j++)
+            for(int i = 0; i < n; i++)
+                result[i] += partial[j][i];
+        if (!snapshot.getNetwork().isDirected())
+            for(int i = 0; i < n; i++)
+                result[i] /= 2;  // each pair was counted from both ends
+        return result;
+        }
+
+
+
+    //// SEARCHING
+
+    /** Called once per source node, after the worker has found the shortest paths from it. */
+    interface Visitor
+        {
+        public void visit(Worker worker, int source);
+        }
+
+    /** Holds one thread's search state, all O(n). */
+    static class Worker
+        {
+        final NetworkSnapshot snapshot;
+        final boolean weighted;
+        final int chunk;
+        final int[] offsets;        // the edges searched: outgoing, or incoming if we're searching backwards
+        final int[] targets;
+        final double[] weights;
+
+        final double[] dist;        // distance from the source, or infinity
+        final double[] sigma;       // number of shortest paths from the source
+        final double[] delta;       // dependency of the source on each node
+        final int[] order;          // nodes in order of nondecreasing distance
+        int numOrdered;
+
+        // a binary heap of (key, node) pairs for Dijkstra's algorithm, with lazy deletion
+        double[] heapKeys;
+        int[] heapNodes;
+        int heapSize;
+
+        Worker(NetworkSnapshot snapshot, boolean weighted, boolean backwards, boolean paths, int chunk)
+            {
+            this.snapshot = snapshot;
+            this.weighted = weighted;
+            this.chunk = chunk;
+            offsets = (backwards ? snapshot.inOffsets : snapshot.outOffsets);
+            targets = (backwards ? snapshot.inSources : snapshot.outTargets);
+            weights = (backwards ? snapshot.inWeights : snapshot.outWeights);
+            int n = snapshot.numNodes;
+            dist = new double[n];
+            order = new int[n];
+            sigma = (paths ? new double[n] : null);
+            delta = (paths ? new double[n] : null);
+            if (weighted)
+                {
+                heapKeys = new double[Math.max(16, n)];
+                heapNodes = new int[heapKeys.length];
+                }
+            }
+
+        /** Finds the distances (and, if we're tracking paths, the numbers of shortest paths) from the source to every node. */
+        void search(final int source)
+            {
+            final double[] dist = this.dist;
+            final double[] sigma = this.sigma;
+            final int[] order = this.order;
+            final int[] offsets = this.offsets;
+            final int[] targets = this.targets;
+            for(int i = 0; i < dist.length; i++) dist[i] = Double.POSITIVE_INFINITY;
+            if (sigma != null)
+                for(int i = 0; i < sigma.length; i++) sigma[i] = 0;
+            dist[source] = 0;
+            if (sigma != null) sigma[source] = 1;
+            numOrdered = 0;
+
+            if (!weighted)  // breadth-first search, using the order array as the queue
+                {
+                order[numOrdered++] = source;
+                for(int head = 0; head < numOrdered; head++)
+                    {
+                    int v = order[head];
+                    double d = dist[v] + 1;
+                    for(int k = offsets[v]; k < offsets[v + 1]; k++)
+                        {
+                        int w = targets[k];
+                        if (dist[w] == Double.POSITIVE_INFINITY)
+                            {
+                            dist[w] = d;
+                            order[numOrdered++] = w;
+                            }
+                        if (sigma != null && dist[w] == d)
+                            sigma[w] += sigma[v];
+                        }
+                    }
+                }
+            else  // Dijkstra's algorithm
+                {
+                final double[] weights = this.weights;
+                heapSize = 0;
+                push(0, source);
+                while(heapSize > 0)
+                    {
+                    double d = heapKeys[0];
+                    int v = pop();
+                    if (d > dist[v]) continue;          // stale entry
+                    order[numOrdered++] = v;
+                    for(int k = offsets[v]; k < offsets[v + 1]; k++)
+                        {
+                        int w = targets[k];
+                        double wd = weights[k];
+                        // with zero weights, a node could be finished before all of its equally-short
+                        // predecessors had added to its number of shortest paths
+                        if (sigma != null && !(wd > 0))
+                            throw new RuntimeException("Edge weights must be positive for betweenness: " + wd);
+                        if (!(wd >= 0))
+                            throw new RuntimeException("Edge weights may not be negative: " + wd);
+                        double nd = d + wd;
+                        if (nd < dist[w])
+                            {
+                            dist[w] = nd;
+                            if (sigma != null) sigma[w] = sigma[v];
+                            push(nd, w);
+                            }
+                        else if (sigma != null && nd == dist[w] && w != v)
+                            sigma[w] += sigma[v];
+                        }
+                    }
+                }
+            }
+
+            /** Adds the dependency of the source on each node (other than the source) to result: Brandes' back-propagation.
+            Call this after search(source). */
+        void accumulateDependencies(final double[] result)
+            {
+            final double[] dist = this.dist;
+            final double[] sigma = this.sigma;
+            final double[] delta = this.delta;
+            final int[] order = this.order;
+            // predecessors of w are found by scanning w's incoming edges
+            final int[] inOffsets = snapshot.inOffsets;
+            final int[] inSources = snapshot.inSources;
+            final double[] inWeights = snapshot.inWeights;
+            for(int i = 0; i < numOrdered; i++) delta[order[i]] = 0;
+            for(int i = numOrdered - 1; i > 0; i--)
+                {
+                int w = order[i];
+                double coefficient = (1 + delta[w]) / sigma[w];
+                for(int k = inOffsets[w]; k < inOffsets[w + 1]; k++)
+                    {
+                    int v = inSources[k];
+                    if (v != w && dist[v] + (weighted ? inWeights[k] : 1.0) == dist[w])
+                        delta[v] += sigma[v] * coefficient;
+                    }
+                result[w] += delta[w];
+                }
+            }
+
+        void push(double key, int node)
+            {
+            if (heapSize == heapKeys.length)
+                {
+                double[] newKeys = new double[heapSize * 2];
+                int[] newNodes = new int[heapSize * 2];
+                System.arraycopy(heapKeys, 0, newKeys, 0, heapSize);
+                System.arraycopy(heapNodes, 0, newNodes, 0, heapSize);
+                heapKeys = newKeys;
+                heapNodes = newNodes;
+                }
+            int i = heapSize++;
+            while(i > 0)
+                {
+                int parent = (i - 1) >> 1;
+                if (heapKeys[parent] <= key) break;
+                heapKeys[i] = heapKeys[parent];
+                heapNodes[i] = heapNodes[parent];
+                i = parent;
+                }
+            heapKeys[i] = key;
+            heapNodes[i] = node;
+            }
+
+        int pop()
+            {
+            int top = heapNodes[0];
+            heapSize--;
+            double key = heapKeys[heapSize];
+            int node = heapNodes[heapSize];
+            int i = 0;
+            while(true)
+                {
+                int child = 2 * i + 1;
+                if (child >= heapSize) break;
+                if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) child++;
+                if (key <= heapKeys[child]) break;
+                heapKeys[i] = heapKeys[child];
+                heapNodes[i] = heapNodes[child];
+                i = child;
+                }
+            heapKeys[i] = key;
+            heapNodes[i] = node;
+            return top;
+            }
+        }
+
+    static int[] allSources(int n)
+        {
+        int[] sources = new int[n];
+        for(int i = 0; i < n; i++) sources[i] = i;
+        return sources;
+        }
+
+    static int[] pickSources(int n, int pivots, MersenneTwisterFast random)
+        {
+        if (pivots <= 0)
+            throw new RuntimeException("Number of pivots must be > 0: " + pivots);
+        int[] sources = allSources(n);
+        if (pivots >= n) return sources;
+        for(int i = 0; i < pivots; i++)         // partial shuffle
+            {
+            int j = i + random.nextInt(n - i);
+            int temp = sources[i];
+            sources[i] = sources[j];
+            sources[j] = temp;
+            }
+        int[] picked = new int[pivots];
+        System.arraycopy(sources, 0, picked, 0, pivots);
+        return picked;
+        }
+
+    static int chunks(int numSources, int threads)
+        {
+        if (threads < 0)
+            throw new RuntimeException("Number of threads must be >= 0: " + threads);
+        if (threads == 0) threads = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(threads, numSources));
+        }
+
+    static ExecutorService pool = null;
+    static synchronized ExecutorService getPool()
+        {
+        if (pool == null)
+            pool = Executors.newCachedThreadPool(new ThreadFactory()
+                {
+                public Thread newThread(Runnable r)
+                    {
+                    Thread t = new Thread(r, "PathStatistics");
+                    t.setDaemon(true);
+                    return t;
+                    }
+                });
+        return pool;
+        }
+
+    /** Searches from each of the sources in turn (along incoming edges if <i>backwards</i>, and counting shortest paths
+        if <i>paths</i>), splitting them into contiguous chunks, one per thread, and calls the visitor
+        after each search.  The visitor is called from the thread doing the search. */
+    static void run(final NetworkSnapshot snapshot, final boolean weighted, final boolean backwards, final boolean paths, final int[] sources, int threads, final Visitor visitor)
+        {
+        if (snapshot.isStale())
+            throw new RuntimeException("The NetworkSnapshot is stale: call update() on it first.");
+        final int chunks = chunks(sources.length, threads);
+        Future[] futures = new Future[chunks - 1];
+        final Throwable[] exceptions = new Throwable[chunks];
+        for(int c = 0; c < chunks; c++)
+            {
+            final int chunk = c;
+            final int from = (int)(sources.length * (long) c / chunks);
+            final int to = (int)(sources.length * (long)(c + 1) / chunks);
+            Runnable r = new Runnable()
+                {
+                public void run()
+                    {
+                    try
+                        {
+                        Worker worker = new Worker(snapshot, weighted, backwards, paths, chunk);
+                        for(int i = from; i < to; i++)
+                            {
+                            worker.search(sources[i]);
+                            visitor.visit(worker, sources[i]);
+                            }
+                        }
+                    catch (Throwable e) { exceptions[chunk] = e; }
+                    }
+                };
+            if (c == chunks - 1) r.run();    // the last chunk is done in this thread
+            else futures[c] = getPool().submit(r);
+            }
+
+        boolean interrupted = false;
+        for(int c = 0; c < futures.length; c++)
+            {
+            while (true)
+                {
+                try { futures[c].get(); break; }
+                catch (InterruptedException e) { interrupted = true; }
+                catch (ExecutionException e) { break; }  // can't happen: the Runnable catches everything
+                }
+            }
+        if (interrupted) Thread.currentThread().interrupt();
+        for(int c = 0; c < exceptions.length; c++)
+            {
+            if (exceptions[c] instanceof RuntimeException) throw (RuntimeException) exceptions[c];
+            else if (exceptions[c] instanceof Error) throw (Error) exceptions[c];
+            }
+        }
+    }
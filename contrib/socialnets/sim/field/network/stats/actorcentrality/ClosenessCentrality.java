@@ -13,25 +13,28 @@ import sim.field.network.*;
  * @author Gabriel Catalin Balan
  */
 public class ClosenessCentrality extends FreemanNodeIndex {
-    final double[][] allDistances;
+    final double[] values;  // indexed by node index
     public ClosenessCentrality(final Network network)
+        {
+        this(network, 1);
+        }
+
+    /** Computes the closeness of every node by breadth-first search from each node (see PathStatistics), in the given
+        number of threads (0 means one per processor). */
+    public ClosenessCentrality(final Network network, final int threads)
         {
         super(network);
-        allDistances = NetworkStatistics.getShortestPathsMatrix(network, UnitEdgeMetric.defaultInstance);               
+        values = PathStatistics.getCloseness(new NetworkSnapshot(network), false, threads);
         }
 
+    //I want to return 1/[Sum_{j!=i} disntance(i,j)] 
     public double getValue(final Object node) {
-//              double[] distances = NetworkStatistics.getShortestPaths(network, node, UnitEdgeMetric.defaultInstance);
+        return values[network.getNodeIndex(node)];
+        }
 
-        double[] distances = allDistances[network.getNodeIndex(node)];
-                
-        double sum = 0;
-        int n= distances.length;
-        for(int i=0;i<distances.length; i++)
-            sum+=distances[i];
-        //I want to return 1/[Sum_{j!=i} disntance(i,j)] 
-        //but the hop distance(i, i) is 0, so I don't bother not adding it
-        return 1d/sum;
+    public double getValue(final int nodeIndex)
+        {
+        return values[nodeIndex];
         }
 
     //TODO double check this, I back engineered it from the standardized value on page 186
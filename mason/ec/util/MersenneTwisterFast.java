@@ -373,6 +373,58 @@ public strictfp class MersenneTwisterFast implements Serializable, Cloneable
         }
 
 
+    // SplitMix64's output function: a bijection on longs which scrambles its bits thoroughly
+    static long mix64(long z)
+        {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+        }
+
+    // Builds a seed array from a key, with eight ints from a SplitMix64 sequence starting at the key, plus
+    // the given ints verbatim so that different inputs never produce the same array
+    static int[] seedArray(long key, long a, long b)
+        {
+        int[] array = new int[12];
+        for(int i = 0; i < 4; i++)
+            {
+            long z = mix64(key += 0x9E3779B97F4A7C15L);
+            array[2 * i] = (int) z;
+            array[2 * i + 1] = (int)(z >>> 32);
+            }
+        array[8] = (int) a;
+        array[9] = (int)(a >>> 32);
+        array[10] = (int) b;
+        array[11] = (int)(b >>> 32);
+        return array;
+        }
+
+    /**
+     * Returns a new generator for the given stream of the given seed.  The same seed and stream always
+     * produce the same generator, and different streams of the same seed produce generators which are, for all
+     * practical purposes, independent of one another and of new MersenneTwisterFast(seed).  This lets you give
+     * each thread or each agent its own generator, so they needn't share (and lock) a single one, while the
+     * results stay reproducible from the seed alone.  Each generator is seeded through setSeed(int[]) with ints
+     * drawn from a SplitMix64 sequence keyed on both the seed and the stream.
+     */
+    public static MersenneTwisterFast forStream(long seed, long stream)
+        {
+        return new MersenneTwisterFast(seedArray(mix64(seed + mix64(stream)), seed, stream));
+        }
+
+    /**
+     * Returns a new generator seeded from the next two longs of this one, which is advanced accordingly.  Splitting
+     * the same generator in the same order always produces the same new generators, and they are, for all
+     * practical purposes, independent of one another and of this one.  This is convenient for handing out a
+     * generator to each agent as it is built.
+     */
+    public MersenneTwisterFast split()
+        {
+        long a = nextLong();
+        long b = nextLong();
+        return new MersenneTwisterFast(seedArray(mix64(a) ^ b, a, b));
+        }
+
     public int nextInt()
         {
         int y;
@@ -1256,6 +1308,341 @@ public strictfp class MersenneTwisterFast implements Serializable, Cloneable
         }
     
 
+    // BULK METHODS
+    //
+    // Each of these produces exactly the same numbers, and leaves the generator in exactly the same state,
+    // as the equivalent series of calls to the single-value method.  But it works directly on the block of
+    // N words, holding its position in a local variable and regenerating the block only when it runs out,
+    // rather than going through the checks and field accesses of a method call for every value.
+
+    // generate N words at one time
+    private void refill()
+        {
+        int y;
+        int kk;
+        final int[] mt = this.mt; // locals are slightly faster 
+        final int[] mag01 = this.mag01; // locals are slightly faster 
+            
+        for (kk = 0; kk < N - M; kk++)
+            {
+            y = (mt[kk] & UPPER_MASK) | (mt[kk+1] & LOWER_MASK);
+            mt[kk] = mt[kk+M] ^ (y >>> 1) ^ mag01[y & 0x1];
+            }
+        for (; kk < N-1; kk++)
+            {
+            y = (mt[kk] & UPPER_MASK) | (mt[kk+1] & LOWER_MASK);
+            mt[kk] = mt[kk+(M-N)] ^ (y >>> 1) ^ mag01[y & 0x1];
+            }
+        y = (mt[N-1] & UPPER_MASK) | (mt[0] & LOWER_MASK);
+        mt[N-1] = mt[M-1] ^ (y >>> 1) ^ mag01[y & 0x1];
+
+        mti = 0;
+        }
+
+    private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+
+    private static void checkRange(int length, int off, int len)
+        {
+        if (off < 0 || len < 0 || off > length - len)
+            throw new IndexOutOfBoundsException("Range " + off + " to " + off + "+" + len + " is outside an array of length " + length);
+        }
+
+    /** Fills out[off] through out[off+len-1] with random ints, the same as calling nextInt() len times. */
+    public void nextInts(int[] out, int off, int len)
+        {
+        checkRange(out.length, off, len);
+        final int[] mt = this.mt;
+        int i = mti;
+        int y;
+        while(len > 0)
+            {
+            if (i >= N) { refill(); i = 0; }
+            int end = off + Math.min(len, N - i);
+            len -= end - off;
+            for( ; off < end; off++)
+                {
+                y = mt[i++];
+                y ^= y >>> 11;                          // TEMPERING_SHIFT_U(y)
+                y ^= (y << 7) & TEMPERING_MASK_B;       // TEMPERING_SHIFT_S(y)
+                y ^= (y << 15) & TEMPERING_MASK_C;      // TEMPERING_SHIFT_T(y)
+                y ^= (y >>> 18);                        // TEMPERING_SHIFT_L(y)
+                out[off] = y;
+                }
+            }
+        mti = i;
+        }
+
+    /** Fills out[off] through out[off+len-1] with ints drawn uniformly from 0 to n-1, the same as calling
+        nextInt(n) len times.  n must be &gt; 0, or an IllegalArgumentException is raised. */
+    public void nextInts(int n, int[] out, int off, int len)
+        {
+        if (n<=0)
+            throw new IllegalArgumentException("n must be positive, got: " + n);
+        checkRange(out.length, off, len);
+        final int[] mt = this.mt;
+        final boolean powerOfTwo = ((n & -n) == n);
+        int i = mti;
+        int y, bits, val;
+        for(int end = off + len; off < end; off++)
+            {
+            do
+                {
+                if (i >= N) { refill(); i = 0; }
+                y = mt[i++];
+                y ^= y >>> 11;                          // TEMPERING_SHIFT_U(y)
+                y ^= (y << 7) & TEMPERING_MASK_B;       // TEMPERING_SHIFT_S(y)
+                y ^= (y << 15) & TEMPERING_MASK_C;      // TEMPERING_SHIFT_T(y)
+                y ^= (y >>> 18);                        // TEMPERING_SHIFT_L(y)
+                if (powerOfTwo) { val = (int)((n * (long) (y >>> 1) ) >> 31); break; }
+                bits = (y >>> 1);
+                val = bits % n;
+                } while(bits - val + (n-1) < 0);
+            out[off] = val;
+            }
+        mti = i;
+        }
+
+    /** Fills out with ints drawn uniformly from 0 to n-1, the same as calling nextInt(n) once for each element. */
+    public void nextInts(int n, int[] out)
+        {
+        nextInts(n, out, 0, out.length);
+        }
+
+    /** Fills out[off] through out[off+len-1] with random doubles in the half-open range from [0.0,1.0),
+        the same as calling nextDouble() len times. */
+    public void nextDoubles(double[] out, int off, int len)
+        {
+        checkRange(out.length, off, len);
+        final int[] mt = this.mt;
+        int i = mti;
+        int y, z;
+        while(len > 0)
+            {
+            if (i >= N) { refill(); i = 0; }
+            if (i == N - 1)  // the two words straddle a block
+                {
+                mti = i;
+                out[off++] = nextDouble();
+                len--;
+                i = mti;
+                continue;
+                }
+            int end = off + Math.min(len, (N - i) >> 1);
+            len -= end - off;
+            for( ; off < end; off++)
+                {
+                y = mt[i++];
+                y ^= y >>> 11;                          // TEMPERING_SHIFT_U(y)
+                y ^= (y << 7) & TEMPERING_MASK_B;       // TEMPERING_SHIFT_S(y)
+                y ^= (y << 15) & TEMPERING_MASK_C;      // TEMPERING_SHIFT_T(y)
+                y ^= (y >>> 18);                        // TEMPERING_SHIFT_L(y)
+                z = mt[i++];
+                z ^= z >>> 11;                          // TEMPERING_SHIFT_U(z)
+                z ^= (z << 7) & TEMPERING_MASK_B;       // TEMPERING_SHIFT_S(z)
+                z ^= (z << 15) & TEMPERING_MASK_C;      // TEMPERING_SHIFT_T(z)
+                z ^= (z >>> 18);                        // TEMPERING_SHIFT_L(z)
+                out[off] = ((((long)(y >>> 6)) << 27) + (z >>> 5)) * DOUBLE_UNIT;  // same as dividing by 2^53, but faster
+                }
+            }
+        mti = i;
+        }
+
+    /** Fills out with random doubles in the half-open range from [0.0,1.0), the same as calling nextDouble()
+        once for each element. */
+    public void nextDoubles(double[] out)
+        {
+        nextDoubles(out, 0, out.length);
+        }
+
+    /** Fills out[off] through out[off+len-1] with gaussian doubles, the same as calling nextGaussian() len times. */
+    public void nextGaussians(double[] out, int off, int len)
+        {
+        checkRange(out.length, off, len);
+        int end = off + len;
+        if (off < end && __haveNextNextGaussian)
+            {
+            __haveNextNextGaussian = false;
+            out[off++] = __nextNextGaussian;
+            }
+        while(off < end)
+            {
+            double v1, v2, s;
+            do
+                {
+                v1 = 2 * nextDouble() - 1;
+                v2 = 2 * nextDouble() - 1;
+                s = v1 * v1 + v2 * v2;
+                } while (s >= 1 || s==0);
+            double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s)/s);
+            out[off++] = v1 * multiplier;
+            if (off < end) out[off++] = v2 * multiplier;
+            else
+                {
+                __nextNextGaussian = v2 * multiplier;
+                __haveNextNextGaussian = true;
+                }
+            }
+        }
+
+    /** Fills out[off] through out[off+len-1] with coin flips, each true with the given probability, the same
+        as calling nextBoolean(probability) len times.  <tt>probability</tt> must be between 0.0 and 1.0, inclusive. */
+    public void nextBooleans(double probability, boolean[] out, int off, int len)
+        {
+        if (probability < 0.0 || probability > 1.0)
+            throw new IllegalArgumentException ("probability must be between 0.0 and 1.0 inclusive.");
+        checkRange(out.length, off, len);
+        if (probability==0.0 || probability==1.0)  // fix half-open issues; no random numbers are drawn
+            {
+            java.util.Arrays.fill(out, off, off + len, probability==1.0);
+            return;
+            }
+        final double threshold = probability * (1L << 53);  // exact, so comparing to it is the same as comparing nextDouble() to probability
+        final int[] mt = this.mt;
+        int i = mti;
+        int y, z;
+        while(len > 0)
+            {
+            if (i >= N) { refill(); i = 0; }
+            if (i == N - 1)  // the two words straddle a block
+                {
+                mti = i;
+                out[off++] = nextBoolean(probability);
+                len--;
+                i = mti;
+                continue;
+                }
+            int end = off + Math.min(len, (N - i) >> 1);
+            len -= end - off;
+            for( ; off < end; off++)
+                {
+                y = mt[i++];
+                y ^= y >>> 11;                          // TEMPERING_SHIFT_U(y)
+                y ^= (y << 7) & TEMPERING_MASK_B;       // TEMPERING_SHIFT_S(y)
+                y ^= (y << 15) & TEMPERING_MASK_C;      // TEMPERING_SHIFT_T(y)
+                y ^= (y >>> 18);                        // TEMPERING_SHIFT_L(y)
+                z = mt[i++];
+                z ^= z >>> 11;                          // TEMPERING_SHIFT_U(z)
+                z ^= (z << 7) & TEMPERING_MASK_B;       // TEMPERING_SHIFT_S(z)
+                z ^= (z << 15) & TEMPERING_MASK_C;      // TEMPERING_SHIFT_T(z)
+                z ^= (z >>> 18);                        // TEMPERING_SHIFT_L(z)
+                out[off] = ((((long)(y >>> 6)) << 27) + (z >>> 5)) < threshold;
+                }
+            }
+        mti = i;
+        }
+
+    /** Sets each of the first len bits of the bit set <tt>bits</tt> (bit k is <tt>(bits[k / 64] &gt;&gt;&gt; (k % 64)) &amp; 1</tt>)
+        to a coin flip which is true with the given probability, the same as calling nextBoolean(probability) len times,
+        and clears the rest of the bits in the last long touched.  <tt>probability</tt> must be between 0.0 and 1.0, inclusive. */
+    public void nextBooleans(double probability, long[] bits, int len)
+        {
+        if (probability < 0.0 || probability > 1.0)
+            throw new IllegalArgumentException ("probability must be between 0.0 and 1.0 inclusive.");
+        if (len < 0 || len > bits.length * 64L)
+            throw new IndexOutOfBoundsException("Cannot set " + len + " bits in a bit set of " + (bits.length * 64L) + " bits");
+        boolean[] flips = new boolean[Math.min(len, 4096)];
+        for(int start = 0; start < len; start += flips.length)
+            {
+            int n = Math.min(flips.length, len - start);
+            nextBooleans(probability, flips, 0, n);
+            for(int k = 0; k < n; k += 64)
+                {
+                long word = 0;
+                int top = Math.min(64, n - k);
+                for(int j = 0; j < top; j++)
+                    if (flips[k + j]) word |= (1L << j);
+                bits[(start + k) >>> 6] = word;
+                }
+            }
+        }
+
+    /** Shuffles the first length elements of the array, the same as Bag.shuffle(...) always has: for each x from
+        length-1 down to 1, the element at x is swapped with the element at nextInt(x+1). */
+    public void shuffle(Object[] array, int length)
+        {
+        checkRange(array.length, 0, length);
+        int[] swaps = new int[Math.min(Math.max(length - 1, 0), 1024)];
+        for(int x = length - 1; x >= 1; )
+            {
+            int n = nextSwaps(x, swaps);
+            for(int k = 0; k < n; k++, x--)
+                {
+                int rand = swaps[k];
+                Object obj = array[x];
+                array[x] = array[rand];
+                array[rand] = obj;
+                }
+            }
+        }
+
+    /** Shuffles the first length elements of the array, the same as IntBag.shuffle(...) always has: for each x from
+        length-1 down to 1, the element at x is swapped with the element at nextInt(x+1). */
+    public void shuffle(int[] array, int length)
+        {
+        checkRange(array.length, 0, length);
+        int[] swaps = new int[Math.min(Math.max(length - 1, 0), 1024)];
+        for(int x = length - 1; x >= 1; )
+            {
+            int n = nextSwaps(x, swaps);
+            for(int k = 0; k < n; k++, x--)
+                {
+                int rand = swaps[k];
+                int obj = array[x];
+                array[x] = array[rand];
+                array[rand] = obj;
+                }
+            }
+        }
+
+    /** Shuffles the first length elements of the array, the same as DoubleBag.shuffle(...) always has: for each x from
+        length-1 down to 1, the element at x is swapped with the element at nextInt(x+1). */
+    public void shuffle(double[] array, int length)
+        {
+        checkRange(array.length, 0, length);
+        int[] swaps = new int[Math.min(Math.max(length - 1, 0), 1024)];
+        for(int x = length - 1; x >= 1; )
+            {
+            int n = nextSwaps(x, swaps);
+            for(int k = 0; k < n; k++, x--)
+                {
+                int rand = swaps[k];
+                double obj = array[x];
+                array[x] = array[rand];
+                array[rand] = obj;
+                }
+            }
+        }
+
+    // Fills swaps with nextInt(x+1), nextInt(x), nextInt(x-1), ... down to nextInt(2) or until swaps is full,
+    // returning how many it filled
+    private int nextSwaps(int x, int[] swaps)
+        {
+        final int[] mt = this.mt;
+        int count = Math.min(x, swaps.length);
+        int i = mti;
+        int y, bits, val, n;
+        for(int k = 0; k < count; k++)
+            {
+            n = x + 1 - k;
+            do
+                {
+                if (i >= N) { refill(); i = 0; }
+                y = mt[i++];
+                y ^= y >>> 11;                          // TEMPERING_SHIFT_U(y)
+                y ^= (y << 7) & TEMPERING_MASK_B;       // TEMPERING_SHIFT_S(y)
+                y ^= (y << 15) & TEMPERING_MASK_C;      // TEMPERING_SHIFT_T(y)
+                y ^= (y >>> 18);                        // TEMPERING_SHIFT_L(y)
+                if ((n & -n) == n) { val = (int)((n * (long) (y >>> 1) ) >> 31); break; }
+                bits = (y >>> 1);
+                val = bits % n;
+                } while(bits - val + (n-1) < 0);
+            swaps[k] = val;
+            }
+        mti = i;
+        return count;
+        }
+
+
     /**
      * Tests the code.
      */
@@ -1301,6 +1688,91 @@ public strictfp class MersenneTwisterFast implements Serializable, Cloneable
         for (j = 0; j < 100000000; j++)
             xx += r.nextInt();
         System.out.println("Mersenne Twister Fast: " + (System.currentTimeMillis()-ms) + "          Ignore this: " + xx);
+
+        // BULK SPEED TEST
+        double[] doubles = new double[1000];
+        double dd;
+        System.out.println("\nTime to test filling arrays with 100000000 doubles");
+        r = new MersenneTwisterFast(SEED);
+        dd = 0;
+        ms = System.currentTimeMillis();
+        for (j = 0; j < 100000000; j += doubles.length)
+            {
+            for(int k = 0; k < doubles.length; k++) doubles[k] = r.nextDouble();
+            for(int k = 0; k < doubles.length; k++) dd += doubles[k];
+            }
+        System.out.println("nextDouble():  " + (System.currentTimeMillis()-ms) + "          Ignore this: " + dd);
+        r = new MersenneTwisterFast(SEED);
+        dd = 0;
+        ms = System.currentTimeMillis();
+        for (j = 0; j < 100000000; j += doubles.length)
+            {
+            r.nextDoubles(doubles, 0, doubles.length);
+            for(int k = 0; k < doubles.length; k++) dd += doubles[k];
+            }
+        System.out.println("nextDoubles(): " + (System.currentTimeMillis()-ms) + "          Ignore this: " + dd);
+
+        boolean[] flips = new boolean[1000];
+        System.out.println("\nTime to test filling arrays with 100000000 booleans of probability 0.1");
+        r = new MersenneTwisterFast(SEED);
+        xx = 0;
+        ms = System.currentTimeMillis();
+        for (j = 0; j < 100000000; j += flips.length)
+            {
+            for(int k = 0; k < flips.length; k++) flips[k] = r.nextBoolean(0.1);
+            for(int k = 0; k < flips.length; k++) if (flips[k]) xx++;
+            }
+        System.out.println("nextBoolean(double):  " + (System.currentTimeMillis()-ms) + "          Ignore this: " + xx);
+        r = new MersenneTwisterFast(SEED);
+        xx = 0;
+        ms = System.currentTimeMillis();
+        for (j = 0; j < 100000000; j += flips.length)
+            {
+            r.nextBooleans(0.1, flips, 0, flips.length);
+            for(int k = 0; k < flips.length; k++) if (flips[k]) xx++;
+            }
+        System.out.println("nextBooleans(double): " + (System.currentTimeMillis()-ms) + "          Ignore this: " + xx);
+
+        int[] ints = new int[1000];
+        System.out.println("\nTime to test filling arrays with 100000000 ints from 0 to 999");
+        r = new MersenneTwisterFast(SEED);
+        xx = 0;
+        ms = System.currentTimeMillis();
+        for (j = 0; j < 100000000; j += ints.length)
+            {
+            for(int k = 0; k < ints.length; k++) ints[k] = r.nextInt(1000);
+            for(int k = 0; k < ints.length; k++) xx += ints[k];
+            }
+        System.out.println("nextInt(int):  " + (System.currentTimeMillis()-ms) + "          Ignore this: " + xx);
+        r = new MersenneTwisterFast(SEED);
+        xx = 0;
+        ms = System.currentTimeMillis();
+        for (j = 0; j < 100000000; j += ints.length)
+            {
+            r.nextInts(1000, ints);
+            for(int k = 0; k < ints.length; k++) xx += ints[k];
+            }
+        System.out.println("nextInts(int): " + (System.currentTimeMillis()-ms) + "          Ignore this: " + xx);
+
+        System.out.println("\nTime to test 100 shuffles of 1000000 Objects");
+        Object[] objs = new Object[1000000];
+        for (j = 0; j < objs.length; j++) objs[j] = new Integer(j);
+        r = new MersenneTwisterFast(SEED);
+        ms = System.currentTimeMillis();
+        for (int k = 0; k < 100; k++)
+            for(int x = objs.length - 1; x >= 1; x--)
+                {
+                int rand = r.nextInt(x + 1);
+                Object obj = objs[x];
+                objs[x] = objs[rand];
+                objs[rand] = obj;
+                }
+        System.out.println("nextInt(int) per swap: " + (System.currentTimeMillis()-ms) + "          Ignore this: " + objs[0]);
+        r = new MersenneTwisterFast(SEED);
+        ms = System.currentTimeMillis();
+        for (int k = 0; k < 100; k++)
+            r.shuffle(objs, objs.length);
+        System.out.println("shuffle(Object[], int): " + (System.currentTimeMillis()-ms) + "          Ignore this: " + objs[0]);
         
         // TEST TO COMPARE TYPE CONVERSION BETWEEN
         // MersenneTwisterFast.java AND MersenneTwister.java
@@ -1431,6 +1903,21 @@ public strictfp class MersenneTwisterFast implements Serializable, Cloneable
             if (j%3==2) System.out.println();
             }
         if (!(j%3==2)) System.out.println();
+
+        System.out.println("\nGrab 1000 doubles, ints from 0 to 999, booleans of probability 0.3, and gaussians in bulk -- must be same as one at a time");
+        MersenneTwisterFast r2 = new MersenneTwisterFast(SEED);
+        r = new MersenneTwisterFast(SEED);
+        boolean same = true;
+        r2.nextDoubles(doubles, 0, 1000);
+        for (j = 0; j < 1000; j++) same = same && (doubles[j] == r.nextDouble());
+        r2.nextInts(1000, ints);
+        for (j = 0; j < 1000; j++) same = same && (ints[j] == r.nextInt(1000));
+        r2.nextBooleans(0.3, flips, 0, 1000);
+        for (j = 0; j < 1000; j++) same = same && (flips[j] == r.nextBoolean(0.3));
+        r2.nextGaussians(doubles, 0, 999);
+        for (j = 0; j < 999; j++) same = same && (doubles[j] == r.nextGaussian());
+        same = same && (r2.nextGaussian() == r.nextGaussian()) && r.stateEquals(r2);
+        System.out.println(same ? "Same" : "BAD");
         
         }
     }
@@ -0,0 +1,75 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.app.heatbugs;
+import sim.engine.*;
+import sim.field.grid.*;
+
+/** A version of Diffuser which uses sim.field.grid.Stencil2D to do the work, optionally split among several threads.
+    It produces exactly the same results as Diffuser.  Run its main() to compare the speed of Diffuser,
+    ThreadedDiffuser, and StencilDiffuser on a large grid. */
+
+public class StencilDiffuser implements Steppable
+    {
+    private static final long serialVersionUID = 1;
+
+    public Stencil2D stencil = new Stencil2D(Stencil2D.MOORE, 1);
+
+    public StencilDiffuser(int numThreads)
+        {
+        stencil.setThreads(numThreads);
+        }
+
+    public void step(SimState state)
+        {
+        HeatBugs heatbugs = (HeatBugs)state;
+        stencil.setEvaporationRate(heatbugs.evaporationRate);
+        stencil.setDiffusionRate(heatbugs.diffusionRate);
+        stencil.apply(heatbugs.valgrid, heatbugs.valgrid2);
+
+        // swap the grids, just like Diffuser
+        double[][] temp = heatbugs.valgrid.field;
+        heatbugs.valgrid.field = heatbugs.valgrid2.field;
+        heatbugs.valgrid2.field = temp;
+        }
+
+    /** Times Diffuser, ThreadedDiffuser, and StencilDiffuser on a heatbugs grid.  Arguments are the grid size
+        (default 1000), the number of steps (default 200), and the number of threads (default: the number of processors). */
+    public static void main(String[] args)
+        {
+        int size = (args.length > 0 ? Integer.parseInt(args[0]) : 1000);
+        int steps = (args.length > 1 ? Integer.parseInt(args[1]) : 200);
+        int threads = (args.length > 2 ? Integer.parseInt(args[2]) : HeatBugs.availableProcessors());
+
+        HeatBugs heatbugs = new HeatBugs(0, size, size, 0);
+        ThreadedDiffuser threaded = new ThreadedDiffuser(threads);
+        Steppable[] diffusers = new Steppable[] { new Diffuser(), threaded, new StencilDiffuser(1), new StencilDiffuser(threads) };
+        String[] names = new String[] { "Diffuser", "ThreadedDiffuser(" + threads + ")", "StencilDiffuser(1)", "StencilDiffuser(" + threads + ")" };
+        double[][] results = new double[diffusers.length][];
+
+        for(int rep = 0; rep < 3; rep++)            // the first round or two warm up HotSpot
+            for(int i = 0; i < diffusers.length; i++)
+                {
+                // start each diffuser from the same random heat
+                ec.util.MersenneTwisterFast random = new ec.util.MersenneTwisterFast(rep);
+                for(int x = 0; x < size; x++)
+                    for(int y = 0; y < size; y++)
+                        heatbugs.valgrid.field[x][y] = random.nextDouble() * HeatBugs.MAX_HEAT;
+
+                long time = System.currentTimeMillis();
+                for(int s = 0; s < steps; s++)
+                    diffusers[i].step(heatbugs);
+                time = System.currentTimeMillis() - time;
+                results[i] = heatbugs.valgrid.toArray();
+                System.out.println(names[i] + ":\t" + time + " ms");
+                }
+
+        for(int i = 1; i < diffusers.length; i++)
+            System.out.println(names[i] + (java.util.Arrays.equals(results[0], results[i]) ? " matches" : " DOES NOT MATCH") + " Diffuser");
+        threaded.cleanup();
+        System.exit(0);
+        }
+    }
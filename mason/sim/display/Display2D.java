@@ -517,6 +517,31 @@ public class Display2D extends JComponent implements Steppable, Manipulating2D
             @deprecated use paintComponent() or paint(...) */
         public void paintComponent(Graphics g, boolean buffer)
             {
+            if (drawingSnapshots && movieMaker == null)
+                {
+                SnapshotFrame frame = null;
+                boolean playing = isPlaying();
+                synchronized(frameLock)
+                    {
+                    if (!playing) { pendingFrame = null; currentFrame = null; }  // draw the model as it stands
+                    else if (pendingFrame != null) { currentFrame = pendingFrame; pendingFrame = null; }
+                    frame = currentFrame;
+                    paintingFrame = (frame != null);
+                    }
+                if (frame != null)
+                    {
+                    try
+                        {
+                        paintSnapshot(g, buffer, frame);
+                        }
+                    finally
+                        {
+                        synchronized(frameLock) { paintingFrame = false; }
+                        }
+                    return;
+                    }
+                }
+            
             synchronized(Display2D.this.simulation.state.schedule)  // for getTime()
                 {
                 if (movieMaker!=null)  // we're writing a movie
@@ -526,6 +551,28 @@ public class Display2D extends JComponent implements Steppable, Manipulating2D
             }
             
             
+        // the frame being drawn by paintSnapshot, if any
+        SnapshotFrame drawingFrame = null;
+        
+        /** Paints the fields as they were recorded in the given frame, without locking the schedule
+            except to draw those fields which couldn't be recorded. */
+        void paintSnapshot(Graphics g, boolean buffer, SnapshotFrame frame)
+            {
+            drawingFrame = frame;
+            try
+                {
+                Rectangle2D clip = computeClip();
+                if (!buffer)
+                    paintUnbuffered((Graphics2D)g,clip);
+                else
+                    paintBuffered((Graphics2D)g,clip);
+                }
+            finally
+                {
+                drawingFrame = null;
+                }
+            }
+            
         /** Computes the expected clip for drawing. */
         Rectangle2D computeClip()
             {
@@ -668,7 +715,17 @@ public class Display2D extends JComponent implements Steppable, Manipulating2D
                         g.setClip(g.getClip());
                         
                         // do the drawing
-                        p.portrayal.draw(p.portrayal.getField(), // I could have passed null in here too
+                        Object snapshot = (drawingFrame == null ? null : drawingFrame.get(p));
+                        if (snapshot != null)
+                            p.portrayal.drawSnapshot(snapshot, g, getDrawInfo2D(p, clip));
+                        else if (drawingFrame != null)  // no snapshot of this one, so we must stop the model to draw it
+                            {
+                            synchronized(Display2D.this.simulation.state.schedule)
+                                {
+                                p.portrayal.draw(p.portrayal.getField(), g, getDrawInfo2D(p, clip));
+                                }
+                            }
+                        else p.portrayal.draw(p.portrayal.getField(), // I could have passed null in here too
                             g, getDrawInfo2D(p, clip));
                         
                         // reset the buffering if necessary
@@ -1153,6 +1210,7 @@ public class Display2D extends JComponent implements Steppable, Manipulating2D
         catch (IllegalArgumentException e) { } // if the simulation is over, we can't schedule.  Don't worry about it.
 
         clearSelections();
+        synchronized(frameLock) { pendingFrame = null; currentFrame = null; }
         }
     
     /** Attaches a portrayal to the Display2D, along with the provided human-readable name for the portrayal.
@@ -2106,6 +2164,96 @@ public class Display2D extends JComponent implements Steppable, Manipulating2D
         }
 
 
+    // The fields of each portrayal as they stood at the end of some step
+    static class SnapshotFrame
+        {
+        FieldPortrayal2DHolder[] holders;
+        Object[] snapshots;
+        
+        Object get(FieldPortrayal2DHolder holder)
+            {
+            for(int i = 0; i < holders.length; i++)
+                if (holders[i] == holder) return snapshots[i];
+            return null;
+            }
+        }
+    
+    boolean drawingSnapshots = false;
+    Object frameLock = new Object();
+    SnapshotFrame pendingFrame = null;     // recorded by the model thread but not yet drawn
+    SnapshotFrame currentFrame = null;     // being drawn, or drawn last, in the Swing event thread
+    boolean paintingFrame = false;
+    long numFrames = 0;
+    long numSkippedFrames = 0;
+    
+    /** Sets whether the Display2D draws snapshots of its fields rather than the fields themselves while the
+        simulation is playing.  Ordinarily, when the Display2D is redrawn, it locks the schedule so the model
+        can't change while it's being drawn, and so the model must wait for it to finish.  When drawing snapshots,
+        the Display2D instead asks each portrayal for a copy of its field (see FieldPortrayal2D.snapshotField())
+        at the end of each step when it would ordinarily update, and then draws the copies in the Swing event
+        thread while the model carries on.  Copying grids and the locations of objects is usually much faster than
+        drawing them, so heavy displays slow the model down far less.  
+        
+        <p>If the previous snapshot is still waiting to be drawn or is being drawn, no new snapshot is taken:
+        the Display2D simply skips frames, and so draws as often as it can keep up with rather than holding the
+        model back to its own pace.  Portrayals which can't make a snapshot of their fields are drawn with the
+        schedule locked as usual.  The objects in the fields are not copied, so they're drawn as they are when
+        drawn, not as they were when the snapshot was taken.  While the simulation is paused or stopped, and while
+        a movie is being made, the fields are drawn directly as usual.  By default FALSE. */
+    public void setDrawingSnapshots(boolean val)
+        {
+        drawingSnapshots = val;
+        synchronized(frameLock) { pendingFrame = null; currentFrame = null; }
+        }
+
+    /** Returns whether the Display2D draws snapshots of its fields rather than the fields themselves while the
+        simulation is playing.  See setDrawingSnapshots(...). */
+    public boolean getDrawingSnapshots() { return drawingSnapshots; }
+    
+    /** Returns the number of snapshot frames taken to be drawn. */
+    public long getNumSnapshotFrames() { synchronized(frameLock) { return numFrames; } }
+
+    /** Returns the number of snapshot frames skipped because the previous frame had not yet been drawn. */
+    public long getNumSkippedSnapshotFrames() { synchronized(frameLock) { return numSkippedFrames; } }
+    
+    boolean isPlaying()
+        {
+        Controller c = simulation.controller;
+        if (c instanceof Console)
+            return ((Console)c).getPlayState() == Console.PS_PLAYING;
+        else if (c instanceof SimpleController)
+            return ((SimpleController)c).getPlayState() == SimpleController.PS_PLAYING;
+        else return true;
+        }
+    
+    /** Records a snapshot of each visible field to be drawn, unless the previous snapshot has yet to be drawn.
+        Called from step(), with the schedule locked.  Returns true if a snapshot was taken. */
+    boolean takeSnapshotFrame()
+        {
+        // We hold frameLock throughout, so the Swing event thread can't begin painting a frame while we're
+        // taking snapshots: FieldPortrayal2D.drawSnapshot(...) stands the snapshot in for the portrayal's
+        // field while it draws, and snapshotField() would copy the old snapshot rather than the field.
+        synchronized(frameLock)
+            {
+            if (pendingFrame != null || paintingFrame)
+                {
+                numSkippedFrames++;
+                return false;
+                }
+        
+            SnapshotFrame frame = new SnapshotFrame();
+            frame.holders = (FieldPortrayal2DHolder[])(portrayals.toArray(new FieldPortrayal2DHolder[portrayals.size()]));
+            frame.snapshots = new Object[frame.holders.length];
+            for(int i = 0; i < frame.holders.length; i++)
+                if (frame.holders[i].visible)
+                    frame.snapshots[i] = frame.holders[i].portrayal.snapshotField();
+        
+            pendingFrame = frame;
+            numFrames++;
+            return true;
+            }
+        }
+
     double originalXOffset;
     double originalYOffset;
     Point originalMousePoint = null;
@@ -2517,7 +2665,8 @@ public class Display2D extends JComponent implements Steppable, Manipulating2D
             if (insideDisplay.isShowing()
                 && (getFrame().getExtendedState() & java.awt.Frame.ICONIFIED) == 0)   // not minimized on the Mac
                 {
-                insideDisplay.repaint();
+                if (!drawingSnapshots || movieMaker != null || !isPlaying() || takeSnapshotFrame())
+                    insideDisplay.repaint();
                 }
             else if (movieMaker != null)  // we're not being displayed but we still need to output to a movie
                 {
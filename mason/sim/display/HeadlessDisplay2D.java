@@ -0,0 +1,169 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.display;
+import sim.engine.*;
+import sim.portrayal.*;
+import sim.util.media.*;
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.util.*;
+
+/**
+   Draws field portrayals offscreen, as a Display2D would, and hands the pictures to a FrameRecorder to be
+   written out as a numbered sequence of PNG files.  HeadlessDisplay2D needs no window, no Console, and no screen:
+   it is a Steppable which you schedule on the model's own schedule, so you can record runs on machines with no
+   display (run Java with -Djava.awt.headless=true), in batch runs started with doLoop(...).  For example, in
+   your SimState's start() method:
+
+   <pre><tt>
+   HeadlessDisplay2D display = new HeadlessDisplay2D(100, 100, new FrameRecorder(new File("frames"), "frame"));
+   display.attach(myPortrayal);    // a FieldPortrayal2D whose field you've set
+   schedule.scheduleRepeating(Schedule.EPOCH, Integer.MAX_VALUE, display);
+   </tt></pre>
+
+   <p>...and call display.getRecorder().close() in finish() to wait for the last frames to be written.
+
+   <p>Drawing takes time on the model thread, but encoding and writing the frames happen on the FrameRecorder's
+   own threads.  When the recorder falls behind and its queue is full, the display doesn't draw the frame at all,
+   and the recorder counts it as skipped.  Set the interval to draw only every so many steps.
+
+   <p>Portrayals and FrameRecorders aren't serializable, so they aren't saved when the model is checkpointed:
+   a HeadlessDisplay2D restored from a checkpoint does nothing.
+*/
+
+public class HeadlessDisplay2D implements Steppable
+    {
+    private static final long serialVersionUID = 1;
+
+    double width;
+    double height;
+    double scale = 1.0;
+    Paint backdrop = Color.white;
+    long interval = 1;
+    transient FrameRecorder recorder;
+    transient ArrayList portrayals = new ArrayList();
+    transient GUIState gui;
+
+    static class Holder
+        {
+        FieldPortrayal2D portrayal;
+        Rectangle2D.Double bounds;
+        Holder(FieldPortrayal2D portrayal, Rectangle2D.Double bounds) { this.portrayal = portrayal; this.bounds = bounds; }
+        }
+
+    // Portrayals aren't serializable, so a restored display starts with none
+    private void readObject(java.io.ObjectInputStream p)
+        throws java.io.IOException, ClassNotFoundException
+        {
+        p.defaultReadObject();
+        portrayals = new ArrayList();
+        }
+
+    /** Creates a HeadlessDisplay2D with the given width and height for its portrayal region, as in Display2D,
+        which hands its frames to the given recorder. */
+    public HeadlessDisplay2D(double width, double height, FrameRecorder recorder)
+        {
+        this.width = width;
+        this.height = height;
+        this.recorder = recorder;
+        }
+
+    public FrameRecorder getRecorder() { return recorder; }
+
+    /** Attaches a portrayal, drawn over the whole portrayal region.  Portrayals are drawn in the order attached. */
+    public void attach(FieldPortrayal2D portrayal)
+        {
+        attach(portrayal, new Rectangle2D.Double(0, 0, width, height));
+        }
+
+    /** Attaches a portrayal, drawn in the given bounds within the portrayal region. */
+    public void attach(FieldPortrayal2D portrayal, Rectangle2D.Double bounds)
+        {
+        portrayals.add(new Holder(portrayal, bounds));
+        }
+
+    /** Detaches all portrayals. */
+    public void detachAll()
+        {
+        portrayals.clear();
+        }
+
+    /** Sets the scale of the frames: a frame is width * scale by height * scale pixels.  The default is 1.0. */
+    public void setScale(double val)
+        {
+        if (!(val > 0)) throw new IllegalArgumentException("Scale must be > 0: " + val);
+        scale = val;
+        }
+    public double getScale() { return scale; }
+
+    /** Sets the paint drawn behind the portrayals, or null for none.  The default is white. */
+    public void setBackdrop(Paint val) { backdrop = val; }
+    public Paint getBackdrop() { return backdrop; }
+
+    /** Sets the number of steps between frames.  The default is 1. */
+    public void setInterval(long val)
+        {
+        if (val < 1) throw new IllegalArgumentException("Interval must be >= 1: " + val);
+        interval = val;
+        }
+    public long getInterval() { return interval; }
+
+    /** Returns the width of a frame in pixels. */
+    public int getImageWidth() { return Math.max(1, (int)Math.ceil(width * scale)); }
+    /** Returns the height of a frame in pixels. */
+    public int getImageHeight() { return Math.max(1, (int)Math.ceil(height * scale)); }
+
+    /** Draws the portrayals into the given image, which should be getImageWidth() by getImageHeight() pixels.
+        The portrayals see a GUIState with the given SimState but no controller. */
+    public void paint(SimState state, BufferedImage image)
+        {
+        if (gui == null || gui.state != state)
+            gui = new GUIState(state) { };
+
+        Graphics2D g = image.createGraphics();
+        try
+            {
+            Rectangle2D.Double clip = new Rectangle2D.Double(0, 0, image.getWidth(), image.getHeight());
+            if (backdrop != null)
+                {
+                g.setPaint(backdrop);
+                g.fillRect(0, 0, image.getWidth(), image.getHeight());
+                }
+            Iterator iter = portrayals.iterator();
+            while(iter.hasNext())
+                {
+                Holder h = (Holder)(iter.next());
+                // like Display2D, we floor to an integer because we're dealing with exact pixels
+                Rectangle2D.Double region = new Rectangle2D.Double(
+                    (int)(h.bounds.x * scale), (int)(h.bounds.y * scale),
+                    h.bounds.width * scale, h.bounds.height * scale);
+                h.portrayal.draw(h.portrayal.getField(), g, new DrawInfo2D(gui, h.portrayal, region, clip));
+                }
+            }
+        finally
+            {
+            g.dispose();
+            }
+        }
+
+    /** Draws a frame and hands it to the recorder, if it's time for a frame and the recorder is ready for one.
+        Otherwise, if it's time for a frame, the recorder counts it as skipped. */
+    public void step(SimState state)
+        {
+        if (recorder == null) return;  // restored from a checkpoint
+        if (state.schedule.getSteps() % interval != 0) return;
+        if (!recorder.isReady())
+            {
+            recorder.skip();  // don't bother drawing a frame we'd throw away
+            return;
+            }
+        BufferedImage image = recorder.getImage(getImageWidth(), getImageHeight());
+        paint(state, image);
+        recorder.add(image);
+        }
+    }
@@ -0,0 +1,307 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+import java.io.*;
+
+/**
+   Writes checkpoints in the background, so the simulation needn't stand still while they're compressed and
+   written to disk.  When you call checkpoint(...), the BackgroundCheckpointer serializes the SimState into a
+   buffer in memory (calling preCheckpoint() and postCheckpoint() as usual), and then hands the buffer to a
+   separate thread, which encodes it with a CheckpointCodec and writes it out while the simulation carries on.
+   Serializing into memory is much faster than serializing through a compressor onto disk, so the simulation is
+   paused only for a fraction of the time that SimState.writeToCheckpoint(...) would take.  The file is the same
+   as one written by writeToCheckpoint(...), and is read back with SimState.readFromCheckpoint(...).
+
+   <p>Only one checkpoint is written at a time.  If you ask for a checkpoint while the previous one is still being
+   written, the BackgroundCheckpointer either waits for it to finish first (the default) or skips the new
+   checkpoint entirely, depending on how you constructed it.  The file is written under a temporary name and
+   renamed when complete, so a crash never leaves a partial checkpoint behind under the real name.
+
+   <p>The price is memory: two buffers, each as large as the uncompressed checkpoint, one being written out
+   while the other receives the next checkpoint.  A buffer isn't limited to the 2GB of a Java array: past that
+   it spills into further arrays.
+
+   <p>A BackgroundCheckpointer can also write <i>incremental</i> checkpoints (see setFullCheckpointInterval(...)).
+   An incremental checkpoint holds only those 512-byte blocks of the serialized model which have changed since the
+   previous checkpoint, plus the previous checkpoint's file name, so for a model which changes little from
+   checkpoint to checkpoint (say, a large and mostly static landscape) it is far smaller than a full one.
+   Every so often a full checkpoint is written, so that chains of increments don't grow too long.
+   SimState.readFromCheckpoint(File) follows the chain back to the last full checkpoint and rebuilds the model
+   from it, so you can restart from any checkpoint in the chain as long as the files before it, back to the last
+   full one, are still in the same directory.  Because the changes are found by comparing serialized bytes,
+   nothing needs to tell the BackgroundCheckpointer what has changed.  But changes which shift the serialized
+   model along (adding an object to a Bag, say) will change every block after them.  A model which serializes to
+   more than about 2GB is always checkpointed in full, since incremental checkpoints are built on single arrays.
+
+   <p>The BackgroundCheckpointer keeps timings: the time the simulation was paused for each checkpoint, how much of
+   that was spent copying the state into memory rather than waiting for the previous checkpoint, and the time the
+   background thread took to write it.  Call finish() before quitting, to wait for the last checkpoint to be
+   written.  Errors in the background thread are printed and kept: see getException().
+*/
+
+public class BackgroundCheckpointer
+    {
+    CheckpointCodec codec;
+    boolean skipIfBusy;
+
+    Buffer buffer = new Buffer();       // the next checkpoint is serialized into this
+    Buffer spare = new Buffer();        // the one being written, if any
+    Thread writer = null;
+    IOException exception = null;
+
+    int fullInterval = 1;
+    int sinceFull = 0;
+    File previousFile = null;          // the most recently written checkpoint
+    boolean failed = false;            // did writing it fail?
+
+    long lastPause;
+    long totalPause;
+    long totalSnapshot;
+    long lastWrite;
+    long totalWrite;
+    int numCheckpoints;
+    int numSkipped;
+    int numIncremental;
+
+    /** Builds a BackgroundCheckpointer which waits for each checkpoint to be written before starting the next,
+        and which uses the SimState's own CheckpointCodec. */
+    public BackgroundCheckpointer()
+        {
+        this(null, false);
+        }
+
+    /** Builds a BackgroundCheckpointer which encodes with the given codec (or, if null, each SimState's own
+        CheckpointCodec), and which, if skipIfBusy is true, drops checkpoints requested while the previous one is
+        still being written rather than waiting for it. */
+    public BackgroundCheckpointer(CheckpointCodec codec, boolean skipIfBusy)
+        {
+        this.codec = codec;
+        this.skipIfBusy = skipIfBusy;
+        }
+
+    /** Checkpoints the state to the file in the background, returning after the state has been copied into
+        memory.  Returns false if the checkpoint was skipped because the previous one was still being written. */
+    public boolean checkpoint(SimState state, File file) throws IOException
+        {
+        if (skipIfBusy && isBusy())
+            {
+            numSkipped++;
+            return false;
+            }
+        long start = System.currentTimeMillis();
+
+        // serialize the state into memory, as writeToCheckpoint(...) would with no compression
+        Buffer b = buffer;
+        b.reset();
+        state.preCheckpoint();
+        ObjectOutputStream s = new ObjectOutputStream(b);
+        s.writeObject(state);
+        s.close();
+        state.postCheckpoint();
+        totalSnapshot += System.currentTimeMillis() - start;
+
+        // wait for the previous checkpoint, then hand this one over
+        waitForWriter();
+        int[] blocks = null;
+        File previous = previousFile;
+        if (fullInterval > 1 && sinceFull < fullInterval - 1 && previous != null && !failed &&
+            sameDirectory(previous, file) && !previous.getName().equals(file.getName()) &&
+            b.isContiguous() && spare.isContiguous())
+            {
+            blocks = DeltaCheckpoint.changedBlocks(b.bytes(), b.count, spare.bytes(), spare.count);
+            sinceFull++;
+            numIncremental++;
+            }
+        else sinceFull = 0;
+        buffer = spare;
+        spare = b;
+        previousFile = file;
+        failed = false;
+        startWriter(b, blocks, (blocks == null ? null : previous.getName()), (codec == null ? state.getCheckpointCodec() : codec), file);
+
+        lastPause = System.currentTimeMillis() - start;
+        totalPause += lastPause;
+        numCheckpoints++;
+        return true;
+        }
+
+    static boolean sameDirectory(File a, File b)
+        {
+        File pa = a.getAbsoluteFile().getParentFile();
+        File pb = b.getAbsoluteFile().getParentFile();
+        return (pa == null ? pb == null : pa.equals(pb));
+        }
+
+    void startWriter(final Buffer b, final int[] blocks, final String previousName, final CheckpointCodec codec, final File file)
+        {
+        writer = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                long start = System.currentTimeMillis();
+                File temp = new File(file.getPath() + ".tmp");
+                FileOutputStream f = null;
+                OutputStream encoder = null;
+                try
+                    {
+                    f = new FileOutputStream(temp);
+                    encoder = codec.encode(f);
+                    if (blocks == null) b.writeTo(encoder);
+                    else DeltaCheckpoint.write(encoder, previousName, b.bytes(), b.count, blocks);
+                    OutputStream e = encoder;
+                    encoder = null;
+                    e.close();
+                    f.close();
+                    f = null;
+                    if (file.exists() && !file.delete())
+                        throw new IOException("Could not replace the checkpoint file " + file);
+                    if (!temp.renameTo(file))
+                        throw new IOException("Could not rename " + temp + " to " + file);
+                    }
+                catch (IOException e)
+                    {
+                    e.printStackTrace();
+                    synchronized(BackgroundCheckpointer.this) { exception = e; failed = true; }
+                    }
+                finally
+                    {
+                    // if we failed partway, release the encoder (a ChunkedDeflateCodec holds threads)
+                    try { if (encoder != null) encoder.close(); } catch (IOException e) { }
+                    try { if (f != null) f.close(); } catch (IOException e) { }
+                    }
+                synchronized(BackgroundCheckpointer.this) { lastWrite = System.currentTimeMillis() - start; totalWrite += lastWrite; }
+                }
+            }, "BackgroundCheckpointer");
+        writer.setDaemon(true);
+        writer.start();
+        }
+
+    void waitForWriter()
+        {
+        if (writer == null) return;
+        boolean interrupted = false;
+        while(true)
+            {
+            try { writer.join(); break; }
+            catch (InterruptedException e) { interrupted = true; }
+            }
+        writer = null;
+        if (interrupted) Thread.currentThread().interrupt();
+        }
+
+    /** Sets how often a full checkpoint is written: every <i>interval</i>th checkpoint is full, and the ones
+        between are incremental.  1, the default, means every checkpoint is full. */
+    public void setFullCheckpointInterval(int interval)
+        {
+        if (interval < 1)
+            throw new IllegalArgumentException("Full checkpoint interval must be >= 1: " + interval);
+        fullInterval = interval;
+        }
+
+    public int getFullCheckpointInterval() { return fullInterval; }
+
+    /** Returns true if a checkpoint is still being written. */
+    public boolean isBusy()
+        {
+        return writer != null && writer.isAlive();
+        }
+
+    /** Waits for the last checkpoint to be written. */
+    public void finish()
+        {
+        waitForWriter();
+        }
+
+    /** Returns the most recent error raised while writing a checkpoint, or null if there has been none. */
+    public synchronized IOException getException() { return exception; }
+
+    /** Milliseconds the simulation was paused for the most recent checkpoint. */
+    public long getLastPauseTime() { return lastPause; }
+    /** Milliseconds the simulation has been paused for all checkpoints so far. */
+    public long getTotalPauseTime() { return totalPause; }
+    /** Milliseconds spent copying the state into memory for all checkpoints so far: this is the total pause time
+        less any time spent waiting for previous checkpoints to be written. */
+    public long getTotalSnapshotTime() { return totalSnapshot; }
+    /** Milliseconds taken to write the most recently completed checkpoint in the background. */
+    public synchronized long getLastWriteTime() { return lastWrite; }
+    /** Milliseconds taken to write all completed checkpoints in the background. */
+    public synchronized long getTotalWriteTime() { return totalWrite; }
+    /** The number of checkpoints made (not counting those skipped). */
+    public int getNumCheckpoints() { return numCheckpoints; }
+    /** The number of checkpoints made which were incremental. */
+    public int getNumIncremental() { return numIncremental; }
+    /** The number of checkpoints skipped because the previous one was still being written. */
+    public int getNumSkipped() { return numSkipped; }
+
+    // Holds a serialized checkpoint.  Up to MAX_ARRAY bytes go in a single array, which we can get at without copying,
+    // as DeltaCheckpoint needs; since a Java array can't hold more, any bytes past that go in further arrays.
+    // The arrays are kept from checkpoint to checkpoint.
+    static class Buffer extends OutputStream
+        {
+        static final int MAX_ARRAY = Integer.MAX_VALUE - 8;   // the largest array most VMs will allocate
+        static final int OVERFLOW_CHUNK = 1 << 26;
+
+        byte[] buf = new byte[1 << 16];
+        int count = 0;                              // bytes in buf
+        java.util.ArrayList overflow = new java.util.ArrayList();  // further arrays, each OVERFLOW_CHUNK long
+        long overflowCount = 0;                     // bytes in them
+
+        byte[] bytes() { return buf; }
+        long size() { return count + overflowCount; }
+        boolean isContiguous() { return overflowCount == 0; }
+        void reset() { count = 0; overflowCount = 0; }
+
+        public void write(int b)
+            {
+            if (count < buf.length && overflowCount == 0) buf[count++] = (byte) b;
+            else write(new byte[] { (byte) b }, 0, 1);
+            }
+
+        public void write(byte[] b, int off, int len)
+            {
+            while(len > 0)
+                {
+                int n;
+                if (overflowCount == 0 && count < MAX_ARRAY)
+                    {
+                    if (count == buf.length)
+                        {
+                        byte[] newBuf = new byte[(int)Math.min(MAX_ARRAY, Math.max(2L * buf.length, (long) count + len))];
+                        System.arraycopy(buf, 0, newBuf, 0, count);
+                        buf = newBuf;
+                        }
+                    n = Math.min(len, buf.length - count);
+                    System.arraycopy(b, off, buf, count, n);
+                    count += n;
+                    }
+                else
+                    {
+                    int chunk = (int)(overflowCount / OVERFLOW_CHUNK);
+                    int offset = (int)(overflowCount % OVERFLOW_CHUNK);
+                    if (chunk == overflow.size()) overflow.add(new byte[OVERFLOW_CHUNK]);
+                    n = Math.min(len, OVERFLOW_CHUNK - offset);
+                    System.arraycopy(b, off, (byte[])(overflow.get(chunk)), offset, n);
+                    overflowCount += n;
+                    }
+                off += n;
+                len -= n;
+                }
+            }
+
+        void writeTo(OutputStream out) throws IOException
+            {
+            out.write(buf, 0, count);
+            long remaining = overflowCount;
+            for(int i = 0; remaining > 0; i++)
+                {
+                int n = (int)Math.min(remaining, OVERFLOW_CHUNK);
+                out.write((byte[])(overflow.get(i)), 0, n);
+                remaining -= n;
+                }
+            }
+        }
+    }
@@ -0,0 +1,224 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+import java.io.*;
+import java.util.*;
+
+/**
+   A CSV file of results from a batch of jobs, one line per job, written as each job finishes.  The first column
+   is always the job number.  The column names are written as a header line when the first result is written to
+   a new file.
+
+   <p>If the file already exists when the BatchResults is constructed, the results in it are kept and new ones
+   are appended, and isCompleted(...) reports which jobs it already holds.  Thus if a long batch run is
+   interrupted, you can start it again with the same results file and skip the jobs already done.  A last line
+   which was only partly written when the run was interrupted is removed from the file, and its job is run again.
+   Values may hold commas, quotes, and line breaks: they're quoted as usual for CSV, and read back properly.  If the file's
+   second column is <tt>seed</tt>, as in the files written by SimState.doLoop(...) and ParameterSweep, getBaseSeed()
+   reports the seed the jobs were run from, so that the batch can be resumed with the same one.
+
+   <p>All methods are synchronized, so any number of threads may write results at once.  Each line is flushed
+   as soon as it is written.
+*/
+
+public class BatchResults
+    {
+    File file;
+    Writer out;
+    HashSet completed = new HashSet();
+    boolean needsHeader;
+    long baseSeed = 0;
+
+    /** Opens the results file, creating it if necessary, and reads which jobs it already holds. */
+    public BatchResults(File file) throws IOException
+        {
+        this.file = file;
+        needsHeader = true;
+        if (file.exists() && file.length() > 0)
+            {
+            long complete = 0;  // the length of the file up to the end of its last complete record
+            RecordReader in = new RecordReader(new BufferedInputStream(new FileInputStream(file)));
+            try
+                {
+                boolean hasSeeds = false;
+                boolean seedsAgree = true;
+                boolean first = true;
+                while(true)
+                    {
+                    ArrayList columns = in.read();
+                    if (columns == null || !in.complete) break;  // the end, or a record cut short
+                    complete = in.position;
+                    if (first)
+                        {
+                        first = false;
+                        needsHeader = false;
+                        if (columns.get(0).equals("job"))  // the header
+                            {
+                            hasSeeds = (columns.size() >= 2 && columns.get(1).equals("seed"));
+                            continue;
+                            }
+                        }
+                    try
+                        {
+                        long job = Long.parseLong((String)(columns.get(0)));
+                        completed.add(new Long(job));
+                        if (hasSeeds && seedsAgree)
+                            {
+                            // MersenneTwisterFast only uses the low 32 bits of a seed, and doLoop(...) writes just those
+                            long base = (int)(Long.parseLong((String)(columns.get(1))) - job);
+                            if (baseSeed == 0) baseSeed = base;
+                            else if (baseSeed != base) seedsAgree = false;
+                            }
+                        }
+                    catch (NumberFormatException e) { }  // a damaged record
+                    catch (IndexOutOfBoundsException e) { }  // likewise
+                    }
+                if (!seedsAgree) baseSeed = 0;
+                }
+            finally
+                {
+                in.close();
+                }
+
+            // Cut off a last record which was only partly written.  We can't just start a fresh line after it:
+            // if it was cut short inside a quoted value, everything we appended would be read as part of that value.
+            if (complete < file.length())
+                {
+                RandomAccessFile r = new RandomAccessFile(file, "rw");
+                try
+                    {
+                    r.setLength(complete);
+                    }
+                finally
+                    {
+                    r.close();
+                    }
+                }
+            }
+        out = new BufferedWriter(new FileWriter(file, true));
+        }
+
+    /** Reads CSV records, as written by write(...): values are separated by commas, and those holding commas,
+        quotes, or line breaks are quoted, with quotes doubled.  A record ends at a newline outside quotes. */
+    static class RecordReader
+        {
+        InputStream in;
+        long position = 0;       // bytes read so far
+        boolean complete;        // whether the last record read ended with a newline
+
+        RecordReader(InputStream in) { this.in = in; }
+
+        /** Returns the values of the next record, or null if there are no more.  If the file ended partway
+            through the record, complete is set to false. */
+        ArrayList read() throws IOException
+            {
+            ArrayList values = new ArrayList();
+            // the separators are all ASCII, so we can split the bytes before decoding them
+            ByteArrayOutputStream value = new ByteArrayOutputStream();
+            boolean quoted = false;
+            boolean any = false;
+            while(true)
+                {
+                int c = in.read();
+                if (c == -1)
+                    {
+                    if (!any) return null;
+                    values.add(value.toString());
+                    complete = false;
+                    return values;
+                    }
+                position++;
+                any = true;
+                if (quoted)
+                    {
+                    if (c != '"') value.write(c);
+                    else
+                        {
+                        in.mark(1);
+                        if (in.read() == '"') { position++; value.write('"'); }  // a doubled quote
+                        else { in.reset(); quoted = false; }
+                        }
+                    }
+                else if (c == '"') quoted = true;
+                else if (c == ',') { values.add(value.toString()); value.reset(); }
+                else if (c == '\n')
+                    {
+                    values.add(value.toString());
+                    complete = true;
+                    return values;
+                    }
+                else if (c != '\r') value.write(c);
+                }
+            }
+
+        void close() throws IOException { in.close(); }
+        }
+
+    public File getFile() { return file; }
+
+    /** Returns true if the results of the given job are already in the file. */
+    public synchronized boolean isCompleted(long job)
+        {
+        return completed.contains(new Long(job));
+        }
+
+    /** Returns the number of jobs whose results are in the file. */
+    public synchronized int getNumCompleted()
+        {
+        return completed.size();
+        }
+
+    /** Returns the seed from which the jobs already in the file were run: each job's seed (in the second column)
+        less its job number, cut to the 32 bits which MersenneTwisterFast uses.  Returns 0 if the file held no jobs when it was opened, if it has no seed column, or
+        if its jobs weren't all run from the same seed. */
+    public synchronized long getBaseSeed()
+        {
+        return baseSeed;
+        }
+
+    /** Writes the results of a job: the names of the values (used only for the header of a new file) and the values
+        themselves, which are written with String.valueOf(...) and quoted if necessary. */
+    public synchronized void write(long job, String[] names, Object[] values) throws IOException
+        {
+        if (names.length != values.length)
+            throw new IllegalArgumentException("There are " + names.length + " result names but " + values.length + " results.");
+        if (needsHeader)
+            {
+            out.write("job");
+            for(int i = 0; i < names.length; i++)
+                out.write("," + quote(names[i]));
+            out.write("\n");
+            needsHeader = false;
+            }
+        out.write(String.valueOf(job));
+        for(int i = 0; i < values.length; i++)
+            out.write("," + quote(String.valueOf(values[i])));
+        out.write("\n");
+        out.flush();
+        completed.add(new Long(job));
+        }
+
+    /** Closes the file. */
+    public synchronized void close() throws IOException
+        {
+        out.close();
+        }
+
+    static String quote(String s)
+        {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0)
+            return s;
+        StringBuffer b = new StringBuffer("\"");
+        for(int i = 0; i < s.length(); i++)
+            {
+            char c = s.charAt(i);
+            if (c == '"') b.append('"');
+            b.append(c);
+            }
+        return b.append('"').toString();
+        }
+    }
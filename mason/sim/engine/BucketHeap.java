@@ -0,0 +1,462 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+import sim.util.*;
+
+/**
+   BucketHeap is a drop-in replacement for the binary Heap used by Schedule, tuned for the very
+   common case where large numbers of Steppables are scheduled for a small number of distinct
+   (time, ordering) pairs -- for example, a million agents all rescheduled for time+1.0 each step.
+
+   <p>Rather than storing one Key per event and sifting it through a binary heap, BucketHeap stores
+   each distinct (time, ordering) pair as a <i>bucket</i>.  Buckets are held in parallel primitive arrays
+   (<tt>double[]</tt> times, <tt>int[]</tt> orderings, and so on), and are located by an open-addressed
+   hash table, so adding an event is O(1) and involves no Key comparisons at all.  Only the buckets themselves
+   are kept in a binary heap (of bucket indices, compared by primitive time and ordering),
+   and there are rarely more than a handful of them.  When used with a Schedule, the Schedule hands events
+   to the BucketHeap as primitives and no Key is allocated per event.
+
+   <p>Buckets are recycled once extracted, along with their internal arrays, so a simulation which
+   reschedules the same agents every step will after a short while stop allocating entirely.
+
+   <p>Unlike Heap, BucketHeap is <i>stable</i>: events with the same time and ordering are returned by extractMin(Bag)
+   in reverse order of insertion, which is what Schedule expects, so that with shuffling turned off
+   they are stepped in the order in which they were scheduled.  With shuffling turned on (the default)
+   they are shuffled just as before, though of course the resulting order for a given seed will differ from that
+   produced by Heap.
+
+   <p>BucketHeap only accepts Schedule.Key objects as keys.  If your simulation schedules almost every event
+   for a different time (for example, with random real-valued delays), each event gets its own bucket and
+   BucketHeap degrades to a binary heap with somewhat more overhead than the plain Heap; in that case stick with Heap.
+
+   <p>To use a BucketHeap, override Schedule.createHeap() in a Schedule subclass:
+
+   <pre><tt>
+   Schedule schedule = new Schedule() { protected Heap createHeap() { return new BucketHeap(); } };
+   </tt></pre>
+*/
+
+public class BucketHeap extends Heap
+    {
+    private static final long serialVersionUID = 1;
+
+    // the buckets, as parallel arrays indexed by bucket number.  Free buckets have a time of NaN
+    // so they never compare equal to anything.
+    double[] times;
+    int[] orderings;
+    Object[][] contents;
+    int[] counts;
+    int numBuckets = 0;                 // number of bucket slots ever allocated
+
+    // recycled bucket slots
+    int[] free;
+    int numFree = 0;
+
+    // binary heap of bucket indices, ordered by time, then ordering
+    int[] heap;
+    int heapSize = 0;
+
+    // open-addressed (linear probing) hash table of bucket index + 1.  0 means empty.
+    int[] table;
+
+    // the bucket most recently added to -- nearly all additions go to the same bucket as the last one
+    int lastBucket = -1;
+
+    // the number of events is kept in Heap.numElem
+
+    /** Creates an empty BucketHeap. */
+    public BucketHeap()
+        {
+        this(16);
+        }
+
+    /** Creates an empty BucketHeap with room for the given number of buckets before it must grow. */
+    public BucketHeap(int initialBuckets)
+        {
+        if (initialBuckets < 1) initialBuckets = 1;
+        times = new double[initialBuckets];
+        orderings = new int[initialBuckets];
+        contents = new Object[initialBuckets][];
+        counts = new int[initialBuckets];
+        free = new int[initialBuckets];
+        heap = new int[initialBuckets];
+        int tableSize = 2;
+        while(tableSize < initialBuckets * 2) tableSize <<= 1;
+        table = new int[tableSize];
+        }
+
+    /** Returns keys (new Schedule.Key objects) for all the elements in the heap, in no particular order,
+        but corresponding to the order returned by getObjects(). */
+    public Comparable[] getKeys()
+        {
+        Comparable[] k = new Comparable[numElem];
+        int pos = 0;
+        for(int i = 0; i < heapSize; i++)
+            {
+            int b = heap[i];
+            int count = counts[b];
+            for(int j = 0; j < count; j++)
+                k[pos++] = new Schedule.Key(times[b], orderings[b]);
+            }
+        return k;
+        }
+
+    /** Returns all the elements in the heap, in no particular order, but corresponding to the order returned by getKeys(). */
+    public Object[] getObjects()
+        {
+        Object[] o = new Object[numElem];
+        int pos = 0;
+        for(int i = 0; i < heapSize; i++)
+            {
+            int b = heap[i];
+            System.arraycopy(contents[b], 0, o, pos, counts[b]);
+            pos += counts[b];
+            }
+        return o;
+        }
+
+    /** Returns a new Schedule.Key holding the time and ordering of the current min element.  Returns null if there is no such element.
+        Does not extract the element. */
+    public Comparable getMinKey()
+        {
+        if (numElem == 0) return null;
+        int b = heap[0];
+        return new Schedule.Key(times[b], orderings[b]);
+        }
+
+    /** Returns the time of the current min element, or Schedule.AFTER_SIMULATION if there is no such element. */
+    public double getMinTime()
+        {
+        if (numElem == 0) return Schedule.AFTER_SIMULATION;
+        return times[heap[0]];
+        }
+
+    /** Returns the current min element.  Returns null if there is no such element.  Does not extract the element. */
+    public Object getMin()
+        {
+        if (numElem == 0) return null;
+        int b = heap[0];
+        return contents[b][counts[b] - 1];
+        }
+
+    /** Removes all key-equal minimum elements and adds them to a Bag, which is then is returned.
+        The elements are added in reverse order of their insertion.
+        You may provide a Bag -- putInHere -- to be filled in. */
+    public Bag extractMin(Bag putInHere)
+        {
+        if (putInHere == null) putInHere = new Bag();
+        if (numElem == 0) return putInHere;
+
+        int b = heap[0];
+        int count = counts[b];
+        Object[] c = contents[b];
+
+        int numObjs = putInHere.numObjs;
+        if (numObjs + count > putInHere.objs.length)
+            putInHere.resize(numObjs + count);
+        Object[] objs = putInHere.objs;
+        for(int i = count - 1; i >= 0; i--)
+            {
+            objs[numObjs++] = c[i];
+            c[i] = null;  // let GC
+            }
+        putInHere.numObjs = numObjs;
+
+        numElem -= count;
+        counts[b] = 0;
+        removeMinBucket();
+        return putInHere;
+        }
+
+    /** Removes the first minimum element and its key from the heap, and returns the minimum element.  Will return null if the heap is empty */
+    public Object extractMin()
+        {
+        if (numElem == 0) return null;
+        int b = heap[0];
+        int count = counts[b] - 1;
+        Object result = contents[b][count];
+        contents[b][count] = null;  // let GC
+        counts[b] = count;
+        numElem--;
+        if (count == 0) removeMinBucket();
+        return result;
+        }
+
+    /** Adds an element to the heap with the given key, which must be a Schedule.Key.
+        The key itself is not retained. */
+    public void add(Object elem, Comparable key)
+        {
+        Schedule.Key k = (Schedule.Key) key;
+        add(elem, k.time, k.ordering);
+        }
+
+    /** Adds an element to the heap at the given time and ordering. */
+    public void add(Object elem, double time, int ordering)
+        {
+        time = time + 0.0;  // convert -0.0 to 0.0 so hashing agrees with ==
+        int b = lastBucket;
+        if (b < 0 || times[b] != time || orderings[b] != ordering)  // NaN (freed) never matches
+            {
+            b = findBucket(time, ordering);
+            if (b < 0) b = newBucket(time, ordering);
+            lastBucket = b;
+            }
+
+        int count = counts[b];
+        Object[] c = contents[b];
+        if (c == null)
+            c = contents[b] = new Object[4];
+        else if (count >= c.length)
+            {
+            Object[] temp = new Object[c.length * 2 + 1];
+            System.arraycopy(c, 0, temp, 0, count);
+            c = contents[b] = temp;
+            }
+        c[count] = elem;
+        counts[b] = count + 1;
+        numElem++;
+        }
+
+    public int size()
+        {
+        return numElem;
+        }
+
+    public boolean isEmpty()
+        {
+        return (numElem == 0);
+        }
+
+    public void clear()
+        {
+        for(int i = 0; i < heapSize; i++)
+            {
+            int b = heap[i];
+            Object[] c = contents[b];
+            int count = counts[b];
+            for(int j = 0; j < count; j++)
+                c[j] = null;
+            counts[b] = 0;
+            times[b] = Double.NaN;
+            free[numFree++] = b;
+            }
+        heapSize = 0;
+        numElem = 0;
+        lastBucket = -1;
+        java.util.Arrays.fill(table, 0);
+        }
+
+    /**
+       Produces a new BucketHeap which is the union of this heap with the other, which may be any
+       Heap whose keys are Schedule.Keys.
+       The original heaps are not modified.  The new heap is returned.
+    */
+    public Heap merge(Heap other)
+        {
+        BucketHeap h = new BucketHeap(Math.max(heapSize, 1) * 2);
+        for(int i = 0; i < heapSize; i++)
+            {
+            int b = heap[i];
+            Object[] c = contents[b];
+            int count = counts[b];
+            for(int j = 0; j < count; j++)
+                h.add(c[j], times[b], orderings[b]);
+            }
+        Comparable[] k = other.getKeys();
+        Object[] o = other.getObjects();
+        for(int i = 0; i < k.length; i++)
+            h.add(o[i], k[i]);
+        return h;
+        }
+
+
+    //// BUCKET HASH TABLE
+
+    static int hash(double time, int ordering)
+        {
+        long key = Double.doubleToRawLongBits(time) ^ (ordering * 0x9E3779B97F4A7C15L);
+        int h = (int)(key ^ (key >>> 32));
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+        }
+
+    // returns the bucket for the given time and ordering, or -1 if there is none
+    int findBucket(double time, int ordering)
+        {
+        int[] table = this.table;
+        int mask = table.length - 1;
+        int i = hash(time, ordering) & mask;
+        while(true)
+            {
+            int b = table[i] - 1;
+            if (b < 0) return -1;
+            if (times[b] == time && orderings[b] == ordering) return b;
+            i = (i + 1) & mask;
+            }
+        }
+
+    void insertIntoTable(int b)
+        {
+        int[] table = this.table;
+        int mask = table.length - 1;
+        int i = hash(times[b], orderings[b]) & mask;
+        while(table[i] != 0)
+            i = (i + 1) & mask;
+        table[i] = b + 1;
+        }
+
+    // removes the bucket from the table using backward-shift deletion, so no tombstones are needed
+    void removeFromTable(int b)
+        {
+        int[] table = this.table;
+        int mask = table.length - 1;
+        int i = hash(times[b], orderings[b]) & mask;
+        while(table[i] != b + 1)
+            i = (i + 1) & mask;
+
+        int j = i;
+        while(true)
+            {
+            table[i] = 0;
+            while(true)
+                {
+                j = (j + 1) & mask;
+                if (table[j] == 0) return;
+                int other = table[j] - 1;
+                int k = hash(times[other], orderings[other]) & mask;
+                // leave the entry alone if its home slot lies cyclically in (i, j]
+                if (i <= j ? (i < k && k <= j) : (i < k || k <= j))
+                    continue;
+                table[i] = table[j];
+                i = j;
+                break;
+                }
+            }
+        }
+
+
+    //// BUCKET ALLOCATION AND BUCKET HEAP
+
+    int newBucket(double time, int ordering)
+        {
+        int b;
+        if (numFree > 0)
+            b = free[--numFree];
+        else
+            {
+            if (numBuckets >= times.length)
+                {
+                int len = times.length * 2 + 1;
+                double[] t = new double[len];  System.arraycopy(times, 0, t, 0, numBuckets);  times = t;
+                int[] o = new int[len];  System.arraycopy(orderings, 0, o, 0, numBuckets);  orderings = o;
+                Object[][] c = new Object[len][];  System.arraycopy(contents, 0, c, 0, numBuckets);  contents = c;
+                int[] n = new int[len];  System.arraycopy(counts, 0, n, 0, numBuckets);  counts = n;
+                int[] f = new int[len];  System.arraycopy(free, 0, f, 0, numFree);  free = f;
+                int[] h = new int[len];  System.arraycopy(heap, 0, h, 0, heapSize);  heap = h;
+                }
+            b = numBuckets++;
+            }
+        times[b] = time;
+        orderings[b] = ordering;
+        counts[b] = 0;
+
+        // grow the table if it's more than half full
+        if ((heapSize + 1) * 2 > table.length)
+            {
+            table = new int[table.length * 2];
+            for(int i = 0; i < heapSize; i++)
+                insertIntoTable(heap[i]);
+            }
+        insertIntoTable(b);
+
+        // sift up
+        int[] heap = this.heap;
+        int i = heapSize++;
+        while(i > 0)
+            {
+            int parent = (i - 1) >> 1;
+            int p = heap[parent];
+            if (times[p] < time || (times[p] == time && orderings[p] <= ordering)) break;
+            heap[i] = p;
+            i = parent;
+            }
+        heap[i] = b;
+        return b;
+        }
+
+    // removes the (now empty) minimum bucket from the heap and the table, and frees it
+    void removeMinBucket()
+        {
+        int[] heap = this.heap;
+        double[] times = this.times;
+        int[] orderings = this.orderings;
+
+        int b = heap[0];
+        removeFromTable(b);
+        times[b] = Double.NaN;
+        free[numFree++] = b;
+        if (lastBucket == b) lastBucket = -1;
+
+        // sift down
+        int size = --heapSize;
+        if (size == 0) return;
+        int last = heap[size];
+        double lastTime = times[last];
+        int lastOrdering = orderings[last];
+        int i = 0;
+        while(true)
+            {
+            int l = 2 * i + 1;
+            if (l >= size) break;
+            int r = l + 1;
+            int smallest = heap[l];
+            if (r < size)
+                {
+                int rb = heap[r];
+                if (times[rb] < times[smallest] || (times[rb] == times[smallest] && orderings[rb] < orderings[smallest]))
+                    { smallest = rb; l = r; }
+                }
+            if (lastTime < times[smallest] || (lastTime == times[smallest] && lastOrdering <= orderings[smallest])) break;
+            heap[i] = smallest;
+            i = l;
+            }
+        heap[i] = last;
+        }
+
+
+    /** Compares the speed of a Schedule using a plain Heap against one using a BucketHeap, with
+        a large number of agents rescheduling themselves every timestep. */
+    public static void main(String[] args)
+        {
+        final int AGENTS = 1000000;
+        final int STEPS = 50;
+        final int TRIALS = 5;
+
+        Steppable agent = new Steppable()
+            {
+            public void step(SimState state) { state.schedule.scheduleOnce(this, 0); }
+            };
+
+        for(int trial = 0; trial < TRIALS; trial++)
+            {
+            for(int which = 0; which < 2; which++)
+                {
+                Schedule schedule = (which == 0 ? new Schedule() :
+                    new Schedule() { protected Heap createHeap() { return new BucketHeap(); } });
+                SimState state = new SimState(4357, schedule);
+                state.start();
+                for(int i = 0; i < AGENTS; i++)
+                    schedule.scheduleOnce(0.0, agent);
+                long ms = System.currentTimeMillis();
+                for(int i = 0; i < STEPS; i++)
+                    schedule.step(state);
+                System.out.println((which == 0 ? "Heap:       " : "BucketHeap: ") +
+                    (System.currentTimeMillis() - ms) + " ms for " + STEPS + " steps of " + AGENTS + " agents");
+                }
+            }
+        }
+    }
@@ -0,0 +1,126 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+import java.io.*;
+import java.util.zip.*;
+
+/**
+   The byte-level encoding of a checkpoint.  SimState.writeToCheckpoint(...) serializes the model with an
+   ObjectOutputStream and pipes the bytes through a CheckpointCodec on their way to the file.  Which codec it uses
+   is up to you: see SimState.setCheckpointCodec(...), or the <tt>-checkpointcodec</tt> command-line option.
+
+   <p>There are three codecs.  <b>GZIP</b> is the traditional format, and the default.  It compresses well, but on
+   a single thread, so it's slow for very large models.  <b>NONE</b> doesn't compress at all, which is fastest if
+   your disk is fast and big.  A <b>ChunkedDeflateCodec</b> compresses the checkpoint in independent chunks on
+   several threads at once, and is much faster than GZIP at its default (fastest) setting.
+
+   <p>You needn't say which codec to use when reading a checkpoint: SimState.readFromCheckpoint(...) recognizes all
+   of them, so checkpoints written with older versions of MASON can still be read.
+
+   <p>To write a codec of your own, implement encode(...) and decode(...).  Closing the stream returned by
+   encode(...) must finish the encoding and flush everything to the underlying stream <i>without</i> closing it.
+   Likewise closing the stream returned by decode(...) must release whatever the decoder holds, again without
+   closing the underlying stream.
+   decodeAny(...) only recognizes the standard codecs, so read your checkpoints with
+   SimState.readFromCheckpoint(stream, codec).
+*/
+
+public abstract class CheckpointCodec implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    /** Returns a stream which encodes whatever is written to it and writes the result to <i>stream</i>.
+        Closing the returned stream finishes the encoding and flushes it, but doesn't close <i>stream</i>. */
+    public abstract OutputStream encode(OutputStream stream) throws IOException;
+
+    /** Returns a stream which decodes what it reads from <i>stream</i>.
+        Closing the returned stream releases the decoder, but doesn't close <i>stream</i>. */
+    public abstract InputStream decode(InputStream stream) throws IOException;
+
+    /** Traditional GZIP compression, on a single thread. */
+    public static final CheckpointCodec GZIP = new CheckpointCodec()
+        {
+        public OutputStream encode(OutputStream stream) throws IOException
+            {
+            return new GZIPOutputStream(new Unclosable(new BufferedOutputStream(stream)))
+                {
+                public void close() throws IOException
+                    {
+                    finish();  // need to force out the gzip stream AND manually flush it.  Java's annoying.
+                    flush();
+                    }
+                };
+            }
+        public InputStream decode(InputStream stream) throws IOException
+            {
+            return new GZIPInputStream(new BufferedInputStream(new UnclosableInput(stream)));
+            }
+        public String toString() { return "gzip"; }
+        private Object readResolve() { return GZIP; }
+        };
+
+    /** No compression at all. */
+    public static final CheckpointCodec NONE = new CheckpointCodec()
+        {
+        public OutputStream encode(OutputStream stream) throws IOException
+            {
+            return new Unclosable(new BufferedOutputStream(stream));
+            }
+        public InputStream decode(InputStream stream) throws IOException
+            {
+            return new BufferedInputStream(new UnclosableInput(stream));
+            }
+        public String toString() { return "none"; }
+        private Object readResolve() { return NONE; }
+        };
+
+    static final int GZIP_MAGIC = 0x1F8B;
+    static final int SERIALIZATION_MAGIC = 0xACED;
+
+    /** Reads the first few bytes of the stream to determine which of the standard codecs it was written with,
+        and returns a stream which decodes it.  Throws an IOException if the format is unknown.  Close the returned
+        stream when you're done with it, to release the decoder: this doesn't close <i>stream</i>. */
+    public static InputStream decodeAny(InputStream stream) throws IOException
+        {
+        BufferedInputStream b = new BufferedInputStream(stream);
+        b.mark(4);
+        DataInputStream d = new DataInputStream(b);
+        int magic = d.readInt();
+        b.reset();
+        if ((magic >>> 16) == GZIP_MAGIC) return GZIP.decode(b);
+        if ((magic >>> 16) == SERIALIZATION_MAGIC) return NONE.decode(b);
+        if (magic == ChunkedDeflateCodec.MAGIC) return new ChunkedDeflateCodec().decode(b);
+        throw new IOException("Unknown checkpoint format.");
+        }
+
+    /** Returns a codec by name: <tt>gzip</tt>, <tt>none</tt>, <tt>fast</tt> (a ChunkedDeflateCodec at its fastest
+        setting, using all processors), or <tt>deflate</tt> (a ChunkedDeflateCodec at the same compression level as
+        GZIP, using all processors).  Throws an IllegalArgumentException if there is no such codec. */
+    public static CheckpointCodec forName(String name)
+        {
+        if (name.equalsIgnoreCase("gzip")) return GZIP;
+        if (name.equalsIgnoreCase("none")) return NONE;
+        if (name.equalsIgnoreCase("fast")) return new ChunkedDeflateCodec(Deflater.BEST_SPEED, 0);
+        if (name.equalsIgnoreCase("deflate")) return new ChunkedDeflateCodec(Deflater.DEFAULT_COMPRESSION, 0);
+        throw new IllegalArgumentException("Unknown checkpoint codec: " + name);
+        }
+
+    // passes close() on as flush(), so encoders can be closed without closing the stream beneath them
+    static class Unclosable extends FilterOutputStream
+        {
+        Unclosable(OutputStream stream) { super(stream); }
+        public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); }
+        public void close() throws IOException { flush(); }
+        }
+
+    // ignores close(), so decoders can be closed without closing the stream beneath them
+    static class UnclosableInput extends FilterInputStream
+        {
+        UnclosableInput(InputStream stream) { super(stream); }
+        public void close() throws IOException { }
+        }
+    }
@@ -0,0 +1,377 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+   A CheckpointCodec which cuts the checkpoint into chunks (by default 1MB each) and compresses each chunk
+   independently with a Deflater, on several threads at once.  Decoding is likewise spread over several threads.
+   At its fastest setting (Deflater.BEST_SPEED), on a single thread, it is already several times faster than GZIP;
+   with more threads it goes faster still, until the disk can't keep up.
+
+   <p>Chunks are compressed in a small rotating set of buffers which are reused from chunk to chunk, so encoding or
+   decoding a large checkpoint allocates little beyond those buffers.  At most two chunks per thread are in flight at
+   any time.
+
+   <p>The format is a four-byte magic number, then each chunk as its uncompressed length (an int), its compressed
+   length (an int), and its compressed bytes in zlib format, then a zero.
+*/
+
+public class ChunkedDeflateCodec extends CheckpointCodec
+    {
+    private static final long serialVersionUID = 1;
+
+    /** The magic number ("MCKD") which begins the format. */
+    public static final int MAGIC = 0x4D434B44;
+
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    int level;
+    int threads;
+    int chunkSize;
+
+    /** Builds a codec at the fastest compression level, using one thread per processor. */
+    public ChunkedDeflateCodec()
+        {
+        this(Deflater.BEST_SPEED, 0);
+        }
+
+    /** Builds a codec at the given Deflater compression level, with the given number of threads
+        (0 means one per processor). */
+    public ChunkedDeflateCodec(int level, int threads)
+        {
+        this(level, threads, DEFAULT_CHUNK_SIZE);
+        }
+
+    /** Builds a codec at the given Deflater compression level, with the given number of threads
+        (0 means one per processor) and the given chunk size in bytes.  */
+    public ChunkedDeflateCodec(int level, int threads, int chunkSize)
+        {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION))
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        if (threads < 0)
+            throw new IllegalArgumentException("Number of threads must be >= 0: " + threads);
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("Chunk size must be > 0: " + chunkSize);
+        this.level = level;
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+        }
+
+    public int getLevel() { return level; }
+    public int getThreads() { return threads; }
+    public int getChunkSize() { return chunkSize; }
+
+    public String toString() { return "ChunkedDeflateCodec[level=" + level + ", threads=" + threads + "]"; }
+
+    public OutputStream encode(OutputStream stream) throws IOException
+        {
+        return new Encoder(stream);
+        }
+
+    public InputStream decode(InputStream stream) throws IOException
+        {
+        return new Decoder(stream);
+        }
+
+    int numThreads()
+        {
+        return (threads == 0 ? Runtime.getRuntime().availableProcessors() : threads);
+        }
+
+    static ExecutorService buildPool(int threads)
+        {
+        if (threads <= 1) return null;
+        return Executors.newFixedThreadPool(threads, new ThreadFactory()
+            {
+            public Thread newThread(Runnable r)
+                {
+                Thread t = new Thread(r, "ChunkedDeflateCodec");
+                t.setDaemon(true);
+                return t;
+                }
+            });
+        }
+
+    // Waits for a chunk, passing on any exception it raised
+    static Chunk get(Future future) throws IOException
+        {
+        try
+            {
+            return (Chunk)(future.get());
+            }
+        catch (ExecutionException e)
+            {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException)cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            throw new RuntimeException(cause);
+            }
+        catch (InterruptedException e)
+            {
+            throw new InterruptedIOException("Interrupted while waiting for a checkpoint chunk.");
+            }
+        }
+
+    // A chunk and its compressed form, plus the Deflater or Inflater which converts one to the other
+    static class Chunk implements Callable
+        {
+        byte[] raw;
+        int rawLength;
+        byte[] packed = new byte[0];
+        int packedLength;
+        Deflater deflater;
+        Inflater inflater;
+
+        Chunk(int chunkSize, int level, boolean encoding)
+            {
+            raw = new byte[chunkSize];
+            if (encoding) deflater = new Deflater(level);
+            else inflater = new Inflater();
+            }
+
+        public Object call() throws IOException
+            {
+            if (deflater != null) deflate();
+            else inflate();
+            return this;
+            }
+
+        void deflate()
+            {
+            Deflater d = deflater;
+            d.reset();
+            d.setInput(raw, 0, rawLength);
+            d.finish();
+            if (packed.length < rawLength + (rawLength >>> 8) + 64)
+                packed = new byte[rawLength + (rawLength >>> 8) + 64];
+            packedLength = 0;
+            while(!d.finished())
+                {
+                if (packedLength == packed.length)  // should be rare
+                    {
+                    byte[] p = new byte[packed.length * 2];
+                    System.arraycopy(packed, 0, p, 0, packedLength);
+                    packed = p;
+                    }
+                packedLength += d.deflate(packed, packedLength, packed.length - packedLength);
+                }
+            }
+
+        void inflate() throws IOException
+            {
+            Inflater i = inflater;
+            i.reset();
+            i.setInput(packed, 0, packedLength);
+            int len = 0;
+            try
+                {
+                while(len < rawLength)
+                    {
+                    int n = i.inflate(raw, len, rawLength - len);
+                    if (n == 0 && (i.needsInput() || i.needsDictionary())) break;
+                    len += n;
+                    }
+                }
+            catch (DataFormatException e)
+                {
+                throw new IOException("Corrupt checkpoint chunk: " + e.getMessage());
+                }
+            if (len != rawLength)
+                throw new IOException("Corrupt checkpoint chunk: expected " + rawLength + " bytes, got " + len);
+            }
+
+        void end()
+            {
+            if (deflater != null) deflater.end();
+            if (inflater != null) inflater.end();
+            }
+        }
+
+    class Encoder extends OutputStream
+        {
+        final DataOutputStream out;
+        final int numThreads = numThreads();
+        final ExecutorService pool = buildPool(numThreads);
+        final LinkedList pending = new LinkedList();    // Futures of chunks being compressed, in order
+        final LinkedList free = new LinkedList();       // Chunks ready for reuse
+        Chunk current;
+        boolean closed = false;
+
+        Encoder(OutputStream stream) throws IOException
+            {
+            out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            current = new Chunk(chunkSize, level, true);
+            }
+
+        public void write(int b) throws IOException
+            {
+            if (current.rawLength == chunkSize) submit();
+            current.raw[current.rawLength++] = (byte)b;
+            }
+
+        public void write(byte[] b, int off, int len) throws IOException
+            {
+            while(len > 0)
+                {
+                if (current.rawLength == chunkSize) submit();
+                int n = Math.min(len, chunkSize - current.rawLength);
+                System.arraycopy(b, off, current.raw, current.rawLength, n);
+                current.rawLength += n;
+                off += n;
+                len -= n;
+                }
+            }
+
+        // hands the current chunk off to be compressed and gets a fresh one
+        void submit() throws IOException
+            {
+            if (current.rawLength == 0) return;
+            if (pool == null)
+                {
+                current.deflate();
+                writeChunk(current);
+                }
+            else
+                {
+                pending.add(pool.submit(current));
+                while(pending.size() >= 2 * numThreads)
+                    writeChunk(get((Future)(pending.removeFirst())));
+                current = (free.isEmpty() ? new Chunk(chunkSize, level, true) : (Chunk)(free.removeFirst()));
+                }
+            current.rawLength = 0;
+            }
+
+        void writeChunk(Chunk chunk) throws IOException
+            {
+            out.writeInt(chunk.rawLength);
+            out.writeInt(chunk.packedLength);
+            out.write(chunk.packed, 0, chunk.packedLength);
+            if (chunk != current) free.add(chunk);
+            }
+
+        // doesn't force out a partial chunk: ObjectOutputStream flushes far too often for that
+        public void flush() throws IOException
+            {
+            out.flush();
+            }
+
+        public void close() throws IOException
+            {
+            if (closed) return;
+            closed = true;
+            try
+                {
+                submit();
+                while(!pending.isEmpty())
+                    writeChunk(get((Future)(pending.removeFirst())));
+                out.writeInt(0);
+                out.flush();
+                }
+            finally
+                {
+                if (pool != null) pool.shutdownNow();
+                current.end();
+                while(!free.isEmpty()) ((Chunk)(free.removeFirst())).end();
+                }
+            }
+        }
+
+    class Decoder extends InputStream
+        {
+        final DataInputStream in;
+        final int numThreads = numThreads();
+        final ExecutorService pool = buildPool(numThreads);
+        final LinkedList pending = new LinkedList();    // Futures of chunks being decompressed, in order
+        final LinkedList free = new LinkedList();
+        Chunk current;
+        int position;
+        boolean done = false;
+
+        Decoder(InputStream stream) throws IOException
+            {
+            in = new DataInputStream(new BufferedInputStream(stream));
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a chunked deflate checkpoint.");
+            }
+
+        // reads compressed chunks ahead, and returns the next one decompressed, or null at the end
+        Chunk next() throws IOException
+            {
+            while(!done && pending.size() < Math.max(1, 2 * numThreads))
+                {
+                int rawLength = in.readInt();
+                if (rawLength == 0) { done = true; break; }
+                int packedLength = in.readInt();
+                if (rawLength < 0 || packedLength < 0)
+                    throw new IOException("Corrupt checkpoint chunk header.");
+                Chunk chunk = (free.isEmpty() ? new Chunk(rawLength, level, false) : (Chunk)(free.removeFirst()));
+                if (chunk.raw.length < rawLength) chunk.raw = new byte[rawLength];
+                if (chunk.packed.length < packedLength) chunk.packed = new byte[packedLength];
+                chunk.rawLength = rawLength;
+                chunk.packedLength = packedLength;
+                in.readFully(chunk.packed, 0, packedLength);
+                if (pool == null)
+                    {
+                    chunk.inflate();
+                    return chunk;
+                    }
+                pending.add(pool.submit(chunk));
+                }
+            if (pending.isEmpty())
+                {
+                close();  // we've reached the end: let the threads go now rather than waiting to be closed
+                return null;
+                }
+            return get((Future)(pending.removeFirst()));
+            }
+
+        // makes sure current has bytes left, returning false at the end of the stream
+        boolean fill() throws IOException
+            {
+            if (current != null && position < current.rawLength) return true;
+            if (current != null) { free.add(current); current = null; }
+            current = next();
+            position = 0;
+            return current != null;
+            }
+
+        public int read() throws IOException
+            {
+            if (!fill()) return -1;
+            return current.raw[position++] & 0xFF;
+            }
+
+        public int read(byte[] b, int off, int len) throws IOException
+            {
+            if (len == 0) return 0;
+            if (!fill()) return -1;
+            int n = Math.min(len, current.rawLength - position);
+            System.arraycopy(current.raw, position, b, off, n);
+            position += n;
+            return n;
+            }
+
+        public int available() throws IOException
+            {
+            return (current == null ? 0 : current.rawLength - position);
+            }
+
+        // releases the threads and buffers, but doesn't close the underlying stream
+        public void close() throws IOException
+            {
+            if (pool != null) pool.shutdownNow();
+            if (current != null) current.end();
+            while(!free.isEmpty()) ((Chunk)(free.removeFirst())).end();
+            current = null;
+            }
+        }
+    }
@@ -0,0 +1,130 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+import java.io.*;
+
+/**
+   Reads and writes incremental checkpoints, used by BackgroundCheckpointer.  An incremental checkpoint holds
+   only those blocks of the serialized model which differ from the previous checkpoint, plus the name of the
+   file holding the previous checkpoint, which may itself be incremental.  Following the chain back to a
+   full checkpoint and applying each set of blocks in turn rebuilds the serialized model.
+
+   <p>The format, before it is encoded with a CheckpointCodec, is a four-byte magic number, the name of the
+   previous file (in the same directory) as a UTF string, the length of the serialized model, the block size,
+   the number of changed blocks, and then each changed block as its index followed by its bytes.
+*/
+
+final class DeltaCheckpoint
+    {
+    static final int MAGIC = 0x4D434B49;        // "MCKI"
+    static final int BLOCK_SIZE = 512;
+
+    private DeltaCheckpoint() { }
+
+    /** Returns the indices of those blocks of current which differ from previous, or which previous doesn't have. */
+    static int[] changedBlocks(byte[] current, int currentLength, byte[] previous, int previousLength)
+        {
+        int numBlocks = (currentLength + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int[] changed = new int[numBlocks];
+        int count = 0;
+        for(int block = 0; block < numBlocks; block++)
+            {
+            int start = block * BLOCK_SIZE;
+            int end = Math.min(start + BLOCK_SIZE, currentLength);
+            if (end > previousLength) { changed[count++] = block; continue; }
+            for(int i = start; i < end; i++)
+                if (current[i] != previous[i]) { changed[count++] = block; break; }
+            }
+        int[] result = new int[count];
+        System.arraycopy(changed, 0, result, 0, count);
+        return result;
+        }
+
+    /** Writes the changed blocks of current, as an increment over the checkpoint in the file named previousName. */
+    static void write(OutputStream stream, String previousName, byte[] current, int currentLength, int[] blocks) throws IOException
+        {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeUTF(previousName);
+        out.writeInt(currentLength);
+        out.writeInt(BLOCK_SIZE);
+        out.writeInt(blocks.length);
+        for(int i = 0; i < blocks.length; i++)
+            {
+            int start = blocks[i] * BLOCK_SIZE;
+            out.writeInt(blocks[i]);
+            out.write(current, start, Math.min(BLOCK_SIZE, currentLength - start));
+            }
+        out.flush();
+        }
+
+    /** Given the decoded contents of a checkpoint, returns a stream of the serialized model.  If the checkpoint is
+        incremental, rebuilds the model from the chain of checkpoints ending in <i>file</i>, which must be the file
+        it came from; if <i>file</i> is null, throws an IOException instead. */
+    static InputStream open(InputStream decoded, File file) throws IOException
+        {
+        BufferedInputStream b = new BufferedInputStream(decoded);
+        b.mark(4);
+        DataInputStream d = new DataInputStream(b);
+        int magic = d.readInt();
+        b.reset();
+        if (magic != MAGIC) return b;
+        if (file == null)
+            throw new IOException("This is an incremental checkpoint: it must be read from its file, so that the checkpoints it builds on can be found.");
+        return new ByteArrayInputStream(image(b, file));
+        }
+
+    // Returns the serialized model in the given file
+    static byte[] image(File file) throws IOException
+        {
+        FileInputStream f = new FileInputStream(file);
+        InputStream decoded = null;
+        try
+            {
+            decoded = CheckpointCodec.decodeAny(f);
+            InputStream b = new BufferedInputStream(decoded);
+            b.mark(4);
+            int magic = new DataInputStream(b).readInt();
+            b.reset();
+            if (magic == MAGIC) return image(b, file);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[65536];
+            int n;
+            while((n = b.read(buf)) >= 0) out.write(buf, 0, n);
+            return out.toByteArray();
+            }
+        finally
+            {
+            if (decoded != null) decoded.close();  // releases the decoder, but leaves f to us
+            f.close();
+            }
+        }
+
+    // Returns the serialized model from an incremental checkpoint read from the given file
+    static byte[] image(InputStream stream, File file) throws IOException
+        {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not an incremental checkpoint: " + file);
+        String previousName = in.readUTF();
+        int length = in.readInt();
+        int blockSize = in.readInt();
+        int numBlocks = in.readInt();
+
+        byte[] previous = image(new File(file.getAbsoluteFile().getParentFile(), previousName));
+        byte[] image = new byte[length];
+        System.arraycopy(previous, 0, image, 0, Math.min(length, previous.length));
+        for(int i = 0; i < numBlocks; i++)
+            {
+            int start = in.readInt() * blockSize;
+            if (start < 0 || start >= length)
+                throw new IOException("Corrupt incremental checkpoint: " + file);
+            in.readFully(image, start, Math.min(blockSize, length - start));
+            }
+        return image;
+        }
+    }
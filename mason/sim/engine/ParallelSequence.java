@@ -6,6 +6,7 @@
 
 package sim.engine;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.*;
 import sim.util.*;
 
@@ -18,7 +19,9 @@ import sim.util.*;
     <p>For example, keep in mind that the random number generator is unsynchronized.
     If you access the random number generator from within a ParallelSequence, or
     indeed from multiple threads you've spawned in other situations, you need
-    to remember to lock on the random number generator itself.
+    to remember to lock on the random number generator itself.  Better still, give each
+    steppable its own generator with SimState.randomStream(...): then there's no lock to
+    wait on, and the results don't depend on which thread happens to draw first.
     
     <p>In the same vein, if you use a RandomSequence within a ParallelSequence, you need
     to let the RandomSequence know this so that it will lock on the random number generator
@@ -50,6 +53,18 @@ import sim.util.*;
     at the end of the run to call cleanup() on it.  It's not a bad idea for a ParallelSequence which
     is one-shot rather than repeating.
     
+    <p><b>Work Stealing</b>
+    By default the steppables are divided into equal-sized contiguous blocks, one per thread.  If some steppables
+    take much longer to step than others, one thread will lag behind and all the others will wait for it.  If you call
+    <b>setWorkStealing(true)</b>, then each thread still starts with its own block, but takes steppables from it in
+    chunks which shrink as the block empties, and when its block is exhausted, steals the back half of the
+    largest block remaining in another thread.  Work-stealing ParallelSequences don't use their own threads: they share a
+    single set of threads owned by the SimState, which is deleted when the SimState's finish() method is called.
+    Thus cleanup() and setDestroysThreads(...) have no effect on them.
+    
+    <p>Either way, after each step() you can call <b>getBusyTimes()</b> to see how long each thread spent stepping, and 
+    <b>getImbalance()</b> to see how badly the threads were balanced.
+    
     <p>Be sure to read the class documentation on sim.engine.Sequence</b>
 */
 
@@ -61,6 +76,10 @@ public class ParallelSequence extends Sequence
     boolean operating = false;  // checking for circularity
     boolean destroysThreads = false;
     int numThreads = 0;
+    boolean workStealing = false;
+    
+    // per-thread statistics for the most recent step
+    long[] busyTimes = new long[0];
     
     /** Indicates that MASON should determine how many threads to use based on the number of CPUs. */ 
     public static final int CPUS = -1;
@@ -69,6 +88,38 @@ public class ParallelSequence extends Sequence
         
     public boolean getDestroysThreads() { return destroysThreads; }
     public void setDestroysThreads(boolean val) { destroysThreads = val; }
+    
+    /** Returns whether the ParallelSequence balances its load by work stealing (see the class documentation). */
+    public boolean getWorkStealing() { return workStealing; }
+    /** Sets whether the ParallelSequence balances its load by work stealing (see the class documentation). 
+        Must not be called while the ParallelSequence is being stepped. */
+    public void setWorkStealing(boolean val) { workStealing = val; }
+    
+    /** Returns, for each thread used in the most recent step(), the time in nanoseconds it spent stepping steppables. */
+    public long[] getBusyTimes()
+        {
+        synchronized(operatingLock)
+            {
+            return (long[])(busyTimes.clone());
+            }
+        }
+    
+    /** Returns the ratio of the busiest thread's busy time to the average busy time over all threads in the most recent step().
+        1.0 means the threads were perfectly balanced.  Returns 1.0 if the ParallelSequence hasn't been stepped yet. */
+    public double getImbalance()
+        {
+        long[] times = getBusyTimes();
+        if (times.length == 0) return 1.0;
+        long max = 0;
+        long total = 0;
+        for(int i = 0; i < times.length; i++)
+            {
+            if (times[i] > max) max = times[i];
+            total += times[i];
+            }
+        if (total == 0) return 1.0;
+        return max / (total / (double) times.length);
+        }
         
     /// Threads are not serializable, so we must manually rebuild here
     private void writeObject(java.io.ObjectOutputStream p)
@@ -77,6 +128,7 @@ public class ParallelSequence extends Sequence
         p.writeBoolean(pleaseDie);
         p.writeBoolean(destroysThreads);
         p.writeInt(numThreads);
+        p.writeBoolean(workStealing);
         // don't write operating
         // dont' write threads
         }
@@ -88,6 +140,10 @@ public class ParallelSequence extends Sequence
         pleaseDie = p.readBoolean();
         destroysThreads = p.readBoolean();
         numThreads = p.readInt();
+        // older ParallelSequences didn't write workStealing: reading past the end of their data throws an EOFException
+        try { workStealing = p.readBoolean(); }
+        catch (java.io.EOFException e) { workStealing = false; }
+        busyTimes = new long[0];
         // don't write operating
         // dont' write threads
         // rebuild locks
@@ -169,9 +225,6 @@ public class ParallelSequence extends Sequence
             loadSteps();
             }
 
-        if (threads == null)  // rebuild threads
-            threads = new ThreadPool();
-
         // How many threads?
         int size = this.size;
         int n = numThreads;
@@ -181,6 +234,25 @@ public class ParallelSequence extends Sequence
             n = size;
         if (n > size)
             n = size;
+        if (n < 1)
+            {
+            // nothing to do
+            busyTimes = new long[0];
+            operating = false;
+            return;
+            }
+        if (busyTimes.length != n)
+            busyTimes = new long[n];
+
+        if (workStealing)
+            {
+            stepWorkStealing(state, size, n);
+            operating = false;
+            return;
+            }
+
+        if (threads == null)  // rebuild threads
+            threads = new ThreadPool();
         
         int jump = size / n;
         int extra = size % n;
@@ -225,13 +297,13 @@ public class ParallelSequence extends Sequence
             {
             if (extra > 0)
             	{
-            	workers[i] = new Worker(state, current, current + jump + 1, 1);
+            	workers[i] = new Worker(state, current, current + jump + 1, 1, i);
             	current += (jump + 1);
             	extra--;
             	}
             else
             	{
-            	workers[i] = new Worker(state, current, current + jump, 1);
+            	workers[i] = new Worker(state, current, current + jump, 1, i);
             	current += jump;
             	}
             }
@@ -248,6 +320,50 @@ public class ParallelSequence extends Sequence
         }
 
 
+    // Steps with work stealing in the SimState's shared threads.  Each worker owns a range of steppables
+    // [lo, hi), packed into a long so that it can be updated atomically.  The owner takes chunks from the front;
+    // thieves take the back half.
+    void stepWorkStealing(final SimState state, final int size, final int n)
+        {
+        final AtomicLongArray ranges = new AtomicLongArray(n);
+        int jump = size / n;
+        int extra = size % n;
+        int current = 0;
+        for(int i = 0; i < n; i++)
+            {
+            int end = current + jump + (extra > 0 ? 1 : 0);
+            if (extra > 0) extra--;
+            ranges.set(i, pack(current, end));
+            current = end;
+            }
+
+        final CountDownLatch done = new CountDownLatch(n);
+        StealingWorker[] workers = new StealingWorker[n];
+        for(int i = 0; i < n; i++)
+            workers[i] = new StealingWorker(state, ranges, i, done);
+
+        state.getSharedThreads().startThreads(workers, "ParallelSequence");
+
+        // we can't use joinThreads() since the threads may be shared with other ParallelSequences
+        while(true)
+            {
+            try { done.await(); break; }
+            catch (InterruptedException e) { } // ignore
+            }
+
+        for(int i = 0; i < n; i++)
+            {
+            Throwable e = workers[i].exception;
+            if (e instanceof RuntimeException) throw (RuntimeException) e;
+            else if (e instanceof Error) throw (Error) e;
+            else if (e != null) throw new RuntimeException(e);
+            }
+        }
+
+    static long pack(int lo, int hi) { return (((long) lo) << 32) | (hi & 0xFFFFFFFFL); }
+    static int lo(long range) { return (int)(range >>> 32); }
+    static int hi(long range) { return (int) range; }
+
     public void replaceSteppables(Collection collection)
         {
         synchronized(operatingLock)
@@ -351,16 +467,19 @@ public class ParallelSequence extends Sequence
         int start;
         int end;
         int modulo;
-        public Worker(SimState state, int start, int end, int modulo)
+        int index;
+        public Worker(SimState state, int start, int end, int modulo, int index)
             {
             this.state = state;
             this.start = start;
             this.end = end;
             this.modulo = modulo;
+            this.index = index;
             }
         
         public void run()
             {
+            long time = System.nanoTime();
             Steppable[] steps = ParallelSequence.this.steps;
             int modulo = this.modulo;
             for(int s = start; s < end; s += modulo)
@@ -371,6 +490,7 @@ public class ParallelSequence extends Sequence
                 steps[s].step(state);
                 assert sim.util.LocationLog.clear();
                 }
+            busyTimes[index] = System.nanoTime() - time;
             }
 
         // explicitly state a UID in order to be 'cross-platform' serializable 
@@ -379,169 +499,148 @@ public class ParallelSequence extends Sequence
         private static final long serialVersionUID = 1;
         }
         
-    // explicitly state a UID in order to be 'cross-platform' serializable
-    // because we contain an inner class and compilers come up with all
-    // sorts of different UIDs for inner classes and their parents.
-    private static final long serialVersionUID = 1;
-    }
-    
-// Here we use our own thread pool.  This pool is constructed so that we
-// can fire off N threads with a minimum of locking and wait()ing, which
-// just kills us when we have lots of very short-length jobs as is the case
-// for something like a ParallelSequence.
-
-class ThreadPool
-    {
-    // object for notifying threads to all start.  This lets us do a notifyAll() in bulk
-    // rather than separate notify()s on each of the threads, which is very costly.
-    Object[] all = new Object[0];
-    
-    // Thread pool
-    ArrayList threads = new ArrayList();
-    int totalThreads = 0;
-                
-	// holds a thread
-    class Node implements Runnable
+    // a work-stealing worker
+    class StealingWorker implements Runnable
         {
-        volatile boolean die = false;  // raised when the Node is asked to kill its thread and die.
-        volatile boolean go = false;  // raised when the Node is asked to have its thread run the runnable toRun.
-        volatile public Runnable toRun;  // the runnable to run
-        public Thread thread;
-            
-        public Node(String name) 
+        SimState state;
+        AtomicLongArray ranges;
+        int index;
+        CountDownLatch done;
+        Throwable exception;
+        
+        public StealingWorker(SimState state, AtomicLongArray ranges, int index, CountDownLatch done)
             {
-            thread = new Thread(this); 
-            thread.setDaemon(true);
-            thread.setName(name);
+            this.state = state;
+            this.ranges = ranges;
+            this.index = index;
+            this.done = done;
             }
-            
+        
         public void run()
             {
-            while(true)
+            long time = System.nanoTime();
+            try
                 {
-                // this is outside because these are booleans and are atomic, and it
-                // doesn't matter anyway because they're READ here and only WRITTEN
-                // elsewhere.  It gives us a small chance of escaping the synchronization
-                // immediately below.
-                if (!go && !die)
-                	{
-		            synchronized(all) 
-	                	{
-	                	while (!go && !die)
-							{
-		                	try { all.wait(0); }
-		                	catch (InterruptedException e) { } // ignore
-		                	}
-	                    }
-	                }
-
-	            // at this point either go or die has been raised and toRun won't be updated again
-	            // until after adding back into the list, so we can access them here safely without synchronization
-	            
-				if (die) { die = false; return; }
-				go = false;
-                toRun.run();
-                
-                // add myself back in the list
-                synchronized(threads)
+                Steppable[] steps = ParallelSequence.this.steps;
+                AtomicLongArray ranges = this.ranges;
+                while(!pleaseDie)
                     {
-                    threads.add(this);  // adds to the head -- it seems we get a 20% performance boost pulling hot threads from the head when doing nothing with them.
-                    if (totalThreads == threads.size())  // we're all in the bag, let the pool know if it's joining
-                        threads.notify();
+                    long range = ranges.get(index);
+                    int lo = lo(range);
+                    int hi = hi(range);
+                    if (lo < hi)
+                        {
+                        // take a chunk from the front of my range.  Chunks shrink as the range empties
+                        // so there's something left to steal near the end.
+                        int chunk = (hi - lo) >> 3;
+                        if (chunk < 1) chunk = 1;
+                        if (!ranges.compareAndSet(index, range, pack(lo + chunk, hi))) continue;  // someone stole from me, try again
+                        for(int s = lo; s < lo + chunk; s++)
+                            {
+                            assert sim.util.LocationLog.set(steps[s]);
+                            steps[s].step(state);
+                            assert sim.util.LocationLog.clear();
+                            }
+                        }
+                    else if (!steal()) break;  // nothing left anywhere
                     }
                 }
-            }
-        }
-    
-    
-    // Joins and kills all threads, both those running and those sitting in the pool
-    void killThreads()
-        {
-        synchronized(threads)
-            {
-            joinThreads();
-            
-            // at this point size == totalthreads
-            int size = threads.size();
-            
-            for(int i = 0; i < size; i++)
+            catch (Throwable e)
                 {
-                Node node = (Node)(threads.get(i));
-                node.die = true;  // it's okay if this isn't synchronized
+                exception = e;  // rethrown by the ParallelSequence
                 }
-                
-            // wake up threads to die
-            synchronized(all) { all.notifyAll(); }
-
-            for(int i = 0; i < size; i++)
+            finally
                 {
-                Node node = (Node)(threads.remove(size - i - 1));
-                try { node.thread.join(); }
-                catch (InterruptedException e) { } // ignore
-            	totalThreads--;
+                busyTimes[index] = System.nanoTime() - time;
+                done.countDown();
                 }
             }
-        }
-            
-    // Waits for all presently running threads to complete
-    void joinThreads()
-        {
-        synchronized(threads)
+        
+        // steals the back half of the largest remaining range and makes it my own.  Returns false if there's nothing to steal.
+        boolean steal()
             {
-            while(totalThreads > threads.size())  // there are still outstanding threads
-                try { threads.wait(0); }
-                catch (InterruptedException e) { }  // ignore
+            AtomicLongArray ranges = this.ranges;
+            int n = ranges.length();
+            while(true)
+                {
+                int victim = -1;
+                long victimRange = 0;
+                int largest = 0;
+                for(int i = 0; i < n; i++)
+                    {
+                    long range = ranges.get(i);
+                    int remaining = hi(range) - lo(range);
+                    if (remaining > largest) { largest = remaining; victim = i; victimRange = range; }
+                    }
+                if (victim == -1) return false;
+                int lo = lo(victimRange);
+                int hi = hi(victimRange);
+                int mid = lo + (hi - lo) / 2;  // if just one is left, we take it
+                if (ranges.compareAndSet(victim, victimRange, pack(lo, mid)))
+                    {
+                    // nobody steals from me while my range is empty, so this is safe
+                    ranges.set(index, pack(mid, hi));
+                    return true;
+                    }
+                }
             }
         }
         
-    
-    void startThreads(Runnable[] run, String name)
-    	{
-        Node[] nodes = new Node[run.length];
+    /** Compares plain and work-stealing ParallelSequences on a skewed workload, where
+        one steppable in sixteen is a hundred times more expensive than the others, and the expensive
+        ones are clustered at the front of the sequence. */
+    public static void main(String[] args)
+        {
+        final int NUM_STEPPABLES = 20000;
+        final int STEPS = 50;
+        final int TRIALS = 5;
         
-        // we're going to do this in bulk rather than individually, so
-        // we need to first gather all the needed threads into nodes
-        synchronized(threads) 
+        final double[] junk = new double[NUM_STEPPABLES];
+        Steppable[] steps = new Steppable[NUM_STEPPABLES];
+        for(int i = 0; i < NUM_STEPPABLES; i++)
             {
-            int available = threads.size();
-            for (int i = 0; i < run.length; i++)
-            	{
-				if (available == 0)
-					{
-					nodes[i] = new Node(name + " " + totalThreads);
-                   	nodes[i].toRun = run[i]; 
-                	nodes[i].go = true; 
-					
-                    nodes[i].thread.start();  // since go is already set, this thread won't even bother to wait()
-					totalThreads++;
-					}
-				else  // pull a thread
-					{
-					nodes[i] = (Node)(threads.remove(available-1));  // removes from the head
-					
-					// this can be done without synchronization on the node
-					// because the node is waiting for go or die to be true
-					// before it accesses toRun at this stage
-					nodes[i].toRun = run[i]; 
-
-					// this may cause the node to prematurely fire without waiting on 'all',
-					// but that's a good thing.
-					nodes[i].go = true; 
-					available--;
-					}
-				}
+            final int index = i;
+            final int work = (i < NUM_STEPPABLES / 16 ? 2000 : 20);
+            steps[i] = new Steppable()
+                {
+                public void step(SimState state)
+                    {
+                    double d = index;
+                    for(int j = 0; j < work; j++) d = Math.sqrt(d + j);
+                    junk[index] = d;
+                    }
+                };
             }
         
-        synchronized(all) 
-        	{
-	       	// get all the nodes going
-	       	all.notifyAll();
-			}
-    	}
+        SimState state = new SimState(4357);
+        for(int trial = 0; trial < TRIALS; trial++)
+            {
+            for(int which = 0; which < 2; which++)
+                {
+                ParallelSequence seq = new ParallelSequence(steps, CPUS);
+                seq.setWorkStealing(which == 1);
+                long ms = System.currentTimeMillis();
+                double imbalance = 0;
+                for(int i = 0; i < STEPS; i++)
+                    {
+                    seq.step(state);
+                    imbalance += seq.getImbalance();
+                    }
+                System.out.println((which == 0 ? "Blocks:        " : "Work Stealing: ") +
+                    (System.currentTimeMillis() - ms) + " ms for " + STEPS + " steps, mean imbalance " + (imbalance / STEPS));
+                seq.cleanup();
+                }
+            }
+        state.finish();
+        }
 
+    // explicitly state a UID in order to be 'cross-platform' serializable
+    // because we contain an inner class and compilers come up with all
+    // sorts of different UIDs for inner classes and their parents.
     private static final long serialVersionUID = 1;
     }
     
+    
 
 /****
 	Thread Pool using only Spin-waits (ugh, I know).
@@ -0,0 +1,271 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+import sim.util.*;
+import java.io.*;
+
+/**
+   Runs a model at every point of a SweepDesign, all within one JVM.  At each point the design's parameters are
+   set as properties of the SimState (through sim.util.Properties, just as an inspector would set them) before
+   start() is called, and the model is then stepped until the schedule is exhausted, a given number of steps
+   have been taken, or a given time has been reached.  Each point may be run several times (see setRepeat(...)).
+   The jobs are numbered point * repeat + replicate, and each job's seed is the base seed plus its job number.
+
+   <p>Jobs are handed out to a number of threads from a shared queue.  Each thread keeps a single SimState and
+   reuses it for job after job, as the GUI does when you press play again, so the model class is loaded and its
+   code warmed up only once for the whole sweep rather than once per run.  The names of the design's parameters
+   are likewise looked up among the SimState's properties only once per thread.  This requires that your model's
+   start() build the model afresh, as it should anyway.  If it can't, call setReuseStates(false) to build a new
+   SimState for each job.
+
+   <p>As each job finishes, a line is appended to a BatchResults file if you've provided one: the job number,
+   seed, design point and replicate, the value of each parameter as actually set, the number of steps, the
+   simulation time, the wall clock time in milliseconds, whether the schedule was exhausted, and then any results
+   the model reports through SimState.resultNames() and SimState.results().  Jobs already in the file are skipped,
+   so an interrupted sweep can be resumed.
+
+   <p>The easiest way to run a sweep is through doLoop(...): see its <tt>-sweep</tt> option.
+*/
+
+public class ParameterSweep
+    {
+    MakesSimState generator;
+    String[] args;
+    SweepDesign design;
+
+    int threads = 1;
+    long repeat = 1;
+    long seed = 1;
+    long steps = -1;
+    double until = Double.POSITIVE_INFINITY;
+    BatchResults results = null;
+    boolean reuseStates = true;
+    boolean quiet = false;
+
+    /** Builds a sweep of the given design over SimStates made by the given generator, which is passed the
+        given command-line arguments. */
+    public ParameterSweep(MakesSimState generator, String[] args, SweepDesign design)
+        {
+        this.generator = generator;
+        this.args = args;
+        this.design = design;
+        }
+
+    public SweepDesign getDesign() { return design; }
+
+    /** Sets the number of threads running jobs at once.  The default is 1. */
+    public void setThreads(int threads)
+        {
+        if (threads < 1) throw new IllegalArgumentException("Number of threads must be >= 1: " + threads);
+        this.threads = threads;
+        }
+    public int getThreads() { return threads; }
+
+    /** Sets the number of times the model is run at each point of the design.  The default is 1. */
+    public void setRepeat(long repeat)
+        {
+        if (repeat < 1) throw new IllegalArgumentException("Repeat must be >= 1: " + repeat);
+        this.repeat = repeat;
+        }
+    public long getRepeat() { return repeat; }
+
+    /** Sets the base seed: each job's seed is the base seed plus its job number. */
+    public void setSeed(long seed)
+        {
+        if (seed == 0) throw new IllegalArgumentException("Seed must not be 0.");
+        this.seed = seed;
+        }
+    public long getSeed() { return seed; }
+
+    /** Sets the number of steps each job runs for, or -1 (the default) for no limit. */
+    public void setSteps(long steps)
+        {
+        if (steps < -1) throw new IllegalArgumentException("Steps must be >= 0, or -1 for no limit: " + steps);
+        this.steps = steps;
+        }
+    public long getSteps() { return steps; }
+
+    /** Sets the simulation time after which each job stops, or infinity (the default) for no limit. */
+    public void setUntil(double until) { this.until = until; }
+    public double getUntil() { return until; }
+
+    /** Sets the file to which results are written as each job finishes, or null (the default) for none. */
+    public void setResults(BatchResults results) { this.results = results; }
+    public BatchResults getResults() { return results; }
+
+    /** Sets whether each thread reuses one SimState for all of its jobs (the default), or builds a new one for each. */
+    public void setReuseStates(boolean val) { reuseStates = val; }
+    public boolean getReuseStates() { return reuseStates; }
+
+    /** Sets whether progress messages are printed.  The default is to print them. */
+    public void setQuiet(boolean val) { quiet = val; }
+    public boolean getQuiet() { return quiet; }
+
+    /** Returns the total number of jobs: the number of design points times the repeat. */
+    public long getNumJobs() { return design.getNumPoints() * repeat; }
+
+    /** Runs the sweep, returning when every job is done.  An exception thrown by a job is passed on once every
+        thread has stopped; the other threads stop taking new jobs when one fails. */
+    public void run()
+        {
+        final long numJobs = getNumJobs();
+        final long[] nextJob = new long[] { 0 };
+        final RuntimeException[] failure = new RuntimeException[1];
+
+        Thread[] t = new Thread[threads];
+        for(int i = 0; i < threads; i++)
+            {
+            t[i] = new Thread(new Runnable()
+                {
+                public void run()
+                    {
+                    SimState state = null;
+                    Setter setter = null;
+                    while(true)
+                        {
+                        long job;
+                        synchronized(nextJob)
+                            {
+                            if (failure[0] != null) break;
+                            job = nextJob[0]++;
+                            }
+                        if (job >= numJobs) break;
+                        if (results != null && results.isCompleted(job)) continue;  // already done in an earlier run
+
+                        try
+                            {
+                            if (state == null || !reuseStates)
+                                {
+                                state = generator.newInstance(seed + job, args);
+                                setter = new Setter(state, design);
+                                }
+                            runJob(state, setter, job);
+                            }
+                        catch (RuntimeException e)
+                            {
+                            synchronized(nextJob) { if (failure[0] == null) failure[0] = e; }
+                            break;
+                            }
+                        }
+                    }
+                });
+            t[i].start();
+            }
+
+        for(int i = 0; i < threads; i++)
+            {
+            try { t[i].join(); } catch (InterruptedException e) { }  // do nothing
+            }
+        if (failure[0] != null) throw failure[0];
+        }
+
+    void runJob(SimState state, Setter setter, long job)
+        {
+        long wallClock = System.currentTimeMillis();
+        int point = (int)(job / repeat);
+        long jobSeed = seed + job;
+        state.random.setSeed(jobSeed);
+        state.seed = jobSeed;
+        state.job = job;
+        Object[] values = setter.set(point);
+        if (!quiet) SimState.printlnSynchronized("Job: " + job + " Seed: " + jobSeed + " Point: " + point);
+
+        state.start();
+        boolean exhausted = false;
+        Schedule schedule = state.schedule;
+        while((steps == -1 || schedule.getSteps() < steps) && schedule.getTime() <= until)
+            {
+            if (!schedule.step(state))
+                {
+                exhausted = true;
+                break;
+                }
+            }
+        long stepsTaken = schedule.getSteps();
+        double time = schedule.getTime();
+        state.finish();
+        if (!quiet) SimState.printlnSynchronized("Job " + job + ": " + (exhausted ? "Exhausted" : "Quit") + " after " + stepsTaken + " steps");
+
+        if (results != null)
+            {
+            String[] resultNames = state.resultNames();
+            Object[] resultValues = state.results();
+            int p = design.getNumParameters();
+            String[] n = new String[7 + p + resultNames.length];
+            Object[] v = new Object[n.length];
+            n[0] = "seed"; v[0] = new Long(jobSeed);
+            n[1] = "point"; v[1] = new Integer(point);
+            n[2] = "replicate"; v[2] = new Long(job % repeat);
+            for(int i = 0; i < p; i++) { n[3 + i] = design.getName(i); v[3 + i] = values[i]; }
+            n[3 + p] = "steps"; v[3 + p] = new Long(stepsTaken);
+            n[4 + p] = "time"; v[4 + p] = new Double(time);
+            n[5 + p] = "wallclock"; v[5 + p] = new Long(System.currentTimeMillis() - wallClock);
+            n[6 + p] = "exhausted"; v[6 + p] = Boolean.valueOf(exhausted);
+            System.arraycopy(resultNames, 0, n, 7 + p, resultNames.length);
+            System.arraycopy(resultValues, 0, v, 7 + p, resultValues.length);
+            try { results.write(job, n, v); }
+            catch (IOException e) { throw new RuntimeException("Cannot write results for job " + job + ": " + e.getMessage()); }
+            }
+        }
+
+    /** Sets the design's parameters on one SimState.  The parameters are looked up among the SimState's
+        properties once, when the Setter is built, and found again by index thereafter. */
+    static class Setter
+        {
+        SweepDesign design;
+        Properties properties;
+        int[] index;
+        Class[] type;
+
+        Setter(SimState state, SweepDesign design)
+            {
+            this.design = design;
+            properties = Properties.getProperties(state);
+            int p = design.getNumParameters();
+            index = new int[p];
+            type = new Class[p];
+            for(int i = 0; i < p; i++)
+                {
+                index[i] = -1;
+                for(int j = 0; j < properties.numProperties(); j++)
+                    if (design.getName(i).equalsIgnoreCase(properties.getName(j)))
+                        { index[i] = j; break; }
+                if (index[i] == -1)
+                    throw new IllegalArgumentException("The model " + state.getClass().getName() + " has no property " + design.getName(i));
+                if (!properties.isReadWrite(index[i]))
+                    throw new IllegalArgumentException("The property " + design.getName(i) + " can't be set");
+                type[i] = properties.getType(index[i]);
+                if (type[i] != Double.TYPE && type[i] != Float.TYPE && type[i] != Long.TYPE && type[i] != Integer.TYPE &&
+                    type[i] != Short.TYPE && type[i] != Byte.TYPE && type[i] != Boolean.TYPE)
+                    throw new IllegalArgumentException("The property " + design.getName(i) + " is not a number or boolean, so can't be swept");
+                }
+            }
+
+        /** Sets the parameters to the given point of the design, returning the values actually set. */
+        Object[] set(int point)
+            {
+            Object[] values = new Object[index.length];
+            for(int i = 0; i < index.length; i++)
+                {
+                double d = design.getValue(point, i);
+                Class c = type[i];
+                Object val;
+                if (c == Double.TYPE) val = new Double(d);
+                else if (c == Float.TYPE) val = new Float((float)d);
+                else if (c == Long.TYPE) val = new Long(Math.round(d));
+                else if (c == Integer.TYPE) val = new Integer((int)Math.round(d));
+                else if (c == Short.TYPE) val = new Short((short)Math.round(d));
+                else if (c == Byte.TYPE) val = new Byte((byte)Math.round(d));
+                else val = Boolean.valueOf(d != 0);
+                values[i] = properties.setValue(index[i], val);
+                if (values[i] == null)
+                    throw new RuntimeException("Could not set property " + design.getName(i) + " to " + val);
+                }
+            return values;
+            }
+        }
+    }
@@ -88,6 +88,25 @@ import ec.util.*;
    but it could be made more efficient with a Calendar Queue designed for the purposes of your simulation.  We settled on a Heap because
    we do not know what the expected scheduling pattern will be for any given simulation, and so had to go for the most general case.  If you'd
    care to customize your queue, you can do so by overriding the createHeap() method in a custom Schedule.  We imagine this would be rare.
+   
+   <p>One common scheduling pattern deserves special mention: very large numbers of agents all rescheduled for the same few
+   (time, ordering) pairs, typically time+1.0.  For this case we provide <b>BucketHeap</b>, which groups events into buckets by
+   (time, ordering) using primitive arrays, so scheduling an event is O(1) and allocates no Key.  To use it, override createHeap()
+   to return a new BucketHeap.
+   
+   <p><b>Parallel Stepping</b>.  Steppables scheduled for the same time and the same ordering are stepped in random order, which
+   means that the Schedule already treats them as independent of one another.  If you call <b>setParallelThreads(<i>n</i>)</b>
+   with <i>n</i> &gt; 1, then each such group (if it is at least getParallelThreshold() in size) is split into <i>n</i> contiguous
+   chunks which are stepped at the same time in separate threads.  The Schedule waits for every chunk in a group to finish before
+   moving on to the next ordering, so orderings still act as barriers.  As with ParallelSequence, you're responsible
+   for making sure your Steppables don't interfere with one another when stepped in parallel.
+   
+   <p>In particular, state.random is unsynchronized and must not be used by Steppables being stepped in parallel.  Instead
+   they should call <b>getRandom(state)</b>, which returns the current worker thread's own random number generator (or state.random
+   if the Steppable is not being stepped in parallel).  The worker generators are random streams built from the seed, like those
+   of SimState.randomStream(...), but on streams of their own which randomStream(...) never hands out.  They're built the first
+   time the Schedule steps in parallel after a reset(), without drawing from state.random, and Steppables scheduled from within worker threads are held back and added to the
+   queue in worker order once the group has finished.  Thus a run is reproducible for a given seed and number of threads.
 */
     
 
@@ -157,6 +176,23 @@ public class Schedule implements java.io.Serializable
             }
         }
         
+    // number of threads used to step each ordering group.  1 means serial stepping (the default).
+    int parallelThreads = 1;
+    
+    // ordering groups smaller than this are always stepped serially
+    int parallelThreshold = 64;
+    
+    // one random number generator per worker, built from the seed.  Cleared in reset().
+    MersenneTwisterFast[] parallelRandoms = null;
+    
+    // Threads are not serializable.  These are rebuilt as needed.
+    transient ThreadPool parallelPool = null;
+    transient ParallelWorker[] parallelWorkers = null;
+    transient ThreadLocal currentWorker = null;
+    
+    // true only while worker threads are stepping a group
+    boolean parallelStepping = false;
+    
     /** Creates a Schedule. */
     public Schedule()
         {
@@ -235,7 +271,9 @@ public class Schedule implements java.io.Serializable
             }
         }
 
-    /** Empties out the schedule and resets it to a pristine state BEFORE_SIMULATION, with steps = 0.  If you're
+    /** Empties out the schedule and resets it to a pristine state BEFORE_SIMULATION, with steps = 0.  Unless
+        called from inside the step() method, this also deletes any threads the Schedule had created to step in
+        parallel: they're built again as needed.  If you're
         looking for a way to kill your simulation from a Steppable, use SimState.kill() instead.  */
     public void reset()
         {
@@ -245,7 +283,24 @@ public class Schedule implements java.io.Serializable
             steps = 0;
             queue = createHeap();  // let 'em GC  -- must be inside the lock so scheduleOnce doesn't try to add more
             sealed = false;
+            parallelRandoms = null;  // rebuild from the seed next time we step in parallel
+            }
+        cleanupParallelThreads();
+        }
+    
+    // Deletes the threads used to step in parallel, if any.  Does nothing inside the step() method,
+    // where the threads may be in use (or we may be one of them).  Called by reset() and SimState.finish().
+    void cleanupParallelThreads()
+        {
+        if (inStep) return;
+        ThreadPool pool;
+        synchronized(lock)
+            {
+            pool = parallelPool;
+            parallelPool = null;
+            parallelWorkers = null;
             }
+        if (pool != null) pool.killThreads();
         }
     
     /** Returns true if the schedule has nothing left to do. */
@@ -278,8 +333,58 @@ public class Schedule implements java.io.Serializable
         queue = queue.merge(other.queue);
         }
 
+    /** Sets the number of threads used to step each group of Steppables sharing the same time and ordering.
+        1 (the default) steps everything serially in the calling thread.  ParallelSequence.CPUS picks
+        the number of processors available.  May not be called from inside the step() method.  Setting the number
+        of threads to 1 deletes any threads the Schedule had created. */
+    public void setParallelThreads(int threads)
+        {
+        if (inStep)
+            throw new RuntimeException("May not change the number of parallel threads while inside a step method.");
+        if (threads == ParallelSequence.CPUS)
+            threads = ParallelSequence.availableProcessors;
+        if (threads < 1)
+            throw new IllegalArgumentException("Number of parallel threads must be >= 1 or ParallelSequence.CPUS: " + threads);
+        synchronized(lock)
+            {
+            if (threads != parallelThreads)
+                parallelRandoms = null;  // the generators depend on the number of threads
+            parallelThreads = threads;
+            }
+        if (threads == 1) cleanupParallelThreads();
+        }
+    
+    /** Returns the number of threads used to step each group of Steppables sharing the same time and ordering.  */
+    public int getParallelThreads() { synchronized(lock) { return parallelThreads; } }
+    
+    /** Sets the minimum size of a group of Steppables sharing the same time and ordering for it to be
+        stepped in parallel.  Smaller groups are stepped serially, since it's not worth waking up threads for them. */
+    public void setParallelThreshold(int size)
+        {
+        if (size < 1)
+            throw new IllegalArgumentException("Parallel threshold must be >= 1: " + size);
+        synchronized(lock) { parallelThreshold = size; }
+        }
+    
+    /** Returns the minimum size of a group of Steppables sharing the same time and ordering for it to be stepped in parallel. */
+    public int getParallelThreshold() { synchronized(lock) { return parallelThreshold; } }
+    
+    /** Returns the random number generator that the current thread should use.  If called by a Steppable which is being
+        stepped in parallel by the Schedule (see setParallelThreads(...)), this is the worker thread's own
+        generator.  Otherwise it's state.random. */
+    public MersenneTwisterFast getRandom(SimState state)
+        {
+        if (parallelStepping)
+            {
+            ParallelWorker worker = (ParallelWorker)(currentWorker.get());
+            if (worker != null) return parallelRandoms[worker.index];
+            }
+        return state.random;
+        }
+
     Bag currentSteps = new Bag();
     Bag substeps = new Bag();
+    IntBag orderingEnds = new IntBag();  // the end of each ordering group in currentSteps
     boolean inStep = false;  // prevents reentrancy
     /** Steps the schedule, gathering and ordering all the items to step on the next time step (skipping
         blank time steps), and then stepping all of them in the decided order.  
@@ -296,6 +401,7 @@ public class Schedule implements java.io.Serializable
         final MersenneTwisterFast random = state.random; // locals are faster
         
         int topSubstep = 0;  // we set this as a hack to avoid having to clear all the substeps each time until the very end
+        int threads = 1;
 
         // grab the events as quickly as possible
         synchronized(lock)
@@ -307,6 +413,7 @@ public class Schedule implements java.io.Serializable
             time = ((Key)(queue.getMinKey())).time;  // key shouldn't be able to be null; time should always be one bigger
 
             final boolean shuffling = this.shuffling; // locals are faster.  This one needs to be synchronized inside lock
+            threads = parallelThreads;
 
             // grab all of the steppables in the right order.  To do this, we employ two Bags:
             // 1. Each iteration of the while-loop, we grab all the steppables of the next ordering, put into the substeps Bag
@@ -329,6 +436,7 @@ public class Schedule implements java.io.Serializable
                 // dump
                 if (topSubstep < substeps.numObjs) topSubstep = substeps.numObjs;  // remember index of largest substep since we're violating clear()
                 currentSteps.addAll(substeps);
+                orderingEnds.add(currentSteps.numObjs);
                 substeps.numObjs = 0;  // temporarily clear
                 
                 // check next key and break if we don't need to go on
@@ -346,7 +454,9 @@ public class Schedule implements java.io.Serializable
         Object[] objs = currentSteps.objs;
         try
             {
-            for(int x=0;x<len;x++)  // if we're not being killed...
+            if (threads > 1)
+                stepInParallel(state, objs, threads);
+            else for(int x=0;x<len;x++)  // if we're not being killed...
                 {
                 assert sim.util.LocationLog.set(((Steppable)(objs[x])));
                 ((Steppable)(objs[x])).step(state);
@@ -358,6 +468,7 @@ public class Schedule implements java.io.Serializable
             {
             // reuse currentSteps -- all objects should have been released to gc already, no need to call clear()
             currentSteps.numObjs = 0;
+            orderingEnds.numObjs = 0;
                 
             synchronized(lock) { steps++; }
             inStep = false;
@@ -365,6 +476,94 @@ public class Schedule implements java.io.Serializable
         return true;
         }
         
+    // Steps each ordering group in currentSteps, splitting large groups into contiguous chunks
+    // handed to the worker threads.  Small groups are stepped serially.
+    void stepInParallel(final SimState state, final Object[] objs, final int threads)
+        {
+        if (parallelPool == null) parallelPool = new ThreadPool();
+        if (currentWorker == null) currentWorker = new ThreadLocal();
+        if (parallelWorkers == null || parallelWorkers.length != threads)
+            {
+            parallelWorkers = new ParallelWorker[threads];
+            for(int i = 0; i < threads; i++)
+                parallelWorkers[i] = new ParallelWorker(i);
+            }
+        if (parallelRandoms == null || parallelRandoms.length != threads)
+            {
+            // build the worker generators from the seed, so they're reproducible for a given seed.  Worker i gets
+            // stream -1-i: randomStream(...) only hands out streams >= 0, so these never coincide with the user's.
+            long seed = state.streamSeed();
+            MersenneTwisterFast[] randoms = new MersenneTwisterFast[threads];
+            for(int i = 0; i < threads; i++)
+                randoms[i] = MersenneTwisterFast.forStream(seed, -1L - i);
+            synchronized(lock) { parallelRandoms = randoms; }
+            }
+        
+        final int threshold = getParallelThreshold();
+        final int[] ends = orderingEnds.objs;
+        final int numEnds = orderingEnds.numObjs;
+        int start = 0;
+        for(int e = 0; e < numEnds; e++)
+            {
+            int end = ends[e];
+            int size = end - start;
+            if (size < threshold)
+                {
+                for(int x = start; x < end; x++)
+                    {
+                    assert sim.util.LocationLog.set(((Steppable)(objs[x])));
+                    ((Steppable)(objs[x])).step(state);
+                    assert sim.util.LocationLog.clear();
+                    objs[x] = null;  // let gc even if being killed
+                    }
+                }
+            else
+                {
+                // divide the group up the same way ParallelSequence does
+                int n = (threads > size ? size : threads);
+                int jump = size / n;
+                int extra = size % n;
+                int current = start;
+                Runnable[] workers = new Runnable[n];
+                for(int i = 0; i < n; i++)
+                    {
+                    ParallelWorker worker = parallelWorkers[i];
+                    worker.state = state;
+                    worker.objs = objs;
+                    worker.start = current;
+                    current += (extra > 0 ? jump + 1 : jump);
+                    if (extra > 0) extra--;
+                    worker.end = current;
+                    workers[i] = worker;
+                    }
+                
+                parallelStepping = true;
+                parallelPool.startThreads(workers, "Schedule");
+                parallelPool.joinThreads();
+                parallelStepping = false;
+                
+                // add the held-back Steppables to the queue in worker order, then report any problems
+                Throwable exception = null;
+                synchronized(lock)
+                    {
+                    for(int i = 0; i < n; i++)
+                        {
+                        ParallelWorker worker = parallelWorkers[i];
+                        worker.flush();
+                        worker.state = null;
+                        worker.objs = null;
+                        if (exception == null) exception = worker.exception;
+                        worker.exception = null;
+                        }
+                    }
+                if (exception instanceof RuntimeException) throw (RuntimeException) exception;
+                else if (exception instanceof Error) throw (Error) exception;
+                else if (exception != null) throw new RuntimeException(exception);
+                }
+            start = end;
+            }
+        }
+
     /** Schedules the event to occur at getTime() + 1.0, 0 ordering. If this is a valid time
         and event, schedules the event and returns TRUE.
         This method at present returns FALSE if the schedule cannot
@@ -377,7 +576,7 @@ public class Schedule implements java.io.Serializable
         {
         synchronized(lock)
             {
-            return _scheduleOnce(new Key(/*must lock for:*/time +1.0,0),event);
+            return _scheduleOnce(/*must lock for:*/time +1.0, 0, null, event);
             }
         }
     
@@ -393,7 +592,7 @@ public class Schedule implements java.io.Serializable
         {
         synchronized(lock)
             {
-            return _scheduleOnce(new Key(/*must lock for:*/ time + delta, 0), event);
+            return _scheduleOnce(/*must lock for:*/ time + delta, 0, null, event);
             }
         }
         
@@ -409,7 +608,7 @@ public class Schedule implements java.io.Serializable
         {
         synchronized(lock)
             {
-            return _scheduleOnce(new Key(/*must lock for:*/time +1.0,ordering),event);
+            return _scheduleOnce(/*must lock for:*/time +1.0, ordering, null, event);
             }
         }
 
@@ -425,7 +624,7 @@ public class Schedule implements java.io.Serializable
         {
         synchronized(lock)
             {
-            return _scheduleOnce(new Key(/*must lock for:*/ time + delta, ordering), event);
+            return _scheduleOnce(/*must lock for:*/ time + delta, ordering, null, event);
             }
         }
 
@@ -442,7 +641,7 @@ public class Schedule implements java.io.Serializable
         {
         synchronized(lock)
             {
-            return _scheduleOnce(new Key(time,0),event);
+            return _scheduleOnce(time, 0, null, event);
             }
         }
         
@@ -459,7 +658,7 @@ public class Schedule implements java.io.Serializable
         {
         synchronized(lock)
             {
-            return _scheduleOnce(new Key(time,ordering),event);
+            return _scheduleOnce(time, ordering, null, event);
             }
         }
     
@@ -483,15 +682,25 @@ public class Schedule implements java.io.Serializable
         event is being scheduled for AFTER_SIMULATION.  The method 
         throws an IllegalArgumentException if the event is being scheduled for an invalid time, or is null. */
     boolean _scheduleOnce(Key key, final Steppable event)
+        {
+        return _scheduleOnce(key.time, key.ordering, key, event);
+        }
+
+    /** Schedules an item at the given time and ordering.  If the key is non-null, it is used as the key for the item, and
+        its time is updated if it must be bumped to the next possible timestamp.  If the key is null, a new Key is only built
+        if the queue needs one (a BucketHeap does not).  You must synchronize on this.lock before calling this method. */
+    boolean _scheduleOnce(double t, final int ordering, Key key, final Steppable event)
         {
         // locals are a teeny bit faster
         double time = this.time;
-        double t = key.time;
 
         // check to see if we're scheduling for the same exact time -- even if of different orderings, that doesn't matter
         if (t == time && t != AFTER_SIMULATION)
+            {
             // bump up time to the next possible item, unless we're at infinity already (AFTER_SIMULATION)
-            t = key.time = Double.longBitsToDouble(Double.doubleToRawLongBits(t)+1L);
+            t = Double.longBitsToDouble(Double.doubleToRawLongBits(t)+1L);
+            if (key != null) key.time = t;
+            }
 
         if (sealed || t >= AFTER_SIMULATION)             // situations where no further events can be added
             {
@@ -509,10 +718,30 @@ public class Schedule implements java.io.Serializable
         else if (event == null)
             throw new IllegalArgumentException("The provided Steppable is null");
         
-        queue.add(event, key);
+        if (parallelStepping)
+            {
+            // hold back Steppables scheduled by worker threads so they can be added in a deterministic order
+            ParallelWorker worker = (ParallelWorker)(currentWorker.get());
+            if (worker != null)
+                {
+                worker.add(t, ordering, key, event);
+                return true;
+                }
+            }
+
+        enqueue(t, ordering, key, event);
         return true;
         }
 
+    // Adds an item to the queue.  You must synchronize on this.lock before calling this method.
+    void enqueue(double t, int ordering, Key key, Steppable event)
+        {
+        if (queue instanceof BucketHeap)
+            ((BucketHeap)queue).add(event, t, ordering);  // no Key needed
+        else
+            queue.add(event, key == null ? new Key(t, ordering) : key);
+        }
+
 
     /** Schedules the event to recur at an interval of 1.0 starting at getTime() + 1.0, and at 0 ordering.
         If this is a valid event, schedules the event and returns a Stoppable, else returns null.
@@ -684,6 +913,84 @@ public class Schedule implements java.io.Serializable
             }
         }
 
+    // Steps a contiguous chunk of an ordering group in a worker thread, and holds
+    // back any Steppables scheduled meanwhile by that thread.
+    class ParallelWorker implements Runnable
+        {
+        int index;
+        SimState state;
+        Object[] objs;
+        int start;
+        int end;
+        Throwable exception;
+        
+        double[] times = new double[16];
+        int[] orderings = new int[16];
+        Key[] keys = new Key[16];
+        Steppable[] events = new Steppable[16];
+        int count = 0;
+        
+        public ParallelWorker(int index)
+            {
+            this.index = index;
+            }
+        
+        public void run()
+            {
+            currentWorker.set(this);
+            try
+                {
+                Object[] objs = this.objs;
+                SimState state = this.state;
+                for(int x = start; x < end; x++)
+                    {
+                    assert sim.util.LocationLog.set(((Steppable)(objs[x])));
+                    ((Steppable)(objs[x])).step(state);
+                    assert sim.util.LocationLog.clear();
+                    objs[x] = null;  // let gc
+                    }
+                }
+            catch (Throwable e)
+                {
+                exception = e;  // rethrown by the Schedule
+                }
+            finally
+                {
+                currentWorker.set(null);
+                }
+            }
+        
+        void add(double t, int ordering, Key key, Steppable event)
+            {
+            if (count == events.length)
+                {
+                int len = count * 2 + 1;
+                double[] t2 = new double[len]; System.arraycopy(times, 0, t2, 0, count); times = t2;
+                int[] o2 = new int[len]; System.arraycopy(orderings, 0, o2, 0, count); orderings = o2;
+                Key[] k2 = new Key[len]; System.arraycopy(keys, 0, k2, 0, count); keys = k2;
+                Steppable[] e2 = new Steppable[len]; System.arraycopy(events, 0, e2, 0, count); events = e2;
+                }
+            times[count] = t;
+            orderings[count] = ordering;
+            keys[count] = key;
+            events[count] = event;
+            count++;
+            }
+        
+        // You must synchronize on Schedule.lock before calling this method.
+        void flush()
+            {
+            for(int i = 0; i < count; i++)
+                {
+                if (!sealed)  // we may have been killed in the meantime
+                    enqueue(times[i], orderings[i], keys[i], events[i]);
+                keys[i] = null;  // let gc
+                events[i] = null;
+                }
+            count = 0;
+            }
+        }
+
     /** Timestamps stored as keys in the heap.  Comps are comparable by their time first, and their ordering second. */
     protected static class Key implements Comparable, Serializable
         {
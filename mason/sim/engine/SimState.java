@@ -8,7 +8,6 @@ package sim.engine;
 import ec.util.*;
 import java.util.*;
 import java.io.*;
-import java.util.zip.*;
 import java.text.*;
 
 /** SimState represents the simulation proper.  Your simulations generally will contain one top-level object which subclasses from SimState.
@@ -35,12 +34,20 @@ public class SimState implements java.io.Serializable
     /** SimState's schedule */
     public Schedule schedule;
     
+    // Random number streams handed out by randomStream(...), built as needed
+    MersenneTwisterFast[] streams = new MersenneTwisterFast[0];
+    // Lock for building the streams
+    Object streamsLock = new boolean[1];  // an array is a unique, serializable object
+    
     // All registered AsynchronousSteppables
     HashSet asynchronous = new HashSet();
     // Lock for accessing the HashSet
     Object asynchronousLock = new boolean[1];  // an array is a unique, serializable object
     // Are we cleaning house and replacing the HashSet?
     boolean cleaningAsynchronous = false;
+    
+    // Threads shared by all work-stealing ParallelSequences.  Threads are not serializable: these are rebuilt as needed.
+    transient ThreadPool sharedThreads = null;
         
     SimState(long seed, MersenneTwisterFast random, Schedule schedule)
         {
@@ -88,6 +95,48 @@ public class SimState implements java.io.Serializable
         seed = (int) seed;  // force to 32 bits since that's what MTF will be using anyway
         random = new MersenneTwisterFast(seed);
         this.seed = seed;
+        synchronized(streamsLock) { streams = new MersenneTwisterFast[0]; }
+        }
+
+    /** Returns a random number generator of its own for the given stream (a number &gt;= 0), built from the seed
+        (see MersenneTwisterFast.forStream(...)).  The generator for a given stream is built the first time you ask
+        for it and returned thereafter, until the next time start() is called.  Give each thread, or each agent, its own
+        stream, and they can draw random numbers in parallel (say in a ParallelSequence) without locking on the
+        SimState's random generator, while the simulation stays reproducible for a given seed.  Streams are best
+        numbered densely from 0.  If the seed is unknown (0), the streams are built from the current state of the
+        random generator instead, without advancing it.  You may call this method from several threads at once;
+        but each generator it returns is, like <tt>random</tt>, unsynchronized. */
+    public MersenneTwisterFast randomStream(int stream)
+        {
+        if (stream < 0) 
+            throw new IllegalArgumentException("Random stream must be >= 0: " + stream);
+        synchronized(streamsLock)
+            {
+            if (stream >= streams.length)
+                {
+                MersenneTwisterFast[] s = new MersenneTwisterFast[Math.max(stream + 1, streams.length * 2)];
+                System.arraycopy(streams, 0, s, 0, streams.length);
+                streams = s;
+                }
+            if (streams[stream] == null)
+                streams[stream] = MersenneTwisterFast.forStream(streamSeed(), stream);
+            return streams[stream];
+            }
+        }
+
+    // Returns the seed from which random streams are built: the seed, or if it's unknown, a number drawn from
+    // a copy of the random generator.  Also used by the Schedule to build its worker generators.
+    long streamSeed()
+        {
+        return (seed != 0 ? seed : ((MersenneTwisterFast)(random.clone())).nextLong());
+        }
+
+    // Checkpoints from older versions of MASON don't have random streams
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+        {
+        in.defaultReadObject();
+        if (streams == null) streams = new MersenneTwisterFast[0];
+        if (streamsLock == null) streamsLock = new boolean[1];
         }
                 
     /** Primes the generator.  Mersenne Twister seeds its first 624 numbers using a basic
@@ -115,6 +164,8 @@ public class SimState implements java.io.Serializable
         cleanupAsynchronous();
         // reset schedule
         schedule.reset();
+        // rebuild random streams from the seed as they're requested
+        synchronized(streamsLock) { streams = new MersenneTwisterFast[0]; }
         }
         
     /** Called either at the proper or a premature end to the simulation. 
@@ -125,6 +176,24 @@ public class SimState implements java.io.Serializable
     public void finish()
         {
         kill();  // cleans up asynchronous and resets the schedule, a good ending
+        cleanupSharedThreads();
+        schedule.cleanupParallelThreads();
+        }
+
+    // Returns the threads shared by all work-stealing ParallelSequences, building them if necessary
+    synchronized ThreadPool getSharedThreads()
+        {
+        if (sharedThreads == null)
+            sharedThreads = new ThreadPool();
+        return sharedThreads;
+        }
+    
+    // Deletes the threads shared by all work-stealing ParallelSequences.  Must not be called while any are being stepped.
+    synchronized void cleanupSharedThreads()
+        {
+        if (sharedThreads != null)
+            sharedThreads.killThreads();
+        sharedThreads = null;
         }
 
     /** A Steppable on the schedule can call this method to cancel the simulation.
@@ -246,22 +315,44 @@ public class SimState implements java.io.Serializable
         the stream. */
     public void writeToCheckpoint(OutputStream stream) throws IOException
         {
-        preCheckpoint();
+        writeToCheckpoint(stream, getCheckpointCodec());
+        }
 
-        GZIPOutputStream g = 
-            new GZIPOutputStream(
-                new BufferedOutputStream(stream));
+    /** Serializes out the SimState, and the entire simulation state (not including the graphical interfaces)
+        to the provided stream, encoded with the given codec. Calls preCheckpoint() before and postCheckpoint() afterwards.
+        Throws an IOException if the stream becomes invalid (prematurely closes, etc.).  Does not close the stream. */
+    public void writeToCheckpoint(OutputStream stream, CheckpointCodec codec) throws IOException
+        {
+        preCheckpoint();
 
-        ObjectOutputStream s = 
-            new ObjectOutputStream(g);
+        OutputStream g = codec.encode(stream);
+        boolean written = false;
+        try
+            {
+            ObjectOutputStream s = 
+                new ObjectOutputStream(g);
             
-        s.writeObject(this);
-        s.flush();
-        g.finish();  // need to force out the gzip stream AND manually flush it.  Java's annoying.  Took a while to find this bug...
-        g.flush();
+            s.writeObject(this);
+            s.close();  // finishes and flushes the encoding, but doesn't close the underlying stream
+            written = true;
+            }
+        finally
+            {
+            // if we failed partway, we must still release the encoder (a ChunkedDeflateCodec holds threads),
+            // but the original exception is the one worth reporting
+            if (!written) try { g.close(); } catch (IOException e) { }
+            }
         postCheckpoint();
         }
     
+    CheckpointCodec checkpointCodec = null;
+    
+    /** Sets the codec which writeToCheckpoint(...) uses to encode checkpoints.  If null, CheckpointCodec.GZIP is used. */
+    public void setCheckpointCodec(CheckpointCodec codec) { checkpointCodec = codec; }
+
+    /** Returns the codec which writeToCheckpoint(...) uses to encode checkpoints.  By default this is CheckpointCodec.GZIP. */
+    public CheckpointCodec getCheckpointCodec() { return (checkpointCodec == null ? CheckpointCodec.GZIP : checkpointCodec); }
+    
     /** Writes the state to a checkpoint and returns the state.
         If an exception is raised, it is printed and null is returned. */
     public SimState writeToCheckpoint(File file)
@@ -281,14 +372,20 @@ public class SimState implements java.io.Serializable
             }
         }
     
-    /** Creates a SimState from checkpoint.  If an exception is raised, it is printed and null is returned. */
+    /** Creates a SimState from checkpoint.  If the checkpoint is incremental (see BackgroundCheckpointer), the
+        checkpoints it builds on are read from the same directory.  If an exception is raised, it is printed and null is returned. */
     public static SimState readFromCheckpoint(File file)
         {
         try {
             FileInputStream f = new FileInputStream(file);
-            SimState state = readFromCheckpoint(f);
-            f.close();
-            return state;
+            try
+                {
+                return readDecoded(CheckpointCodec.decodeAny(f), file);
+                }
+            finally
+                {
+                f.close();
+                }
             }
         catch(Exception e) { e.printStackTrace(); return null; }
         }
@@ -297,15 +394,49 @@ public class SimState implements java.io.Serializable
         Throws an IOException if the stream becomes invalid (prematurely closes etc.).  Throws a ClassNotFoundException
         if a serialized object is not found in the CLASSPATH and thus cannot be created.  Throws an OptionalDataException
         if the stream is corrupted.  Throws a ClassCastException if the top-level object is not actually a SimState.
+        Incremental checkpoints can't be read from a stream, only from a file: for them an IOException is thrown.
         Does not close or flush the stream. */
     public static SimState readFromCheckpoint(InputStream stream)
         throws IOException, ClassNotFoundException, OptionalDataException, ClassCastException
         {
-        ObjectInputStream s = 
-            new ObjectInputStream(
-                new GZIPInputStream (
-                    new BufferedInputStream(stream)));
-        SimState state = (SimState) (s.readObject());
+        return readDecoded(CheckpointCodec.decodeAny(stream), null);
+        }
+
+    // Reads a SimState from a stream returned by CheckpointCodec.decodeAny(...), then closes the stream to release
+    // the decoder (which doesn't close the stream beneath it), then calls awakeFromCheckpoint().
+    static SimState readDecoded(InputStream decoded, File file)
+        throws IOException, ClassNotFoundException, OptionalDataException, ClassCastException
+        {
+        SimState state;
+        try
+            {
+            state = (SimState) (new ObjectInputStream(DeltaCheckpoint.open(decoded, file)).readObject());
+            }
+        finally
+            {
+            decoded.close();
+            }
+        state.awakeFromCheckpoint();
+        return state;
+        }
+
+    /** Creates and returns a new SimState object read in from the provided stream, which was encoded with the given codec.
+        If the codec is null, the stream is taken to be already decoded.  Otherwise the same as readFromCheckpoint(stream). */
+    public static SimState readFromCheckpoint(InputStream stream, CheckpointCodec codec)
+        throws IOException, ClassNotFoundException, OptionalDataException, ClassCastException
+        {
+        InputStream d = (codec == null ? stream : codec.decode(stream));
+        SimState state;
+        try
+            {
+            ObjectInputStream s = 
+                new ObjectInputStream(d);
+            state = (SimState) (s.readObject());
+            }
+        finally
+            {
+            if (d != stream) d.close();   // codecs don't close the underlying stream
+            }
         state.awakeFromCheckpoint();
         return state;
         }
@@ -348,6 +479,21 @@ public class SimState implements java.io.Serializable
         return job;
         }
 
+    /** Override this to report results of your own in the results file written by doLoop(...) (see -results):
+        it returns the names of the results, which must be the same for every job.  By default there are none. */
+    public String[] resultNames()
+        {
+        return new String[0];
+        }
+
+    /** Override this to report results of your own in the results file written by doLoop(...) (see -results):
+        it returns the results of the job, in the same order as resultNames(), and is called after finish().
+        By default there are none. */
+    public Object[] results()
+        {
+        return new Object[0];
+        }
+
     /** Calls doLoop(MakesSimState,args), passing in a MakesSimState which creates
         SimStates of the provided Class c, using the constructor new <simState>(<random seed>). */
     public static void doLoop(final Class c, String[] args)
@@ -385,23 +531,26 @@ public class SimState implements java.io.Serializable
                 "Format:           java " + generator.simulationClass().getName() + " \\\n" +
                 "                       [-help] [-repeat R] [-parallel P] [-seed S] \\\n" +
                 "                       [-until U] [-for F] [-time T] [-docheckpoint D] \\\n" +
-                "                       [-checkpointname N] [-checkpoint C] [-quiet] \n\n" +
+                "                       [-checkpointname N] [-checkpoint C] \\\n" +
+                "                       [-checkpointcodec K] [-backgroundcheckpoint] \\\n" +
+                "                       [-incrementalcheckpoint I] [-results F] \\\n" +
+                "                       [-sweep S] [-quiet] \n\n" +
                 "-help             Shows this message and exits.\n\n" +
                 "-repeat R         Long value > 0: Runs R jobs.  Unless overridden by a\n" +
                 "                  checkpoint recovery (see -checkpoint), the random seed for\n" +
                 "                  each job is the provided -seed plus the job# (starting at 0).\n" +
                 "                  Default: runs once only: job number is 0.\n\n" +
-                "-parallel P       Long value > 0: Runs P separate batches of jobs in parallel,\n" +
-                "                  each one containing R jobs (as specified by -repeat).  Each\n" +
-                "                  batch has its own independent set of checkpoint files.  Job\n" +
-                "                  numbers are 0, P, P*2, ... for the first batch, then 1, P+1,\n" +
-                "                  P*2+1, ... for the second batch, then 2, P+2, P*2+2, ... for\n" +
-                "                  the third batch, and so on.  -parallel may not be used in\n" +
-                "                  combination with -checkpoint.\n" +
-                "                  Default: one batch only (no parallelism).\n\n" +
+                "-parallel P       Long value > 0: Runs P*R jobs (R as specified by -repeat),\n" +
+                "                  numbered 0 through P*R-1, on P threads in parallel.  Each\n" +
+                "                  thread takes the next job from a shared queue as soon as it\n" +
+                "                  has finished its last one, so a slow job doesn't hold up\n" +
+                "                  the others.  Each job has its own checkpoint files.\n" +
+                "                  -parallel may not be used in combination with -checkpoint.\n" +
+                "                  Default: one thread only (no parallelism).\n\n" +
                 "-seed S           Long value not 0: the random number generator seed, unless \n" +
                 "                  overridden by a checkpoint recovery (see -checkpoint).\n" +
-                "                  Default: the system time in milliseconds.\n\n" +
+                "                  Default: the system time in milliseconds, or when resuming\n" +
+                "                  a batch, the seed recorded in the results file (see -results).\n\n" +
                 "-until U          Double value >= 0: the simulation must stop when the\n" +
                 "                  simulation time U has been reached or exceeded.\n" +
                 "                  If -for is also included, the simulation terminates when\n" + 
@@ -425,6 +574,24 @@ public class SimState implements java.io.Serializable
                 "                  Default: " + 
                 generator.simulationClass().getName().substring(generator.simulationClass().getName().lastIndexOf(".") + 1) + 
                 "\n\n" + 
+                "-checkpointcodec K String: how to compress checkpoints (see -docheckpoint):\n" +
+                "                  gzip (compact but slow), fast (chunked deflate on all\n" +
+                "                  processors), deflate (as compact as gzip, on all processors),\n" +
+                "                  or none.  Checkpoints in any of these formats can be loaded\n" +
+                "                  with -checkpoint.\n" +
+                "                  Default: gzip\n\n" +
+                "-backgroundcheckpoint   Compresses and writes checkpoints (see -docheckpoint)\n" +
+                "                  in a separate thread while the simulation continues.  The\n" +
+                "                  simulation pauses only long enough to copy itself into\n" +
+                "                  memory, and to wait for the previous checkpoint, if any, to\n" +
+                "                  be written.  Requires memory for two uncompressed copies.\n" +
+                "                  Default: the simulation waits while checkpoints are written.\n\n" +
+                "-incrementalcheckpoint I  Long value > 0: writes checkpoints in the\n" +
+                "                  background, as in -backgroundcheckpoint, but only every Ith\n" +
+                "                  one in full.  The others hold only what has changed since the\n" +
+                "                  previous checkpoint, and loading them with -checkpoint needs\n" +
+                "                  the earlier checkpoint files back to the last full one.\n" +
+                "                  Default: every checkpoint is full.\n\n" +
                 "-checkpoint C     String: loads the simulation from file C, recovering the job\n" +
                 "                  number and the seed.  If the checkpointed simulation was begun\n" +
                 "                  on the command line but was passed through the GUI for a while\n" +
@@ -436,6 +603,25 @@ public class SimState implements java.io.Serializable
                 "                  from the recovered job and seed.\n" +
                 "                  Default: starts a new simulation rather than loading one, at\n" +
                 "                  job 0 and with the seed given in -seed.\n\n" + 
+                "-results F        String: as each job finishes, appends a line to the CSV\n" +
+                "                  file F with its job number, seed, steps, simulation time,\n" +
+                "                  wall clock time in milliseconds, whether it was exhausted,\n" +
+                "                  and any results the model reports (see SimState.results()).\n" +
+                "                  If F already exists, the jobs already in it are skipped,\n" +
+                "                  so an interrupted batch can be resumed.  It must be resumed\n" +
+                "                  with the same seed (and sweep design file): without -seed,\n" +
+                "                  the seed recorded in F is used, and a different -seed is\n" +
+                "                  refused.\n" +
+                "                  Default: no results file.\n\n" +
+                "-sweep S          String: runs the model at each point of the parameter design\n" +
+                "                  described in the file S (see sim.engine.SweepDesign), setting\n" +
+                "                  the model's properties before each run.  Each point is run R\n" +
+                "                  times (see -repeat), on P threads (see -parallel), each for\n" +
+                "                  the steps or time given in -for and -until.  Each thread\n" +
+                "                  reuses one SimState for all its runs.  The parameter values\n" +
+                "                  are written to the results file along with everything else\n" +
+                "                  (see -results).  Checkpoint options are ignored.\n" +
+                "                  Default: no sweep.\n\n" +
                 "-quiet            Does not print messages except for errors and warnings.\n" + 
                 "                  This option implies -time 0.\n" +
                 "                  Default: prints all messages.\n"
@@ -476,8 +662,7 @@ public class SimState implements java.io.Serializable
                 {
                 throw new RuntimeException("Invalid 'seed' value: " + seed_s + ", must be a non-zero integer, or nonexistent to seed by clock time");
                 }
-        final long seed_init = _seed;  // grrrr
-        
+
         long __for = -1;
         String for_s = argumentForKey("-for", args);
         if (for_s != null)
@@ -521,6 +706,33 @@ public class SimState implements java.io.Serializable
                 throw new RuntimeException("Invalid checkpoint modulo: " + cmod_s + ", must be a positive integer");
                 }
         final long cmod = _cmod;
+
+        CheckpointCodec _codec = null;
+        String codec_s = argumentForKey("-checkpointcodec", args);
+        if (codec_s != null)
+            try
+                {
+                _codec = CheckpointCodec.forName(codec_s);
+                }
+            catch (IllegalArgumentException e)
+                {
+                throw new RuntimeException("Invalid checkpoint codec: " + codec_s + ", must be gzip, fast, deflate, or none");
+                }
+        final CheckpointCodec codec = _codec;
+        int _incremental = 1;
+        String incremental_s = argumentForKey("-incrementalcheckpoint", args);
+        if (incremental_s != null)
+            try
+                {
+                _incremental = Integer.parseInt(incremental_s);
+                if (_incremental <= 0) throw new Exception();
+                }
+            catch (Exception e)
+                {
+                throw new RuntimeException("Invalid incremental checkpoint value: " + incremental_s + ", must be a positive integer");
+                }
+        final int incremental = _incremental;
+        final boolean backgroundCheckpoint = keyExists("-backgroundcheckpoint", args) || incremental_s != null;
         
         long _repeat = 1;
         String repeat_s = argumentForKey("-repeat", args);
@@ -559,6 +771,75 @@ public class SimState implements java.io.Serializable
             }
        
        
+        BatchResults _results = null;
+        String results_s = argumentForKey("-results", args);
+        if (results_s != null)
+            {
+            try
+                {
+                _results = new BatchResults(new File(results_s));
+                }
+            catch (IOException e)
+                {
+                throw new RuntimeException("Cannot open results file " + results_s + ": " + e.getMessage());
+                }
+            
+            // A resumed batch must use the same seed as before, else its jobs (and a Latin hypercube sweep design)
+            // would come from two different seeds.  A checkpoint brings its own seed with it.
+            if (_results.getNumCompleted() > 0 && checkpointFile == null)
+                {
+                long recorded = _results.getBaseSeed();
+                if (recorded == 0)
+                    {
+                    if (seed_s == null)
+                        throw new RuntimeException("Results file " + results_s + " already holds jobs, but not the seed they were run with: give the same -seed as before to resume it.");
+                    }
+                else if (seed_s == null)
+                    {
+                    _seed = recorded;
+                    if (!quiet) System.err.println("Using the seed the jobs in " + results_s + " were run with: " + recorded);
+                    }
+                else if ((int)recorded != (int)_seed)  // only the low 32 bits of a seed are used
+                    throw new RuntimeException("Results file " + results_s + " holds jobs run with seed " + recorded + ", not " + _seed + ": a batch must be resumed with the same seed.");
+                if (!quiet)
+                    System.err.println("Results file " + results_s + " already holds " + _results.getNumCompleted() + " jobs: skipping them.");
+                }
+            }
+        final BatchResults results = _results;
+        final long seed_init = _seed;  // grrrr
+        
+        String sweep_s = argumentForKey("-sweep", args);
+        if (sweep_s != null)
+            {
+            if (checkpointFile != null)
+                {
+                System.err.println("Cannot load from checkpoint and sweep parameters at the same time.  Sorry.");
+                System.exit(1);
+                }
+            SweepDesign design = null;
+            try
+                {
+                design = SweepDesign.read(new File(sweep_s), new MersenneTwisterFast(seed_init));
+                }
+            catch (IOException e)
+                {
+                throw new RuntimeException("Invalid sweep design file " + sweep_s + ": " + e.getMessage());
+                }
+            ParameterSweep sweep = new ParameterSweep(generator, args, design);
+            sweep.setThreads(parallel);
+            sweep.setRepeat(repeat);
+            sweep.setSeed(seed_init);
+            sweep.setSteps(_for);
+            sweep.setUntil(until);
+            sweep.setResults(results);
+            sweep.setQuiet(quiet);
+            if (!quiet) System.err.println("Sweeping " + design.getNumParameters() + " parameters over " + design.getNumPoints() + " points: " + sweep.getNumJobs() + " jobs");
+            sweep.run();
+            if (results != null)
+                try { results.close(); } catch (IOException e) { e.printStackTrace(); }
+            System.exit(0);
+            }
+        
         // okay, now we actually get down to brass tacks
         
         // Note that this is kind of a mess -- we create a new thread even if we have
@@ -566,7 +847,12 @@ public class SimState implements java.io.Serializable
         // initial job within a thread.  This will likely change the job number, which
         // could conflict with other job numbers in other threads, so this is only permitted
         // if there is a SINGLE thread.  We already checked for that situation above.
+        //
+        // The threads take jobs from a shared queue -- really just a counter -- so that
+        // none of them sits idle while others still have several jobs to go.
         
+        final long numJobs = parallel * repeat;
+        final long[] nextJob = new long[] { 0 };
         Thread[] threads = new Thread[parallel];
         for(int _thread = 0; _thread < parallel; _thread++)
             {
@@ -576,11 +862,20 @@ public class SimState implements java.io.Serializable
                 public void run()
                     {
                     long time = time_init - 1;
-                    long job = thread * repeat;
-                    long seed = seed_init + job;  // initially anyway
-                    for(long rep = 0 ; rep < repeat; rep++)
+                    long firstJob = 0;
+                    long firstSeed = seed_init;
+                    while(true)
                         {
+                        long rep;
+                        synchronized(nextJob) { rep = nextJob[0]++; }
+                        if (rep >= numJobs) break;
+                        long job = firstJob + rep;
+                        long seed = firstSeed + rep;
                         SimState state = null;
+                        
+                        if (results != null && results.isCompleted(job) && !(rep == 0 && checkpointFile != null))
+                            continue;   // already done in an earlier run
+                        long wallClock = System.currentTimeMillis();
                 
                         // start from checkpoint?  Note this will only happen if there is only ONE thread, so it's okay to change the job number here
                         if (rep == 0 && checkpointFile!=null)  // only job 0 loads from checkpoint
@@ -595,10 +890,10 @@ public class SimState implements java.io.Serializable
                                 System.exit(1);
                                 }
                                                                                 
-                            job = state.job();
+                            job = firstJob = state.job();
                             if (state.seed() != 0) // likely good seed from the command line earlier
                                 {
-                                seed = state.seed();
+                                seed = firstSeed = state.seed();
                                 if (!quiet) printlnSynchronized("Recovered job: " + state.job() + " Seed: " + state.seed());
                                 }
                             else if (!quiet) printlnSynchronized("Renamed job: " + state.job() + " (unknown seed)");
@@ -614,6 +909,9 @@ public class SimState implements java.io.Serializable
                             state.start();
                             }
                         
+                        if (codec != null)
+                            state.setCheckpointCodec(codec);
+                        
                         NumberFormat rateFormat = NumberFormat.getInstance();
                         rateFormat.setMaximumFractionDigits(5);
                         rateFormat.setMinimumIntegerDigits(1);
@@ -625,6 +923,9 @@ public class SimState implements java.io.Serializable
                         long oldClock = System.currentTimeMillis();
                         Schedule schedule = state.schedule;
                         long firstSteps = schedule.getSteps();
+                        BackgroundCheckpointer checkpointer = (backgroundCheckpoint ? new BackgroundCheckpointer() : null);
+                        if (checkpointer != null)
+                            checkpointer.setFullCheckpointInterval(incremental);
                         
                         while((_for == -1 || steps < _for) && schedule.getTime() <= until)
                             {
@@ -655,9 +956,23 @@ public class SimState implements java.io.Serializable
                                 	id = state.getClass().getName().substring(state.getClass().getName().lastIndexOf(".") + 1);
                                 String s = "" + steps + "." + state.job() +  "." + id  + ".checkpoint";
                                 if (!quiet) printlnSynchronized("Job " + job + ": " + "Checkpointing to file: " + s);
-                                state.writeToCheckpoint(new File(s));
+                                if (checkpointer != null)
+                                    {
+                                    try { checkpointer.checkpoint(state, new File(s)); }
+                                    catch (IOException e) { e.printStackTrace(); }
+                                    }
+                                else state.writeToCheckpoint(new File(s));
                                 }
                             }
+                        
+                        if (checkpointer != null)
+                            {
+                            checkpointer.finish();
+                            if (!quiet && checkpointer.getNumCheckpoints() > 0)
+                                printlnSynchronized("Job " + job + ": " + "Checkpoints: " + checkpointer.getNumCheckpoints() + 
+                                    (checkpointer.getNumIncremental() > 0 ? " (" + checkpointer.getNumIncremental() + " incremental)" : "") + 
+                                    " Paused: " + checkpointer.getTotalPauseTime() + "ms (Copying: " + checkpointer.getTotalSnapshotTime() + "ms) Written in background: " + checkpointer.getTotalWriteTime() + "ms");
+                            }
                                 
                         state.finish();
                         
@@ -669,9 +984,23 @@ public class SimState implements java.io.Serializable
                             {
                             if (!quiet) printlnSynchronized("Job " + job + ": " + "Quit " + state.job);
                             }
-
-                        job++;
-                        seed++;
+                        
+                        if (results != null)
+                            {
+                            String[] names = state.resultNames();
+                            Object[] values = state.results();
+                            String[] n = new String[names.length + 5];
+                            Object[] v = new Object[values.length + 5];
+                            n[0] = "seed"; v[0] = new Long(state.seed());
+                            n[1] = "steps"; v[1] = new Long(state.schedule.getSteps());
+                            n[2] = "time"; v[2] = new Double(state.schedule.getTime());
+                            n[3] = "wallclock"; v[3] = new Long(System.currentTimeMillis() - wallClock);
+                            n[4] = "exhausted"; v[4] = Boolean.valueOf(retval);
+                            System.arraycopy(names, 0, n, 5, names.length);
+                            System.arraycopy(values, 0, v, 5, values.length);
+                            try { results.write(job, n, v); }
+                            catch (IOException e) { e.printStackTrace(); }
+                            }
                         }
                     }
                 });
@@ -687,6 +1016,8 @@ public class SimState implements java.io.Serializable
             {
             try { threads[thread].join(); } catch (InterruptedException ex) {  }  // do nothing
             }
+        if (results != null)
+            try { results.close(); } catch (IOException e) { e.printStackTrace(); }
         System.exit(0);
         }
         
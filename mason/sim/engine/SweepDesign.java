@@ -0,0 +1,301 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+import ec.util.*;
+import java.io.*;
+import java.util.*;
+
+/**
+   A design for a parameter sweep: a list of points, each giving a value to every one of a set of named
+   parameters.  The parameters are properties of a SimState (see sim.util.Properties), and ParameterSweep runs the
+   model once (or several times) at each point.
+
+   <p>You can build a design point by point, or have SweepDesign build one from the range [min, max] of each
+   parameter.  A <b>full factorial</b> design takes every combination of evenly spaced levels of each parameter, the
+   last parameter varying fastest.  A <b>Latin hypercube</b> of N samples cuts each range into N equal strata and
+   samples each stratum of each parameter exactly once, pairing strata of different parameters at random.  A
+   <b>Sobol</b> design of N samples takes the first N points of a Sobol quasirandom sequence (with the direction
+   numbers of Joe and Kuo), which fill the space more evenly than random samples do; N is best a power of two.
+   Sobol designs are limited to 16 parameters.
+
+   <p>Values are doubles.  ParameterSweep rounds them to the nearest integer for integral properties, and treats
+   nonzero as true for boolean properties.
+
+   <p>A design file, read with read(...), holds one line per parameter giving its name, its minimum and maximum, and
+   (for a full factorial design) its number of levels, which is 2 if omitted.  A line beginning <tt>design</tt>
+   gives the kind of design and, for Latin hypercube and Sobol designs, the number of samples.  Blank lines and
+   anything after a <tt>#</tt> are ignored.  For example:
+
+   <pre><tt>
+   design lhs 100
+   # name        min     max
+   Diffusion     0.0     1.0
+   NumBugs       10      200
+   </tt></pre>
+
+   <p>The design may be <tt>factorial</tt> (the default), <tt>lhs</tt>, or <tt>sobol</tt>.
+*/
+
+public class SweepDesign implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    String[] names;
+    double[][] points;
+
+    /** Builds a design from the given points, each of which must hold one value per parameter name. */
+    public SweepDesign(String[] names, double[][] points)
+        {
+        for(int i = 0; i < points.length; i++)
+            if (points[i].length != names.length)
+                throw new IllegalArgumentException("Point " + i + " has " + points[i].length + " values but there are " + names.length + " parameters.");
+        this.names = (String[])(names.clone());
+        this.points = points;
+        }
+
+    public int getNumPoints() { return points.length; }
+    public int getNumParameters() { return names.length; }
+    public String getName(int parameter) { return names[parameter]; }
+    public String[] getNames() { return (String[])(names.clone()); }
+    /** Returns the value of the given parameter at the given point. */
+    public double getValue(int point, int parameter) { return points[point][parameter]; }
+
+    static void checkRanges(String[] names, double[] min, double[] max)
+        {
+        if (min.length != names.length || max.length != names.length)
+            throw new IllegalArgumentException("There must be a minimum and maximum for each of the " + names.length + " parameters.");
+        for(int i = 0; i < names.length; i++)
+            if (!(min[i] <= max[i]))  // catches NaN too
+                throw new IllegalArgumentException("Invalid range for parameter " + names[i] + ": " + min[i] + " to " + max[i]);
+        }
+
+    /** Builds a full factorial design: every combination of <i>levels[i]</i> evenly spaced values of each parameter i,
+        from min[i] to max[i] inclusive.  A parameter with a single level is held at its minimum. */
+    public static SweepDesign fullFactorial(String[] names, double[] min, double[] max, int[] levels)
+        {
+        checkRanges(names, min, max);
+        if (levels.length != names.length)
+            throw new IllegalArgumentException("There must be a number of levels for each of the " + names.length + " parameters.");
+        long total = 1;
+        for(int i = 0; i < levels.length; i++)
+            {
+            if (levels[i] < 1)
+                throw new IllegalArgumentException("Invalid number of levels for parameter " + names[i] + ": " + levels[i]);
+            total *= levels[i];
+            if (total > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Too many points in full factorial design.");
+            }
+
+        double[][] points = new double[(int)total][names.length];
+        int[] level = new int[names.length];
+        for(int p = 0; p < points.length; p++)
+            {
+            for(int i = 0; i < names.length; i++)
+                points[p][i] = (levels[i] == 1 ? min[i] :
+                    (level[i] == levels[i] - 1 ? max[i] : min[i] + (max[i] - min[i]) * level[i] / (levels[i] - 1)));
+            // count, last parameter fastest
+            for(int i = names.length - 1; i >= 0; i--)
+                {
+                if (++level[i] < levels[i]) break;
+                level[i] = 0;
+                }
+            }
+        return new SweepDesign(names, points);
+        }
+
+    /** Builds a Latin hypercube design of the given number of samples. */
+    public static SweepDesign latinHypercube(String[] names, double[] min, double[] max, int samples, MersenneTwisterFast random)
+        {
+        checkRanges(names, min, max);
+        if (samples < 1)
+            throw new IllegalArgumentException("Invalid number of samples: " + samples);
+        double[][] points = new double[samples][names.length];
+        int[] strata = new int[samples];
+        for(int i = 0; i < names.length; i++)
+            {
+            for(int s = 0; s < samples; s++) strata[s] = s;
+            for(int s = samples - 1; s > 0; s--)
+                {
+                int r = random.nextInt(s + 1);
+                int tmp = strata[s]; strata[s] = strata[r]; strata[r] = tmp;
+                }
+            for(int s = 0; s < samples; s++)
+                points[s][i] = min[i] + (max[i] - min[i]) * ((strata[s] + random.nextDouble()) / samples);
+            }
+        return new SweepDesign(names, points);
+        }
+
+    // Primitive polynomials and initial direction numbers for dimensions 2 through 16, from Joe and Kuo's
+    // new-joe-kuo-6.21201: each row is the degree s, the coefficients a, and then m_1 ... m_s.
+    static final int[][] SOBOL =
+        {
+            { 1, 0, 1 },
+            { 2, 1, 1, 3 },
+            { 3, 1, 1, 3, 1 },
+            { 3, 2, 1, 1, 1 },
+            { 4, 1, 1, 1, 3, 3 },
+            { 4, 4, 1, 3, 5, 13 },
+            { 5, 2, 1, 1, 5, 5, 17 },
+            { 5, 4, 1, 1, 5, 5, 5 },
+            { 5, 7, 1, 1, 7, 11, 19 },
+            { 5, 11, 1, 1, 5, 1, 1 },
+            { 5, 13, 1, 1, 1, 3, 11 },
+            { 5, 14, 1, 3, 5, 5, 31 },
+            { 6, 1, 1, 3, 3, 9, 7, 49 },
+            { 6, 13, 1, 1, 1, 15, 21, 21 },
+            { 6, 16, 1, 3, 1, 13, 27, 49 },
+        };
+
+    /** The largest number of parameters a Sobol design may have. */
+    public static final int MAX_SOBOL_PARAMETERS = SOBOL.length + 1;
+
+    // Returns the 32 direction numbers of the given dimension, each scaled up to fill an int
+    static int[] sobolDirections(int dimension)
+        {
+        int[] v = new int[32];
+        if (dimension == 0)
+            {
+            for(int k = 0; k < 32; k++) v[k] = 1 << (31 - k);
+            return v;
+            }
+        int[] row = SOBOL[dimension - 1];
+        int s = row[0];
+        int a = row[1];
+        for(int k = 0; k < s; k++)
+            v[k] = row[2 + k] << (31 - k);
+        for(int k = s; k < 32; k++)
+            {
+            v[k] = v[k - s] ^ (v[k - s] >>> s);
+            for(int j = 1; j < s; j++)
+                if (((a >>> (s - 1 - j)) & 1) != 0)
+                    v[k] ^= v[k - j];
+            }
+        return v;
+        }
+
+    /** Builds a design from the first <i>samples</i> points of a Sobol sequence, starting with the point at
+        the minimum of every range. */
+    public static SweepDesign sobol(String[] names, double[] min, double[] max, int samples)
+        {
+        checkRanges(names, min, max);
+        if (samples < 1)
+            throw new IllegalArgumentException("Invalid number of samples: " + samples);
+        if (names.length > MAX_SOBOL_PARAMETERS)
+            throw new IllegalArgumentException("Sobol designs may have at most " + MAX_SOBOL_PARAMETERS + " parameters, not " + names.length);
+        double[][] points = new double[samples][names.length];
+        for(int i = 0; i < names.length; i++)
+            {
+            int[] v = sobolDirections(i);
+            int x = 0;
+            for(int p = 0; p < samples; p++)
+                {
+                if (p > 0)
+                    {
+                    // Gray code order: flip the direction number of the lowest zero bit of p-1
+                    int c = 0;
+                    for(int q = p - 1; (q & 1) != 0; q >>>= 1) c++;
+                    x ^= v[c];
+                    }
+                points[p][i] = min[i] + (max[i] - min[i]) * ((x & 0xFFFFFFFFL) / 4294967296.0);
+                }
+            }
+        return new SweepDesign(names, points);
+        }
+
+    /** Reads a design file (see the class documentation), using the given random number generator to build
+        Latin hypercube designs. */
+    public static SweepDesign read(File file, MersenneTwisterFast random) throws IOException
+        {
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try
+            {
+            return read(in, random);
+            }
+        finally
+            {
+            in.close();
+            }
+        }
+
+    /** Reads a design file (see the class documentation), using the given random number generator to build
+        Latin hypercube designs. */
+    public static SweepDesign read(BufferedReader in, MersenneTwisterFast random) throws IOException
+        {
+        String kind = "factorial";
+        int samples = 0;
+        ArrayList names = new ArrayList();
+        ArrayList min = new ArrayList();
+        ArrayList max = new ArrayList();
+        ArrayList levels = new ArrayList();
+
+        int lineNumber = 0;
+        String line;
+        while((line = in.readLine()) != null)
+            {
+            lineNumber++;
+            int hash = line.indexOf('#');
+            if (hash >= 0) line = line.substring(0, hash);
+            StringTokenizer tok = new StringTokenizer(line);
+            int count = tok.countTokens();
+            if (count == 0) continue;
+            String first = tok.nextToken();
+            try
+                {
+                if (first.equalsIgnoreCase("design"))
+                    {
+                    if (count < 2 || count > 3) throw new IOException();
+                    kind = tok.nextToken().toLowerCase();
+                    if (count == 3) samples = Integer.parseInt(tok.nextToken());
+                    }
+                else
+                    {
+                    if (count < 3 || count > 4) throw new IOException();
+                    names.add(first);
+                    min.add(Double.valueOf(tok.nextToken()));
+                    max.add(Double.valueOf(tok.nextToken()));
+                    levels.add(Integer.valueOf(count == 4 ? tok.nextToken() : "2"));
+                    }
+                }
+            catch (NumberFormatException e)
+                {
+                throw new IOException("Invalid number on line " + lineNumber + " of design file: " + line.trim());
+                }
+            catch (IOException e)
+                {
+                throw new IOException("Invalid line " + lineNumber + " of design file: " + line.trim());
+                }
+            }
+
+        if (names.size() == 0)
+            throw new IOException("Design file has no parameters.");
+        String[] n = (String[])(names.toArray(new String[names.size()]));
+        double[] mn = new double[n.length];
+        double[] mx = new double[n.length];
+        int[] lv = new int[n.length];
+        for(int i = 0; i < n.length; i++)
+            {
+            mn[i] = ((Double)(min.get(i))).doubleValue();
+            mx[i] = ((Double)(max.get(i))).doubleValue();
+            lv[i] = ((Integer)(levels.get(i))).intValue();
+            }
+
+        try
+            {
+            if (kind.equals("factorial"))
+                return fullFactorial(n, mn, mx, lv);
+            else if (kind.equals("lhs"))
+                return latinHypercube(n, mn, mx, samples, random);
+            else if (kind.equals("sobol"))
+                return sobol(n, mn, mx, samples);
+            else throw new IOException("Unknown design in design file: " + kind + ", must be factorial, lhs, or sobol");
+            }
+        catch (IllegalArgumentException e)
+            {
+            throw new IOException("Invalid design file: " + e.getMessage());
+            }
+        }
+    }
@@ -0,0 +1,165 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+import java.util.*;
+
+// Here we use our own thread pool.  This pool is constructed so that we
+// can fire off N threads with a minimum of locking and wait()ing, which
+// just kills us when we have lots of very short-length jobs as is the case
+// for something like a ParallelSequence.
+
+class ThreadPool
+    {
+    // object for notifying threads to all start.  This lets us do a notifyAll() in bulk
+    // rather than separate notify()s on each of the threads, which is very costly.
+    Object[] all = new Object[0];
+    
+    // Thread pool
+    ArrayList threads = new ArrayList();
+    int totalThreads = 0;
+                
+	// holds a thread
+    class Node implements Runnable
+        {
+        volatile boolean die = false;  // raised when the Node is asked to kill its thread and die.
+        volatile boolean go = false;  // raised when the Node is asked to have its thread run the runnable toRun.
+        volatile public Runnable toRun;  // the runnable to run
+        public Thread thread;
+            
+        public Node(String name) 
+            {
+            thread = new Thread(this); 
+            thread.setDaemon(true);
+            thread.setName(name);
+            }
+            
+        public void run()
+            {
+            while(true)
+                {
+                // this is outside because these are booleans and are atomic, and it
+                // doesn't matter anyway because they're READ here and only WRITTEN
+                // elsewhere.  It gives us a small chance of escaping the synchronization
+                // immediately below.
+                if (!go && !die)
+                	{
+		            synchronized(all) 
+	                	{
+	                	while (!go && !die)
+							{
+		                	try { all.wait(0); }
+		                	catch (InterruptedException e) { } // ignore
+		                	}
+	                    }
+	                }
+
+	            // at this point either go or die has been raised and toRun won't be updated again
+	            // until after adding back into the list, so we can access them here safely without synchronization
+	            
+				if (die) { die = false; return; }
+				go = false;
+                toRun.run();
+                
+                // add myself back in the list
+                synchronized(threads)
+                    {
+                    threads.add(this);  // adds to the head -- it seems we get a 20% performance boost pulling hot threads from the head when doing nothing with them.
+                    if (totalThreads == threads.size())  // we're all in the bag, let the pool know if it's joining
+                        threads.notify();
+                    }
+                }
+            }
+        }
+    
+    
+    // Joins and kills all threads, both those running and those sitting in the pool
+    void killThreads()
+        {
+        synchronized(threads)
+            {
+            joinThreads();
+            
+            // at this point size == totalthreads
+            int size = threads.size();
+            
+            for(int i = 0; i < size; i++)
+                {
+                Node node = (Node)(threads.get(i));
+                node.die = true;  // it's okay if this isn't synchronized
+                }
+                
+            // wake up threads to die
+            synchronized(all) { all.notifyAll(); }
+
+            for(int i = 0; i < size; i++)
+                {
+                Node node = (Node)(threads.remove(size - i - 1));
+                try { node.thread.join(); }
+                catch (InterruptedException e) { } // ignore
+            	totalThreads--;
+                }
+            }
+        }
+            
+    // Waits for all presently running threads to complete
+    void joinThreads()
+        {
+        synchronized(threads)
+            {
+            while(totalThreads > threads.size())  // there are still outstanding threads
+                try { threads.wait(0); }
+                catch (InterruptedException e) { }  // ignore
+            }
+        }
+        
+    
+    void startThreads(Runnable[] run, String name)
+    	{
+        Node[] nodes = new Node[run.length];
+        
+        // we're going to do this in bulk rather than individually, so
+        // we need to first gather all the needed threads into nodes
+        synchronized(threads) 
+            {
+            int available = threads.size();
+            for (int i = 0; i < run.length; i++)
+            	{
+				if (available == 0)
+					{
+					nodes[i] = new Node(name + " " + totalThreads);
+                   	nodes[i].toRun = run[i]; 
+                	nodes[i].go = true; 
+					
+                    nodes[i].thread.start();  // since go is already set, this thread won't even bother to wait()
+					totalThreads++;
+					}
+				else  // pull a thread
+					{
+					nodes[i] = (Node)(threads.remove(available-1));  // removes from the head
+					
+					// this can be done without synchronization on the node
+					// because the node is waiting for go or die to be true
+					// before it accesses toRun at this stage
+					nodes[i].toRun = run[i]; 
+
+					// this may cause the node to prematurely fire without waiting on 'all',
+					// but that's a good thing.
+					nodes[i].go = true; 
+					available--;
+					}
+				}
+            }
+        
+        synchronized(all) 
+        	{
+	       	// get all the nodes going
+	       	all.notifyAll();
+			}
+    	}
+
+    private static final long serialVersionUID = 1;
+    }
@@ -170,7 +170,7 @@ public abstract class SparseField implements java.io.Serializable
         }
     
     /** Returns the number of objects at a given location. */
-    public final int numObjectsAtLocation(final Object location)
+    public int numObjectsAtLocation(final Object location)
         {
         final Bag b = (Bag)(objectHash.get(location));
         if (b==null) return 0;
@@ -364,6 +364,68 @@ public abstract class SparseField implements java.io.Serializable
         return true; // yay, done
         }
         
+    /** Changes the location of an object, or adds it if it doesn't exist yet, WITHOUT updating the bags of objects
+        stored by location in the objectHash.  This is for subclasses which move many objects at once: after
+        one or more calls to this method the field is inconsistent, and you MUST call rebuildLocationBags() before
+        doing anything else with the field.  Returns false if the object could not be set to that location. */
+    protected boolean setObjectLocationLazily(final Object obj, final Object location)
+        {
+        if (obj==null) return false;
+        if (location==null) return false;
+
+        LocationAndIndex lai = (LocationAndIndex)(locationAndIndexHash.get(obj));  // HASH
+        if (lai!=null)
+            {
+            assert sim.util.LocationLog.it(this, lai.location);
+            if (!lai.location.equals(location))
+                lai.location = location;
+            }
+        else   // add new object
+            {
+            allObjects.add(obj);
+            locationAndIndexHash.put(obj, new LocationAndIndex(location, allObjects.numObjs - 1));    // HASH
+            }
+        return true;
+        }
+
+    /** Rebuilds all the bags of objects stored by location in the objectHash, in a single pass over allObjects,
+        from the locations stored in the locationAndIndexHash.  Existing bags are reused where possible.  Objects
+        wind up in each bag in the same order as they appear in allObjects.  This is O(N), and is called after
+        setObjectLocationLazily(...). */
+    protected void rebuildLocationBags()
+        {
+        // empty all the bags but leave them in place
+        Iterator i = objectHash.values().iterator();
+        while(i.hasNext())
+            ((Bag)(i.next())).clear();
+
+        final Object[] objs = allObjects.objs;
+        final int len = allObjects.numObjs;
+        for(int x = 0; x < len; x++)
+            {
+            Object obj = objs[x];
+            LocationAndIndex lai = (LocationAndIndex)(locationAndIndexHash.get(obj));  // HASH
+            assert sim.util.LocationLog.it(this, lai.location);
+            Bag bag = (Bag)(objectHash.get(lai.location));                          // HASH
+            if (bag==null)
+                objectHash.put(lai.location, bag = new Bag(INITIAL_BAG_SIZE));       // MAYBE HASH
+            bag.add(obj);
+            lai.otherObjectsAtLocation = bag;
+            }
+
+        // get rid of the bags which are now empty or too large
+        i = objectHash.values().iterator();
+        while(i.hasNext())
+            {
+            Bag bag = (Bag)(i.next());
+            int bagNumObjs = bag.numObjs;
+            if (removeEmptyBags && bagNumObjs==0)
+                i.remove();  // let Bag GC
+            else if (replaceLargeBags && bagNumObjs >= MIN_BAG_SIZE && bagNumObjs * LARGE_BAG_RATIO <= bag.objs.length)
+                bag.shrink(bagNumObjs * REPLACEMENT_BAG_RATIO);
+            }
+        }
+
     /** Returns all the objects in the Sparse Field.  Do NOT modify the bag that you receive from this method -- it
         is used internally.  If you wish to modify the Bag you receive, make a copy of the Bag first, 
         using something like <b>new Bag(<i>foo</i>.getAllObjects())</b>. */
@@ -0,0 +1,306 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.continuous;
+import sim.util.*;
+
+/**
+   A dense, array-based snapshot of the objects in a bounded Continuous2D, arranged for very fast
+   neighborhood lookups.
+
+   <p>Continuous2D looks up each discretized cell in a hash table, and gathers the objects it finds into a Bag.
+   CellIndex2D instead divides the field's bounds (its width and height) into a fixed grid of cells, and counting-sorts all
+   the objects in the field by cell into flat arrays: the objects in cell <i>c</i> are stored, along with their
+   x and y locations, in slots <tt>cellStart[c]</tt> through <tt>cellStart[c+1]-1</tt>.  Cells are numbered
+   <tt>x * cellsHigh + y</tt>, so a column of cells is a single contiguous run of slots.  A lookup thus touches no hash tables
+   and reads only primitive arrays.
+
+   <p>The index is a snapshot: it does not change as objects move in the Continuous2D.  Instead, you call <b>rebuild()</b>
+   when you want it to catch up, typically once per timestep after all agents have moved (for example, in a Steppable
+   scheduled at a later ordering than the agents).  This is O(n) and, after the first time, allocates nothing unless the
+   field has grown.  Between rebuilds, agents querying the index all see the same, consistent positions, even if they
+   are moving themselves in the Continuous2D meanwhile.
+
+   <p>Lookups are exact: an object is returned if its point location is within the given distance of the query position,
+   inclusive.  Objects are treated as points; if you have non-point objects, pad your query distance appropriately.
+   Objects located outside the field's bounds are stored in the nearest edge cell and so are still found.
+   The <b>visitNeighborsWithinDistance(...)</b> methods hand the objects to a NeighborVisitor2D rather than
+   building a Bag, and allocate nothing.  They are safe to call from multiple threads at once, so long as nobody
+   is calling rebuild() at the same time.
+
+   <p>The cell size defaults to the discretization of the Continuous2D.  The same rules of thumb apply: a cell size
+   about equal to your typical query distance is usually a good choice.
+*/
+
+public class CellIndex2D implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    /** The field being indexed. */
+    public final Continuous2D field;
+
+    /** The size of a cell. */
+    public final double cellSize;
+
+    /** The number of cells across. */
+    public final int cellsWide;
+
+    /** The number of cells down. */
+    public final int cellsHigh;
+
+    // the objects in cell c are in slots cellStart[c] ... cellStart[c+1]-1
+    int[] cellStart;
+    Object[] objs = new Object[0];
+    double[] xs = new double[0];
+    double[] ys = new double[0];
+    int numObjs = 0;
+
+    // scratch space for rebuild()
+    int[] cellOf = new int[0];
+    double[] tempXs = new double[0];
+    double[] tempYs = new double[0];
+
+    /** Creates an index over the given field, with cells the size of the field's discretization.  The index is initially built. */
+    public CellIndex2D(Continuous2D field)
+        {
+        this(field, field.discretization);
+        }
+
+    /** Creates an index over the given field, with cells of the given size.  The index is initially built. */
+    public CellIndex2D(Continuous2D field, double cellSize)
+        {
+        if (!(cellSize > 0))
+            throw new IllegalArgumentException("Cell size must be > 0: " + cellSize);
+        if (!(field.width > 0 && field.height > 0) || field.width == Double.POSITIVE_INFINITY || field.height == Double.POSITIVE_INFINITY)
+            throw new IllegalArgumentException("CellIndex2D requires a field with finite, positive bounds.");
+        long w = Math.max(1, (long) Math.ceil(field.width / cellSize));
+        long h = Math.max(1, (long) Math.ceil(field.height / cellSize));
+        if (w * h >= Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Too many cells (" + w + " by " + h + "): use a larger cell size.");
+        this.field = field;
+        this.cellSize = cellSize;
+        this.cellsWide = (int) w;
+        this.cellsHigh = (int) h;
+        cellStart = new int[cellsWide * cellsHigh + 1];
+        rebuild();
+        }
+
+    /** Returns the number of objects in the index as of the last rebuild. */
+    public int size() { return numObjs; }
+
+    int cellX(double x)
+        {
+        int cx = (int)(x / cellSize);   // NaN goes to 0
+        if (cx < 0 || x < 0) return 0;
+        if (cx >= cellsWide) return cellsWide - 1;
+        return cx;
+        }
+
+    int cellY(double y)
+        {
+        int cy = (int)(y / cellSize);
+        if (cy < 0 || y < 0) return 0;
+        if (cy >= cellsHigh) return cellsHigh - 1;
+        return cy;
+        }
+
+    /** Rebuilds the index from the current contents and locations of the field. */
+    public void rebuild()
+        {
+        Bag all = field.allObjects;
+        int n = all.numObjs;
+        Object[] allObjs = all.objs;
+
+        if (objs.length < n)
+            {
+            objs = new Object[n];
+            xs = new double[n];
+            ys = new double[n];
+            cellOf = new int[n];
+            tempXs = new double[n];
+            tempYs = new double[n];
+            }
+        else
+            {
+            // let the old objects GC
+            for(int i = n; i < numObjs; i++)
+                objs[i] = null;
+            }
+
+        int[] cellStart = this.cellStart;
+        int[] cellOf = this.cellOf;
+        double[] tempXs = this.tempXs;
+        double[] tempYs = this.tempYs;
+        int cellsHigh = this.cellsHigh;
+        java.util.Arrays.fill(cellStart, 0);
+
+        // count the objects in each cell, shifted up one
+        for(int i = 0; i < n; i++)
+            {
+            Double2D loc = field.getObjectLocation(allObjs[i]);
+            double x = loc.x;
+            double y = loc.y;
+            int c = cellX(x) * cellsHigh + cellY(y);
+            cellOf[i] = c;
+            tempXs[i] = x;
+            tempYs[i] = y;
+            cellStart[c + 1]++;
+            }
+
+        // convert to starting positions
+        int numCells = cellStart.length - 1;
+        for(int c = 0; c < numCells; c++)
+            cellStart[c + 1] += cellStart[c];
+
+        // scatter, using cellStart[c] as the insertion point for cell c.  This
+        // shifts each cellStart[c] up to the start of cell c+1...
+        Object[] objs = this.objs;
+        double[] xs = this.xs;
+        double[] ys = this.ys;
+        for(int i = 0; i < n; i++)
+            {
+            int slot = cellStart[cellOf[i]]++;
+            objs[slot] = allObjs[i];
+            xs[slot] = tempXs[i];
+            ys[slot] = tempYs[i];
+            }
+
+        // ... so we shift everything back down
+        for(int c = numCells; c > 0; c--)
+            cellStart[c] = cellStart[c - 1];
+        cellStart[0] = 0;
+
+        numObjs = n;
+        }
+
+    /** Hands to the visitor each object whose location is within (or exactly at) the given distance of the given position,
+        as of the last rebuild, stopping early if the visitor returns false.  If toroidal, then the position is first
+        wrapped into the field, and distances wrap around the field's bounds.  Returns the number of objects visited. */
+    public int visitNeighborsWithinDistance(Double2D position, double distance, boolean toroidal, NeighborVisitor2D visitor)
+        {
+        return visitNeighborsWithinDistance(position.x, position.y, distance, toroidal, visitor);
+        }
+
+    /** Hands to the visitor each object whose location is within (or exactly at) the given distance of (x, y),
+        as of the last rebuild, stopping early if the visitor returns false.  If toroidal, then the position is first
+        wrapped into the field, and distances wrap around the field's bounds.  Returns the number of objects visited. */
+    public int visitNeighborsWithinDistance(double x, double y, final double distance, final boolean toroidal, final NeighborVisitor2D visitor)
+        {
+        final double width = field.width;
+        final double height = field.height;
+        if (toroidal)
+            {
+            x = field.tx(x);
+            y = field.ty(y);
+            }
+
+        // we search up to two ranges of columns, [x0 ... x1] and [x2 ... x3], and likewise up to two ranges of rows.
+        // Non-toroidal lookups, or toroidal lookups which don't wrap, only need the first range.
+        int x0, x1, x2 = 0, x3 = -1;
+        int y0, y1, y2 = 0, y3 = -1;
+        if (!toroidal)
+            {
+            x0 = cellX(x - distance); x1 = cellX(x + distance);
+            y0 = cellY(y - distance); y1 = cellY(y + distance);
+            }
+        else
+            {
+            if (distance * 2 >= width) { x0 = 0; x1 = cellsWide - 1; }
+            else
+                {
+                double lo = x - distance;
+                double hi = x + distance;
+                if (lo < 0) { x0 = cellX(lo + width); x1 = cellsWide - 1; x3 = cellX(hi); }
+                else if (hi >= width) { x0 = cellX(lo); x1 = cellsWide - 1; x3 = cellX(hi - width); }
+                else { x0 = cellX(lo); x1 = cellX(hi); }
+                if (x3 >= x0) { x0 = 0; x1 = cellsWide - 1; x3 = -1; }  // the ranges overlap
+                }
+            if (distance * 2 >= height) { y0 = 0; y1 = cellsHigh - 1; }
+            else
+                {
+                double lo = y - distance;
+                double hi = y + distance;
+                if (lo < 0) { y0 = cellY(lo + height); y1 = cellsHigh - 1; y3 = cellY(hi); }
+                else if (hi >= height) { y0 = cellY(lo); y1 = cellsHigh - 1; y3 = cellY(hi - height); }
+                else { y0 = cellY(lo); y1 = cellY(hi); }
+                if (y3 >= y0) { y0 = 0; y1 = cellsHigh - 1; y3 = -1; }
+                }
+            }
+
+        final int[] cellStart = this.cellStart;
+        final Object[] objs = this.objs;
+        final double[] xs = this.xs;
+        final double[] ys = this.ys;
+        final int cellsHigh = this.cellsHigh;
+        final double distSq = distance * distance;
+        final double halfWidth = width / 2;
+        final double halfHeight = height / 2;
+        int count = 0;
+
+        for(int xr = 0; xr < 2; xr++)
+            {
+            int xStart = (xr == 0 ? x0 : x2);
+            int xEnd = (xr == 0 ? x1 : x3);
+            for(int cx = xStart; cx <= xEnd; cx++)
+                for(int yr = 0; yr < 2; yr++)
+                    {
+                    int yStart = (yr == 0 ? y0 : y2);
+                    int yEnd = (yr == 0 ? y1 : y3);
+                    if (yStart > yEnd) continue;
+                    // the cells in a column are contiguous
+                    int start = cellStart[cx * cellsHigh + yStart];
+                    int end = cellStart[cx * cellsHigh + yEnd + 1];
+                    for(int i = start; i < end; i++)
+                        {
+                        double dx = xs[i] - x;
+                        double dy = ys[i] - y;
+                        if (toroidal)
+                            {
+                            if (dx > halfWidth) dx -= width;
+                            else if (dx < -halfWidth) dx += width;
+                            if (dy > halfHeight) dy -= height;
+                            else if (dy < -halfHeight) dy += height;
+                            }
+                        double d = dx * dx + dy * dy;
+                        if (d <= distSq)
+                            {
+                            count++;
+                            if (!visitor.visit(objs[i], xs[i], ys[i], d)) return count;
+                            }
+                        }
+                    }
+            }
+        return count;
+        }
+
+    /** Places into the result Bag (and returns it) EXACTLY those objects whose location is within (or exactly at) the given distance
+        of the given position, as of the last rebuild.  If toroidal, then the position is first
+        wrapped into the field, and distances wrap around the field's bounds.  If the result Bag is null, a new Bag is created,
+        else it is cleared first. */
+    public Bag getNeighborsWithinDistance(Double2D position, double distance, boolean toroidal, Bag result)
+        {
+        if (result == null) result = new Bag();
+        else result.clear();
+        final Bag r = result;
+        visitNeighborsWithinDistance(position.x, position.y, distance, toroidal, new NeighborVisitor2D()
+            {
+            public boolean visit(Object object, double x, double y, double distanceSquared) { r.add(object); return true; }
+            });
+        return result;
+        }
+
+    /** Returns the number of objects whose location is within (or exactly at) the given distance of the given position,
+        as of the last rebuild.  */
+    public int numNeighborsWithinDistance(Double2D position, double distance, boolean toroidal)
+        {
+        return visitNeighborsWithinDistance(position.x, position.y, distance, toroidal, COUNTER);
+        }
+
+    static final NeighborVisitor2D COUNTER = new NeighborVisitor2D()
+        {
+        public boolean visit(Object object, double x, double y, double distanceSquared) { return true; }
+        };
+    }
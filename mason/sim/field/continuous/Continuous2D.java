@@ -77,6 +77,10 @@ import java.util.*;
    moving objects around.  Not really: if the discretizations doubled (or more) each time, you're looking at 
    typically an O(ln n) number of Continuous2Ds, and a corresponding number of lookups.
 
+   <p>If most of your objects move every timestep, consider wrapping their moves in <b>beginBulkUpdate()</b> and
+   <b>commit()</b>.  The moves are then applied all at once, in a single pass, when you commit; until then, lookups
+   see the field as it was before the moves began.
+
    <p>Continuous2D objects have a width and a height, but this is used for two functions: first, to determine
    the bounds for toroidal functions.  Second, to determine the bounds for drawing on the screen in a portrayal.
    Otherwise, width and height are not used.  If your space is bounded, you should set the width and height to
@@ -139,8 +143,28 @@ public /*strictfp*/ class Continuous2D extends SparseField implements SparseFiel
         return new Int2D((int)(location.x / discretization), (int)(location.y / discretization));
         }
     
+    /** Sets the location of the given object, adding it if it's not already in the field.  Returns false if
+        the object or location is null.  During a bulk update, the new location is not applied until commit(). */
     public final boolean setObjectLocation(Object obj, final Double2D location)
         {
+        if (bulkUpdating)
+            {
+            if (obj == null || location == null) return false;
+            if (numStaged == stagedObjs.length)
+                {
+                int newLength = numStaged * 2 + 1;
+                Object[] newObjs = new Object[newLength];
+                System.arraycopy(stagedObjs, 0, newObjs, 0, numStaged);
+                stagedObjs = newObjs;
+                Double2D[] newLocations = new Double2D[newLength];
+                System.arraycopy(stagedLocations, 0, newLocations, 0, numStaged);
+                stagedLocations = newLocations;
+                }
+            stagedObjs[numStaged] = obj;
+            stagedLocations[numStaged] = location;
+            numStaged++;
+            return true;
+            }
         boolean result = super.setObjectLocation(obj, discretize(location));
         if (result) doubleLocationHash.put(obj,location);
         return result;
@@ -148,16 +172,88 @@ public /*strictfp*/ class Continuous2D extends SparseField implements SparseFiel
         
     public final Bag clear()
         {
+        if (bulkUpdating) throw new RuntimeException("Cannot clear a Continuous2D during a bulk update.");
         doubleLocationHash = buildMap(ANY_SIZE);
         return super.clear();
         }
         
     public final Object remove(final Object obj)
         {
+        if (bulkUpdating) throw new RuntimeException("Cannot remove objects from a Continuous2D during a bulk update.");
         Object result = super.remove(obj);
         doubleLocationHash.remove(obj);
         return result;
         }
+
+    /** If no more than 1/BULK_UPDATE_RATIO of the objects in the field have been moved during a bulk update,
+        commit() just moves each of them in turn rather than rebuilding the field. */
+    public static final int BULK_UPDATE_RATIO = 8;
+    
+    boolean bulkUpdating = false;
+    Object[] stagedObjs = new Object[0];
+    Double2D[] stagedLocations = new Double2D[0];
+    int numStaged = 0;
+    
+    /** Begins a bulk update.  Until commit() is called, calls to setObjectLocation(...) don't change the field: 
+        instead the new locations are set aside.  Meanwhile getObjectLocation(...), neighborhood lookups, and so on 
+        continue to see the field as it was when beginBulkUpdate() was called.  This gives you synchronous
+        (double-buffered) update semantics: every agent can look at where its neighbors were at the start of the
+        timestep while moving itself.  It's also much faster when most of the objects in the field move each
+        timestep, since commit() rebuilds the field in a single pass rather than removing each moved object from
+        its old bucket one by one.  You may not remove() objects, removeObjectsAtLocation(...), or clear() the field
+        during a bulk update: these throw a RuntimeException.
+        setObjectLocation(...) may be used to add new objects during a bulk update: they appear in the field
+        on commit().  If an object is moved several times during a bulk update, its last location wins.
+        
+        <p>Bags which the field uses internally, such as those returned by getObjectsAtDiscretizedLocation(...) and
+        getAllObjects(), hold the field as it was until commit(), which refills them in place (or replaces them).  So
+        don't hold onto such a Bag from before commit() to after it: ask for it again.
+        
+        <p>A typical use is to call beginBulkUpdate() from a Steppable scheduled before your agents,
+        and commit() from one scheduled after them.  */
+    public void beginBulkUpdate()
+        {
+        if (bulkUpdating) throw new RuntimeException("A bulk update is already underway.");
+        bulkUpdating = true;
+        }
+    
+    /** Returns true if a bulk update is underway. */
+    public boolean isBulkUpdating() { return bulkUpdating; }
+    
+    /** Ends a bulk update, moving all the objects whose locations were set since beginBulkUpdate() to their 
+        (last) new locations.  */
+    public void commit()
+        {
+        if (!bulkUpdating) throw new RuntimeException("No bulk update is underway.");
+        bulkUpdating = false;
+        
+        final Object[] stagedObjs = this.stagedObjs;
+        final Double2D[] stagedLocations = this.stagedLocations;
+        final int numStaged = this.numStaged;
+        
+        if (numStaged * BULK_UPDATE_RATIO <= allObjects.numObjs)
+            {
+            // just move the objects one by one
+            for(int i = 0; i < numStaged; i++)
+                setObjectLocation(stagedObjs[i], stagedLocations[i]);
+            }
+        else
+            {
+            for(int i = 0; i < numStaged; i++)
+                {
+                Object obj = stagedObjs[i];
+                Double2D location = stagedLocations[i];
+                setObjectLocationLazily(obj, discretize(location));
+                doubleLocationHash.put(obj, location);
+                }
+            rebuildLocationBags();
+            }
+        
+        // let GC
+        for(int i = 0; i < numStaged; i++)
+            { stagedObjs[i] = null; stagedLocations[i] = null; }
+        this.numStaged = 0;
+        }
     
     /** Get the width */
     public double getWidth() { return width; }
@@ -864,7 +960,8 @@ public /*strictfp*/ class Continuous2D extends SparseField implements SparseFiel
         using something along the lines of <b> new Bag(<i>foo</i>.getObjectsAtLocation(<i>location</i>)) </b>.
         Furthermore, changing values in the Sparse Field may result in a different bag being used -- so you should
         not rely on this bag staying valid.  The default implementation of this method simply calls getRawObjectsAtLocation(),
-        but you may need to override it for more custom functionality (which is rare).
+        but you may need to override it for more custom functionality (which is rare).  During a bulk update, the bag holds
+        the objects at the location before the update began; commit() changes it (see beginBulkUpdate()).
     */
     public Bag getObjectsAtDiscretizedLocation(final Int2D location)
         {
@@ -934,9 +1031,11 @@ public /*strictfp*/ class Continuous2D extends SparseField implements SparseFiel
         }
 
     /** Removes objects at exactly the given location, and returns a bag of them, or null of no objects are at that location.
-        The Bag may be empty, or null, if there were no objects at that location.  You can freely modify this bag. */
+        The Bag may be empty, or null, if there were no objects at that location.  You can freely modify this bag.
+        May not be called during a bulk update. */
     public Bag removeObjectsAtLocation(final Double2D location)
         {
+        if (bulkUpdating) throw new RuntimeException("Cannot remove objects from a Continuous2D during a bulk update.");
         Bag bag = getObjectsAtLocation(location);               // this bag is a copy so it won't be reduced as I remove objects
         if (bag != null)
             {
@@ -947,6 +1046,14 @@ public /*strictfp*/ class Continuous2D extends SparseField implements SparseFiel
             }
         return bag;
         }
+    
+    /** Removes the objects at the given discretized location (an Int2D), and returns a bag of them, or null if no objects
+        are at that location.  May not be called during a bulk update. */
+    public Bag removeObjectsAtLocation(final Object location)
+        {
+        if (bulkUpdating) throw new RuntimeException("Cannot remove objects from a Continuous2D during a bulk update.");
+        return super.removeObjectsAtLocation(location);
+        }
     }
 
 
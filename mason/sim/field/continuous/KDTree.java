@@ -0,0 +1,454 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.continuous;
+import sim.util.*;
+import java.util.concurrent.*;
+
+/**
+   The common machinery behind KDTree2D and KDTree3D: a k-d tree snapshot of the objects in a continuous field,
+   which answers exact k-nearest-neighbor queries.
+
+   <p>Continuous2D.getNearestNeighbors(...) grows a search region over discretized buckets until it has enough objects,
+   which works poorly when the density of the field varies a lot, and returns a superset of the nearest neighbors which
+   you must then whittle down yourself.  A k-d tree instead returns exactly the k objects closest to the query position,
+   sorted by distance, and its performance doesn't depend on the field's discretization or the density of its objects.
+
+   <p>Like CellIndex2D, the tree is a snapshot: it doesn't change as objects move in the field.  Call <b>rebuild()</b>
+   when you want it to catch up, typically once per timestep after all agents have moved.  Rebuilding is O(n lg n).
+
+   <p>The tree is stored implicitly in flat arrays: the objects in the range [lo, hi) are split about the median
+   object at (lo + hi) / 2 along the dimension in which they are most spread out, with the smaller objects
+   to its left and the larger to its right.  Ranges of LEAF_SIZE or fewer objects are not split further.
+
+   <p>Queries may be toroidal, in which case distances wrap around the bounds of the field.  Toroidal queries work
+   best when all the objects lie within the field's bounds.  Queries may be called from several threads at once, so
+   long as nobody is calling rebuild() meanwhile.  Ties in distance are broken consistently from run to run.
+*/
+
+public abstract class KDTree implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    /** Ranges of this many objects or fewer are scanned rather than split further. */
+    public static final int LEAF_SIZE = 8;
+
+    final int dims;
+    Object[] objs = new Object[0];
+    double[] coords = new double[0];    // coordinates of object i are in coords[i * dims] ... coords[i * dims + dims - 1]
+    byte[] splitDim = new byte[0];      // the split dimension of the range whose median is i
+    double[] min;                       // the bounding box of all the objects
+    double[] max;
+    int numObjs = 0;
+
+    KDTree(int dims)
+        {
+        this.dims = dims;
+        min = new double[dims];
+        max = new double[dims];
+        }
+
+    /** Returns the number of objects in the tree as of the last rebuild. */
+    public int size() { return numObjs; }
+
+    /** Rebuilds the tree from the current contents and locations of the field. */
+    public abstract void rebuild();
+
+    /** Returns the toroidal bounds of the field, one per dimension. */
+    abstract double[] getBounds();
+
+    /** Loads the tree with the given objects, whose coordinates have already been written into the first n * dims
+        slots of coords, then builds the tree.  */
+    void build(Object[] allObjs, int n)
+        {
+        if (objs.length < n)
+            {
+            objs = new Object[n];
+            splitDim = new byte[n];
+            }
+        else
+            {
+            // let the old objects GC
+            for(int i = n; i < numObjs; i++)
+                objs[i] = null;
+            }
+        System.arraycopy(allObjs, 0, objs, 0, n);
+        numObjs = n;
+
+        for(int d = 0; d < dims; d++)
+            {
+            min[d] = Double.POSITIVE_INFINITY;
+            max[d] = Double.NEGATIVE_INFINITY;
+            }
+        for(int i = 0; i < n; i++)
+            for(int d = 0; d < dims; d++)
+                {
+                double c = coords[i * dims + d];
+                if (c < min[d]) min[d] = c;
+                if (c > max[d]) max[d] = c;
+                }
+
+        build(0, n);
+        }
+
+    /** Grows the coords array to hold at least n objects. */
+    void ensureCoords(int n)
+        {
+        if (coords.length < n * dims)
+            coords = new double[n * dims];
+        }
+
+    void build(int lo, int hi)
+        {
+        while (hi - lo > LEAF_SIZE)
+            {
+            // split along the dimension with the greatest spread
+            int bestDim = 0;
+            double bestSpread = -1;
+            for(int d = 0; d < dims; d++)
+                {
+                double l = Double.POSITIVE_INFINITY;
+                double h = Double.NEGATIVE_INFINITY;
+                for(int i = lo; i < hi; i++)
+                    {
+                    double c = coords[i * dims + d];
+                    if (c < l) l = c;
+                    if (c > h) h = c;
+                    }
+                if (h - l > bestSpread) { bestSpread = h - l; bestDim = d; }
+                }
+
+            int mid = (lo + hi) >>> 1;
+            select(lo, hi - 1, mid, bestDim);
+            splitDim[mid] = (byte) bestDim;
+
+            // recurse on the smaller side, loop on the larger
+            build(lo, mid);
+            lo = mid + 1;
+            }
+        }
+
+    /** Rearranges objects lo ... hi inclusive so that the object at k is in its sorted position along dimension d,
+        with no larger objects before it and no smaller objects after it. */
+    void select(int lo, int hi, int k, int d)
+        {
+        final double[] coords = this.coords;
+        final int dims = this.dims;
+        while (hi > lo)
+            {
+            // median of three
+            int m = (lo + hi) >>> 1;
+            if (coords[m * dims + d] < coords[lo * dims + d]) swap(m, lo);
+            if (coords[hi * dims + d] < coords[lo * dims + d]) swap(hi, lo);
+            if (coords[hi * dims + d] < coords[m * dims + d]) swap(hi, m);
+            double pivot = coords[m * dims + d];
+
+            int i = lo;
+            int j = hi;
+            while (i <= j)
+                {
+                while (coords[i * dims + d] < pivot) i++;
+                while (coords[j * dims + d] > pivot) j--;
+                if (i <= j) { swap(i, j); i++; j--; }
+                }
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else return;
+            }
+        }
+
+    void swap(int i, int j)
+        {
+        Object o = objs[i]; objs[i] = objs[j]; objs[j] = o;
+        int a = i * dims;
+        int b = j * dims;
+        for(int d = 0; d < dims; d++)
+            {
+            double c = coords[a + d]; coords[a + d] = coords[b + d]; coords[b + d] = c;
+            }
+        }
+
+    /** Finds the k objects nearest to the query, placing them, nearest first, into the result Bag (and their distances into
+        the distances DoubleBag if it is non-null).  The search may be reused for several queries. */
+    Bag nearest(Search search, double[] query, int k, boolean toroidal, Bag result, DoubleBag distances)
+        {
+        if (k < 0) throw new IllegalArgumentException("Number of neighbors must be >= 0: " + k);
+        if (result == null) result = new Bag();
+        else result.clear();
+        if (distances != null) distances.clear();
+
+        search.reset(query, k, toroidal);
+        if (k > 0 && numObjs > 0)
+            search.search(0, numObjs, search.distance);
+
+        // pop the heap, which yields the farthest first
+        int count = search.count;
+        result.resize(count);
+        if (distances != null) distances.resize(count);
+        for(int i = count - 1; i >= 0; i--)
+            {
+            result.objs[i] = objs[search.heapIndex[0]];
+            if (distances != null) distances.objs[i] = Math.sqrt(search.heapDist[0]);
+            search.pop();
+            }
+        result.numObjs = count;
+        if (distances != null) distances.numObjs = count;
+        return result;
+        }
+
+    /** Finds the k nearest objects to each of the queries, splitting the queries among the given number of threads.
+        Each query is held in dims consecutive slots of the queries array. */
+    Bag[] nearest(final double[] queries, final int numQueries, final int k, final boolean toroidal, int threads)
+        {
+        final Bag[] results = new Bag[numQueries];
+        if (threads < 1) threads = Runtime.getRuntime().availableProcessors();
+        if (threads > numQueries) threads = numQueries;
+        if (threads <= 1)
+            {
+            nearest(results, queries, 0, numQueries, k, toroidal);
+            return results;
+            }
+
+        final Future[] futures = new Future[threads - 1];
+        final Throwable[] exceptions = new Throwable[threads - 1];
+        for(int i = 0; i < threads - 1; i++)
+            {
+            final int from = (int)(numQueries * (long) i / threads);
+            final int to = (int)(numQueries * (long)(i + 1) / threads);
+            final int which = i;
+            futures[i] = getPool().submit(new Runnable()
+                {
+                public void run()
+                    {
+                    try { nearest(results, queries, from, to, k, toroidal); }
+                    catch (Throwable e) { exceptions[which] = e; }
+                    }
+                });
+            }
+        nearest(results, queries, (int)(numQueries * (long)(threads - 1) / threads), numQueries, k, toroidal);
+
+        // wait for all of them, even if we're interrupted, so none is still filling in results when we return
+        boolean interrupted = false;
+        for(int i = 0; i < threads - 1; i++)
+            {
+            while (true)
+                {
+                try { futures[i].get(); break; }
+                catch (InterruptedException e) { interrupted = true; }
+                catch (ExecutionException e) { break; }  // can't happen: the Runnable catches everything
+                }
+            }
+        if (interrupted) Thread.currentThread().interrupt();
+        for(int i = 0; i < threads - 1; i++)
+            {
+            if (exceptions[i] instanceof RuntimeException) throw (RuntimeException) exceptions[i];
+            else if (exceptions[i] instanceof Error) throw (Error) exceptions[i];
+            }
+        return results;
+        }
+
+    static ExecutorService pool = null;
+    static synchronized ExecutorService getPool()
+        {
+        if (pool == null)
+            pool = Executors.newCachedThreadPool(new ThreadFactory()
+                {
+                public Thread newThread(Runnable r)
+                    {
+                    Thread t = new Thread(r, "KDTree");
+                    t.setDaemon(true);
+                    return t;
+                    }
+                });
+        return pool;
+        }
+
+    void nearest(Bag[] results, double[] queries, int from, int to, int k, boolean toroidal)
+        {
+        Search search = new Search();
+        double[] query = new double[dims];
+        for(int q = from; q < to; q++)
+            {
+            System.arraycopy(queries, q * dims, query, 0, dims);
+            results[q] = nearest(search, query, k, toroidal, null, null);
+            }
+        }
+
+    /** The state of a single nearest-neighbor search: the query, the current bounding box, and a max-heap of
+        the best candidates found so far. */
+    class Search
+        {
+        double[] query;
+        boolean toroidal;
+        double[] bounds = getBounds();
+        double[] boxMin = new double[dims];
+        double[] boxMax = new double[dims];
+        double[] boxDist = new double[dims];
+        int k;
+        int count;
+        double distance;        // from the query to the bounding box of all the objects
+        double[] heapDist = new double[0];
+        int[] heapIndex = new int[0];
+
+        void reset(double[] query, int k, boolean toroidal)
+            {
+            this.query = query;
+            this.k = k;
+            this.toroidal = toroidal;
+            count = 0;
+            if (heapDist.length < k)
+                {
+                heapDist = new double[k];
+                heapIndex = new int[k];
+                }
+            System.arraycopy(min, 0, boxMin, 0, dims);
+            System.arraycopy(max, 0, boxMax, 0, dims);
+            distance = 0;
+            for(int d = 0; d < dims; d++)
+                distance += (boxDist[d] = boxDistanceSquared(d));
+            }
+
+        /** The distance between the query and a coordinate along dimension d. */
+        double delta(double c, int d)
+            {
+            double diff = Math.abs(c - query[d]);
+            if (toroidal)
+                {
+                double b = bounds[d];
+                if (diff >= b) diff = diff % b;
+                if (diff > b - diff) diff = b - diff;
+                }
+            return diff;
+            }
+
+        /** The squared distance from the query to the current bounding box along dimension d. */
+        double boxDistanceSquared(int d)
+            {
+            double q = query[d];
+            double l = boxMin[d];
+            double h = boxMax[d];
+            double diff;
+            if (!toroidal)
+                {
+                if (q < l) diff = l - q;
+                else if (q > h) diff = q - h;
+                else return 0;
+                }
+            else
+                {
+                double b = bounds[d];
+                if (h - l >= b) return 0;
+                double a = (q - l) % b;             // where q sits, going up from l
+                if (a < 0) a += b;
+                if (a <= h - l) return 0;           // inside the box
+                diff = Math.min(a - (h - l), b - a);
+                }
+            return diff * diff;
+            }
+
+        double worst()
+            {
+            return (count < k ? Double.POSITIVE_INFINITY : heapDist[0]);
+            }
+
+        void consider(int i)
+            {
+            double dist = 0;
+            int base = i * dims;
+            for(int d = 0; d < dims; d++)
+                {
+                double diff = delta(coords[base + d], d);
+                dist += diff * diff;
+                }
+            if (count < k) push(dist, i);
+            else if (greater(heapDist[0], heapIndex[0], dist, i)) { pop(); push(dist, i); }
+            }
+
+        /** Searches the range [lo, hi), whose bounding box is the current box, at the given squared distance from the query.
+            boxDist[d] holds the part of that distance along dimension d. */
+        void search(int lo, int hi, double distance)
+            {
+            if (hi - lo <= LEAF_SIZE)
+                {
+                for(int i = lo; i < hi; i++)
+                    consider(i);
+                return;
+                }
+
+            int mid = (lo + hi) >>> 1;
+            consider(mid);
+            int d = splitDim[mid];
+            double split = coords[mid * dims + d];
+            double oldBoxDist = boxDist[d];
+
+            // search the nearer side first
+            boolean leftFirst = (query[d] < split);
+            for(int side = 0; side < 2; side++)
+                {
+                if ((side == 0) == leftFirst)
+                    {
+                    double old = boxMax[d];
+                    boxMax[d] = split;
+                    double b = boxDistanceSquared(d);
+                    double dist = distance - oldBoxDist + b;
+                    if (dist < worst()) { boxDist[d] = b; search(lo, mid, dist); boxDist[d] = oldBoxDist; }
+                    boxMax[d] = old;
+                    }
+                else
+                    {
+                    double old = boxMin[d];
+                    boxMin[d] = split;
+                    double b = boxDistanceSquared(d);
+                    double dist = distance - oldBoxDist + b;
+                    if (dist < worst()) { boxDist[d] = b; search(mid + 1, hi, dist); boxDist[d] = oldBoxDist; }
+                    boxMin[d] = old;
+                    }
+                }
+            }
+
+        // The heap is ordered by distance, then by index, so that ties are broken consistently
+
+        boolean greater(double dist1, int index1, double dist2, int index2)
+            {
+            return dist1 > dist2 || (dist1 == dist2 && index1 > index2);
+            }
+
+        void push(double dist, int index)
+            {
+            int i = count++;
+            while (i > 0)
+                {
+                int parent = (i - 1) >>> 1;
+                if (!greater(dist, index, heapDist[parent], heapIndex[parent])) break;
+                heapDist[i] = heapDist[parent];
+                heapIndex[i] = heapIndex[parent];
+                i = parent;
+                }
+            heapDist[i] = dist;
+            heapIndex[i] = index;
+            }
+
+        void pop()
+            {
+            int n = --count;
+            double dist = heapDist[n];
+            int index = heapIndex[n];
+            int i = 0;
+            while (true)
+                {
+                int child = 2 * i + 1;
+                if (child >= n) break;
+                if (child + 1 < n && greater(heapDist[child + 1], heapIndex[child + 1], heapDist[child], heapIndex[child])) child++;
+                if (!greater(heapDist[child], heapIndex[child], dist, index)) break;
+                heapDist[i] = heapDist[child];
+                heapIndex[i] = heapIndex[child];
+                i = child;
+                }
+            heapDist[i] = dist;
+            heapIndex[i] = index;
+            }
+        }
+    }
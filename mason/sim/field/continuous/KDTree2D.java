@@ -0,0 +1,90 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.continuous;
+import sim.util.*;
+
+/**
+   A k-d tree snapshot of the objects in a Continuous2D, which answers exact k-nearest-neighbor queries.
+   The tree does not follow objects as they move: call rebuild() when you want it to catch up.  See KDTree
+   for more information.
+
+   <p>getNearestNeighbors(...) returns the k objects closest to a position, nearest first.  If you want the nearest
+   neighbors of many positions at once (for example, of every agent in the field), nearestNeighbors(...)
+   does them all, optionally spreading the work over several threads.
+*/
+
+public class KDTree2D extends KDTree
+    {
+    private static final long serialVersionUID = 1;
+
+    /** The field being indexed. */
+    public final Continuous2D field;
+
+    /** Creates a tree over the given field.  The tree is initially built. */
+    public KDTree2D(Continuous2D field)
+        {
+        super(2);
+        this.field = field;
+        rebuild();
+        }
+
+    double[] getBounds() { return new double[] { field.width, field.height }; }
+
+    public void rebuild()
+        {
+        Bag all = field.allObjects;
+        int n = all.numObjs;
+        Object[] allObjs = all.objs;
+        ensureCoords(n);
+        double[] coords = this.coords;
+        for(int i = 0; i < n; i++)
+            {
+            Double2D loc = field.getObjectLocation(allObjs[i]);
+            coords[i * 2] = loc.x;
+            coords[i * 2 + 1] = loc.y;
+            }
+        build(allObjs, n);
+        }
+
+    /** Places into the result Bag (and returns it) the k objects nearest to the given position as of the last rebuild,
+        nearest first.  If there are fewer than k objects, all of them are returned.  If toroidal, distances wrap around
+        the bounds of the field.  If the result Bag is null, a new Bag is created, else it is cleared first.  */
+    public Bag getNearestNeighbors(Double2D position, int k, boolean toroidal, Bag result)
+        {
+        return getNearestNeighbors(position, k, toroidal, result, null);
+        }
+
+    /** Places into the result Bag (and returns it) the k objects nearest to the given position as of the last rebuild,
+        nearest first.  If there are fewer than k objects, all of them are returned.  If toroidal, distances wrap around
+        the bounds of the field.  If the result Bag is null, a new Bag is created, else it is cleared first.  If distances
+        is non-null, it is cleared and then filled with the distances of the returned objects, in the same order.  */
+    public Bag getNearestNeighbors(Double2D position, int k, boolean toroidal, Bag result, DoubleBag distances)
+        {
+        return nearest(new Search(), new double[] { position.x, position.y }, k, toroidal, result, distances);
+        }
+
+    /** Returns, for each of the given positions, a Bag holding the k objects nearest to it as of the last rebuild,
+        nearest first.  The queries are divided among the given number of threads; if threads is 0, the number of
+        available processors is used.  */
+    public Bag[] nearestNeighbors(Double2D[] positions, int k, boolean toroidal, int threads)
+        {
+        double[] queries = new double[positions.length * 2];
+        for(int i = 0; i < positions.length; i++)
+            {
+            queries[i * 2] = positions[i].x;
+            queries[i * 2 + 1] = positions[i].y;
+            }
+        return nearest(queries, positions.length, k, toroidal, threads);
+        }
+
+    /** Returns, for each of the given positions, a Bag holding the k objects nearest to it as of the last rebuild,
+        nearest first.  The queries are done in a single thread. */
+    public Bag[] nearestNeighbors(Double2D[] positions, int k, boolean toroidal)
+        {
+        return nearestNeighbors(positions, k, toroidal, 1);
+        }
+    }
@@ -0,0 +1,21 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.continuous;
+
+/**
+   A NeighborVisitor2D is handed, one by one, the objects found by a neighborhood query on a 2D continuous
+   index such as CellIndex2D.  This lets you process neighbors without the query building a Bag for them.
+
+   <p>Each object is passed in along with its location (as of the last time the index was rebuilt) and its
+   squared distance from the query position (toroidal if the query was toroidal).  Return true to continue the query,
+   or false to stop it immediately.
+*/
+
+public interface NeighborVisitor2D
+    {
+    public boolean visit(Object object, double x, double y, double distanceSquared);
+    }
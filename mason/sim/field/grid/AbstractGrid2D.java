@@ -705,7 +705,58 @@ public abstract class AbstractGrid2D implements Grid2D
         if (getHeight() != other.getHeight() || getWidth() != other.getWidth())
             throw new IllegalArgumentException("Grids must be the same dimensions.");
         }
-    
+
+
+    /** Visits each location in the neighborhood described by the given offsets around (x,y), in the given mode
+        (Grid2D.BOUNDED, Grid2D.UNBOUNDED, or Grid2D.TOROIDAL), without building any Bags.  Locations are visited
+        only once, even if a toroidal neighborhood is large enough to wrap around onto itself, and if the offsets
+        leave out the origin, it isn't visited even when the neighborhood wraps around onto it.
+        Returns false if the visitor stopped the search early, else true. */
+    public boolean forEachLocation(final int x, final int y, NeighborhoodOffsets offsets, int mode, LocationVisitor2D visitor)
+        {
+        return offsets.visit(x, y, mode, getWidth(), getHeight(), visitor);
+        }
+
+    /** Visits the same locations as getMooreLocations(...) would produce, without building any Bags.
+        Returns false if the visitor stopped the search early, else true. */
+    public boolean forEachMooreLocation(final int x, final int y, final int dist, int mode, boolean includeOrigin, LocationVisitor2D visitor)
+        {
+        return forEachLocation(x, y, NeighborhoodOffsets.moore(dist, includeOrigin), mode, visitor);
+        }
+
+    /** Visits the same locations as getVonNeumannLocations(...) would produce, without building any Bags.
+        Returns false if the visitor stopped the search early, else true. */
+    public boolean forEachVonNeumannLocation(final int x, final int y, final int dist, int mode, boolean includeOrigin, LocationVisitor2D visitor)
+        {
+        return forEachLocation(x, y, NeighborhoodOffsets.vonNeumann(dist, includeOrigin), mode, visitor);
+        }
+
+    /** Visits the same locations as getHexagonalLocations(...) would produce, without building any Bags.
+        Returns false if the visitor stopped the search early, else true. */
+    public boolean forEachHexagonalLocation(final int x, final int y, final int dist, int mode, boolean includeOrigin, LocationVisitor2D visitor)
+        {
+        return forEachLocation(x, y, NeighborhoodOffsets.hexagonal(dist, includeOrigin), mode, visitor);
+        }
+
+    /** Visits the same locations as getRadialLocations(...) would produce, without building any Bags, but for one
+        difference.  In a toroidal grid too small to hold the whole neighborhood, the neighborhood wraps around
+        onto itself: getRadialLocations(...) may then produce the same location more than once, and even when
+        includeOrigin is false it includes (x,y) wherever the neighborhood wraps back onto it.  This method
+        visits each location only once, and never visits (x,y) when includeOrigin is false.
+        Returns false if the visitor stopped the search early, else true. */
+    public boolean forEachRadialLocation(final int x, final int y, final double dist, int mode, boolean includeOrigin, LocationVisitor2D visitor)
+        {
+        return forEachLocation(x, y, NeighborhoodOffsets.radial(dist, includeOrigin), mode, visitor);
+        }
+
+    /** Visits the same locations as getRadialLocations(...) would produce, without building any Bags, except
+        in toroidal grids too small to hold the whole neighborhood: see forEachRadialLocation(x, y, dist, mode,
+        includeOrigin, visitor).  Returns false if the visitor stopped the search early, else true. */
+    public boolean forEachRadialLocation(final int x, final int y, final double dist, int mode, boolean includeOrigin, int measurementRule, boolean closed, LocationVisitor2D visitor)
+        {
+        return forEachLocation(x, y, NeighborhoodOffsets.radial(dist, includeOrigin, measurementRule, closed), mode, visitor);
+        }
+
 
 
 
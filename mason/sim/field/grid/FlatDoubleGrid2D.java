@@ -0,0 +1,561 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.grid;
+import sim.util.*;
+
+/**
+    A wrapper for a 2D grid of doubles stored in a single one-dimensional array.
+
+    <p>DoubleGrid2D stores its values in an array of arrays, one per column.  FlatDoubleGrid2D instead stores them
+    all in one array, <b>field</b>, with the value at (x,y) at <tt>field[x * height + y]</tt>: this is the same order
+    that DoubleGrid2D.toArray() produces.  A single array uses a bit less memory, is friendlier to the cache, and
+    lets the bulk operations (add, multiply, max, and so on) run as single simple loops which HotSpot can
+    unroll and vectorize.  The cost is that you must compute the index yourself if you access the array directly:
+    you can use index(x,y) for this.  Note that a y value out of bounds will not throw an exception but will
+    silently refer to a location in a neighboring column.
+
+    <p>The bulk operations may optionally be split among several threads: see setThreads(...).  This only happens
+    for large grids, where it's worthwhile.  Note that if you use more than one thread, mean() may differ from
+    the single-threaded result in its last few bits, since the sums are done in a different order.
+
+    <p>The object implements all of the Grid2D interface.  See Grid2D for rules on how to properly implement toroidal
+    or hexagonal grids.
+*/
+
+public /*strictfp*/ class FlatDoubleGrid2D extends AbstractGrid2D
+    {
+    private static final long serialVersionUID = 1;
+
+    public double[] field;
+
+    int threads = 1;
+
+    public double[] getField() { return field; }
+
+    public FlatDoubleGrid2D (int width, int height)
+        {
+        reshape(width, height);
+        }
+
+    public FlatDoubleGrid2D (int width, int height, double initialValue)
+        {
+        this(width,height);
+        setTo(initialValue);
+        }
+
+    public FlatDoubleGrid2D (FlatDoubleGrid2D values)
+        {
+        setTo(values);
+        }
+
+    public FlatDoubleGrid2D (DoubleGrid2D values)
+        {
+        setTo(values);
+        }
+
+    protected void reshape(int width, int height)
+        {
+        if ((long) width * height > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("FlatDoubleGrid2D is too large: " + width + " by " + height);
+        this.width = width;
+        this.height = height;
+        field = new double[width * height];
+        }
+
+    /** Sets the number of threads the bulk operations may be split among.  The default is 1. */
+    public void setThreads(int threads)
+        {
+        if (threads < 1) throw new IllegalArgumentException("Number of threads must be >= 1: " + threads);
+        this.threads = threads;
+        }
+
+    /** Returns the number of threads the bulk operations may be split among. */
+    public int getThreads() { return threads; }
+
+    /** Returns the index of location (x,y) in the field array. */
+    public final int index(final int x, final int y)
+        {
+        return x * height + y;
+        }
+
+    /** Sets location (x,y) to val */
+    public final void set(final int x, final int y, final double val)
+        {
+        field[x * height + y] = val;
+        }
+
+    /** Returns the element at location (x,y) */
+    public final double get(final int x, final int y)
+        {
+        return field[x * height + y];
+        }
+
+    /** Sets all the locations in the grid the provided element */
+    public final FlatDoubleGrid2D setTo(final double thisMuch)
+        {
+        final double[] field = this.field;
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                java.util.Arrays.fill(field, from, to, thisMuch);
+                }
+            }.run(field.length, threads);
+        return this;
+        }
+
+    /** Changes the dimensions of the grid to be the same as the one provided, then
+        sets all the locations in the grid to the elements at the equivalent locations in the
+        provided grid. */
+    public final FlatDoubleGrid2D setTo(final FlatDoubleGrid2D values)
+        {
+        if (field == null || width != values.width || height != values.height)
+            reshape(values.width, values.height);
+        System.arraycopy(values.field, 0, field, 0, field.length);
+        return this;
+        }
+
+    /** Changes the dimensions of the grid to be the same as the one provided, then
+        sets all the locations in the grid to the elements at the equivalent locations in the
+        provided grid. */
+    public final FlatDoubleGrid2D setTo(final DoubleGrid2D values)
+        {
+        if (field == null || width != values.width || height != values.height)
+            reshape(values.width, values.height);
+        final int width = this.width;
+        final int height = this.height;
+        for(int x = 0; x < width; x++)
+            System.arraycopy(values.field[x], 0, field, x * height, height);
+        return this;
+        }
+
+    /** Returns a new DoubleGrid2D holding the same values as this grid. */
+    public final DoubleGrid2D toDoubleGrid2D()
+        {
+        final int width = this.width;
+        final int height = this.height;
+        DoubleGrid2D grid = new DoubleGrid2D(width, height);
+        for(int x = 0; x < width; x++)
+            System.arraycopy(field, x * height, grid.field[x], 0, height);
+        return grid;
+        }
+
+    /** Flattens the grid to a one-dimensional array, storing the elements in row-major order, that is,
+        in the same order as the field array itself. */
+    public final double[] toArray()
+        {
+        return (double[]) field.clone();
+        }
+
+    /** Returns the maximum value stored in the grid */
+    public final double max()
+        {
+        final double[] field = this.field;
+        final double[] max = new double[GridRange.chunks(field.length, threads)];
+        java.util.Arrays.fill(max, Double.NEGATIVE_INFINITY);  // in case any chunk is left unfilled
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                double m = Double.NEGATIVE_INFINITY;
+                for(int i = from; i < to; i++)
+                    if (m < field[i]) m = field[i];
+                max[chunk] = m;
+                }
+            }.run(field.length, threads);
+        double m = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < max.length; i++)
+            if (m < max[i]) m = max[i];
+        return m;
+        }
+
+    /** Returns the minimum value stored in the grid */
+    public final double min()
+        {
+        final double[] field = this.field;
+        final double[] min = new double[GridRange.chunks(field.length, threads)];
+        java.util.Arrays.fill(min, Double.POSITIVE_INFINITY);  // in case any chunk is left unfilled
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                double m = Double.POSITIVE_INFINITY;
+                for(int i = from; i < to; i++)
+                    if (m > field[i]) m = field[i];
+                min[chunk] = m;
+                }
+            }.run(field.length, threads);
+        double m = Double.POSITIVE_INFINITY;
+        for(int i = 0; i < min.length; i++)
+            if (m > min[i]) m = min[i];
+        return m;
+        }
+
+    /** Returns the mean value stored in the grid */
+    public final double mean()
+        {
+        final double[] field = this.field;
+        if (field.length == 0) return 0;
+        final double[] sum = new double[GridRange.chunks(field.length, threads)];
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                double s = 0;
+                for(int i = from; i < to; i++)
+                    s += field[i];
+                sum[chunk] = s;
+                }
+            }.run(field.length, threads);
+        double s = 0;
+        for(int i = 0; i < sum.length; i++)
+            s += sum[i];
+        return s / field.length;
+        }
+
+    /** Thresholds the grid so that values greater to <i>toNoMoreThanThisMuch</i> are changed to <i>toNoMoreThanThisMuch</i>.
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid2D upperBound(final double toNoMoreThanThisMuch)
+        {
+        final double[] field = this.field;
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                for(int i = from; i < to; i++)
+                    if (field[i] > toNoMoreThanThisMuch)
+                        field[i] = toNoMoreThanThisMuch;
+                }
+            }.run(field.length, threads);
+        return this;
+        }
+
+    /** Thresholds the grid so that values smaller than <i>toNoLowerThanThisMuch</i> are changed to <i>toNoLowerThanThisMuch</i>
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid2D lowerBound(final double toNoLowerThanThisMuch)
+        {
+        final double[] field = this.field;
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                for(int i = from; i < to; i++)
+                    if (field[i] < toNoLowerThanThisMuch)
+                        field[i] = toNoLowerThanThisMuch;
+                }
+            }.run(field.length, threads);
+        return this;
+        }
+
+    /** Sets each value in the grid to that value added to <i>withThisMuch</i>
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid2D add(final double withThisMuch)
+        {
+        if (withThisMuch == 0.0) return this;
+        final double[] field = this.field;
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                for(int i = from; i < to; i++)
+                    field[i] += withThisMuch;
+                }
+            }.run(field.length, threads);
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value added to the value at the equivalent location in the provided grid.
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid2D add(final FlatIntGrid2D withThis)
+        {
+        checkBounds(withThis);
+        final double[] field = this.field;
+        final int[] otherField = withThis.field;
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                for(int i = from; i < to; i++)
+                    field[i] += otherField[i];
+                }
+            }.run(field.length, threads);
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value added to the value at the equivalent location in the provided grid.
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid2D add(final FlatDoubleGrid2D withThis)
+        {
+        checkBounds(withThis);
+        final double[] field = this.field;
+        final double[] otherField = withThis.field;
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                for(int i = from; i < to; i++)
+                    field[i] += otherField[i];
+                }
+            }.run(field.length, threads);
+        return this;
+        }
+
+    /** Sets each value in the grid to that value multiplied <i>byThisMuch</i>
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid2D multiply(final double byThisMuch)
+        {
+        if (byThisMuch == 1.0) return this;
+        final double[] field = this.field;
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                for(int i = from; i < to; i++)
+                    field[i] *= byThisMuch;
+                }
+            }.run(field.length, threads);
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value multiplied by to the value at the equivalent location in the provided grid.
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid2D multiply(final FlatIntGrid2D withThis)
+        {
+        checkBounds(withThis);
+        final double[] field = this.field;
+        final int[] otherField = withThis.field;
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                for(int i = from; i < to; i++)
+                    field[i] *= otherField[i];
+                }
+            }.run(field.length, threads);
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value multiplied by to the value at the equivalent location in the provided grid.
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid2D multiply(final FlatDoubleGrid2D withThis)
+        {
+        checkBounds(withThis);
+        final double[] field = this.field;
+        final double[] otherField = withThis.field;
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                for(int i = from; i < to; i++)
+                    field[i] *= otherField[i];
+                }
+            }.run(field.length, threads);
+        return this;
+        }
+
+    /** Sets each value in the grid to floor(value).
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid2D floor()
+        {
+        final double[] field = this.field;
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                for(int i = from; i < to; i++)
+                    field[i] = /*Strict*/Math.floor(field[i]);
+                }
+            }.run(field.length, threads);
+        return this;
+        }
+
+    /** Sets each value in the grid to ceil(value).
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid2D ceiling()
+        {
+        final double[] field = this.field;
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                for(int i = from; i < to; i++)
+                    field[i] = /*Strict*/Math.ceil(field[i]);
+                }
+            }.run(field.length, threads);
+        return this;
+        }
+
+    /** Eliminates the decimal portion of each value in the grid (rounds towards zero).
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid2D truncate()
+        {
+        final double[] field = this.field;
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                for(int i = from; i < to; i++)
+                    field[i] = (int) field[i];
+                }
+            }.run(field.length, threads);
+        return this;
+        }
+
+    /** Sets each value in the grid to rint(value).  That is, each value
+        is rounded to the closest integer value.  If two integers are the same
+        distance, the value is rounded to the even integer.
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid2D rint()
+        {
+        final double[] field = this.field;
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                for(int i = from; i < to; i++)
+                    field[i] = /*Strict*/Math.rint(field[i]);
+                }
+            }.run(field.length, threads);
+        return this;
+        }
+
+    /**
+     * Replace instances of one value to another.
+     * @param from any element that matches this value will be replaced
+     * @param to with this value
+     */
+    public final void replaceAll(final double from, final double to)
+        {
+        final double[] field = this.field;
+        new GridRange()
+            {
+            void run(int chunk, int start, int end)
+                {
+                for(int i = start; i < end; i++)
+                    if (field[i] == from)
+                        field[i] = to;
+                }
+            }.run(field.length, threads);
+        }
+
+
+    /**
+     * Gets all neighbors of a location that satisfy max( abs(x-X) , abs(y-Y) ) <= dist, as described in
+     * DoubleGrid2D.getMooreNeighbors(...).  Places each x and y value of these locations in the provided IntBags xPos and yPos,
+     * clearing the bags first, then places into the result DoubleBag the values at those locations, clearing it first.
+     * Returns the result DoubleBag (constructing one if null had been passed in).
+     */
+    public DoubleBag getMooreNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, DoubleBag result, IntBag xPos, IntBag yPos )
+        {
+        if( xPos == null )
+            xPos = new IntBag();
+        if( yPos == null )
+            yPos = new IntBag();
+
+        getMooreLocations( x, y, dist, mode, includeOrigin, xPos, yPos );
+        return getObjectsAtLocations(xPos,yPos,result);
+        }
+
+    /**
+     * Gets all neighbors of a location that satisfy abs(x-X) + abs(y-Y) <= dist, as described in
+     * DoubleGrid2D.getVonNeumannNeighbors(...).  Places each x and y value of these locations in the provided IntBags xPos and yPos,
+     * clearing the bags first, then places into the result DoubleBag the values at those locations, clearing it first.
+     * Returns the result DoubleBag (constructing one if null had been passed in).
+     */
+    public DoubleBag getVonNeumannNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, DoubleBag result, IntBag xPos, IntBag yPos )
+        {
+        if( xPos == null )
+            xPos = new IntBag();
+        if( yPos == null )
+            yPos = new IntBag();
+
+        getVonNeumannLocations( x, y, dist, mode, includeOrigin, xPos, yPos );
+        return getObjectsAtLocations(xPos,yPos,result);
+        }
+
+    /**
+     * Gets all locations within the hexagon centered at (X,Y) and 2*dist+1 cells from point to opposite point inclusive, as
+     * described in DoubleGrid2D.getHexagonalNeighbors(...).  Places each x and y value of these locations in the provided IntBags xPos and yPos,
+     * clearing the bags first, then places into the result DoubleBag the values at those locations, clearing it first.
+     * Returns the result DoubleBag (constructing one if null had been passed in).
+     */
+    public DoubleBag getHexagonalNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, DoubleBag result, IntBag xPos, IntBag yPos )
+        {
+        if( xPos == null )
+            xPos = new IntBag();
+        if( yPos == null )
+            yPos = new IntBag();
+
+        getHexagonalLocations( x, y, dist, mode, includeOrigin, xPos, yPos );
+        return getObjectsAtLocations(xPos,yPos,result);
+        }
+
+    public DoubleBag getRadialNeighbors( final int x, final int y, final double dist, int mode, boolean includeOrigin, DoubleBag result, IntBag xPos, IntBag yPos )
+        {
+        return getRadialNeighbors(x, y, dist, mode, includeOrigin, Grid2D.ANY, true, result, xPos, yPos);
+        }
+
+    public DoubleBag getRadialNeighbors( final int x, final int y, final double dist, int mode, boolean includeOrigin,  int measurementRule, boolean closed,  DoubleBag result, IntBag xPos, IntBag yPos )
+        {
+        if( xPos == null )
+            xPos = new IntBag();
+        if( yPos == null )
+            yPos = new IntBag();
+
+        getRadialLocations( x, y, dist, mode, includeOrigin, measurementRule, closed, xPos, yPos );
+        return getObjectsAtLocations(xPos,yPos,result);
+        }
+
+    public DoubleBag getMooreNeighbors( int x, int y, int dist, int mode, boolean includeOrigin )
+        {
+        return getMooreNeighbors(x, y, dist, mode, includeOrigin, null, null, null);
+        }
+
+    public DoubleBag getVonNeumannNeighbors( int x, int y, int dist, int mode, boolean includeOrigin )
+        {
+        return getVonNeumannNeighbors(x, y, dist, mode, includeOrigin, null, null, null);
+        }
+
+    public DoubleBag getHexagonalNeighbors( int x, int y, int dist, int mode, boolean includeOrigin )
+        {
+        return getHexagonalNeighbors(x, y, dist, mode, includeOrigin, null, null, null);
+        }
+
+    public DoubleBag getRadialNeighbors( final int x, final int y, final double dist, int mode, boolean includeOrigin)
+        {
+        return getRadialNeighbors(x, y, dist, mode, includeOrigin, null, null, null);
+        }
+
+    /* For each <xPos,yPos> location, puts the value at that location into the result DoubleBag.  Returns the result DoubleBag.
+       If the provided result DoubleBag is null, one will be created and returned. */
+    DoubleBag getObjectsAtLocations(final IntBag xPos, final IntBag yPos, DoubleBag result)
+        {
+        if (result==null) result = new DoubleBag();
+        else result.clear();
+
+        final double[] field = this.field;
+        final int height = this.height;
+        for( int i = 0 ; i < xPos.numObjs ; i++ )
+            {
+            assert sim.util.LocationLog.it(this, new Int2D(xPos.objs[i],yPos.objs[i]));
+            result.add( field[xPos.objs[i] * height + yPos.objs[i]] );
+            }
+        return result;
+        }
+    }
@@ -0,0 +1,452 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.grid;
+import sim.util.*;
+
+/**
+    A wrapper for a 2D grid of ints stored in a single one-dimensional array.
+
+    <p>IntGrid2D stores its values in an array of arrays, one per column.  FlatIntGrid2D instead stores them
+    all in one array, <b>field</b>, with the value at (x,y) at <tt>field[x * height + y]</tt>: this is the same order
+    that IntGrid2D.toArray() produces.  A single array uses a bit less memory, is friendlier to the cache, and
+    lets the bulk operations (add, multiply, max, and so on) run as single simple loops which HotSpot can
+    unroll and vectorize.  The cost is that you must compute the index yourself if you access the array directly:
+    you can use index(x,y) for this.  Note that a y value out of bounds will not throw an exception but will
+    silently refer to a location in a neighboring column.
+
+    <p>The bulk operations may optionally be split among several threads: see setThreads(...).  This only happens
+    for large grids, where it's worthwhile.
+
+    <p>The object implements all of the Grid2D interface.  See Grid2D for rules on how to properly implement toroidal
+    or hexagonal grids.
+*/
+
+public /*strictfp*/ class FlatIntGrid2D extends AbstractGrid2D
+    {
+    private static final long serialVersionUID = 1;
+
+    public int[] field;
+
+    int threads = 1;
+
+    public int[] getField() { return field; }
+
+    public FlatIntGrid2D (int width, int height)
+        {
+        reshape(width, height);
+        }
+
+    public FlatIntGrid2D (int width, int height, int initialValue)
+        {
+        this(width,height);
+        setTo(initialValue);
+        }
+
+    public FlatIntGrid2D (FlatIntGrid2D values)
+        {
+        setTo(values);
+        }
+
+    public FlatIntGrid2D (IntGrid2D values)
+        {
+        setTo(values);
+        }
+
+    protected void reshape(int width, int height)
+        {
+        if ((long) width * height > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("FlatIntGrid2D is too large: " + width + " by " + height);
+        this.width = width;
+        this.height = height;
+        field = new int[width * height];
+        }
+
+    /** Sets the number of threads the bulk operations may be split among.  The default is 1. */
+    public void setThreads(int threads)
+        {
+        if (threads < 1) throw new IllegalArgumentException("Number of threads must be >= 1: " + threads);
+        this.threads = threads;
+        }
+
+    /** Returns the number of threads the bulk operations may be split among. */
+    public int getThreads() { return threads; }
+
+    /** Returns the index of location (x,y) in the field array. */
+    public final int index(final int x, final int y)
+        {
+        return x * height + y;
+        }
+
+    /** Sets location (x,y) to val */
+    public final void set(final int x, final int y, final int val)
+        {
+        field[x * height + y] = val;
+        }
+
+    /** Returns the element at location (x,y) */
+    public final int get(final int x, final int y)
+        {
+        return field[x * height + y];
+        }
+
+    /** Sets all the locations in the grid the provided element */
+    public final FlatIntGrid2D setTo(final int thisMuch)
+        {
+        final int[] field = this.field;
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                java.util.Arrays.fill(field, from, to, thisMuch);
+                }
+            }.run(field.length, threads);
+        return this;
+        }
+
+    /** Changes the dimensions of the grid to be the same as the one provided, then
+        sets all the locations in the grid to the elements at the equivalent locations in the
+        provided grid. */
+    public final FlatIntGrid2D setTo(final FlatIntGrid2D values)
+        {
+        if (field == null || width != values.width || height != values.height)
+            reshape(values.width, values.height);
+        System.arraycopy(values.field, 0, field, 0, field.length);
+        return this;
+        }
+
+    /** Changes the dimensions of the grid to be the same as the one provided, then
+        sets all the locations in the grid to the elements at the equivalent locations in the
+        provided grid. */
+    public final FlatIntGrid2D setTo(final IntGrid2D values)
+        {
+        if (field == null || width != values.width || height != values.height)
+            reshape(values.width, values.height);
+        final int width = this.width;
+        final int height = this.height;
+        for(int x = 0; x < width; x++)
+            System.arraycopy(values.field[x], 0, field, x * height, height);
+        return this;
+        }
+
+    /** Returns a new IntGrid2D holding the same values as this grid. */
+    public final IntGrid2D toIntGrid2D()
+        {
+        final int width = this.width;
+        final int height = this.height;
+        IntGrid2D grid = new IntGrid2D(width, height);
+        for(int x = 0; x < width; x++)
+            System.arraycopy(field, x * height, grid.field[x], 0, height);
+        return grid;
+        }
+
+    /** Flattens the grid to a one-dimensional array, storing the elements in row-major order, that is,
+        in the same order as the field array itself. */
+    public final int[] toArray()
+        {
+        return (int[]) field.clone();
+        }
+
+    /** Returns the maximum value stored in the grid */
+    public final int max()
+        {
+        final int[] field = this.field;
+        final int[] max = new int[GridRange.chunks(field.length, threads)];
+        java.util.Arrays.fill(max, Integer.MIN_VALUE);  // in case any chunk is left unfilled
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                int m = Integer.MIN_VALUE;
+                for(int i = from; i < to; i++)
+                    if (m < field[i]) m = field[i];
+                max[chunk] = m;
+                }
+            }.run(field.length, threads);
+        int m = Integer.MIN_VALUE;
+        for(int i = 0; i < max.length; i++)
+            if (m < max[i]) m = max[i];
+        return m;
+        }
+
+    /** Returns the minimum value stored in the grid */
+    public final int min()
+        {
+        final int[] field = this.field;
+        final int[] min = new int[GridRange.chunks(field.length, threads)];
+        java.util.Arrays.fill(min, Integer.MAX_VALUE);  // in case any chunk is left unfilled
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                int m = Integer.MAX_VALUE;
+                for(int i = from; i < to; i++)
+                    if (m > field[i]) m = field[i];
+                min[chunk] = m;
+                }
+            }.run(field.length, threads);
+        int m = Integer.MAX_VALUE;
+        for(int i = 0; i < min.length; i++)
+            if (m > min[i]) m = min[i];
+        return m;
+        }
+
+    /** Returns the mean value stored in the grid */
+    public final double mean()
+        {
+        final int[] field = this.field;
+        if (field.length == 0) return 0;
+        final double[] sum = new double[GridRange.chunks(field.length, threads)];
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                double s = 0;
+                for(int i = from; i < to; i++)
+                    s += field[i];
+                sum[chunk] = s;
+                }
+            }.run(field.length, threads);
+        double s = 0;
+        for(int i = 0; i < sum.length; i++)
+            s += sum[i];
+        return s / field.length;
+        }
+
+    /** Thresholds the grid so that values greater to <i>toNoMoreThanThisMuch</i> are changed to <i>toNoMoreThanThisMuch</i>.
+        Returns the modified grid.
+    */
+    public final FlatIntGrid2D upperBound(final int toNoMoreThanThisMuch)
+        {
+        final int[] field = this.field;
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                for(int i = from; i < to; i++)
+                    if (field[i] > toNoMoreThanThisMuch)
+                        field[i] = toNoMoreThanThisMuch;
+                }
+            }.run(field.length, threads);
+        return this;
+        }
+
+    /** Thresholds the grid so that values smaller than <i>toNoLowerThanThisMuch</i> are changed to <i>toNoLowerThanThisMuch</i>
+        Returns the modified grid.
+    */
+    public final FlatIntGrid2D lowerBound(final int toNoLowerThanThisMuch)
+        {
+        final int[] field = this.field;
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                for(int i = from; i < to; i++)
+                    if (field[i] < toNoLowerThanThisMuch)
+                        field[i] = toNoLowerThanThisMuch;
+                }
+            }.run(field.length, threads);
+        return this;
+        }
+
+    /** Sets each value in the grid to that value added to <i>withThisMuch</i>
+        Returns the modified grid.
+    */
+    public final FlatIntGrid2D add(final int withThisMuch)
+        {
+        if (withThisMuch == 0) return this;
+        final int[] field = this.field;
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                for(int i = from; i < to; i++)
+                    field[i] += withThisMuch;
+                }
+            }.run(field.length, threads);
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value added to the value at the equivalent location in the provided grid.
+        Returns the modified grid.
+    */
+    public final FlatIntGrid2D add(final FlatIntGrid2D withThis)
+        {
+        checkBounds(withThis);
+        final int[] field = this.field;
+        final int[] otherField = withThis.field;
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                for(int i = from; i < to; i++)
+                    field[i] += otherField[i];
+                }
+            }.run(field.length, threads);
+        return this;
+        }
+
+    /** Sets each value in the grid to that value multiplied <i>byThisMuch</i>
+        Returns the modified grid.
+    */
+    public final FlatIntGrid2D multiply(final int byThisMuch)
+        {
+        if (byThisMuch == 1) return this;
+        final int[] field = this.field;
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                for(int i = from; i < to; i++)
+                    field[i] *= byThisMuch;
+                }
+            }.run(field.length, threads);
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value multiplied by to the value at the equivalent location in the provided grid.
+        Returns the modified grid.
+    */
+    public final FlatIntGrid2D multiply(final FlatIntGrid2D withThis)
+        {
+        checkBounds(withThis);
+        final int[] field = this.field;
+        final int[] otherField = withThis.field;
+        new GridRange()
+            {
+            void run(int chunk, int from, int to)
+                {
+                for(int i = from; i < to; i++)
+                    field[i] *= otherField[i];
+                }
+            }.run(field.length, threads);
+        return this;
+        }
+
+    /**
+     * Replace instances of one value to another.
+     * @param from any element that matches this value will be replaced
+     * @param to with this value
+     */
+    public final void replaceAll(final int from, final int to)
+        {
+        final int[] field = this.field;
+        new GridRange()
+            {
+            void run(int chunk, int start, int end)
+                {
+                for(int i = start; i < end; i++)
+                    if (field[i] == from)
+                        field[i] = to;
+                }
+            }.run(field.length, threads);
+        }
+
+
+    /**
+     * Gets all neighbors of a location that satisfy max( abs(x-X) , abs(y-Y) ) <= dist, as described in
+     * IntGrid2D.getMooreNeighbors(...).  Places each x and y value of these locations in the provided IntBags xPos and yPos,
+     * clearing the bags first, then places into the result IntBag the values at those locations, clearing it first.
+     * Returns the result IntBag (constructing one if null had been passed in).
+     */
+    public IntBag getMooreNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, IntBag result, IntBag xPos, IntBag yPos )
+        {
+        if( xPos == null )
+            xPos = new IntBag();
+        if( yPos == null )
+            yPos = new IntBag();
+
+        getMooreLocations( x, y, dist, mode, includeOrigin, xPos, yPos );
+        return getObjectsAtLocations(xPos,yPos,result);
+        }
+
+    /**
+     * Gets all neighbors of a location that satisfy abs(x-X) + abs(y-Y) <= dist, as described in
+     * IntGrid2D.getVonNeumannNeighbors(...).  Places each x and y value of these locations in the provided IntBags xPos and yPos,
+     * clearing the bags first, then places into the result IntBag the values at those locations, clearing it first.
+     * Returns the result IntBag (constructing one if null had been passed in).
+     */
+    public IntBag getVonNeumannNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, IntBag result, IntBag xPos, IntBag yPos )
+        {
+        if( xPos == null )
+            xPos = new IntBag();
+        if( yPos == null )
+            yPos = new IntBag();
+
+        getVonNeumannLocations( x, y, dist, mode, includeOrigin, xPos, yPos );
+        return getObjectsAtLocations(xPos,yPos,result);
+        }
+
+    /**
+     * Gets all locations within the hexagon centered at (X,Y) and 2*dist+1 cells from point to opposite point inclusive, as
+     * described in IntGrid2D.getHexagonalNeighbors(...).  Places each x and y value of these locations in the provided IntBags xPos and yPos,
+     * clearing the bags first, then places into the result IntBag the values at those locations, clearing it first.
+     * Returns the result IntBag (constructing one if null had been passed in).
+     */
+    public IntBag getHexagonalNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, IntBag result, IntBag xPos, IntBag yPos )
+        {
+        if( xPos == null )
+            xPos = new IntBag();
+        if( yPos == null )
+            yPos = new IntBag();
+
+        getHexagonalLocations( x, y, dist, mode, includeOrigin, xPos, yPos );
+        return getObjectsAtLocations(xPos,yPos,result);
+        }
+
+    public IntBag getRadialNeighbors( final int x, final int y, final double dist, int mode, boolean includeOrigin, IntBag result, IntBag xPos, IntBag yPos )
+        {
+        return getRadialNeighbors(x, y, dist, mode, includeOrigin, Grid2D.ANY, true, result, xPos, yPos);
+        }
+
+    public IntBag getRadialNeighbors( final int x, final int y, final double dist, int mode, boolean includeOrigin,  int measurementRule, boolean closed,  IntBag result, IntBag xPos, IntBag yPos )
+        {
+        if( xPos == null )
+            xPos = new IntBag();
+        if( yPos == null )
+            yPos = new IntBag();
+
+        getRadialLocations( x, y, dist, mode, includeOrigin, measurementRule, closed, xPos, yPos );
+        return getObjectsAtLocations(xPos,yPos,result);
+        }
+
+    public IntBag getMooreNeighbors( int x, int y, int dist, int mode, boolean includeOrigin )
+        {
+        return getMooreNeighbors(x, y, dist, mode, includeOrigin, null, null, null);
+        }
+
+    public IntBag getVonNeumannNeighbors( int x, int y, int dist, int mode, boolean includeOrigin )
+        {
+        return getVonNeumannNeighbors(x, y, dist, mode, includeOrigin, null, null, null);
+        }
+
+    public IntBag getHexagonalNeighbors( int x, int y, int dist, int mode, boolean includeOrigin )
+        {
+        return getHexagonalNeighbors(x, y, dist, mode, includeOrigin, null, null, null);
+        }
+
+    public IntBag getRadialNeighbors( final int x, final int y, final double dist, int mode, boolean includeOrigin)
+        {
+        return getRadialNeighbors(x, y, dist, mode, includeOrigin, null, null, null);
+        }
+
+    /* For each <xPos,yPos> location, puts the value at that location into the result IntBag.  Returns the result IntBag.
+       If the provided result IntBag is null, one will be created and returned. */
+    IntBag getObjectsAtLocations(final IntBag xPos, final IntBag yPos, IntBag result)
+        {
+        if (result==null) result = new IntBag();
+        else result.clear();
+
+        final int[] field = this.field;
+        final int height = this.height;
+        for( int i = 0 ; i < xPos.numObjs ; i++ )
+            {
+            assert sim.util.LocationLog.it(this, new Int2D(xPos.objs[i],yPos.objs[i]));
+            result.add( field[xPos.objs[i] * height + yPos.objs[i]] );
+            }
+        return result;
+        }
+    }
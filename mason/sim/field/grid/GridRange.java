@@ -0,0 +1,91 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.grid;
+import java.util.concurrent.*;
+
+/**
+   A loop over a range of cells (or columns) in a grid, which may be split into chunks done in parallel.  Used
+   internally by FlatDoubleGrid2D, FlatIntGrid2D, Stencil2D, and Stencil3D.
+*/
+
+abstract class GridRange
+    {
+    /** Grids smaller than this are never split. */
+    static final int MIN_PARALLEL_SIZE = 1 << 16;
+
+    /** Does cells from ... to-1, as the given chunk. */
+    abstract void run(int chunk, int from, int to);
+
+    /** Returns the number of chunks that a grid of the given size would be split into using the given number of threads.
+        This is never more than the size, so it's always the number of chunks which run(...) actually does. */
+    static int chunks(int length, int threads)
+        {
+        if (threads <= 1 || length < MIN_PARALLEL_SIZE) return 1;
+        return Math.min(threads, length);
+        }
+
+    static ExecutorService pool = null;
+    static synchronized ExecutorService getPool()
+        {
+        if (pool == null)
+            pool = Executors.newCachedThreadPool(new ThreadFactory()
+                {
+                public Thread newThread(Runnable r)
+                    {
+                    Thread t = new Thread(r, "GridRange");
+                    t.setDaemon(true);
+                    return t;
+                    }
+                });
+        return pool;
+        }
+
+    /** Splits the cells 0 ... length-1 into chunks(length, threads) contiguous chunks, and runs them, the first chunk
+        in the current thread, the others in a shared pool of threads.  Returns when they're all done. */
+    void run(int length, int threads)
+        {
+        split(length, chunks(length, threads));
+        }
+
+    /** Splits the cells 0 ... length-1 into the given number of contiguous chunks (or length chunks if that's fewer),
+        and runs them, the first chunk in the current thread, the others in a shared pool of threads.  Returns when they're all done. */
+    void split(int length, int chunks)
+        {
+        if (chunks > length) chunks = length;
+        if (chunks <= 1) { run(0, 0, length); return; }
+
+        Future[] futures = new Future[chunks - 1];
+        for(int i = 1; i < chunks; i++)
+            {
+            final int chunk = i;
+            final int from = (int)(length * (long) i / chunks);
+            final int to = (int)(length * (long)(i + 1) / chunks);
+            futures[i - 1] = getPool().submit(new Runnable()
+                {
+                public void run() { GridRange.this.run(chunk, from, to); }
+                });
+            }
+        run(0, 0, (int)(length / (long) chunks));
+
+        // wait for all of them, even if one failed, so none is still writing when we return
+        boolean interrupted = false;
+        Throwable exception = null;
+        for(int i = 0; i < futures.length; i++)
+            {
+            while (true)
+                {
+                try { futures[i].get(); break; }
+                catch (InterruptedException e) { interrupted = true; }
+                catch (ExecutionException e) { if (exception == null) exception = e.getCause(); break; }
+                }
+            }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (exception instanceof RuntimeException) throw (RuntimeException) exception;
+        else if (exception instanceof Error) throw (Error) exception;
+        else if (exception != null) throw new RuntimeException(exception);
+        }
+    }
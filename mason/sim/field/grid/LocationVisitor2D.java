@@ -0,0 +1,17 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.grid;
+
+/**
+   Visits locations in a 2D grid, one at a time, as they are found by methods such as
+   AbstractGrid2D.forEachMooreLocation(...).  Return false to stop the search early, else true.
+*/
+
+public interface LocationVisitor2D
+    {
+    public boolean visit(int x, int y);
+    }
@@ -0,0 +1,282 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.grid;
+import sim.util.*;
+import java.util.*;
+
+/**
+   A precomputed table of the (x,y) offsets which make up a Moore, von Neumann, hexagonal, or radial neighborhood
+   of a given distance around a location in a 2D grid.  Computing radial and hexagonal neighborhoods is fairly
+   expensive, and the neighborhood is the same shape no matter where in the grid it is, so it makes sense to compute
+   it once and reuse it.  Hexagonal neighborhoods have one shape around locations with even x and another around locations
+   with odd x, so they have two tables.
+
+   <p>You can get a NeighborhoodOffsets from one of the static methods below, which cache the tables they have
+   built, and then hand it to AbstractGrid2D.forEachLocation(...) or SparseGrid2D.forEachNeighbor(...).
+   The tables contain exactly the locations produced by the corresponding get...Locations(...) methods
+   in AbstractGrid2D in UNBOUNDED mode.
+
+   <p>NeighborhoodOffsets are immutable and may be shared among threads.
+*/
+
+public final class NeighborhoodOffsets implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    public static final int MOORE = 0;
+    public static final int VON_NEUMANN = 1;
+    public static final int HEXAGONAL = 2;
+    public static final int RADIAL = 3;
+
+    final int type;
+    final double distance;
+    final boolean includeOrigin;
+    final int measurementRule;
+    final boolean closed;
+
+    // offsets around locations with even x and with odd x.  These are the same arrays except for HEXAGONAL.
+    final int[] evenX;
+    final int[] evenY;
+    final int[] oddX;
+    final int[] oddY;
+
+    // the largest extent of the neighborhood, in x and in y, around any location
+    final int spanX;
+    final int spanY;
+
+    NeighborhoodOffsets(int type, double distance, boolean includeOrigin, int measurementRule, boolean closed)
+        {
+        this.type = type;
+        this.distance = distance;
+        this.includeOrigin = includeOrigin;
+        this.measurementRule = measurementRule;
+        this.closed = closed;
+
+        // Build the neighborhood around a location in the middle of a scratch grid big enough to hold it
+        int reach = (type == RADIAL ? (int) Math.ceil(distance + 0.5) : (int) distance);
+        int center = 2 * reach + 2;   // even
+        SparseGrid2D scratch = new SparseGrid2D(2 * center + 2, 2 * center + 2);
+        IntBag xPos = new IntBag();
+        IntBag yPos = new IntBag();
+
+        build(scratch, center, center, xPos, yPos);
+        evenX = xPos.toArray();
+        evenY = yPos.toArray();
+        if (type == HEXAGONAL)
+            {
+            build(scratch, center + 1, center, xPos, yPos);
+            oddX = xPos.toArray();
+            oddY = yPos.toArray();
+            }
+        else
+            {
+            oddX = evenX;
+            oddY = evenY;
+            }
+
+        spanX = Math.max(span(evenX), span(oddX));
+        spanY = Math.max(span(evenY), span(oddY));
+        }
+
+    void build(SparseGrid2D scratch, int x, int y, IntBag xPos, IntBag yPos)
+        {
+        int dist = (int) distance;
+        if (type == MOORE)
+            scratch.getMooreLocations(x, y, dist, Grid2D.UNBOUNDED, includeOrigin, xPos, yPos);
+        else if (type == VON_NEUMANN)
+            scratch.getVonNeumannLocations(x, y, dist, Grid2D.UNBOUNDED, includeOrigin, xPos, yPos);
+        else if (type == HEXAGONAL)
+            scratch.getHexagonalLocations(x, y, dist, Grid2D.UNBOUNDED, includeOrigin, xPos, yPos);
+        else
+            scratch.getRadialLocations(x, y, distance, Grid2D.UNBOUNDED, includeOrigin, measurementRule, closed, xPos, yPos);
+        for(int i = 0; i < xPos.numObjs; i++)
+            {
+            xPos.objs[i] -= x;
+            yPos.objs[i] -= y;
+            }
+        }
+
+    static int span(int[] offsets)
+        {
+        if (offsets.length == 0) return 0;
+        int min = offsets[0];
+        int max = offsets[0];
+        for(int i = 1; i < offsets.length; i++)
+            {
+            if (offsets[i] < min) min = offsets[i];
+            if (offsets[i] > max) max = offsets[i];
+            }
+        return max - min + 1;
+        }
+
+    /** Returns the number of locations in the neighborhood around a location with the given x coordinate. */
+    public int size(int x) { return ((x & 1) == 0 ? evenX.length : oddX.length); }
+
+    /** Returns the x offset of the ith location in the neighborhood around a location with the given x coordinate. */
+    public int getX(int x, int i) { return ((x & 1) == 0 ? evenX[i] : oddX[i]); }
+
+    /** Returns the y offset of the ith location in the neighborhood around a location with the given x coordinate. */
+    public int getY(int x, int i) { return ((x & 1) == 0 ? evenY[i] : oddY[i]); }
+
+    /** Returns MOORE, VON_NEUMANN, HEXAGONAL, or RADIAL. */
+    public int getType() { return type; }
+
+    /** Returns the neighborhood distance. */
+    public double getDistance() { return distance; }
+
+    /** Returns whether the neighborhood includes its origin. */
+    public boolean getIncludeOrigin() { return includeOrigin; }
+
+
+
+    //// CACHING
+
+    // tables for small integer distances, indexed by [type * 2 + (includeOrigin ? 1 : 0)][distance].
+    // These are read without locking, which is safe because NeighborhoodOffsets are immutable.
+    static final int MAX_SMALL_DISTANCE = 64;
+    static final NeighborhoodOffsets[][] small = new NeighborhoodOffsets[6][MAX_SMALL_DISTANCE];
+    static final HashMap large = new HashMap();
+
+    static NeighborhoodOffsets get(int type, int distance, boolean includeOrigin)
+        {
+        if (distance < 0)
+            throw new RuntimeException( "Distance must be positive" );
+        if (distance < MAX_SMALL_DISTANCE)
+            {
+            int slot = type * 2 + (includeOrigin ? 1 : 0);
+            NeighborhoodOffsets offsets = small[slot][distance];
+            if (offsets == null)
+                small[slot][distance] = offsets = new NeighborhoodOffsets(type, distance, includeOrigin, Grid2D.ANY, true);
+            return offsets;
+            }
+        return get(type, (double) distance, includeOrigin, Grid2D.ANY, true);
+        }
+
+    static NeighborhoodOffsets get(int type, double distance, boolean includeOrigin, int measurementRule, boolean closed)
+        {
+        String key = type + " " + distance + " " + includeOrigin + " " + measurementRule + " " + closed;
+        synchronized(large)
+            {
+            NeighborhoodOffsets offsets = (NeighborhoodOffsets)(large.get(key));
+            if (offsets == null)
+                {
+                offsets = new NeighborhoodOffsets(type, distance, includeOrigin, measurementRule, closed);
+                large.put(key, offsets);
+                }
+            return offsets;
+            }
+        }
+
+    /** Returns the offsets of the locations satisfying max(abs(dx), abs(dy)) <= dist. */
+    public static NeighborhoodOffsets moore(int dist, boolean includeOrigin)
+        {
+        return get(MOORE, dist, includeOrigin);
+        }
+
+    /** Returns the offsets of the locations satisfying abs(dx) + abs(dy) <= dist. */
+    public static NeighborhoodOffsets vonNeumann(int dist, boolean includeOrigin)
+        {
+        return get(VON_NEUMANN, dist, includeOrigin);
+        }
+
+    /** Returns the offsets of the locations within dist hexagonal steps. */
+    public static NeighborhoodOffsets hexagonal(int dist, boolean includeOrigin)
+        {
+        return get(HEXAGONAL, dist, includeOrigin);
+        }
+
+    /** Returns the offsets of the locations within a radius of dist, using the Grid2D.ANY measurement rule and a closed region. */
+    public static NeighborhoodOffsets radial(double dist, boolean includeOrigin)
+        {
+        return radial(dist, includeOrigin, Grid2D.ANY, true);
+        }
+
+    /** Returns the offsets of the locations within a radius of dist, using the given measurement rule
+        (Grid2D.ANY, Grid2D.ALL, or Grid2D.CENTER), and either a closed or open region.  */
+    public static NeighborhoodOffsets radial(double dist, boolean includeOrigin, int measurementRule, boolean closed)
+        {
+        if( dist < 0 )
+            throw new RuntimeException( "Distance must be positive" );
+        if (measurementRule != Grid2D.ANY && measurementRule != Grid2D.ALL && measurementRule != Grid2D.CENTER)
+            throw new RuntimeException(" Measurement rule must be one of ANY, ALL, or CENTER" );
+        return get(RADIAL, dist, includeOrigin, measurementRule, closed);
+        }
+
+
+
+    //// VISITING
+
+    /** Visits the neighborhood around (x,y) in a grid of the given width and height, in the given mode.
+        Returns false if the visitor stopped early.  */
+    boolean visit(final int x, final int y, final int mode, final int width, final int height, final LocationVisitor2D visitor)
+        {
+        boolean toroidal = (mode == Grid2D.TOROIDAL);
+        boolean bounded = (mode == Grid2D.BOUNDED);
+
+        if (mode != Grid2D.BOUNDED && mode != Grid2D.UNBOUNDED && mode != Grid2D.TOROIDAL)
+            {
+            throw new RuntimeException("Mode must be either Grid2D.BOUNDED, Grid2D.UNBOUNDED, or Grid2D.TOROIDAL");
+            }
+
+        if( ( x < 0 || x >= width || y < 0 || y >= height ) && !bounded)
+            throw new RuntimeException( "Invalid initial position" );
+
+        if( toroidal && type == HEXAGONAL && height%2==1 )
+            throw new RuntimeException( "toroidal hexagonal environment should have even heights" );
+
+        final int[] xs = ((x & 1) == 0 ? evenX : oddX);
+        final int[] ys = ((x & 1) == 0 ? evenY : oddY);
+        final int len = xs.length;
+
+        if (toroidal)
+            {
+            if (spanX > width || spanY > height)
+                return visitWrapped(x, y, xs, ys, width, height, visitor);
+            for(int i = 0; i < len; i++)
+                {
+                int xx = x + xs[i];
+                int yy = y + ys[i];
+                if (xx < 0) xx += width; else if (xx >= width) xx -= width;
+                if (yy < 0) yy += height; else if (yy >= height) yy -= height;
+                if (!visitor.visit(xx, yy)) return false;
+                }
+            }
+        else if (bounded)
+            {
+            for(int i = 0; i < len; i++)
+                {
+                int xx = x + xs[i];
+                int yy = y + ys[i];
+                if (xx >= 0 && xx < width && yy >= 0 && yy < height)
+                    if (!visitor.visit(xx, yy)) return false;
+                }
+            }
+        else
+            {
+            for(int i = 0; i < len; i++)
+                if (!visitor.visit(x + xs[i], y + ys[i])) return false;
+            }
+        return true;
+        }
+
+    // The neighborhood wraps around onto itself, so the same location might turn up more than once.
+    boolean visitWrapped(final int x, final int y, final int[] xs, final int[] ys, final int width, final int height, final LocationVisitor2D visitor)
+        {
+        HashSet seen = new HashSet();
+        for(int i = 0; i < xs.length; i++)
+            {
+            int xx = (x + xs[i]) % width;
+            if (xx < 0) xx += width;
+            int yy = (y + ys[i]) % height;
+            if (yy < 0) yy += height;
+            if (!includeOrigin && xx == x && yy == y) continue;
+            if (seen.add(new Int2D(xx, yy)))
+                if (!visitor.visit(xx, yy)) return false;
+            }
+        return true;
+        }
+    }
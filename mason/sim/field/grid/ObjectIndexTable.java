@@ -0,0 +1,148 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.grid;
+
+/**
+   A hash table from Objects to non-negative ints, used internally by SparseGrid2D's dense mode to map each
+   object to its index in the allObjects Bag.  Like the HashMaps in SparseField, it hashes objects using
+   hashCode() and equals(...).  Unlike a HashMap, it stores keys and values directly in two arrays, using
+   linear probing, so it makes no entry objects and boxes no ints.
+*/
+
+final class ObjectIndexTable implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    static final int INITIAL_CAPACITY = 16;     // must be a power of two
+
+    Object[] keys = new Object[INITIAL_CAPACITY];
+    int[] values = new int[INITIAL_CAPACITY];
+    int size = 0;
+
+    ObjectIndexTable() { }
+
+    ObjectIndexTable(ObjectIndexTable other)
+        {
+        keys = (Object[])(other.keys.clone());
+        values = (int[])(other.values.clone());
+        size = other.size;
+        }
+
+    static int hash(Object key)
+        {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+        }
+
+    /** Returns the value stored for the key, or -1 if there is none. */
+    int get(final Object key)
+        {
+        if (key == null) return -1;
+        final Object[] keys = this.keys;
+        final int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while(true)
+            {
+            Object k = keys[i];
+            if (k == null) return -1;
+            if (k == key || k.equals(key)) return values[i];
+            i = (i + 1) & mask;
+            }
+        }
+
+    /** Stores the value for the key, replacing any previous value. */
+    void put(final Object key, final int value)
+        {
+        if ((size + 1) * 2 > keys.length) resize(keys.length * 2);
+        final Object[] keys = this.keys;
+        final int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while(true)
+            {
+            Object k = keys[i];
+            if (k == null)
+                {
+                keys[i] = key;
+                values[i] = value;
+                size++;
+                return;
+                }
+            if (k == key || k.equals(key))
+                {
+                values[i] = value;
+                return;
+                }
+            i = (i + 1) & mask;
+            }
+        }
+
+    /** Removes the key, returning its value, or -1 if it wasn't there. */
+    int remove(final Object key)
+        {
+        if (key == null) return -1;
+        final Object[] keys = this.keys;
+        final int[] values = this.values;
+        final int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while(true)
+            {
+            Object k = keys[i];
+            if (k == null) return -1;
+            if (k == key || k.equals(key)) break;
+            i = (i + 1) & mask;
+            }
+        int value = values[i];
+        size--;
+
+        // shift later entries in the same run back, so that no lookup stops short at the hole
+        int hole = i;
+        int j = i;
+        while(true)
+            {
+            j = (j + 1) & mask;
+            Object k = keys[j];
+            if (k == null) break;
+            int home = hash(k) & mask;
+            // move k into the hole unless its home lies cyclically in (hole, j]
+            if (hole <= j ? (home <= hole || home > j) : (home <= hole && home > j))
+                {
+                keys[hole] = k;
+                values[hole] = values[j];
+                hole = j;
+                }
+            }
+        keys[hole] = null;
+        return value;
+        }
+
+    void clear()
+        {
+        keys = new Object[INITIAL_CAPACITY];
+        values = new int[INITIAL_CAPACITY];
+        size = 0;
+        }
+
+    // Objects using the default hashCode() get new hash codes when they're deserialized, so the
+    // keys no longer sit where get(...) would look for them: we put them all back again.
+    private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException
+        {
+        in.defaultReadObject();
+        resize(keys.length);
+        }
+
+    void resize(int capacity)
+        {
+        Object[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new Object[capacity];
+        values = new int[capacity];
+        size = 0;
+        for(int i = 0; i < oldKeys.length; i++)
+            if (oldKeys[i] != null)
+                put(oldKeys[i], oldValues[i]);
+        }
+    }
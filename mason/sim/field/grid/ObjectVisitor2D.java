@@ -0,0 +1,18 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.grid;
+
+/**
+   Visits objects in a SparseGrid2D, one at a time, along with their locations, as they are found by methods such as
+   SparseGrid2D.forEachMooreNeighbor(...).  Return false to stop the search early, else true.
+   Don't add, remove, or move objects in the grid while visiting them.
+*/
+
+public interface ObjectVisitor2D
+    {
+    public boolean visit(Object object, int x, int y);
+    }
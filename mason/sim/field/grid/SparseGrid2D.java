@@ -28,7 +28,16 @@ import java.util.*;
 
    <p><b>Boundaries.</b>  SparseGrid2D has no boundaries at all.  <tt>width</tt> and <tt>height</tt> exist only to allow
    you to define pseudo-boundaries for toroidal computation; and to provide typical bounds for visualization.  But you can
-   attach any coordinate as a location for an object with no restrictions.
+   attach any coordinate as a location for an object with no restrictions.  The exception is a dense SparseGrid2D (see below).
+
+   <p><b>Dense Mode.</b>  If you create a SparseGrid2D with <tt>new SparseGrid2D(width, height, true)</tt>, it will not use
+   the hash tables in SparseField (which remain empty).  Instead it stores the objects at each location in an array
+   of Bags, one per location, and each object's location as an int in an array paralleling <b>allObjects</b>.
+   Looking up the objects at a location is then just an array access, with no hashing and no Int2D to build, and
+   moving an object needs only one hash lookup rather than several.  This is a good choice when a moderate
+   fraction of the grid (say 5% or more) is occupied, as the array has width * height slots.  The API is otherwise
+   the same, except that locations are restricted to lie within the grid: setObjectLocation(...) returns false if
+   they do not.
         
    <b>Setting and getting an object and its Location.</b>  The method <b>setObjectLocation(...)</b> methods set the location of the object
    (to an Int2D or an <x,y> location).
@@ -59,11 +68,35 @@ public class SparseGrid2D extends SparseField implements Grid2D, SparseField2D
         this.height = height;
         }
     
+    /** Creates a SparseGrid2D which, if <i>dense</i> is true, stores the objects at each location in an array
+        of Bags rather than in hash tables.  See the class documentation. */
+    public SparseGrid2D(int width, int height, boolean dense)
+        {
+        this(width, height);
+        if (dense)
+            {
+            if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("A dense SparseGrid2D must have a positive width and height, and no more than Integer.MAX_VALUE locations: " + width + " x " + height);
+            cells = new Bag[width * height];
+            cellOf = new int[INITIAL_BAG_SIZE];
+            indices = new ObjectIndexTable();
+            }
+        }
+    
     public SparseGrid2D(SparseGrid2D values)
         {
         super(values);
         width = values.width;
         height = values.height;
+        if (values.cells != null)
+            {
+            cells = new Bag[values.cells.length];
+            for(int i = 0; i < cells.length; i++)
+                if (values.cells[i] != null)
+                    cells[i] = new Bag(values.cells[i]);
+            cellOf = (int[])(values.cellOf.clone());
+            indices = new ObjectIndexTable(values.indices);
+            }
         }
     
     /** Returns the width of the grid */
@@ -217,9 +250,26 @@ public class SparseGrid2D extends SparseField implements Grid2D, SparseField2D
     /** Returns the number of objects stored in the grid at the given location. */
     public int numObjectsAtLocation(final int x, final int y)
         {
+        if (cells != null)
+            {
+            Bag b = cell(x, y);
+            return (b == null ? 0 : b.numObjs);
+            }
         return numObjectsAtLocation(new Int2D(x,y));
         }
 
+    /** Returns the number of objects stored in the grid at the given location (an Int2D or MutableInt2D). */
+    public int numObjectsAtLocation(final Object location)
+        {
+        if (cells != null)
+            {
+            if (location instanceof Int2D) return numObjectsAtLocation(((Int2D)location).x, ((Int2D)location).y);
+            if (location instanceof MutableInt2D) return numObjectsAtLocation(((MutableInt2D)location).x, ((MutableInt2D)location).y);
+            return 0;
+            }
+        return super.numObjectsAtLocation(location);
+        }
+
     /** Returns a bag containing all the objects at a given location, or null when there are no objects at the location.
         You should NOT MODIFY THIS BAG. This is the actual container bag, and modifying it will almost certainly break
         the Sparse Field object.   If you want to modify the bag, make a copy and modify the copy instead,
@@ -229,13 +279,27 @@ public class SparseGrid2D extends SparseField implements Grid2D, SparseField2D
     */
     public Bag getObjectsAtLocation(final int x, final int y)
         {
+        if (cells != null) return cell(x, y);
         return getObjectsAtLocation(new Int2D(x,y));
         }
 
+    /** Returns a bag containing all the objects at a given location (an Int2D or MutableInt2D), or null when there are no objects
+        at the location.  You should NOT MODIFY THIS BAG: see getObjectsAtLocation(x, y). */
+    public Bag getObjectsAtLocation(final Object location)
+        {
+        if (cells != null)
+            {
+            if (location instanceof Int2D) return cell(((Int2D)location).x, ((Int2D)location).y);
+            if (location instanceof MutableInt2D) return cell(((MutableInt2D)location).x, ((MutableInt2D)location).y);
+            return null;
+            }
+        return super.getObjectsAtLocation(location);
+        }
+
     /** Returns the object location as a Double2D, or as null if there is no such object. */
     public Double2D getObjectLocationAsDouble2D(Object obj)
         {
-        Int2D loc = (Int2D) super.getRawObjectLocation(obj);
+        Int2D loc = getObjectLocation(obj);
         if (loc == null) return null;
         return new Double2D(loc);
         }
@@ -243,28 +307,270 @@ public class SparseGrid2D extends SparseField implements Grid2D, SparseField2D
     /** Returns the object location, or null if there is no such object. */
     public Int2D getObjectLocation(Object obj)
         {
+        if (cells != null)
+            {
+            int i = indices.get(obj);
+            if (i < 0) return null;
+            int c = cellOf[i];
+            return new Int2D(c / height, c % height);
+            }
         return (Int2D) super.getRawObjectLocation(obj);
         }
     
     /** Removes all the objects stored at the given location and returns them as a Bag (which you are free to modify). */
     public Bag removeObjectsAtLocation(final int x, final int y)
         {
+        if (cells != null)
+            {
+            Bag objs = cell(x, y);
+            if (objs != null)
+                {
+                cells[x * height + y] = null;
+                for(int j = 0; j < objs.numObjs; j++)
+                    removeFromAllObjects(indices.remove(objs.objs[j]));
+                }
+            return objs;
+            }
         return removeObjectsAtLocation(new Int2D(x,y));
         }
 
+    /** Removes all the objects stored at the given location (an Int2D or MutableInt2D) and returns them as a Bag (which you are free to modify). */
+    public Bag removeObjectsAtLocation(final Object location)
+        {
+        if (cells != null)
+            {
+            if (location instanceof Int2D) return removeObjectsAtLocation(((Int2D)location).x, ((Int2D)location).y);
+            if (location instanceof MutableInt2D) return removeObjectsAtLocation(((MutableInt2D)location).x, ((MutableInt2D)location).y);
+            return null;
+            }
+        return super.removeObjectsAtLocation(location);
+        }
+
     /** Changes the location of an object, or adds if it doesn't exist yet.  Returns false
-        if the object is null (null objects cannot be put into the grid). */
+        if the object is null (null objects cannot be put into the grid), or if the grid is dense and
+        the location lies outside of it. */
     public boolean setObjectLocation(final Object obj, final int x, final int y)
         {
+        if (cells != null) return setDenseObjectLocation(obj, x, y);
         return super.setObjectLocation(obj,new Int2D(x,y));
         }
     
     /** Changes the location of an object, or adds if it doesn't exist yet.  Returns false
-        if the object is null (null objects cannot be put into the grid) or if the location is null. */
+        if the object is null (null objects cannot be put into the grid) or if the location is null, or if the grid is dense and
+        the location lies outside of it. */
     public boolean setObjectLocation(Object obj, final Int2D location)
         {
+        if (cells != null)
+            {
+            if (location == null) return false;
+            return setDenseObjectLocation(obj, location.x, location.y);
+            }
+        return super.setObjectLocation(obj, location);
+        }
+
+    protected boolean setObjectLocation(final Object obj, final Object location)
+        {
+        if (cells != null)
+            {
+            if (location instanceof Int2D) return setDenseObjectLocation(obj, ((Int2D)location).x, ((Int2D)location).y);
+            return false;
+            }
         return super.setObjectLocation(obj, location);
         }
+
+
+
+    //// DENSE MODE
+    
+    /* In dense mode, the SparseField hash tables are not used (they stay empty).  Instead the objects at each location
+       are stored in a Bag in the cells array, indexed by x * height + y, and each object's location is stored as
+       a cell index in cellOf, which parallels allObjects.  indices maps each object to its index in allObjects. */
+
+    /** The initial size of the Bag made for each occupied location in dense mode. */
+    public static final int INITIAL_CELL_SIZE = 4;
+        
+    Bag[] cells;
+    int[] cellOf;
+    ObjectIndexTable indices;
+
+    /** Returns true if the grid is dense, that is, it stores its objects in per-location arrays rather than in hash tables. */
+    public boolean isDense() { return cells != null; }
+
+    // Returns the Bag at the given location, or null if it is empty or out of bounds.
+    Bag cell(final int x, final int y)
+        {
+        if (x < 0 || x >= width || y < 0 || y >= height) return null;
+        Bag b = cells[x * height + y];
+        if (b == null || b.numObjs == 0) return null;
+        return b;
+        }
+
+    // Removes the object at the given index in allObjects, and moves the last object into its place.
+    void removeFromAllObjects(final int i)
+        {
+        allObjects.remove(i);
+        if (allObjects.numObjs > i)    // update the index of the guy who just got moved
+            {
+            cellOf[i] = cellOf[allObjects.numObjs];
+            indices.put(allObjects.objs[i], i);
+            }
+        }
+
+    boolean setDenseObjectLocation(final Object obj, final int x, final int y)
+        {
+        if (obj == null) return false;
+        if (x < 0 || x >= width || y < 0 || y >= height) return false;
+        final int c = x * height + y;
+        Bag canUse = null;  // reusable bag perhaps
+
+        int i = indices.get(obj);
+        if (i >= 0)
+            {
+            int old = cellOf[i];
+            if (old == c) return true;  // it's already there!
+
+            Bag objs = cells[old];
+            objs.remove(obj);
+            final int objsNumObjs = objs.numObjs;
+            if (removeEmptyBags && objsNumObjs == 0)
+                {
+                cells[old] = null;
+                canUse = objs;
+                }
+            else if (replaceLargeBags && objsNumObjs >= MIN_BAG_SIZE && objsNumObjs * LARGE_BAG_RATIO <= objs.objs.length)
+                objs.shrink(objsNumObjs * REPLACEMENT_BAG_RATIO);
+            cellOf[i] = c;
+            }
+        else
+            {
+            allObjects.add(obj);
+            i = allObjects.numObjs - 1;
+            if (i >= cellOf.length)
+                {
+                int[] newCellOf = new int[Math.max(i + 1, cellOf.length * 2)];
+                System.arraycopy(cellOf, 0, newCellOf, 0, cellOf.length);
+                cellOf = newCellOf;
+                }
+            cellOf[i] = c;
+            indices.put(obj, i);
+            }
+
+        Bag objs = cells[c];
+        if (objs == null)
+            {
+            if (canUse != null) canUse.clear();
+            else canUse = new Bag(INITIAL_CELL_SIZE);
+            cells[c] = objs = canUse;
+            }
+        objs.add(obj);
+        return true;
+        }
+
+    public int getObjectIndex(final Object obj)
+        {
+        if (cells != null) return indices.get(obj);
+        return super.getObjectIndex(obj);
+        }
+
+    public boolean exists(final Object obj)
+        {
+        if (cells != null) return indices.get(obj) >= 0;
+        return super.exists(obj);
+        }
+
+    public Bag getObjectsAtLocationOfObject(final Object obj)
+        {
+        if (cells != null)
+            {
+            int i = indices.get(obj);
+            if (i < 0) return null;
+            return cells[cellOf[i]];
+            }
+        return super.getObjectsAtLocationOfObject(obj);
+        }
+
+    public int numObjectsAtLocationOfObject(final Object obj)
+        {
+        if (cells != null)
+            {
+            int i = indices.get(obj);
+            if (i < 0) return 0;
+            return cells[cellOf[i]].numObjs;
+            }
+        return super.numObjectsAtLocationOfObject(obj);
+        }
+
+    public Object remove(final Object obj)
+        {
+        if (cells != null)
+            {
+            int i = indices.remove(obj);
+            if (i < 0) return null;
+            int c = cellOf[i];
+            Bag objs = cells[c];
+            objs.remove(obj);
+            final int objsNumObjs = objs.numObjs;
+            if (removeEmptyBags && objsNumObjs == 0)
+                cells[c] = null;
+            else if (replaceLargeBags && objsNumObjs >= MIN_BAG_SIZE && objsNumObjs * LARGE_BAG_RATIO <= objs.objs.length)
+                objs.shrink(objsNumObjs * REPLACEMENT_BAG_RATIO);
+            removeFromAllObjects(i);
+            return new Int2D(c / height, c % height);
+            }
+        return super.remove(obj);
+        }
+
+    public Bag clear()
+        {
+        if (cells != null)
+            {
+            cells = new Bag[cells.length];
+            cellOf = new int[INITIAL_BAG_SIZE];
+            indices.clear();
+            Bag retval = allObjects;
+            allObjects = new Bag();
+            return retval;
+            }
+        return super.clear();
+        }
+
+    protected boolean setObjectLocationLazily(final Object obj, final Object location)
+        {
+        if (cells != null) return setObjectLocation(obj, location);
+        return super.setObjectLocationLazily(obj, location);
+        }
+
+    protected void rebuildLocationBags()
+        {
+        if (cells != null) return;  // always up to date
+        super.rebuildLocationBags();
+        }
+
+    public Iterator locationBagIterator()
+        {
+        if (cells != null)
+            {
+            return new Iterator()
+                {
+                int next = advance(0);
+                int advance(int c)
+                    {
+                    while(c < cells.length && (cells[c] == null || cells[c].numObjs == 0)) c++;
+                    return c;
+                    }
+                public boolean hasNext() { return next < cells.length; }
+                public Object next()
+                    {
+                    if (next >= cells.length) throw new NoSuchElementException();
+                    Bag b = cells[next];
+                    next = advance(next + 1);
+                    return b;
+                    }
+                public void remove() { throw new IllegalStateException("Remove not supported in SparseField.iterator()"); }
+                };
+            }
+        return super.locationBagIterator();
+        }
         
 
 
@@ -1388,6 +1694,146 @@ public class SparseGrid2D extends SparseField implements Grid2D, SparseField2D
         }
 
 
+    /** Visits each location in the neighborhood described by the given offsets around (x,y), in the given mode
+        (Grid2D.BOUNDED, Grid2D.UNBOUNDED, or Grid2D.TOROIDAL), without building any Bags.  Locations are visited
+        only once, even if a toroidal neighborhood is large enough to wrap around onto itself, and if the offsets
+        leave out the origin, it isn't visited even when the neighborhood wraps around onto it.
+        Returns false if the visitor stopped the search early, else true. */
+    public boolean forEachLocation(final int x, final int y, NeighborhoodOffsets offsets, int mode, LocationVisitor2D visitor)
+        {
+        return offsets.visit(x, y, mode, width, height, visitor);
+        }
+
+    /** Visits the same locations as getMooreLocations(...) would produce, without building any Bags.
+        Returns false if the visitor stopped the search early, else true. */
+    public boolean forEachMooreLocation(final int x, final int y, final int dist, int mode, boolean includeOrigin, LocationVisitor2D visitor)
+        {
+        return forEachLocation(x, y, NeighborhoodOffsets.moore(dist, includeOrigin), mode, visitor);
+        }
+
+    /** Visits the same locations as getVonNeumannLocations(...) would produce, without building any Bags.
+        Returns false if the visitor stopped the search early, else true. */
+    public boolean forEachVonNeumannLocation(final int x, final int y, final int dist, int mode, boolean includeOrigin, LocationVisitor2D visitor)
+        {
+        return forEachLocation(x, y, NeighborhoodOffsets.vonNeumann(dist, includeOrigin), mode, visitor);
+        }
+
+    /** Visits the same locations as getHexagonalLocations(...) would produce, without building any Bags.
+        Returns false if the visitor stopped the search early, else true. */
+    public boolean forEachHexagonalLocation(final int x, final int y, final int dist, int mode, boolean includeOrigin, LocationVisitor2D visitor)
+        {
+        return forEachLocation(x, y, NeighborhoodOffsets.hexagonal(dist, includeOrigin), mode, visitor);
+        }
+
+    /** Visits the same locations as getRadialLocations(...) would produce, without building any Bags, except
+        in toroidal grids too small to hold the whole neighborhood, where each location is visited only once
+        and (x,y) is never visited if includeOrigin is false (see AbstractGrid2D.forEachRadialLocation(...)).
+        Returns false if the visitor stopped the search early, else true. */
+    public boolean forEachRadialLocation(final int x, final int y, final double dist, int mode, boolean includeOrigin, LocationVisitor2D visitor)
+        {
+        return forEachLocation(x, y, NeighborhoodOffsets.radial(dist, includeOrigin), mode, visitor);
+        }
+
+    /** Visits the same locations as getRadialLocations(...) would produce, without building any Bags, except
+        in toroidal grids too small to hold the whole neighborhood (see AbstractGrid2D.forEachRadialLocation(...)).
+        Returns false if the visitor stopped the search early, else true. */
+    public boolean forEachRadialLocation(final int x, final int y, final double dist, int mode, boolean includeOrigin, int measurementRule, boolean closed, LocationVisitor2D visitor)
+        {
+        return forEachLocation(x, y, NeighborhoodOffsets.radial(dist, includeOrigin, measurementRule, closed), mode, visitor);
+        }
+
+    // Hands the objects at each location to forEachNeighbor(...)'s visitor.  Each thread reuses its own, so
+    // forEachNeighbor(...) allocates nothing; a call made from within a visitor (while it's busy) gets a fresh one.
+    static class NeighborVisitor implements LocationVisitor2D
+        {
+        SparseGrid2D grid;   // null when not in use
+        ObjectVisitor2D visitor;
+        final MutableInt2D location = new MutableInt2D();
+
+        public boolean visit(int x, int y)
+            {
+            location.x = x;
+            location.y = y;
+            Bag bag = (grid.cells != null ? grid.cell(x, y) : grid.getRawObjectsAtLocation(location));
+            if (bag == null) return true;
+            Object[] objs = bag.objs;
+            int len = bag.numObjs;
+            for(int i = 0; i < len; i++)
+                if (!visitor.visit(objs[i], x, y)) return false;
+            return true;
+            }
+        }
+
+    static final ThreadLocal neighborVisitors = new ThreadLocal();
+
+    /** Visits each object in the neighborhood described by the given offsets around (x,y), in the given mode
+        (Grid2D.BOUNDED, Grid2D.UNBOUNDED, or Grid2D.TOROIDAL), along with its location.  Unlike getMooreNeighbors(...)
+        and friends, this doesn't build any Bags, and it can be stopped early by having the visitor return false.
+        Don't add, remove, or move objects in the grid while visiting them.  Several threads may visit the grid at once.
+        Returns false if the visitor stopped the search early, else true. */
+    public boolean forEachNeighbor(final int x, final int y, NeighborhoodOffsets offsets, int mode, final ObjectVisitor2D visitor)
+        {
+        NeighborVisitor v = (NeighborVisitor)(neighborVisitors.get());
+        if (v == null)
+            {
+            v = new NeighborVisitor();
+            neighborVisitors.set(v);
+            }
+        else if (v.grid != null)  // we're being called from within a visitor
+            v = new NeighborVisitor();
+        v.grid = this;
+        v.visitor = visitor;
+        try
+            {
+            return offsets.visit(x, y, mode, width, height, v);
+            }
+        finally
+            {
+            v.grid = null;  // so we don't hang onto the grid or the visitor
+            v.visitor = null;
+            }
+        }
+
+    /** Visits the objects that getMooreNeighbors(...) would return, without building any Bags.
+        Returns false if the visitor stopped the search early, else true. */
+    public boolean forEachMooreNeighbor(final int x, final int y, final int dist, int mode, boolean includeOrigin, ObjectVisitor2D visitor)
+        {
+        return forEachNeighbor(x, y, NeighborhoodOffsets.moore(dist, includeOrigin), mode, visitor);
+        }
+
+    /** Visits the objects that getVonNeumannNeighbors(...) would return, without building any Bags.
+        Returns false if the visitor stopped the search early, else true. */
+    public boolean forEachVonNeumannNeighbor(final int x, final int y, final int dist, int mode, boolean includeOrigin, ObjectVisitor2D visitor)
+        {
+        return forEachNeighbor(x, y, NeighborhoodOffsets.vonNeumann(dist, includeOrigin), mode, visitor);
+        }
+
+    /** Visits the objects that getHexagonalNeighbors(...) would return, without building any Bags.
+        Returns false if the visitor stopped the search early, else true. */
+    public boolean forEachHexagonalNeighbor(final int x, final int y, final int dist, int mode, boolean includeOrigin, ObjectVisitor2D visitor)
+        {
+        return forEachNeighbor(x, y, NeighborhoodOffsets.hexagonal(dist, includeOrigin), mode, visitor);
+        }
+
+    /** Visits the objects that getRadialNeighbors(...) would return, without building any Bags, except in a toroidal
+        grid too small to hold the whole neighborhood.  There getRadialNeighbors(...) may return objects more than once,
+        and returns those at (x,y) wherever the neighborhood wraps back onto it, even if includeOrigin is false.
+        This method visits each object once, and skips those at (x,y) when includeOrigin is false.
+        Returns false if the visitor stopped the search early, else true. */
+    public boolean forEachRadialNeighbor(final int x, final int y, final double dist, int mode, boolean includeOrigin, ObjectVisitor2D visitor)
+        {
+        return forEachNeighbor(x, y, NeighborhoodOffsets.radial(dist, includeOrigin), mode, visitor);
+        }
+
+    /** Visits the objects that getRadialNeighbors(...) would return, without building any Bags, except in toroidal
+        grids too small to hold the whole neighborhood, as in forEachRadialNeighbor(x, y, dist, mode, includeOrigin, visitor).
+        Returns false if the visitor stopped the search early, else true. */
+    public boolean forEachRadialNeighbor(final int x, final int y, final double dist, int mode, boolean includeOrigin, int measurementRule, boolean closed, ObjectVisitor2D visitor)
+        {
+        return forEachNeighbor(x, y, NeighborhoodOffsets.radial(dist, includeOrigin, measurementRule, closed), mode, visitor);
+        }
+
+
 
 
 
@@ -0,0 +1,275 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.grid;
+
+/**
+   Diffuses and evaporates the values in a DoubleGrid2D, as is done to heat in HeatBugs or to pheromones in many
+   ant models, using a configurable neighborhood (a "stencil").
+
+   <p>Each time you call <b>apply(...)</b>, every location in the grid is set to
+
+   <p><tt>evaporationRate * (value + diffusionRate * (average - value))</tt>
+
+   <p>... where <i>value</i> is the location's current value and <i>average</i> is the weighted average of the current
+   values in the neighborhood around it.  The neighborhood may be a Moore neighborhood (a square) or a von Neumann
+   neighborhood (a diamond) of some radius, in which case each location in it counts equally, or it may be given
+   as a matrix of weights.  Neighborhoods include the location itself.  With a radius-1 Moore neighborhood, this is exactly
+   the computation done by HeatBugs's Diffuser.
+
+   <p>The grid may be toroidal, in which case neighborhoods wrap around, or bounded, in which case the average is
+   taken only over those parts of each neighborhood which lie within the grid.
+
+   <p>The computation is double-buffered: all new values are computed from the old values.  You can either provide
+   a second grid to write the new values into, or call apply(grid), in which case the Stencil2D writes into a grid
+   of its own and then swaps the <i>field</i> arrays of the two grids, much as HeatBugs's Diffuser does.  Because of this
+   swap, don't hold onto a grid's field array across calls to apply(grid).
+
+   <p>The grid's columns may be split among several threads: see setThreads(...).  Locations well inside the grid
+   are computed with a fast loop which does no bounds checks or wrapping; those near the edges are computed separately.
+   The results do not depend on the number of threads.
+*/
+
+public class Stencil2D implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    /** A square neighborhood: all locations within a given max(|dx|, |dy|) distance. */
+    public static final int MOORE = 0;
+    /** A diamond neighborhood: all locations within a given |dx| + |dy| distance. */
+    public static final int VON_NEUMANN = 1;
+
+    // the neighborhood, ordered by dx, then dy
+    final int[] dx;
+    final int[] dy;
+    final double[] weights;     // normalized to sum to 1, or null if uniform
+    final int radius;
+    final boolean moore1;       // a uniform radius-1 Moore neighborhood, which has its own fast path
+
+    double evaporationRate = 1.0;
+    double diffusionRate = 1.0;
+    boolean toroidal = true;
+    int threads = 1;
+    DoubleGrid2D buffer = null;
+
+    /** Creates a Stencil2D with a MOORE or VON_NEUMANN neighborhood of the given radius, in which each location
+        counts equally. */
+    public Stencil2D(int neighborhood, int radius)
+        {
+        if (neighborhood != MOORE && neighborhood != VON_NEUMANN)
+            throw new IllegalArgumentException("Neighborhood must be either Stencil2D.MOORE or Stencil2D.VON_NEUMANN");
+        if (radius < 0)
+            throw new IllegalArgumentException("Radius must be >= 0: " + radius);
+        this.radius = radius;
+        int n = 0;
+        int[] dx = new int[(2 * radius + 1) * (2 * radius + 1)];
+        int[] dy = new int[dx.length];
+        for(int x = -radius; x <= radius; x++)
+            for(int y = -radius; y <= radius; y++)
+                if (neighborhood == MOORE || Math.abs(x) + Math.abs(y) <= radius)
+                    { dx[n] = x; dy[n] = y; n++; }
+        this.dx = new int[n];
+        this.dy = new int[n];
+        System.arraycopy(dx, 0, this.dx, 0, n);
+        System.arraycopy(dy, 0, this.dy, 0, n);
+        weights = null;
+        moore1 = (neighborhood == MOORE && radius == 1);
+        }
+
+    /** Creates a Stencil2D with a neighborhood given by a square matrix of weights, indexed as weights[x][y],
+        with an odd number of rows and columns.  The location itself is at the center of the matrix.  Weights must
+        be non-negative, and not all zero; they are scaled so as to sum to 1.  Locations with zero weight are ignored.  */
+    public Stencil2D(double[][] weights)
+        {
+        int size = weights.length;
+        if (size % 2 == 0)
+            throw new IllegalArgumentException("Weight matrix must have an odd number of rows and columns.");
+        for(int i = 0; i < size; i++)
+            if (weights[i].length != size)
+                throw new IllegalArgumentException("Weight matrix must be square.");
+        radius = (size - 1) / 2;
+
+        double total = 0;
+        int n = 0;
+        for(int x = 0; x < size; x++)
+            for(int y = 0; y < size; y++)
+                {
+                double w = weights[x][y];
+                if (!(w >= 0) || w == Double.POSITIVE_INFINITY)
+                    throw new IllegalArgumentException("Weights must be non-negative and finite: " + w);
+                if (w > 0) { total += w; n++; }
+                }
+        if (total == 0)
+            throw new IllegalArgumentException("Weights may not all be zero.");
+
+        dx = new int[n];
+        dy = new int[n];
+        this.weights = new double[n];
+        n = 0;
+        for(int x = 0; x < size; x++)
+            for(int y = 0; y < size; y++)
+                if (weights[x][y] > 0)
+                    {
+                    dx[n] = x - radius;
+                    dy[n] = y - radius;
+                    this.weights[n] = weights[x][y] / total;
+                    n++;
+                    }
+        moore1 = false;
+        }
+
+    /** Sets the evaporation rate, by which all new values are multiplied.  The default is 1.0 (no evaporation). */
+    public void setEvaporationRate(double val) { evaporationRate = val; }
+    public double getEvaporationRate() { return evaporationRate; }
+
+    /** Sets the diffusion rate, the degree to which each location moves towards the average of its neighborhood.
+        0.0 means no diffusion, and 1.0 (the default) means each location is set to the average. */
+    public void setDiffusionRate(double val) { diffusionRate = val; }
+    public double getDiffusionRate() { return diffusionRate; }
+
+    /** Sets whether neighborhoods wrap around the edges of the grid.  The default is true. */
+    public void setToroidal(boolean val) { toroidal = val; }
+    public boolean isToroidal() { return toroidal; }
+
+    /** Sets the number of threads among which the grid's columns are split.  The default is 1.
+        Small grids are never split. */
+    public void setThreads(int val)
+        {
+        if (val < 1) throw new IllegalArgumentException("Number of threads must be >= 1: " + val);
+        threads = val;
+        }
+    public int getThreads() { return threads; }
+
+    /** Diffuses and evaporates the grid.  The new values are written into an internal buffer grid, whose field array
+        is then swapped with that of the provided grid. */
+    public void apply(DoubleGrid2D grid)
+        {
+        if (buffer == null || buffer.width != grid.width || buffer.height != grid.height)
+            buffer = new DoubleGrid2D(grid.width, grid.height);
+        apply(grid, buffer);
+        double[][] temp = grid.field;
+        grid.field = buffer.field;
+        buffer.field = temp;
+        }
+
+    /** Diffuses and evaporates the values in the <i>from</i> grid, writing the results into the <i>to</i> grid, which
+        must be a different grid of the same dimensions.  The <i>from</i> grid is not changed. */
+    public void apply(DoubleGrid2D from, DoubleGrid2D to)
+        {
+        if (from.width != to.width || from.height != to.height)
+            throw new IllegalArgumentException("Grids must be the same dimensions.");
+        if (from == to || from.field == to.field)
+            throw new IllegalArgumentException("Cannot diffuse a grid into itself.");
+        final double[][] src = from.field;
+        final double[][] dst = to.field;
+        final int width = from.width;
+        final int height = from.height;
+        new GridRange()
+            {
+            void run(int chunk, int start, int end)
+                {
+                applyColumns(src, dst, width, height, start, end);
+                }
+            }.split(width, GridRange.chunks(width * height, threads));
+        }
+
+    void applyColumns(final double[][] src, final double[][] dst, final int width, final int height, final int start, final int end)
+        {
+        final int radius = this.radius;
+        final double evaporationRate = this.evaporationRate;
+        final double diffusionRate = this.diffusionRate;
+        final int[] dx = this.dx;
+        final int[] dy = this.dy;
+        final double[] weights = this.weights;
+        final int n = dx.length;
+        final double[][] cols = new double[n][];
+
+        for(int x = start; x < end; x++)
+            {
+            final double[] put = dst[x];
+            if (x < radius || x >= width - radius || height <= 2 * radius)
+                {
+                for(int y = 0; y < height; y++)
+                    put[y] = edge(src, width, height, x, y);
+                continue;
+                }
+
+            for(int y = 0; y < radius; y++)
+                put[y] = edge(src, width, height, x, y);
+            for(int y = height - radius; y < height; y++)
+                put[y] = edge(src, width, height, x, y);
+
+            // the interior: no bounds checks or wrapping needed
+            final int last = height - radius;
+            if (moore1)
+                {
+                final double[] past = src[x - 1];
+                final double[] current = src[x];
+                final double[] next = src[x + 1];
+                for(int y = 1; y < last; y++)
+                    {
+                    double average = (past[y - 1] + past[y] + past[y + 1] +
+                        current[y - 1] + current[y] + current[y + 1] +
+                        next[y - 1] + next[y] + next[y + 1]) / 9.0;
+                    put[y] = evaporationRate * (current[y] + diffusionRate * (average - current[y]));
+                    }
+                }
+            else
+                {
+                final double[] current = src[x];
+                for(int k = 0; k < n; k++)
+                    cols[k] = src[x + dx[k]];
+                for(int y = radius; y < last; y++)
+                    {
+                    double average = 0;
+                    if (weights == null)
+                        {
+                        for(int k = 0; k < n; k++)
+                            average += cols[k][y + dy[k]];
+                        average /= n;
+                        }
+                    else
+                        {
+                        for(int k = 0; k < n; k++)
+                            average += weights[k] * cols[k][y + dy[k]];
+                        }
+                    put[y] = evaporationRate * (current[y] + diffusionRate * (average - current[y]));
+                    }
+                }
+            }
+        }
+
+    /** Computes the new value of a location near the edge of the grid. */
+    double edge(final double[][] src, final int width, final int height, final int x, final int y)
+        {
+        final int[] dx = this.dx;
+        final int[] dy = this.dy;
+        final double[] weights = this.weights;
+        double sum = 0;
+        double totalWeight = 0;
+        for(int k = 0; k < dx.length; k++)
+            {
+            int xx = x + dx[k];
+            int yy = y + dy[k];
+            if (xx < 0 || xx >= width || yy < 0 || yy >= height)
+                {
+                if (!toroidal) continue;
+                xx %= width; if (xx < 0) xx += width;
+                yy %= height; if (yy < 0) yy += height;
+                }
+            if (weights == null) { sum += src[xx][yy]; totalWeight++; }
+            else { sum += weights[k] * src[xx][yy]; totalWeight += weights[k]; }
+            }
+
+        double value = src[x][y];
+        double average;
+        if (totalWeight == 0) average = value;
+        else if (weights == null) average = sum / totalWeight;
+        else if (toroidal) average = sum;     // the weights already sum to 1
+        else average = sum / totalWeight;
+        return evaporationRate * (value + diffusionRate * (average - value));
+        }
+    }
@@ -0,0 +1,264 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.grid;
+
+/**
+   Diffuses and evaporates the values in a DoubleGrid3D, using a configurable neighborhood (a "stencil").
+   This is the 3D version of Stencil2D: see it for more information.
+
+   <p>Each time you call <b>apply(...)</b>, every location in the grid is set to
+
+   <p><tt>evaporationRate * (value + diffusionRate * (average - value))</tt>
+
+   <p>... where <i>value</i> is the location's current value and <i>average</i> is the weighted average of the current
+   values in the neighborhood around it.  The neighborhood may be a Moore neighborhood (a cube) or a von Neumann
+   neighborhood (an octahedron) of some radius, in which case each location in it counts equally, or it may be given
+   as a matrix of weights.  Neighborhoods include the location itself.
+*/
+
+public class Stencil3D implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    /** A cubic neighborhood: all locations within a given max(|dx|, |dy|, |dz|) distance. */
+    public static final int MOORE = 0;
+    /** An octahedral neighborhood: all locations within a given |dx| + |dy| + |dz| distance. */
+    public static final int VON_NEUMANN = 1;
+
+    // the neighborhood, ordered by dx, then dy, then dz
+    final int[] dx;
+    final int[] dy;
+    final int[] dz;
+    final double[] weights;     // normalized to sum to 1, or null if uniform
+    final int radius;
+
+    double evaporationRate = 1.0;
+    double diffusionRate = 1.0;
+    boolean toroidal = true;
+    int threads = 1;
+    DoubleGrid3D buffer = null;
+
+    /** Creates a Stencil3D with a MOORE or VON_NEUMANN neighborhood of the given radius, in which each location
+        counts equally. */
+    public Stencil3D(int neighborhood, int radius)
+        {
+        if (neighborhood != MOORE && neighborhood != VON_NEUMANN)
+            throw new IllegalArgumentException("Neighborhood must be either Stencil3D.MOORE or Stencil3D.VON_NEUMANN");
+        if (radius < 0)
+            throw new IllegalArgumentException("Radius must be >= 0: " + radius);
+        this.radius = radius;
+        int size = 2 * radius + 1;
+        int n = 0;
+        int[] dx = new int[size * size * size];
+        int[] dy = new int[dx.length];
+        int[] dz = new int[dx.length];
+        for(int x = -radius; x <= radius; x++)
+            for(int y = -radius; y <= radius; y++)
+                for(int z = -radius; z <= radius; z++)
+                    if (neighborhood == MOORE || Math.abs(x) + Math.abs(y) + Math.abs(z) <= radius)
+                        { dx[n] = x; dy[n] = y; dz[n] = z; n++; }
+        this.dx = new int[n];
+        this.dy = new int[n];
+        this.dz = new int[n];
+        System.arraycopy(dx, 0, this.dx, 0, n);
+        System.arraycopy(dy, 0, this.dy, 0, n);
+        System.arraycopy(dz, 0, this.dz, 0, n);
+        weights = null;
+        }
+
+    /** Creates a Stencil3D with a neighborhood given by a cubic matrix of weights, indexed as weights[x][y][z],
+        with an odd number of entries on each side.  The location itself is at the center of the matrix.  Weights must
+        be non-negative, and not all zero; they are scaled so as to sum to 1.  Locations with zero weight are ignored.  */
+    public Stencil3D(double[][][] weights)
+        {
+        int size = weights.length;
+        if (size % 2 == 0)
+            throw new IllegalArgumentException("Weight matrix must have an odd number of entries on each side.");
+        for(int i = 0; i < size; i++)
+            {
+            if (weights[i].length != size)
+                throw new IllegalArgumentException("Weight matrix must be cubic.");
+            for(int j = 0; j < size; j++)
+                if (weights[i][j].length != size)
+                    throw new IllegalArgumentException("Weight matrix must be cubic.");
+            }
+        radius = (size - 1) / 2;
+
+        double total = 0;
+        int n = 0;
+        for(int x = 0; x < size; x++)
+            for(int y = 0; y < size; y++)
+                for(int z = 0; z < size; z++)
+                    {
+                    double w = weights[x][y][z];
+                    if (!(w >= 0) || w == Double.POSITIVE_INFINITY)
+                        throw new IllegalArgumentException("Weights must be non-negative and finite: " + w);
+                    if (w > 0) { total += w; n++; }
+                    }
+        if (total == 0)
+            throw new IllegalArgumentException("Weights may not all be zero.");
+
+        dx = new int[n];
+        dy = new int[n];
+        dz = new int[n];
+        this.weights = new double[n];
+        n = 0;
+        for(int x = 0; x < size; x++)
+            for(int y = 0; y < size; y++)
+                for(int z = 0; z < size; z++)
+                    if (weights[x][y][z] > 0)
+                        {
+                        dx[n] = x - radius;
+                        dy[n] = y - radius;
+                        dz[n] = z - radius;
+                        this.weights[n] = weights[x][y][z] / total;
+                        n++;
+                        }
+        }
+
+    /** Sets the evaporation rate, by which all new values are multiplied.  The default is 1.0 (no evaporation). */
+    public void setEvaporationRate(double val) { evaporationRate = val; }
+    public double getEvaporationRate() { return evaporationRate; }
+
+    /** Sets the diffusion rate, the degree to which each location moves towards the average of its neighborhood.
+        0.0 means no diffusion, and 1.0 (the default) means each location is set to the average. */
+    public void setDiffusionRate(double val) { diffusionRate = val; }
+    public double getDiffusionRate() { return diffusionRate; }
+
+    /** Sets whether neighborhoods wrap around the edges of the grid.  The default is true. */
+    public void setToroidal(boolean val) { toroidal = val; }
+    public boolean isToroidal() { return toroidal; }
+
+    /** Sets the number of threads among which the grid's x slices are split.  The default is 1.
+        Small grids are never split. */
+    public void setThreads(int val)
+        {
+        if (val < 1) throw new IllegalArgumentException("Number of threads must be >= 1: " + val);
+        threads = val;
+        }
+    public int getThreads() { return threads; }
+
+    /** Diffuses and evaporates the grid.  The new values are written into an internal buffer grid, whose field array
+        is then swapped with that of the provided grid. */
+    public void apply(DoubleGrid3D grid)
+        {
+        if (buffer == null || buffer.width != grid.width || buffer.height != grid.height || buffer.length != grid.length)
+            buffer = new DoubleGrid3D(grid.width, grid.height, grid.length);
+        apply(grid, buffer);
+        double[][][] temp = grid.field;
+        grid.field = buffer.field;
+        buffer.field = temp;
+        }
+
+    /** Diffuses and evaporates the values in the <i>from</i> grid, writing the results into the <i>to</i> grid, which
+        must be a different grid of the same dimensions.  The <i>from</i> grid is not changed. */
+    public void apply(DoubleGrid3D from, DoubleGrid3D to)
+        {
+        if (from.width != to.width || from.height != to.height || from.length != to.length)
+            throw new IllegalArgumentException("Grids must be the same dimensions.");
+        if (from == to || from.field == to.field)
+            throw new IllegalArgumentException("Cannot diffuse a grid into itself.");
+        final double[][][] src = from.field;
+        final double[][][] dst = to.field;
+        final int width = from.width;
+        final int height = from.height;
+        final int length = from.length;
+        new GridRange()
+            {
+            void run(int chunk, int start, int end)
+                {
+                applySlices(src, dst, width, height, length, start, end);
+                }
+            }.split(width, GridRange.chunks((int) Math.min(Integer.MAX_VALUE, (long) width * height * length), threads));
+        }
+
+    void applySlices(final double[][][] src, final double[][][] dst, final int width, final int height, final int length, final int start, final int end)
+        {
+        final int radius = this.radius;
+        final double evaporationRate = this.evaporationRate;
+        final double diffusionRate = this.diffusionRate;
+        final int[] dx = this.dx;
+        final int[] dy = this.dy;
+        final int[] dz = this.dz;
+        final double[] weights = this.weights;
+        final int n = dx.length;
+        final double[][] cols = new double[n][];
+
+        for(int x = start; x < end; x++)
+            for(int y = 0; y < height; y++)
+                {
+                final double[] put = dst[x][y];
+                if (x < radius || x >= width - radius || y < radius || y >= height - radius || length <= 2 * radius)
+                    {
+                    for(int z = 0; z < length; z++)
+                        put[z] = edge(src, width, height, length, x, y, z);
+                    continue;
+                    }
+
+                for(int z = 0; z < radius; z++)
+                    put[z] = edge(src, width, height, length, x, y, z);
+                for(int z = length - radius; z < length; z++)
+                    put[z] = edge(src, width, height, length, x, y, z);
+
+                // the interior: no bounds checks or wrapping needed
+                final int last = length - radius;
+                final double[] current = src[x][y];
+                for(int k = 0; k < n; k++)
+                    cols[k] = src[x + dx[k]][y + dy[k]];
+                for(int z = radius; z < last; z++)
+                    {
+                    double average = 0;
+                    if (weights == null)
+                        {
+                        for(int k = 0; k < n; k++)
+                            average += cols[k][z + dz[k]];
+                        average /= n;
+                        }
+                    else
+                        {
+                        for(int k = 0; k < n; k++)
+                            average += weights[k] * cols[k][z + dz[k]];
+                        }
+                    put[z] = evaporationRate * (current[z] + diffusionRate * (average - current[z]));
+                    }
+                }
+        }
+
+    /** Computes the new value of a location near the edge of the grid. */
+    double edge(final double[][][] src, final int width, final int height, final int length, final int x, final int y, final int z)
+        {
+        final int[] dx = this.dx;
+        final int[] dy = this.dy;
+        final int[] dz = this.dz;
+        final double[] weights = this.weights;
+        double sum = 0;
+        double totalWeight = 0;
+        for(int k = 0; k < dx.length; k++)
+            {
+            int xx = x + dx[k];
+            int yy = y + dy[k];
+            int zz = z + dz[k];
+            if (xx < 0 || xx >= width || yy < 0 || yy >= height || zz < 0 || zz >= length)
+                {
+                if (!toroidal) continue;
+                xx %= width; if (xx < 0) xx += width;
+                yy %= height; if (yy < 0) yy += height;
+                zz %= length; if (zz < 0) zz += length;
+                }
+            if (weights == null) { sum += src[xx][yy][zz]; totalWeight++; }
+            else { sum += weights[k] * src[xx][yy][zz]; totalWeight += weights[k]; }
+            }
+
+        double value = src[x][y][z];
+        double average;
+        if (totalWeight == 0) average = value;
+        else if (weights == null) average = sum / totalWeight;
+        else if (toroidal) average = sum;     // the weights already sum to 1
+        else average = sum / totalWeight;
+        return evaporationRate * (value + diffusionRate * (average - value));
+        }
+    }
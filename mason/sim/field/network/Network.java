@@ -41,7 +41,9 @@ import java.util.*;
     and changes just the <b>contents</b> of the edge info objects and the node object contents, you might consider first 
     getting an adjacency list for the Network with getAdjacencyList(...), or an adjacency matrix with getAdjacencyMatrix(...)
     or getMultigraphAdjacencyMatrix(...).  But remember that as soon as the topology changes (adding/deleting a node or edge),
-    the adjacency list is invalid, and you need to request another one.
+    the adjacency list is invalid, and you need to request another one.  For large networks, a NetworkSnapshot is faster and
+    more compact still: it stores the network's edges as arrays of node indexes and weights, and can tell when it has gone stale.
+    If instead you need to keep some structure up to date as the topology changes, register a NetworkListener with addListener(...).
     
     <p><b>Computational Complexity.</b>  Adding a node or an edge is O(1).  Removing an edge is O(1).  Removing a node is O(m), where
     m is the total number of edges in and out of the node.  Removing all nodes is O(1) and fast.  Getting the in-edges or out-edges for a node
@@ -125,6 +127,80 @@ public class Network implements java.io.Serializable
     // returned instead of null for those methods which require a guarantee that the returned Bag should never be touched.
     final Bag emptyBag = new Bag();
 
+    // changed whenever a node or edge is added or removed, so NetworkSnapshots can tell when they've gone stale
+    int topologyVersion = 0;
+
+    // told about each change to the topology, or null if there are none
+    transient NetworkListener[] listeners = null;
+
+    // NetworkListeners needn't be serializable, so we write out only those which are.  They go in this field,
+    // which is filled in just while the Network is being written: older checkpoints don't have it, and their
+    // Networks come back with no listeners.
+    NetworkListener[] serializableListeners = null;
+
+    private void writeObject(java.io.ObjectOutputStream p)
+        throws java.io.IOException
+        {
+        int count = 0;
+        if (listeners != null)
+            for(int i = 0; i < listeners.length; i++)
+                if (listeners[i] instanceof java.io.Serializable) count++;
+        if (count > 0)
+            {
+            serializableListeners = new NetworkListener[count];
+            count = 0;
+            for(int i = 0; i < listeners.length; i++)
+                if (listeners[i] instanceof java.io.Serializable) serializableListeners[count++] = listeners[i];
+            }
+        try
+            {
+            p.defaultWriteObject();
+            }
+        finally
+            {
+            serializableListeners = null;
+            }
+        }
+
+    private void readObject(java.io.ObjectInputStream p)
+        throws java.io.IOException, ClassNotFoundException
+        {
+        p.defaultReadObject();
+        listeners = serializableListeners;
+        serializableListeners = null;
+        }
+
+    /** Registers a listener to be told about changes to the Network's topology.  Copies of the Network do not
+        get the listener.  When the Network is serialized (as when the model is checkpointed), only those listeners which
+        are Serializable go with it: others must be registered again, for example in your SimState's awakeFromCheckpoint(). */
+    public void addListener(NetworkListener listener)
+        {
+        if (listener == null)
+            throw new RuntimeException("Attempted to add a null NetworkListener.");
+        int len = (listeners == null ? 0 : listeners.length);
+        NetworkListener[] l = new NetworkListener[len + 1];
+        if (len > 0) System.arraycopy(listeners, 0, l, 0, len);
+        l[len] = listener;
+        listeners = l;
+        }
+
+    /** Unregisters a listener, returning false if it wasn't registered. */
+    public boolean removeListener(NetworkListener listener)
+        {
+        if (listeners == null) return false;
+        for(int i = 0; i < listeners.length; i++)
+            if (listeners[i] == listener)
+                {
+                if (listeners.length == 1) { listeners = null; return true; }
+                NetworkListener[] l = new NetworkListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, l, 0, i);
+                System.arraycopy(listeners, i + 1, l, i, l.length - i);
+                listeners = l;
+                return true;
+                }
+        return false;
+        }
+
     /** Creates and returns an adjacency list.  If you're doing lots of operations (especially network traversals)
         which won't effect the topology of the network, an adjacency list structure might be more efficient for you to access rather than lots of
         calls to getEdgesIn() and getEdgesOut() etc.  Building the list is an O(#edges) operation.
@@ -371,6 +447,10 @@ public class Network implements java.io.Serializable
         allNodes.add( node );
         IndexOutIn ioih = new IndexOutIn( allNodes.numObjs-1, null, null );
         indexOutInHash.put( node, ioih );
+        topologyVersion++;
+        if (listeners != null)
+            for(int i = 0; i < listeners.length; i++)
+                listeners[i].nodeAdded(this, node);
         }
 
     /** Add an edge, storing info as the edge's associated information object. 
@@ -438,6 +518,10 @@ public class Network implements java.io.Serializable
             }
         inNode.in.add( edge );
         edge.indexTo = inNode.in.numObjs-1;
+        topologyVersion++;
+        if (listeners != null)
+            for(int i = 0; i < listeners.length; i++)
+                listeners[i].edgeAdded(this, edge);
         }
 
     /** Removes the given edge, then changes its from, to, and info values to the provided ones,
@@ -469,6 +553,7 @@ public class Network implements java.io.Serializable
         if (edge.owner != this)
             return null;
         edge.owner = null;
+        topologyVersion++;
         // we'll do an extraneous hash if this is being called from removeNode...
         
         // remove the edge from the "out" node's "out" bag
@@ -522,6 +607,9 @@ public class Network implements java.io.Serializable
                 else throw new InternalError("This shouldn't ever happen: #2");
                 }
             }
+        if (listeners != null)
+            for(int i = 0; i < listeners.length; i++)
+                listeners[i].edgeRemoved(this, edge);
         // return the edge
         return edge;
         }
@@ -530,6 +618,7 @@ public class Network implements java.io.Serializable
      * Remove all the edges in the network.
      */
     public void removeAllEdges() {
+        topologyVersion++;
         int n = allNodes.numObjs;
         Iterator i = indexOutInHash.values().iterator();
         for(int k=0;k<n;k++)
@@ -540,6 +629,9 @@ public class Network implements java.io.Serializable
             if (ioi.out != null)
                 ioi.out.clear();
             }
+        if (listeners != null)
+            for(int k = 0; k < listeners.length; k++)
+                listeners[k].networkReset(this);
         }
 
     /** Removes a node, deleting all incoming and outgoing edges from the Field as well.  Returns the node,
@@ -572,6 +664,10 @@ public class Network implements java.io.Serializable
                 
         // finally, delete the ioi
         indexOutInHash.remove(node);
+        topologyVersion++;
+        if (listeners != null)
+            for(int i = 0; i < listeners.length; i++)
+                listeners[i].nodeRemoved(this, node, ioi.index);
 
         // return the node
         return node;
@@ -584,6 +680,10 @@ public class Network implements java.io.Serializable
         indexOutInHash = buildMap(ANY_SIZE);
         Bag retval = allNodes;
         allNodes = new Bag();
+        topologyVersion++;
+        if (listeners != null)
+            for(int i = 0; i < listeners.length; i++)
+                listeners[i].networkReset(this);
         return retval;
         }
     
@@ -673,6 +773,7 @@ public class Network implements java.io.Serializable
     public void reverseAllEdges()
         {
         if(!directed) return;//that was quick
+        topologyVersion++;
         int n = allNodes.numObjs;
         Iterator i = indexOutInHash.values().iterator();
         for(int k=0;k<n;k++)
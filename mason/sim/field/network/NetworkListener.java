@@ -0,0 +1,28 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.network;
+
+/**
+   An object which is told about changes to the topology of a Network, so it can keep some structure of its own
+   (a set of connected components, say) up to date without recomputing it from scratch.  Register it with
+   Network.addListener(...).
+
+   <p>Each method is called after the Network has made the change.  addEdge(...) announces any nodes it adds before
+   it announces the edge, and removeNode(...) announces the removal of each of the node's edges before it announces
+   the removal of the node itself.  When a node is removed, the last node in the allNodes bag is moved into its slot:
+   <i>index</i> is the slot which the removed node used to occupy.  Wholesale changes (clear(), reset(...),
+   removeAllEdges()) are announced with networkReset(...).  reverseAllEdges() is not announced.
+*/
+
+public interface NetworkListener
+    {
+    public void nodeAdded(Network network, Object node);
+    public void nodeRemoved(Network network, Object node, int index);
+    public void edgeAdded(Network network, Edge edge);
+    public void edgeRemoved(Network network, Edge edge);
+    public void networkReset(Network network);
+    }
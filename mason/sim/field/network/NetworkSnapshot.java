@@ -0,0 +1,273 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.network;
+import sim.util.*;
+import java.util.*;
+
+/**
+   A frozen, compact copy of the topology of a Network, in "compressed sparse row" form, for algorithms which
+   traverse the network many times without changing it.  Nodes are referred to by their index in the Network's
+   allNodes bag at the time the snapshot was made, and edges are stored in a few big arrays rather than as Edges in
+   Bags in a hash table, so traversing them needs no hashing, no casting, and no boxing.
+
+   <p>The outgoing edges of node <i>i</i> are at positions <tt>outOffsets[i]</tt> through <tt>outOffsets[i+1] - 1</tt>
+   of the <b>outTargets</b> array (which holds the index of the node at the other end of each edge) and the
+   <b>outWeights</b> array (which holds each edge's weight, from Edge.getWeight()).  To visit them:
+
+   <pre><tt>
+   for(int k = snapshot.outOffsets[i]; k &lt; snapshot.outOffsets[i + 1]; k++)
+   ... snapshot.outTargets[k] ... snapshot.outWeights[k] ...
+   </tt></pre>
+
+   <p>The incoming edges of each node are likewise stored in <b>inOffsets</b>, <b>inSources</b>, and
+   <b>inWeights</b>, ordered by source node.  If the Network is undirected, the incoming and outgoing arrays are
+   the very same arrays, and every edge appears twice, once for each of its nodes, just as it does in
+   Network.getEdgesOut(...).  If you ask for them, the snapshot will also hold the Edges themselves, in <b>outEdges</b>
+   and <b>inEdges</b>, in the same positions.
+
+   <p>Do not modify these arrays.  As soon as the Network's topology changes, the snapshot is stale and isStale()
+   will return true: you should then call update().  If the topology hasn't changed, but the edges' weights have,
+   update() just rereads the weights, which is much cheaper than a rebuild (but requires that the snapshot hold
+   the Edges).  Arrays are reused when they are big enough.
+*/
+
+public class NetworkSnapshot implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    Network network;
+    int version;
+    boolean keepEdges;
+
+    /** The number of nodes. */
+    public int numNodes;
+    /** The number of entries in the outgoing arrays.  For undirected networks this is twice the number of edges. */
+    public int numEdges;
+
+    /** The nodes, indexed as in the Network's allNodes bag when the snapshot was made. */
+    public Object[] nodes;
+
+    /** numNodes + 1 entries: the outgoing edges of node i are at positions outOffsets[i] ... outOffsets[i+1] - 1. */
+    public int[] outOffsets;
+    /** The index of the node at the other end of each outgoing edge. */
+    public int[] outTargets;
+    /** The weight of each outgoing edge. */
+    public double[] outWeights;
+    /** Each outgoing Edge, or null if the snapshot doesn't hold Edges. */
+    public Edge[] outEdges;
+
+    /** numNodes + 1 entries: the incoming edges of node i are at positions inOffsets[i] ... inOffsets[i+1] - 1. */
+    public int[] inOffsets;
+    /** The index of the node at the other end of each incoming edge. */
+    public int[] inSources;
+    /** The weight of each incoming edge. */
+    public double[] inWeights;
+    /** Each incoming Edge, or null if the snapshot doesn't hold Edges. */
+    public Edge[] inEdges;
+
+    /** Builds a snapshot of the network which does not hold its Edges. */
+    public NetworkSnapshot(Network network)
+        {
+        this(network, false);
+        }
+
+    /** Builds a snapshot of the network, which holds its Edges if <i>keepEdges</i> is true. */
+    public NetworkSnapshot(Network network, boolean keepEdges)
+        {
+        this.network = network;
+        this.keepEdges = keepEdges;
+        rebuild();
+        }
+
+    public Network getNetwork() { return network; }
+
+    /** Returns true if nodes or edges have been added to or removed from the Network since the snapshot was last built. */
+    public boolean isStale() { return version != network.topologyVersion; }
+
+    /** Brings the snapshot up to date: if the Network's topology has changed, rebuilds it entirely; otherwise,
+        if the snapshot holds its Edges, just rereads their weights. */
+    public void update()
+        {
+        if (isStale()) rebuild();
+        else if (keepEdges) updateWeights();
+        }
+
+    /** Rereads the weights of the edges, without changing the topology.  Throws an exception if the snapshot
+        doesn't hold its Edges, or is stale. */
+    public void updateWeights()
+        {
+        if (!keepEdges)
+            throw new RuntimeException("This NetworkSnapshot does not hold its Edges, so it cannot update their weights.");
+        if (isStale())
+            throw new RuntimeException("This NetworkSnapshot is stale: the Network's topology has changed.");
+        final Edge[] outEdges = this.outEdges;
+        final double[] outWeights = this.outWeights;
+        for(int k = 0; k < numEdges; k++)
+            outWeights[k] = outEdges[k].getWeight();
+        if (inWeights != outWeights)
+            {
+            final Edge[] inEdges = this.inEdges;
+            final double[] inWeights = this.inWeights;
+            for(int k = 0; k < numEdges; k++)
+                inWeights[k] = inEdges[k].getWeight();
+            }
+        }
+
+    /** Rebuilds the snapshot from scratch.  This is O(#nodes + #edges), and requires one hash lookup per edge. */
+    public void rebuild()
+        {
+        final Network network = this.network;
+        final Bag allNodes = network.allNodes;
+        final int n = allNodes.numObjs;
+        final boolean directed = network.isDirected();
+
+        // gather each node's outgoing edges, indexed by node
+        Bag[] out = new Bag[n];
+        Iterator i = network.indexOutInHash.values().iterator();
+        while(i.hasNext())
+            {
+            Network.IndexOutIn ioi = (Network.IndexOutIn)(i.next());
+            out[ioi.index] = ioi.out;
+            }
+
+        nodes = ensure(nodes, n);
+        System.arraycopy(allNodes.objs, 0, nodes, 0, n);
+        Arrays.fill(nodes, n, nodes.length, null);  // let GC
+        outOffsets = ensure(outOffsets, n + 1);
+        int m = 0;
+        for(int x = 0; x < n; x++)
+            {
+            outOffsets[x] = m;
+            if (out[x] != null) m += out[x].numObjs;
+            }
+        outOffsets[n] = m;
+
+        outTargets = ensure(outTargets, m);
+        outWeights = ensure(outWeights, m);
+        if (keepEdges) { outEdges = ensure(outEdges, m); Arrays.fill(outEdges, m, outEdges.length, null); }
+        else outEdges = null;
+
+        for(int x = 0; x < n; x++)
+            {
+            Bag edges = out[x];
+            if (edges == null) continue;
+            Object node = nodes[x];
+            int k = outOffsets[x];
+            for(int y = 0; y < edges.numObjs; y++, k++)
+                {
+                Edge e = (Edge)(edges.objs[y]);
+                Object other = (directed ? e.to : e.getOtherNode(node));
+                outTargets[k] = ((Network.IndexOutIn)(network.indexOutInHash.get(other))).index;
+                outWeights[k] = e.getWeight();
+                if (keepEdges) outEdges[k] = e;
+                }
+            }
+
+        numNodes = n;
+        numEdges = m;
+
+        if (directed) transpose();
+        else
+            {
+            inOffsets = outOffsets;
+            inSources = outTargets;
+            inWeights = outWeights;
+            inEdges = outEdges;
+            }
+        version = network.topologyVersion;
+        }
+
+    // builds the incoming arrays from the outgoing ones with a counting sort, so they're ordered by source
+    void transpose()
+        {
+        final int n = numNodes;
+        final int m = numEdges;
+        if (inOffsets == outOffsets) { inOffsets = null; inSources = null; inWeights = null; inEdges = null; }
+        inOffsets = ensure(inOffsets, n + 1);
+        inSources = ensure(inSources, m);
+        inWeights = ensure(inWeights, m);
+        if (keepEdges) { inEdges = ensure(inEdges, m); Arrays.fill(inEdges, m, inEdges.length, null); }
+        else inEdges = null;
+
+        final int[] inOffsets = this.inOffsets;
+        for(int x = 0; x <= n; x++) inOffsets[x] = 0;
+        for(int k = 0; k < m; k++) inOffsets[outTargets[k] + 1]++;
+        for(int x = 0; x < n; x++) inOffsets[x + 1] += inOffsets[x];
+
+        int[] next = new int[n];
+        System.arraycopy(inOffsets, 0, next, 0, n);
+        for(int x = 0; x < n; x++)
+            for(int k = outOffsets[x]; k < outOffsets[x + 1]; k++)
+                {
+                int pos = next[outTargets[k]]++;
+                inSources[pos] = x;
+                inWeights[pos] = outWeights[k];
+                if (keepEdges) inEdges[pos] = outEdges[k];
+                }
+        }
+
+    static int[] ensure(int[] array, int length) { return (array != null && array.length >= length ? array : new int[length]); }
+    static double[] ensure(double[] array, int length) { return (array != null && array.length >= length ? array : new double[length]); }
+    static Object[] ensure(Object[] array, int length) { return (array != null && array.length >= length ? array : new Object[length]); }
+    static Edge[] ensure(Edge[] array, int length) { return (array != null && array.length >= length ? array : new Edge[length]); }
+
+    /** Returns the number of outgoing edges of node i. */
+    public int getOutDegree(int i) { return outOffsets[i + 1] - outOffsets[i]; }
+
+    /** Returns the number of incoming edges of node i. */
+    public int getInDegree(int i) { return inOffsets[i + 1] - inOffsets[i]; }
+
+    /** Returns the node at index i. */
+    public Object getNode(int i)
+        {
+        if (i < 0 || i >= numNodes)
+            throw new IndexOutOfBoundsException("Node index out of bounds: " + i);
+        return nodes[i];
+        }
+
+    /** Returns the index of the node, or throws an exception if the node isn't in the network.
+        This asks the Network, so it's only meaningful if the snapshot isn't stale. */
+    public int getNodeIndex(Object node)
+        {
+        return network.getNodeIndex(node);
+        }
+
+    /** Computes the number of hops along outgoing edges from node <i>source</i> to every node, by breadth-first search,
+        placing them in <i>result</i> (which is created if null or too small), and returns it.  Unreachable nodes
+        are given -1.  */
+    public int[] getHopDistances(int source, int[] result)
+        {
+        final int n = numNodes;
+        if (result == null || result.length < n) result = new int[n];
+        for(int x = 0; x < n; x++) result[x] = -1;
+        if (n == 0) return result;
+        getNode(source);  // check bounds
+
+        final int[] outOffsets = this.outOffsets;
+        final int[] outTargets = this.outTargets;
+        final int[] queue = new int[n];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = source;
+        result[source] = 0;
+        while(head < tail)
+            {
+            int x = queue[head++];
+            int d = result[x] + 1;
+            for(int k = outOffsets[x]; k < outOffsets[x + 1]; k++)
+                {
+                int y = outTargets[k];
+                if (result[y] < 0)
+                    {
+                    result[y] = d;
+                    queue[tail++] = y;
+                    }
+                }
+            }
+        return result;
+        }
+    }
@@ -0,0 +1,131 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.portrayal;
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import sim.util.gui.*;
+
+/**
+   Draws a crowd of objects as a density map: rather than drawing each object, the field portrayal counts how many
+   objects fall in each pixel, and the pixels are then colored according to their counts by a ColorMap.  When
+   thousands of objects share a pixel this is far faster than drawing them one by one, and shows more besides,
+   since objects drawn on top of one another hide how many there are.
+
+   <p>ContinuousPortrayal2D and SparseGridPortrayal2D each have a DensityRaster, which they use in place of
+   drawing their objects whenever the objects to be drawn outnumber the pixels in the clip by more than a
+   threshold (see setThreshold(...)).  By default the threshold is infinite, so the DensityRaster is never used.
+   The default ColorMap takes a count of 0 to clear and a count of 4 or more to black.
+
+   <p>A field portrayal uses a DensityRaster by calling begin(...) with the clip, then add(...) or addRect(...) for
+   each object or group of objects, then draw(...).
+*/
+
+public class DensityRaster
+    {
+    double threshold = Double.POSITIVE_INFINITY;
+    ColorMap map = new SimpleColorMap(0, 4, new Color(0,0,0,0), Color.black);
+
+    int x0;
+    int y0;
+    int width;
+    int height;
+    int[] counts = new int[0];
+    BufferedImage image;
+    int[] pixels;
+
+    /** Sets the number of objects per pixel, on average over the clip, above which the field portrayal
+        draws densities rather than objects.  Infinity (the default) means never. */
+    public void setThreshold(double val)
+        {
+        if (!(val >= 0)) throw new RuntimeException("Density threshold must be >= 0: " + val);
+        threshold = val;
+        }
+    public double getThreshold() { return threshold; }
+
+    /** Sets the ColorMap which gives the color of a pixel holding a given number of objects. */
+    public void setMap(ColorMap map)
+        {
+        if (map == null) throw new RuntimeException("Density map must be non-null");
+        this.map = map;
+        }
+    public ColorMap getMap() { return map; }
+
+    /** Returns true if drawing the given number of objects within the given clip should be done
+        as a density map. */
+    public boolean shouldDraw(int numObjects, Rectangle2D clip)
+        {
+        return numObjects > threshold * Math.max(1.0, clip.getWidth() * clip.getHeight());
+        }
+
+    /** Starts a new density map covering the pixels of the given clip, with all counts zero. */
+    public void begin(Rectangle2D clip)
+        {
+        x0 = (int)Math.floor(clip.getX());
+        y0 = (int)Math.floor(clip.getY());
+        width = Math.max(0, (int)Math.ceil(clip.getX() + clip.getWidth()) - x0);
+        height = Math.max(0, (int)Math.ceil(clip.getY() + clip.getHeight()) - y0);
+        if (counts.length != width * height)
+            counts = new int[width * height];
+        else java.util.Arrays.fill(counts, 0);
+        }
+
+    /** Adds <i>count</i> objects at the pixel containing the given point.  Points outside the clip are ignored. */
+    public void add(double x, double y, int count)
+        {
+        int px = (int)Math.floor(x) - x0;
+        int py = (int)Math.floor(y) - y0;
+        if (px >= 0 && px < width && py >= 0 && py < height)
+            counts[py * width + px] += count;
+        }
+
+    /** Adds <i>count</i> objects at every pixel of the given rectangle (at least the pixel containing its
+        top left corner).  Pixels outside the clip are ignored. */
+    public void addRect(double x, double y, double w, double h, int count)
+        {
+        int sx = (int)Math.floor(x) - x0;
+        int sy = (int)Math.floor(y) - y0;
+        int ex = Math.max(sx + 1, (int)Math.floor(x + w) - x0);
+        int ey = Math.max(sy + 1, (int)Math.floor(y + h) - y0);
+        if (sx < 0) sx = 0;
+        if (sy < 0) sy = 0;
+        if (ex > width) ex = width;
+        if (ey > height) ey = height;
+        for(int py = sy; py < ey; py++)
+            for(int px = sx; px < ex; px++)
+                counts[py * width + px] += count;
+        }
+
+    static final int CACHED_COLORS = 256;
+
+    /** Colors each pixel by its count, and draws the result. */
+    public void draw(Graphics2D graphics)
+        {
+        if (width == 0 || height == 0) return;
+        if (image == null || image.getWidth() != width || image.getHeight() != height)
+            {
+            if (image != null) image.flush();
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            pixels = ((DataBufferInt)(image.getRaster().getDataBuffer())).getData();
+            }
+
+        // most counts are small, so we ask the map about each of them only once
+        final ColorMap map = this.map;
+        int[] colors = new int[CACHED_COLORS];
+        for(int i = 0; i < CACHED_COLORS; i++)
+            colors[i] = map.getRGB(i);
+
+        final int[] counts = this.counts;
+        final int[] pixels = this.pixels;
+        for(int i = 0; i < counts.length; i++)
+            {
+            int c = counts[i];
+            pixels[i] = (c < CACHED_COLORS ? colors[c] : map.getRGB(c));
+            }
+        graphics.drawImage(image, x0, y0, null);
+        }
+    }
@@ -94,6 +94,37 @@ public abstract class FieldPortrayal2D extends FieldPortrayal implements Portray
         hitOrDraw(null, range, putInHere);
         }
 
+    /** Returns a copy of the field as it stands right now, which drawSnapshot(...) can later draw
+        while the model carries on changing the field itself, or null if this portrayal can't copy its field.
+        Display2D calls this method from the model thread, with the schedule locked, when it is drawing
+        snapshots (see Display2D.setDrawingSnapshots(...)).  The copy needn't be deep: the objects in
+        the field are shared with the model, and are drawn as they are at the time of drawing.  If the
+        field is immutable, the field itself will do.  <b>Optionally overridable</b>.  By default null is
+        returned, so the field is drawn with the schedule locked, as usual. */
+    public Object snapshotField()
+        {
+        return null;
+        }
+
+    /** Draws a snapshot returned earlier by snapshotField(), just as draw(...) would draw the field.
+        Called from the Swing event thread without the schedule locked.  The default implementation
+        stands the snapshot in for the field while calling draw(...), then puts the field back unless
+        setField(...) has been called in the meantime.  Display2D never calls snapshotField() while a snapshot
+        is being drawn, so the snapshot is never mistaken for the field. */
+    public void drawSnapshot(Object snapshot, Graphics2D graphics, DrawInfo2D info)
+        {
+        Object original = field;
+        field = snapshot;
+        try
+            {
+            draw(snapshot, graphics, info);
+            }
+        finally
+            {
+            if (field == snapshot) field = original;
+            }
+        }
+
     /** Instead of overriding the draw and hitObjects methods, you can optionally override
         this method to provide <i>both</i> the draw(...) and hitObjects(...)
         functionality in a single method, as it's common that these two methods have nearly
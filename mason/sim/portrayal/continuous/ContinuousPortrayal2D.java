@@ -35,6 +35,32 @@ public class ContinuousPortrayal2D extends FieldPortrayal2D
         else throw new RuntimeException("Invalid field for ContinuousPortrayal2D: " + field);
         }
 
+    /** Returns a new field holding the same objects at the locations they occupy right now, or the field
+        itself if it is immutable. */
+    public Object snapshotField()
+        {
+        Object field = this.field;
+        if (immutableField) return field;
+        if (!(field instanceof Continuous2D)) return null;  // Continuous3D
+        
+        // We don't use the copy constructor, because the copy would share its Bags with the original.
+        // Instead we record the locations first, then build the copy from them.
+        Continuous2D cont = (Continuous2D)field;
+        Bag objs = cont.allObjects;
+        int numObjs = objs.numObjs;
+        Object[] o = new Object[numObjs];
+        Double2D[] locations = new Double2D[numObjs];
+        for(int i = 0; i < numObjs; i++)
+            {
+            o[i] = objs.objs[i];
+            locations[i] = cont.getObjectLocation(o[i]);
+            }
+        Continuous2D snapshot = new Continuous2D(cont.discretization, cont.width, cont.height);
+        for(int i = 0; i < numObjs; i++)
+            snapshot.setObjectLocation(o[i], locations[i]);
+        return snapshot;
+        }
+
     // lets ContinuousPortrayal3D set the field
     void setFieldBypass(Object field)
         {
@@ -174,6 +200,57 @@ public class ContinuousPortrayal2D extends FieldPortrayal2D
         if they overlap on the edges of the field. */
     public boolean isDisplayingToroidally() { return displayingToroidally; }
         
+    DensityRaster density = new DensityRaster();
+    
+    /** Returns the DensityRaster used to draw the objects as a density map, rather than one by one, when there
+        are too many of them for the pixels they're drawn in.  By default this never happens: see 
+        DensityRaster.setThreshold(...).  Selected objects are still drawn one by one, on top of the map. */
+    public DensityRaster getDensityRaster() { return density; }
+    
+    /** Returns the range of the field's buckets which overlap the rectangle from (sx, sy) to (ex, ey), as
+        {startx, starty, endx, endy} inclusive.  Returns null if there are more such buckets than objects in
+        the field, in which case it'd be faster just to go through all the objects. */
+    int[] buckets(Continuous2D field, double sx, double sy, double ex, double ey)
+        {
+        Int2D s = field.discretize(new Double2D(sx, sy));
+        Int2D e = field.discretize(new Double2D(ex, ey));
+        if (((long)e.x - s.x + 1) * ((long)e.y - s.y + 1) > field.getAllObjects().numObjs) return null;
+        return new int[] { s.x, s.y, e.x, e.y };
+        }
+    
+    int numObjectsInBuckets(Continuous2D field, int[] buckets)
+        {
+        int count = 0;
+        for(int x = buckets[0]; x <= buckets[2]; x++)
+            for(int y = buckets[1]; y <= buckets[3]; y++)
+                {
+                Bag b = field.getObjectsAtDiscretizedLocation(new Int2D(x, y));
+                if (b != null) count += b.numObjs;
+                }
+        return count;
+        }
+    
+    /** Returns the objects in the given buckets, in the order in which they appear in the field's allObjects Bag. */
+    Bag objectsInBuckets(Continuous2D field, int[] buckets)
+        {
+        // gather the indices of the objects, then put them back in order, so they're drawn in the usual order
+        IntBag indices = new IntBag();
+        for(int x = buckets[0]; x <= buckets[2]; x++)
+            for(int y = buckets[1]; y <= buckets[3]; y++)
+                {
+                Bag b = field.getObjectsAtDiscretizedLocation(new Int2D(x, y));
+                if (b == null) continue;
+                for(int i = 0; i < b.numObjs; i++)
+                    indices.add(field.getObjectIndex(b.objs[i]));
+                }
+        indices.sort();
+        Bag all = field.getAllObjects();
+        Bag objects = new Bag(indices.numObjs);
+        for(int i = 0; i < indices.numObjs; i++)
+            objects.add(all.objs[indices.objs[i]]);
+        return objects;
+        }
+
     protected void hitOrDraw(Graphics2D graphics, DrawInfo2D info, Bag putInHere)
         {
         final Continuous2D field = (Continuous2D)this.field;
@@ -192,11 +269,75 @@ public class ContinuousPortrayal2D extends FieldPortrayal2D
         newinfo.precise = info.precise;
         newinfo.fieldPortrayal = this;
 
-        // hit/draw the objects one by one -- perhaps for large numbers of objects it would
-        // be smarter to grab the objects out of the buckets that specifically are inside
-        // our range...
+        // hit/draw the objects one by one.  If we're only looking at part of the field, we just
+        // grab the objects out of the buckets that are inside our range, unless we're drawing
+        // toroidally, which might bring objects in from anywhere.
         Bag objects = field.getAllObjects();
         final double discretizationOverlap = field.discretization;
+        int[] buckets = (displayingToroidally ? null :
+            buckets(field, startx - discretizationOverlap, starty - discretizationOverlap,
+                endx + discretizationOverlap, endy + discretizationOverlap));
+
+        // If there are far more objects than pixels, we draw the density of the objects instead,
+        // then just the selected objects on top
+        if (graphics != null && density.shouldDraw(
+                (buckets == null ? objects.numObjs : numObjectsInBuckets(field, buckets)), info.clip))
+            {
+            density.begin(info.clip);
+            final double discretization = field.discretization;
+            if (buckets != null && discretization * xScale <= 1 && discretization * yScale <= 1)
+                {
+                // each bucket fits within a pixel or so, so we can just count the objects in the buckets
+                for(int x = buckets[0]; x <= buckets[2]; x++)
+                    for(int y = buckets[1]; y <= buckets[3]; y++)
+                        {
+                        Bag b = field.getObjectsAtDiscretizedLocation(new Int2D(x, y));
+                        if (b != null)
+                            density.add(info.draw.x + xScale * discretization * (x + 0.5),
+                                info.draw.y + yScale * discretization * (y + 0.5), b.numObjs);
+                        }
+                }
+            else if (buckets != null)
+                {
+                // count the objects in each bucket wherever they are
+                for(int x = buckets[0]; x <= buckets[2]; x++)
+                    for(int y = buckets[1]; y <= buckets[3]; y++)
+                        {
+                        Bag b = field.getObjectsAtDiscretizedLocation(new Int2D(x, y));
+                        if (b == null) continue;
+                        for(int i = 0; i < b.numObjs; i++)
+                            {
+                            Double2D loc = field.getObjectLocation(b.objs[i]);
+                            density.add(info.draw.x + xScale * loc.x, info.draw.y + yScale * loc.y, 1);
+                            }
+                        }
+                }
+            else
+                {
+                for(int x=0;x<objects.numObjs;x++)
+                    {
+                    Double2D loc = field.getObjectLocation(objects.objs[x]);
+                    if (displayingToroidally)
+                        loc = new Double2D(field.tx(loc.x), field.ty(loc.y));
+                    density.add(info.draw.x + xScale * loc.x, info.draw.y + yScale * loc.y, 1);
+                    }
+                }
+            density.draw(graphics);
+            
+            objects = new Bag();
+            if (objectSelected)
+                {
+                Iterator iterator = selectedWrappers.keySet().iterator();
+                while(iterator.hasNext())
+                    {
+                    Object object = iterator.next();
+                    if (field.exists(object)) objects.add(object);
+                    }
+                }
+            }
+        else if (buckets != null)
+            objects = objectsInBuckets(field, buckets);
+
         for(int x=0;x<objects.numObjs;x++)
             {
             Object object = (objects.objs[x]);
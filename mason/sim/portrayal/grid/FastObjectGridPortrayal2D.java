@@ -85,6 +85,19 @@ public class FastObjectGridPortrayal2D extends ObjectGridPortrayal2D
     public int getBuffering() { return valueGridPortrayal.getBuffering(); }
     public void setBuffering(int val) { valueGridPortrayal.setBuffering(val); }
     
+    /** Informs the underlying FastValueGridPortrayal2D that the given cells have changed.
+        See FastValueGridPortrayal2D.reset(x, y, width, height). */
+    public void reset(int x, int y, int width, int height) { valueGridPortrayal.reset(x, y, width, height); }
+
+    /** Has the underlying FastValueGridPortrayal2D look up the colors of the values returned by doubleValue(...).
+        See FastValueGridPortrayal2D.setLookupTable(...). */
+    public void setLookupTable(double min, double max, int size) { valueGridPortrayal.setLookupTable(min, max, size); }
+    public int getLookupTableSize() { return valueGridPortrayal.getLookupTableSize(); }
+
+    /** Sets the number of threads used to load the buffer.  See FastValueGridPortrayal2D.setThreads(...). */
+    public void setThreads(int threads) { valueGridPortrayal.setThreads(threads); }
+    public int getThreads() { return valueGridPortrayal.getThreads(); }
+    
     public void draw(Object object, Graphics2D graphics, DrawInfo2D info)
         {
         if (field==null) return;
@@ -104,6 +117,18 @@ public class FastObjectGridPortrayal2D extends ObjectGridPortrayal2D
         int endx = /*startx +*/ (int)((info.clip.x - info.draw.x + info.clip.width) / xScale) + /*2*/ 1;  // with rounding, width be as much as 1 off
         int endy = /*starty +*/ (int)((info.clip.y - info.draw.y + info.clip.height) / yScale) + /*2*/ 1;  // with rounding, height be as much as 1 off
 
+        if (immutableField)
+            {
+            // the whole buffer will be loaded if need be, else the reset region, else nothing
+            startx = 0; starty = 0; endx = maxX; endy = maxY;
+            if (!valueGridPortrayal.isDirtyField())
+                {
+                int[] region = valueGridPortrayal.peekDirtyRegion();
+                if (region == null) endx = 0;  // nothing to convert
+                else { startx = region[0]; starty = region[1]; endx = region[2]; endy = region[3]; }
+                }
+            }
+
         if (endx > maxX) endx = maxX;
         if (endy > maxY) endy = maxY;
         if( startx < 0 ) startx = 0;
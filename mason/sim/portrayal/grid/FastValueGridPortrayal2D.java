@@ -10,6 +10,7 @@ import sim.field.grid.*;
 import java.awt.*;
 import java.awt.geom.*;
 import java.awt.image.*;
+import java.util.concurrent.*;
 import sim.util.gui.ColorMap;
 
 /**
@@ -26,6 +27,17 @@ import sim.util.gui.ColorMap;
 
    <p>If your grid does change but only occasionally, you can also use this technique as well; just manually call reset() 
    whenever the grid changes to inform the FastValueGridPortrayal2D that it needs to re-compute the buffer.  reset() is threadsafe.
+   If only part of the grid has changed, call reset(x, y, width, height) instead, and only that part of the buffer will be
+   re-computed.
+
+   <h3>Speeding Up the Buffer</h3>
+
+   When drawing with the buffer, the colors of a grid which changes are written straight into the buffer's underlying
+   int array.  Most of the time is then spent asking the ColorMap for each cell's color.  If you call setLookupTable(...),
+   FastValueGridPortrayal2D instead asks the ColorMap just once for each of a fixed number of levels between a minimum and
+   a maximum, and looks the colors up from then on.  For an IntGrid2D, a level per integer gives exactly the ColorMap's
+   colors; for a DoubleGrid2D a few thousand levels are usually indistinguishable from the real thing.  Large grids can
+   also be loaded by several threads at once, provided the ColorMap is threadsafe: see setThreads(...).
 
    <h3>Important Note on Drawing Methods</h3>
 
@@ -102,8 +114,221 @@ public class FastValueGridPortrayal2D extends ValueGridPortrayal2D
         
     BufferedImage buffer;
     WritableRaster raster;
+    int[] pixels;  // the buffer's underlying array, for grids which change
     int[] data = new int[0];
 
+    // region changed since the last draw, per reset(x, y, width, height)
+    int dirtyStartX = Integer.MAX_VALUE;
+    int dirtyStartY = Integer.MAX_VALUE;
+    int dirtyEndX = Integer.MIN_VALUE;
+    int dirtyEndY = Integer.MIN_VALUE;
+
+    /** Informs the FastValueGridPortrayal2D that the cells in the given rectangle have changed, so that if the field
+        is immutable only those cells (together with any others so marked) will be reloaded into the buffer the next
+        time it is drawn.  Threadsafe. */
+    public synchronized void reset(int x, int y, int width, int height)
+        {
+        if (width <= 0 || height <= 0) return;
+        if (x < dirtyStartX) dirtyStartX = x;
+        if (y < dirtyStartY) dirtyStartY = y;
+        if (x + width > dirtyEndX) dirtyEndX = x + width;
+        if (y + height > dirtyEndY) dirtyEndY = y + height;
+        }
+    
+    // Returns the rectangle passed to reset(x, y, width, height) since the last call, as {startx, starty, endx, endy},
+    // or null if there is none
+    synchronized int[] takeDirtyRegion()
+        {
+        if (dirtyStartX >= dirtyEndX) return null;
+        int[] region = new int[] { dirtyStartX, dirtyStartY, dirtyEndX, dirtyEndY };
+        dirtyStartX = dirtyStartY = Integer.MAX_VALUE;
+        dirtyEndX = dirtyEndY = Integer.MIN_VALUE;
+        return region;
+        }
+    
+    // Returns the rectangle passed to reset(x, y, width, height) since the last draw, without clearing it
+    synchronized int[] peekDirtyRegion()
+        {
+        if (dirtyStartX >= dirtyEndX) return null;
+        return new int[] { dirtyStartX, dirtyStartY, dirtyEndX, dirtyEndY };
+        }
+
+    synchronized boolean hasDirtyRegion() { return dirtyStartX < dirtyEndX; }
+
+    double lookupMin;
+    double lookupMax;
+    int lookupSize = 0;
+    int[] lookup = null;
+    ColorMap lookupMap = null;  // the ColorMap from which the lookup table was built
+
+    /** Has the FastValueGridPortrayal2D look up the colors of values from min to max inclusive in a table of
+        <i>size</i> colors, rather than asking the ColorMap every time.  The table holds the ColorMap's colors for
+        <i>size</i> evenly spaced levels, the first being min and the last max, and each value between min and max
+        is given the color of the nearest level.  Other values, and NaN, are given to the ColorMap as usual.
+        Thus for an IntGrid2D whose values run from 0 to 99, setLookupTable(0, 99, 100) gives exactly the same
+        colors as the ColorMap would.  The table is built the next time the grid is drawn, and again if you
+        call setMap(...); if you change the colors of the ColorMap itself, call reset().  A size of 0 (the default)
+        means that no table is used.  A size of 1 is taken to be 2, so that both min and max keep their own colors.
+        The table is only used when drawing with a buffer. */
+    public synchronized void setLookupTable(double min, double max, int size)
+        {
+        if (size < 0) throw new IllegalArgumentException("Lookup table size must be >= 0: " + size);
+        if (size > 0 && (!(min <= max) || Double.isInfinite(min) || Double.isInfinite(max)))  // catches NaN too
+            throw new IllegalArgumentException("Invalid range for lookup table: " + min + " to " + max);
+        if (size == 1) size = 2;
+        lookupMin = min;
+        lookupMax = max;
+        lookupSize = size;
+        lookup = null;
+        }
+
+    /** Returns the number of colors in the lookup table, or 0 if none is used. */
+    public synchronized int getLookupTableSize() { return lookupSize; }
+
+    /** Clears the buffer so it is recomputed, and rebuilds the lookup table, if any, from the ColorMap.  Threadsafe. */
+    public synchronized void reset()
+        {
+        super.reset();
+        lookup = null;
+        }
+
+    // Returns the lookup table, building it if need be, or null if there isn't one
+    synchronized int[] getLookup(ColorMap map)
+        {
+        if (lookupSize == 0) return null;
+        if (lookup == null || lookupMap != map)
+            {
+            lookup = new int[lookupSize];
+            for(int i = 0; i < lookupSize; i++)
+                lookup[i] = map.getRGB(i == lookupSize - 1 ? lookupMax :
+                    lookupMin + (lookupMax - lookupMin) * i / (lookupSize - 1));
+            lookupMap = map;
+            }
+        return lookup;
+        }
+    
+    int threads = 1;
+    
+    /** Sets the number of threads used to load the buffer for large grids (at least 
+        PARALLEL_CELLS cells at a time).  0 means one per processor.  The default is 1.
+        With more than one thread, the ColorMap's getRGB(...) is called from several threads at once, so it must be
+        threadsafe.  SimpleColorMap is, so long as you don't change its colors while the grid is being drawn; if your
+        own ColorMap caches or otherwise changes state when asked for a color, leave this at 1. */
+    public void setThreads(int threads)
+        {
+        if (threads < 0) throw new IllegalArgumentException("Number of threads must be >= 0: " + threads);
+        this.threads = threads;
+        }
+    public int getThreads() { return threads; }
+
+    /** The smallest number of cells loaded into the buffer at once which will be spread over several threads. */
+    public static final int PARALLEL_CELLS = 1 << 16;
+    
+    static ExecutorService pool = null;
+    static synchronized ExecutorService getPool()
+        {
+        if (pool == null)
+            pool = Executors.newCachedThreadPool(new ThreadFactory()
+                {
+                public Thread newThread(Runnable r)
+                    {
+                    Thread t = new Thread(r, "FastValueGridPortrayal2D");
+                    t.setDaemon(true);
+                    return t;
+                    }
+                });
+        return pool;
+        }
+
+    // Puts the colors of the cells from (sx, sy) to (ex, ey), exclusive, into dest, where cell (x, y) goes in
+    // dest[(y - oy) * width + (x - ox)].  Splits the work among threads if the region is big enough.
+    void fill(final Grid2D field, final int[] table, final int[] dest, final int width, final int ox, final int oy,
+        final int sx, final int sy, final int ex, final int ey)
+        {
+        int t = (threads == 0 ? Runtime.getRuntime().availableProcessors() : threads);
+        if (t > ex - sx) t = ex - sx;
+        if (t <= 1 || (long)(ex - sx) * (ey - sy) < PARALLEL_CELLS)
+            {
+            fillColumns(field, table, dest, width, ox, oy, sx, sy, ex, ey);
+            return;
+            }
+        
+        // each thread fills its own band of columns; the last band is filled in this thread
+        Future[] futures = new Future[t - 1];
+        for(int i = 0; i < t - 1; i++)
+            {
+            final int bsx = sx + (int)((long)(ex - sx) * i / t);
+            final int bex = sx + (int)((long)(ex - sx) * (i + 1) / t);
+            futures[i] = getPool().submit(new Runnable()
+                {
+                public void run() { fillColumns(field, table, dest, width, ox, oy, bsx, sy, bex, ey); }
+                });
+            }
+        fillColumns(field, table, dest, width, ox, oy, sx + (int)((long)(ex - sx) * (t - 1) / t), sy, ex, ey);
+        for(int i = 0; i < futures.length; i++)
+            {
+            try
+                {
+                futures[i].get();
+                }
+            catch (ExecutionException e)
+                {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+                throw new RuntimeException(cause);
+                }
+            catch (InterruptedException e)
+                {
+                throw new RuntimeException("Interrupted while loading the buffer of " + this);
+                }
+            }
+        }
+
+    static final int FILL_BLOCK = 16;   // columns at a time, so both the grid and the pixels are walked in order
+    
+    void fillColumns(Grid2D field, int[] table, int[] dest, int width, int ox, int oy, int sx, int sy, int ex, int ey)
+        {
+        final ColorMap map = this.map;
+        final double[][] doubleField = (field instanceof DoubleGrid2D ? ((DoubleGrid2D) field).field : null);
+        final int[][] intField = (doubleField == null ? ((IntGrid2D) field).field : null);
+        final double min = lookupMin;
+        final double max = lookupMax;
+        final double scale = (table == null || max == min ? 0 : (table.length - 1) / (max - min));
+        
+        for(int bx = sx; bx < ex; bx += FILL_BLOCK)
+            {
+            final int bex = (bx + FILL_BLOCK < ex ? bx + FILL_BLOCK : ex);
+            for(int y = sy; y < ey; y++)
+                {
+                final int row = (y - oy) * width - ox;
+                if (table == null)
+                    {
+                    if (doubleField != null)
+                        for(int x = bx; x < bex; x++)
+                            dest[row + x] = map.getRGB(doubleField[x][y]);
+                    else
+                        for(int x = bx; x < bex; x++)
+                            dest[row + x] = map.getRGB(intField[x][y]);
+                    }
+                else
+                    {
+                    if (doubleField != null)
+                        for(int x = bx; x < bex; x++)
+                            {
+                            final double v = doubleField[x][y];
+                            dest[row + x] = (v >= min && v <= max ? table[(int)((v - min) * scale + 0.5)] : map.getRGB(v));
+                            }
+                    else
+                        for(int x = bx; x < bex; x++)
+                            {
+                            final double v = intField[x][y];
+                            dest[row + x] = (v >= min && v <= max ? table[(int)((v - min) * scale + 0.5)] : map.getRGB(v));
+                            }
+                    }
+                }
+            }
+        }
+
     // Should draw itself within the box from (0,0) to (1,1)
     public void draw(Object object, Graphics2D graphics, DrawInfo2D info)
         {
@@ -169,13 +394,29 @@ public class FastValueGridPortrayal2D extends ValueGridPortrayal2D
                 // any really significant difference in speed.  Maybe 5%.  Sticking with ARGB to be more compatible with
                 // Windows.
                 raster = buffer.getRaster();
+                pixels = null;
                 newBuffer = true;
                 }
             //_buffer = buffer;
             //}
 
-            if (newBuffer || !immutableField || isDirtyField())  // we have to load the buffer
+            boolean dirty = isDirtyField();
+            if (newBuffer || !immutableField || dirty || hasDirtyRegion())  // we have to load the buffer
                 {
+                if (immutableField)
+                    {
+                    int[] region = takeDirtyRegion();
+                    if (newBuffer || dirty)
+                        {
+                        // must load ENTIRE buffer
+                        startx = 0; starty = 0; endx = maxX; endy = maxY;
+                        }
+                    else
+                        {
+                        // just what has changed
+                        startx = region[0]; starty = region[1]; endx = region[2]; endy = region[3];
+                        }
+                    }
                 if (endx > maxX) endx = maxX;
                 if (endy > maxY) endy = maxY;
                 if( startx < 0 ) startx = 0;
@@ -186,29 +427,26 @@ public class FastValueGridPortrayal2D extends ValueGridPortrayal2D
                 final int sx = startx;
                 final int sy = starty;
                 
-                if (immutableField)
-                    {
-                    // must load ENTIRE buffer
-                    startx = 0; starty = 0; endx = maxX; endy = maxY;
-                    }
-
-                final ColorMap map = this.map;
-            
                 if (ex-sx > 0 && ey-sy > 0)  // could be otherwise if drawing off-screen...
                     {
-                    int[] data = this.data;  // reuse
-                    if (data.length != (ex-sx)*(ey-sy)) 
-                        data = this.data = new int[(ex-sx)*(ey-sy)];
-                    int i = 0;
-                    if (isDoubleGrid2D)
-                        for(int y=sy;y<ey;y++)
-                            for(int x=sx;x<ex;x++)
-                                data[i++] = map.getRGB(doubleField[x][y]);
+                    int[] table = getLookup(map);
+                    if (immutableField)
+                        {
+                        // The buffer will be drawn many times over, so we write it through the raster,
+                        // which leaves Java free to cache the image (perhaps in video memory)
+                        int[] data = this.data;  // reuse
+                        if (data.length != (ex-sx)*(ey-sy)) 
+                            data = this.data = new int[(ex-sx)*(ey-sy)];
+                        fill(field, table, data, ex-sx, sx, sy, sx, sy, ex, ey);
+                        raster.setDataElements(sx,sy,ex-sx,ey-sy,data);
+                        }
                     else
-                        for(int y=sy;y<ey;y++)
-                            for(int x=sx;x<ex;x++)
-                                data[i++] = map.getRGB(intField[x][y]);
-                    raster.setDataElements(sx,sy,ex-sx,ey-sy,data);
+                        {
+                        // The buffer changes every time, so we write straight into its array
+                        if (pixels == null) 
+                            pixels = ((DataBufferInt)(raster.getDataBuffer())).getData();
+                        fill(field, table, pixels, maxX, 0, 0, sx, sy, ex, ey);
+                        }
                     }
                 }
                 
@@ -46,6 +46,15 @@ public class ObjectGridPortrayal2D extends FieldPortrayal2D
         if (field instanceof ObjectGrid2D ) super.setField(field);
         else throw new RuntimeException("Invalid field for ObjectGridPortrayal2D: " + field);
         }
+
+    /** Returns a copy of the grid (holding the same objects), or the grid itself if it is immutable. */
+    public Object snapshotField()
+        {
+        Object field = this.field;
+        if (immutableField) return field;
+        else if (field instanceof ObjectGrid2D) return new ObjectGrid2D((ObjectGrid2D)field);
+        else return null;  // DenseGrid2D or ObjectGrid3D
+        }
         
     public Portrayal getDefaultPortrayal()
         {
@@ -68,6 +68,32 @@ public class SparseGridPortrayal2D extends FieldPortrayal2D
         if (field instanceof SparseGrid2D ) super.setField(field);
         else throw new RuntimeException("Invalid field for Sparse2DPortrayal: " + field);
         }
+
+    /** Returns a new grid holding the same objects at the locations they occupy right now, or the grid
+        itself if it is immutable. */
+    public Object snapshotField()
+        {
+        Object field = this.field;
+        if (immutableField) return field;
+        if (!(field instanceof SparseGrid2D)) return null;  // SparseGrid3D
+        
+        // We don't use the copy constructor, because the copy would share its Bags with the original.
+        // Instead we record the locations first, then build the copy from them.
+        SparseGrid2D grid = (SparseGrid2D)field;
+        Bag objs = grid.allObjects;
+        int numObjs = objs.numObjs;
+        Object[] o = new Object[numObjs];
+        Int2D[] locations = new Int2D[numObjs];
+        for(int i = 0; i < numObjs; i++)
+            {
+            o[i] = objs.objs[i];
+            locations[i] = grid.getObjectLocation(o[i]);
+            }
+        SparseGrid2D snapshot = new SparseGrid2D(grid.getWidth(), grid.getHeight());
+        for(int i = 0; i < numObjs; i++)
+            snapshot.setObjectLocation(o[i], locations[i]);
+        return snapshot;
+        }
     
     public Double2D getScale(DrawInfo2D info)
         {
@@ -182,6 +208,36 @@ public class SparseGridPortrayal2D extends FieldPortrayal2D
         }
         
         
+    DensityRaster density = new DensityRaster();
+    
+    /** Returns the DensityRaster used to draw the objects as a density map, rather than one by one, when there
+        are too many of them for the pixels they're drawn in.  By default this never happens: see 
+        DensityRaster.setThreshold(...).  Selected objects are still drawn one by one, on top of the map.
+        The density map isn't used if you've set a DrawPolicy. */
+    public DensityRaster getDensityRaster() { return density; }
+
+    /** Returns the objects in the cells from (sx, sy) to (ex, ey), exclusive, in the order in which they appear
+        in the field's allObjects Bag. */
+    Bag objectsInCells(SparseGrid2D field, int sx, int sy, int ex, int ey)
+        {
+        // gather the indices of the objects, then put them back in order, so they're drawn in the usual order
+        IntBag indices = new IntBag();
+        for(int x = sx; x < ex; x++)
+            for(int y = sy; y < ey; y++)
+                {
+                Bag b = field.getObjectsAtLocation(x, y);
+                if (b == null) continue;
+                for(int i = 0; i < b.numObjs; i++)
+                    indices.add(field.getObjectIndex(b.objs[i]));
+                }
+        indices.sort();
+        Bag all = field.getAllObjects();
+        Bag objects = new Bag(indices.numObjs);
+        for(int i = 0; i < indices.numObjs; i++)
+            objects.add(all.objs[indices.objs[i]]);
+        return objects;
+        }
+
     protected void hitOrDraw(Graphics2D graphics, DrawInfo2D info, Bag putInHere)
         {
         final SparseGrid2D field = (SparseGrid2D) this.field;
@@ -272,7 +328,62 @@ public class SparseGridPortrayal2D extends FieldPortrayal2D
             }
         else            // the easy way -- draw the objects one by one
             {
+            // If we're only looking at part of the grid, we just look in the cells in our range, 
+            // unless there are more of them than objects
             Bag objects = field.getAllObjects();
+            final int sx = startx - 2;
+            final int sy = starty - 2;
+            final int ex = endx + 4;
+            final int ey = endy + 4;
+            final boolean cellwise = ((long)ex - sx) * ((long)ey - sy) <= objects.numObjs;
+            int numObjs = objects.numObjs;
+            if (cellwise && graphics != null)
+                {
+                numObjs = 0;
+                for(int x = sx; x < ex; x++)
+                    for(int y = sy; y < ey; y++)
+                        numObjs += field.numObjectsAtLocation(x, y);
+                }
+            
+            // If there are far more objects than pixels, we draw the density of the objects instead,
+            // then just the selected objects on top
+            if (graphics != null && density.shouldDraw(numObjs, info.clip))
+                {
+                density.begin(info.clip);
+                if (cellwise)
+                    {
+                    for(int x = sx; x < ex; x++)
+                        for(int y = sy; y < ey; y++)
+                            {
+                            int n = field.numObjectsAtLocation(x, y);
+                            if (n > 0)
+                                density.addRect(info.draw.x + xScale * x, info.draw.y + yScale * y, xScale, yScale, n);
+                            }
+                    }
+                else
+                    {
+                    for(int x=0;x<objects.numObjs;x++)
+                        {
+                        Int2D loc = field.getObjectLocation(objects.objs[x]);
+                        density.addRect(info.draw.x + xScale * loc.x, info.draw.y + yScale * loc.y, xScale, yScale, 1);
+                        }
+                    }
+                density.draw(graphics);
+
+                objects = new Bag();
+                if (objectSelected)
+                    {
+                    Iterator iterator = selectedWrappers.keySet().iterator();
+                    while(iterator.hasNext())
+                        {
+                        Object object = iterator.next();
+                        if (field.exists(object)) objects.add(object);
+                        }
+                    }
+                }
+            else if (cellwise)
+                objects = objectsInCells(field, sx, sy, ex, ey);
+
             for(int x=0;x<objects.numObjs;x++)
                 {
                 final Object portrayedObject = objects.objs[x];
@@ -59,6 +59,16 @@ public class ValueGridPortrayal2D extends FieldPortrayal2D
             field instanceof IntGrid2D ) super.setField(field);
         else throw new RuntimeException("Invalid field for ValueGridPortrayal2D: " + field);
         }
+
+    /** Returns a copy of the grid's values, or the grid itself if it is immutable. */
+    public Object snapshotField()
+        {
+        Object field = this.field;
+        if (immutableField) return field;
+        else if (field instanceof DoubleGrid2D) return new DoubleGrid2D((DoubleGrid2D)field);
+        else if (field instanceof IntGrid2D) return new IntGrid2D((IntGrid2D)field);
+        else return null;
+        }
         
     SimplePortrayal2D defaultPortrayal = new ValuePortrayal2D();
     String valueName;
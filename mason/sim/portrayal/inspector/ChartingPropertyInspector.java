@@ -383,8 +383,10 @@ public abstract class ChartingPropertyInspector extends PropertyInspector
             // now determine when to redraw
             switch(globalAttributes.redraw) 
                 {
-                case REDRAW_ALWAYS:  // do it now
-                    generator.update(simulation.state.schedule.getSteps(), true);
+                case REDRAW_ALWAYS:  // do it now, or as soon as we can if we're not in the Swing thread
+                    if (SwingUtilities.isEventDispatchThread())
+                        generator.update(simulation.state.schedule.getSteps(), true);
+                    else generator.updateChartLater(simulation.state.schedule.getSteps());
                     break;
                 case REDRAW_TENTH_SEC:
                     generator.updateChartWithin(simulation.state.schedule.getSteps(), 100);
@@ -32,7 +32,15 @@ import org.jfree.chart.*;
 public class TimeSeriesChartingPropertyInspector extends ChartingPropertyInspector
     {
     XYSeries chartSeries = null;
-    XYSeries aggregateSeries = new XYSeries("ChartingPropertyInspector.temp", false);
+    /** Holds the charted data in bounded memory; the chart rebuilds chartSeries from it when it's redrawn. */
+    TimeSeriesRecorder recorder = new TimeSeriesRecorder();
+
+    // The data aggregated since the last point went into the recorder
+    double minX;
+    double maxX;
+    double sumX;
+    int n = 0;
+    double lastY;
 
     protected boolean validChartGenerator(ChartGenerator generator) { return generator instanceof TimeSeriesChartGenerator; }
 
@@ -79,6 +87,7 @@ public class TimeSeriesChartingPropertyInspector extends ChartingPropertyInspect
                 {
                 public void seriesChanged(SeriesChangeEvent event) { getStopper().stop(); }
                 });
+            ((TimeSeriesAttributes)seriesAttributes).setRecorder(recorder);
             }
         }
 
@@ -109,90 +118,78 @@ public class TimeSeriesChartingPropertyInspector extends ChartingPropertyInspect
         else return Double.NaN;  // unknown
         }
     
+    // Points go into the recorder here in the model thread, and are loaded into chartSeries in the Swing
+    // thread only when the chart is next redrawn.
     void addToMainSeries(double x, double y, boolean notify)
         {
-        chartSeries.add(x, y, false);
-        TimeSeriesAttributes attributes = (TimeSeriesAttributes)(seriesAttributes);
-        if (!attributes.possiblyCull())
-            {
-            if (notify)     // do a notification anyway
-                chartSeries.fireSeriesChanged();
-            }
+        if (x < recorder.getLastX()) return;  // out of order: the recorder, like the DataCuller, assumes increasing x
+        recorder.add(x, y);
         }
 
     protected void updateSeries(double time, double lastTime)
         {
-        double d = 0;
-                
-        GlobalAttributes globalAttributes = getGlobalAttributes();
+        synchronized(recorder)  // we may be updated from the model thread and, once at first, from the Swing thread
+            {
+            GlobalAttributes globalAttributes = getGlobalAttributes();
                 
-        // FIRST, load the aggregate series with the items
-        aggregateSeries.add(time, d = valueFor(properties.getValue(index)), false);
-        int len = aggregateSeries.getItemCount();
+            // FIRST, aggregate the item
+            double d = valueFor(properties.getValue(index));
+            if (n == 0 || minX > time) minX = time;
+            if (n == 0 || maxX < time) maxX = time;
+            sumX += time;
+            lastY = d;
+            n++;
                                         
-        // SECOND, determine if it's time to dump stuff into the main series
-        long interval = globalAttributes.interval;
-        double intervalMark = time % interval;
-        if (!
-            // I think these are the three cases for when we may need to update because
-            // we've exceeded the next interval
-                (intervalMark == 0 || 
-                (time - lastTime >= interval) ||
-                lastTime % interval > intervalMark))
-            return;  // not yet
+            // SECOND, determine if it's time to dump stuff into the main series
+            long interval = globalAttributes.interval;
+            double intervalMark = time % interval;
+            if (!
+                // I think these are the three cases for when we may need to update because
+                // we've exceeded the next interval
+                    (intervalMark == 0 || 
+                    (time - lastTime >= interval) ||
+                    lastTime % interval > intervalMark))
+                return;  // not yet
                                         
-        // THIRD determine how and when to dump stuff into the main series
-        double y = 0;  // make compiler happy
-        double temp;
-        switch(globalAttributes.aggregationMethod)
+            // THIRD determine how and when to dump stuff into the main series
+            switch(globalAttributes.aggregationMethod)
+                {
+                case AGGREGATIONMETHOD_CURRENT:  // in this case the aggregated data is sort of worthless
+                    addToMainSeries(time, d, false);
+                    break;
+                case AGGREGATIONMETHOD_MAX:
+                    addToMainSeries( maxX, lastY, false );
+                    break;
+                case AGGREGATIONMETHOD_MIN:
+                    addToMainSeries( minX, lastY, false );
+                    break;
+                case AGGREGATIONMETHOD_MEAN:
+                    addToMainSeries(sumX / n, lastY, false);
+                    break;
+                default:
+                    throw new RuntimeException("No valid aggregation method provided");
+                }
+            n = 0;
+            sumX = 0;
+            }
+        }
+
+    /** Samples the property and adds it to the chart's data right in the model thread, rather than in the
+        Swing thread as other inspectors do, so that only the redrawing of the chart is left to the Swing thread. */
+    public Steppable getUpdateSteppable()
+        {
+        return new Steppable()
             {
-            case AGGREGATIONMETHOD_CURRENT:  // in this case the aggregateSeries is sort of worthless
-                addToMainSeries(time, d, false);
-                break;
-            case AGGREGATIONMETHOD_MAX:
-                double maxX = 0;
-                for(int i=0;i<len;i++)
-                    {
-                    XYDataItem item = (XYDataItem)(aggregateSeries.getDataItem(i));
-                    y = item.getY().doubleValue();
-                    temp = item.getX().doubleValue();
-                    if( maxX < temp || i==0) maxX = temp;
-                    }
-                addToMainSeries( maxX, y, false );
-                break;
-            case AGGREGATIONMETHOD_MIN:
-                double minX = 0;
-                for(int i=0;i<len;i++)
-                    {
-                    XYDataItem item = (XYDataItem)(aggregateSeries.getDataItem(i));
-                    y = item.getY().doubleValue();
-                    temp = item.getX().doubleValue();
-                    if( minX > temp || i==0) minX = temp;
-                    }
-                addToMainSeries( minX, y, false );
-                break;
-            case AGGREGATIONMETHOD_MEAN:
-                double sumX = 0;
-                int n = 0;
-                for(int i=0;i<len;i++)
-                    {
-                    XYDataItem item = (XYDataItem)(aggregateSeries.getDataItem(i));
-                    y = item.getY().doubleValue();
-                    sumX += item.getX().doubleValue();
-                    n++;
-                    }
-                if (n == 0)
+            public void step(final SimState state)
+                {
+                synchronized(state.schedule)
                     {
-                    // no element -- do nothing
+                    updateInspector();
                     }
-                else addToMainSeries(sumX / n, y, false);
-                break;
-            default:
-                throw new RuntimeException("No valid aggregation method provided");
-            }
-        aggregateSeries.clear();
+                }
+            };
         }
 
     // Should not load data except when the simulation is running
-    protected boolean alwaysUpdateable() { return false; }
+    protected boolean isAlwaysUpdateable() { return false; }
     }
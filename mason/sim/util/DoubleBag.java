@@ -302,19 +302,8 @@ public class DoubleBag implements java.io.Serializable, Cloneable, Indexed
     /** Shuffles (randomizes the order of) the DoubleBag */
     public void shuffle(ec.util.MersenneTwisterFast random)
         {
-        // teeny bit faster
-        double[] objs = this.objs;
-        int numObjs = this.numObjs;
-        double obj;
-        int rand;
-        
-        for(int x=numObjs-1; x >= 1 ; x--)
-            {
-            rand = random.nextInt(x+1);
-            obj = objs[x];
-            objs[x] = objs[rand];
-            objs[rand] = obj;
-            }
+        // draws the same random numbers as nextInt(x+1) for each x in turn, but in bulk
+        random.shuffle(objs, numObjs);
         }
     
     /** Reverses order of the elements in the DoubleBag */
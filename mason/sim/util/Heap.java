@@ -33,7 +33,8 @@ public class Heap implements java.io.Serializable
     // the information associated with the keys
     Object[] objects = null;
 
-    int numElem = 0;
+    // the number of elements.  Subclasses which store their elements elsewhere (such as sim.engine.BucketHeap) keep it up to date too.
+    protected int numElem = 0;
     
     public Comparable[] getKeys()
         {
@@ -253,15 +254,19 @@ public class Heap implements java.io.Serializable
     */
     public Heap merge(Heap other) 
         {
-        int n = this.numElem + other.numElem;
+        // read the other heap through getKeys() and getObjects(), since a subclass
+        // (such as BucketHeap) may not store its elements in our arrays at all
+        Comparable[] otherKeys = other.getKeys();
+        Object[] otherObjects = other.getObjects();
+        int n = this.numElem + otherKeys.length;
         Comparable[] combinedKeys = new Comparable[n];
         Object[] combinedObjects = new Object[n];
         
         System.arraycopy(keys, 0, combinedKeys, 0, this.numElem);
-        System.arraycopy(other.keys, 0, combinedKeys, this.numElem, other.numElem);
+        System.arraycopy(otherKeys, 0, combinedKeys, this.numElem, otherKeys.length);
 
         System.arraycopy(objects, 0, combinedObjects, 0, this.numElem);
-        System.arraycopy(other.objects, 0, combinedObjects, this.numElem, other.numElem);
+        System.arraycopy(otherObjects, 0, combinedObjects, this.numElem, otherObjects.length);
 
         return new Heap(combinedKeys, combinedObjects);
         }
@@ -90,6 +90,13 @@ public abstract class AbstractDistribution implements java.io.Serializable {
  * Returns a random number from the distribution.
  */
     public abstract double nextDouble();
+/**
+ * Fills <tt>out[off]</tt> through <tt>out[off+len-1]</tt> with random numbers from the distribution; equivalent to calling <tt>nextDouble()</tt> <tt>len</tt> times.
+ * Subclasses may override this to draw their uniform random numbers in bulk.
+ */
+    public void nextDoubles(double[] out, int off, int len) {
+        for (int i = off; i < off + len; i++) out[i] = nextDouble();
+        }
 /**
  * Returns a random number from the distribution; returns <tt>(int) Math.round(nextDouble())</tt>.
  * Override this method if necessary.
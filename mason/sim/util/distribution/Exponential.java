@@ -54,6 +54,13 @@ public class Exponential extends AbstractContinousDistribution {
     public double nextDouble(double lambda) {
         return - Math.log(randomGenerator.nextDouble()) / lambda;
         }
+/**
+ * Fills <tt>out[off]</tt> through <tt>out[off+len-1]</tt> with random numbers from the distribution; equivalent to calling <tt>nextDouble()</tt> <tt>len</tt> times.
+ */
+    public void nextDoubles(double[] out, int off, int len) {
+        randomGenerator.nextDoubles(out,off,len);
+        for (int i = off; i < off + len; i++) out[i] = - Math.log(out[i]) / lambda;
+        }
 /**
  * Returns the probability distribution function.
  */
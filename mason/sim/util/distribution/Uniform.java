@@ -59,6 +59,13 @@ public class Uniform extends AbstractContinousDistribution {
     public double nextDouble() {
         return min+(max-min)*randomGenerator.nextDouble();
         }
+/**
+ * Fills <tt>out[off]</tt> through <tt>out[off+len-1]</tt> with uniformly distributed random numbers; equivalent to calling <tt>nextDouble()</tt> <tt>len</tt> times.
+ */
+    public void nextDoubles(double[] out, int off, int len) {
+        randomGenerator.nextDoubles(out,off,len);
+        for (int i = off; i < off + len; i++) out[i] = min+(max-min)*out[i];
+        }
 /**
  * Returns a uniformly distributed random number in the open interval <tt>(from,to)</tt> (excluding <tt>from</tt> and <tt>to</tt>).
  * Pre conditions: <tt>from &lt;= to</tt>.
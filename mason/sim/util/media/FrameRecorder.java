@@ -0,0 +1,309 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.media;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+   Writes a sequence of frames out as numbered PNG files, without slowing down whoever is producing the frames.
+   Unlike MovieEncoder, FrameRecorder needs neither the Java Media Framework nor a screen, so it can record
+   runs on machines with no display at all.  The files are named <i>prefix</i>000000.png, <i>prefix</i>000001.png,
+   and so on, in the order in which the frames were added; a tool such as ffmpeg will turn them into a movie.
+
+   <p>Frames are handed to a bounded queue, and a pool of encoder threads takes them off the queue, encodes them,
+   and writes them out.  If the queue is full when a frame arrives, because the encoders can't keep up, the frame
+   is skipped rather than making the producer wait (unless you setBlocking(true)).  A producer can ask
+   whether a frame would be accepted, with isReady(), before going to the trouble of drawing it.
+
+   <p>To avoid allocating a new image for each frame, get the image to draw into from getImage(...): images are
+   recycled once their frames have been written.  Once you've added a frame, don't touch its image again.
+
+   <p>PNG compression is lossless at any level, but higher levels take far longer for little gain, so the default
+   compression level is 1 (the fastest which still compresses).  Call close() when you're done: it waits for
+   the queued frames to be written, and throws any IOException an encoder ran into.
+
+   <p>If an encoder thread fails with anything other than an IOException (say it runs out of memory), the
+   FrameRecorder stops: the queued frames are dropped, the other encoders quit, and add(...) and close() throw
+   the failure from then on.
+*/
+
+public class FrameRecorder
+    {
+    /** The default number of frames the queue holds */
+    public static final int DEFAULT_CAPACITY = 8;
+
+    File directory;
+    String prefix;
+    int compressionLevel = 1;
+    boolean blocking = false;
+
+    ArrayBlockingQueue queue;
+    LinkedList images = new LinkedList();  // recycled images, synchronized on itself
+    int maxImages;
+    Thread[] threads;
+
+    long numFrames = 0;
+    long numSkippedFrames = 0;
+    long numWrittenFrames = 0;
+    IOException failure = null;
+    Throwable error = null;  // a failure which stopped the encoders
+    boolean closed = false;
+
+    static final Object DONE = new Object();
+
+    static class Frame
+        {
+        BufferedImage image;
+        File file;
+        Frame(BufferedImage image, File file) { this.image = image; this.file = file; }
+        }
+
+    /** Builds a FrameRecorder writing to the given directory, with one encoder thread and a queue of DEFAULT_CAPACITY frames. */
+    public FrameRecorder(File directory, String prefix)
+        {
+        this(directory, prefix, 1, DEFAULT_CAPACITY);
+        }
+
+    /** Builds a FrameRecorder writing to the given directory, with the given number of encoder threads and
+        a queue holding up to <i>capacity</i> frames.  The directory is created if need be. */
+    public FrameRecorder(File directory, String prefix, int threads, int capacity)
+        {
+        if (threads < 1) throw new IllegalArgumentException("Number of threads must be >= 1: " + threads);
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be >= 1: " + capacity);
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IllegalArgumentException("Cannot create directory " + directory);
+        this.directory = directory;
+        this.prefix = prefix;
+        queue = new ArrayBlockingQueue(capacity);
+        maxImages = capacity + threads;
+
+        this.threads = new Thread[threads];
+        for(int i = 0; i < threads; i++)
+            {
+            this.threads[i] = new Thread(new Runnable()
+                {
+                public void run()
+                    {
+                    try
+                        {
+                        while(true)
+                            {
+                            Object obj;
+                            try { obj = queue.take(); }
+                            catch (InterruptedException e) { if (getError() != null) break; else continue; }
+                            if (obj == DONE) break;
+                            write((Frame)obj);
+                            }
+                        }
+                    catch (Throwable e)
+                        {
+                        fail(e);
+                        }
+                    }
+                }, "FrameRecorder");
+            this.threads[i].setDaemon(true);
+            this.threads[i].start();
+            }
+        }
+
+    public File getDirectory() { return directory; }
+    public String getPrefix() { return prefix; }
+
+    /** Sets the PNG compression level, from 0 (none) to 9 (smallest but slowest).  The default is 1. */
+    public void setCompressionLevel(int level)
+        {
+        if (level < 0 || level > 9) throw new IllegalArgumentException("Compression level must be 0 ... 9: " + level);
+        compressionLevel = level;
+        }
+    public int getCompressionLevel() { return compressionLevel; }
+
+    /** Sets whether add(...) waits for room in the queue rather than skipping the frame.  The default is false. */
+    public synchronized void setBlocking(boolean val) { blocking = val; }
+    public synchronized boolean getBlocking() { return blocking; }
+
+    /** Returns the number of frames added, including those skipped. */
+    public synchronized long getNumFrames() { return numFrames; }
+    /** Returns the number of frames skipped because the queue was full. */
+    public synchronized long getNumSkippedFrames() { return numSkippedFrames; }
+    /** Returns the number of frames written so far. */
+    public synchronized long getNumWrittenFrames() { return numWrittenFrames; }
+
+    synchronized Throwable getError() { return error; }
+
+    // Stops the recorder after an encoder has died: nobody would take the frames off the queue, so
+    // we drop them, which also frees anyone waiting to add one, and tell the other encoders to quit.
+    void fail(Throwable e)
+        {
+        synchronized(this) { if (error == null) error = e; }
+        queue.clear();
+        for(int i = 0; i < threads.length; i++)
+            if (threads[i] != null && threads[i] != Thread.currentThread()) threads[i].interrupt();
+        }
+
+    // Throws the failure which stopped the encoders, if any
+    void checkError()
+        {
+        Throwable e = getError();
+        if (e == null) return;
+        if (e instanceof RuntimeException) throw (RuntimeException) e;
+        if (e instanceof Error) throw (Error) e;
+        throw new RuntimeException(e);
+        }
+
+    /** Returns true if a frame added now would be accepted rather than skipped. */
+    public boolean isReady()
+        {
+        return getBlocking() || queue.remainingCapacity() > 0;
+        }
+
+    /** Returns an image of the given size, of type TYPE_INT_RGB, to draw a frame into.  The image is one
+        recycled from an earlier frame if possible, in which case it still holds that frame's picture. */
+    public BufferedImage getImage(int width, int height)
+        {
+        synchronized(images)
+            {
+            while(!images.isEmpty())
+                {
+                BufferedImage image = (BufferedImage)(images.removeFirst());
+                if (image.getWidth() == width && image.getHeight() == height)
+                    return image;
+                image.flush();  // the wrong size, we must have been resized
+                }
+            }
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+
+    void recycle(BufferedImage image)
+        {
+        synchronized(images)
+            {
+            if (images.size() < maxImages) images.add(image);
+            }
+        }
+
+    /** Counts a frame as skipped without adding it, for a producer which found isReady() false and
+        so didn't draw the frame at all. */
+    public synchronized void skip()
+        {
+        numFrames++;
+        numSkippedFrames++;
+        }
+
+    /** Adds a frame to be written, returning true, or skips it if the queue is full (and we're not blocking),
+        returning false.  Frames which are added are numbered in order, but skipped frames take no number.
+        Throws the failure which stopped the encoders, if one did. */
+    public boolean add(BufferedImage image)
+        {
+        Frame frame;
+        boolean block;
+        checkError();
+        synchronized(this)
+            {
+            if (closed) throw new RuntimeException("FrameRecorder has been closed.");
+            numFrames++;
+            block = blocking;
+            // skipped frames take no number, so the files are numbered without gaps
+            frame = new Frame(image, new File(directory, prefix + pad(numFrames - numSkippedFrames - 1) + ".png"));
+            if (!block && !queue.offer(frame))
+                {
+                numSkippedFrames++;
+                recycle(image);
+                return false;
+                }
+            }
+        if (block)
+            {
+            // we can't wait while holding the lock, else the encoders couldn't report their progress
+            put(frame);
+            }
+        return true;
+        }
+
+    // Waits for room in the queue, checking now and then that the encoders haven't stopped
+    void put(Object obj)
+        {
+        boolean interrupted = false;
+        try
+            {
+            while(true)
+                {
+                try { if (queue.offer(obj, 100, TimeUnit.MILLISECONDS)) break; }
+                catch (InterruptedException e) { interrupted = true; }  // try again
+                checkError();
+                }
+            }
+        finally
+            {
+            if (interrupted) Thread.currentThread().interrupt();
+            }
+        }
+
+    static String pad(long val)
+        {
+        String s = String.valueOf(val);
+        while(s.length() < 6) s = "0" + s;
+        return s;
+        }
+
+    void write(Frame frame)
+        {
+        try
+            {
+            byte[] bytes = new PNGEncoder(frame.image, false, PNGEncoder.FILTER_NONE, compressionLevel).pngEncode();
+            if (bytes == null) throw new IOException("Could not encode " + frame.file);
+            OutputStream stream = new BufferedOutputStream(new FileOutputStream(frame.file));
+            try
+                {
+                stream.write(bytes);
+                }
+            finally
+                {
+                stream.close();
+                }
+            synchronized(this) { numWrittenFrames++; }
+            }
+        catch (IOException e)
+            {
+            synchronized(this) { if (failure == null) failure = e; }
+            }
+        recycle(frame.image);
+        }
+
+    /** Waits for the queued frames to be written and stops the encoder threads.  If the encoders were
+        stopped by a failure, throws it; else if an encoder failed to write a frame, throws the first
+        IOException it ran into. */
+    public void close() throws IOException
+        {
+        synchronized(this)
+            {
+            if (closed) return;
+            closed = true;
+            }
+        try
+            {
+            for(int i = 0; i < threads.length; i++)
+                put(DONE);
+            }
+        catch (RuntimeException e) { }  // the encoders have stopped on their own; we throw the failure below
+        catch (Error e) { }
+        boolean interrupted = false;
+        for(int i = 0; i < threads.length; i++)
+            {
+            while(true)
+                {
+                try { threads[i].join(); break; }
+                catch (InterruptedException e) { interrupted = true; }  // try again
+                }
+            }
+        if (interrupted) Thread.currentThread().interrupt();
+        synchronized(images) { images.clear(); }
+        checkError();
+        synchronized(this) { if (failure != null) throw failure; }
+        }
+    }
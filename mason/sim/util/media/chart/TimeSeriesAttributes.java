@@ -111,7 +111,35 @@ public class TimeSeriesAttributes extends SeriesAttributes
     public void setSeriesName(String val) { series.setKey(new ChartGenerator.UniqueString(val)); }  // bypasses super.setSeriesName
     public String getSeriesName() { return "" + series.getKey(); }  // bypasses super.getSeriesName
     
-    public void clear() { series.clear(); }
+    public void clear()
+        {
+        series.clear();
+        if (recorder != null) recorder.clear();
+        }
+
+    /** The recorder, if any, from which the series is rebuilt. */
+    TimeSeriesRecorder recorder;
+
+    /** Sets the recorder, if any, from which the series is rebuilt each time the chart is updated.  You can then
+        add data to the recorder, even from the model thread, rather than to the series: the series will hold only
+        the points the recorder gives back (at most the maximum number of points, if data culling is on) rather than
+        every point ever added. */
+    public void setRecorder(TimeSeriesRecorder recorder) { this.recorder = recorder; }
+    public TimeSeriesRecorder getRecorder() { return recorder; }
+
+    /** Rebuilds the series from the recorder, if there is one, with at most maxPoints points (0 means no limit).
+        Called from the Swing thread by TimeSeriesChartGenerator when the chart is updated. */
+    void loadFromRecorder(int maxPoints)
+        {
+        if (recorder == null) return;
+        double[][] points = recorder.getPoints(TimeSeriesRecorder.MIN_MAX, maxPoints);
+        double[] xs = points[0];
+        double[] ys = points[1];
+        series.clear();
+        for(int i = 0; i < xs.length; i++)
+            series.add(xs[i], ys[i], false);  // no notifying just yet.
+        series.fireSeriesChanged();
+        }
     
     /** Builds a TimeSeriesAttributes with the given generator, series, and index for the series. */
     public TimeSeriesAttributes(ChartGenerator generator, XYSeries series, int index, SeriesChangeListener stoppable)
@@ -114,6 +114,16 @@ public class TimeSeriesChartGenerator extends XYChartGenerator
         }
 
 
+    /** Rebuilds those series which have recorders (see TimeSeriesAttributes.setRecorder(...)) from their
+        recorders, holding to the maximum number of points per series if data culling is on. */
+    protected void update()
+        {
+        int maxPoints = (dataCuller == null ? 0 : (int)maxPointsPerSeriesTextField.getValue());
+        SeriesAttributes[] c = getSeriesAttributes();
+        for(int i = 0; i < c.length; i++)
+            ((TimeSeriesAttributes)(c[i])).loadFromRecorder(maxPoints);
+        }
+
     JCheckBox useCullingCheckBox;
     NumberTextField maxPointsPerSeriesTextField;
     DataCuller dataCuller;
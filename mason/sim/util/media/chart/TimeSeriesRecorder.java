@@ -0,0 +1,331 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.media.chart;
+
+/**
+   Records a time series of (x, y) points in a fixed amount of memory, however long the series grows, and hands
+   back a bounded number of points to chart.  All values are held in arrays of doubles rather than as objects.
+
+   <p>The whole history of the series is kept as at most <i>capacity</i> buckets of equal numbers of points.  Each
+   bucket remembers the first and last x values of its points, their minimum and maximum y values (and where those
+   occurred), and their mean.  At first each bucket holds one point; when the buckets are all used up, neighboring
+   pairs are merged into one, halving the number of buckets and doubling the number of points each holds from
+   then on.  Besides the buckets, the most recent <i>recentCapacity</i> points are kept as they are in a ring buffer.
+
+   <p>getPoints(...) returns the history as coarse buckets followed by the recent points at full resolution.  Each
+   bucket becomes either two points, its minimum and its maximum in the order they occurred (MIN_MAX: spikes are
+   never lost), or one point at its mean (MEAN).  If you ask for fewer points than that, the points are further
+   reduced with the Largest-Triangle-Three-Buckets algorithm of Steinarsson, which keeps the visual shape of the line.
+
+   <p>All the work of adding a point is done by add(...), in constant amortized time, so it's fine to call it from
+   the model thread and leave the Swing thread only the bounded job of reading the points when the chart is
+   redrawn.  All methods are synchronized.  NaN y values are counted but otherwise ignored: a bucket holding only
+   NaNs has a NaN minimum, maximum, and mean.
+*/
+
+public class TimeSeriesRecorder
+    {
+    /** The default number of buckets, and of recent points */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /** Each bucket is charted as its minimum and maximum */
+    public static final int MIN_MAX = 0;
+    /** Each bucket is charted as its mean */
+    public static final int MEAN = 1;
+
+    int capacity;
+    long bucketSize = 1;
+    int numBuckets = 0;
+    long[] count;
+    long[] finite;     // how many of the points weren't NaN
+    double[] startX;
+    double[] endX;
+    double[] minX;
+    double[] minY;
+    double[] maxX;
+    double[] maxY;
+    double[] sumY;
+
+    double[] recentX;
+    double[] recentY;
+    int recentStart = 0;
+    int numRecent = 0;
+
+    long numPoints = 0;
+    double lastX = Double.NEGATIVE_INFINITY;
+
+    /** Builds a TimeSeriesRecorder with DEFAULT_CAPACITY buckets and recent points. */
+    public TimeSeriesRecorder()
+        {
+        this(DEFAULT_CAPACITY, DEFAULT_CAPACITY);
+        }
+
+    /** Builds a TimeSeriesRecorder with the given number of buckets, which must be even, and room for the given
+        number of recent points, which may be zero. */
+    public TimeSeriesRecorder(int capacity, int recentCapacity)
+        {
+        if (capacity < 2 || capacity % 2 != 0)
+            throw new IllegalArgumentException("Capacity must be an even number >= 2: " + capacity);
+        if (recentCapacity < 0)
+            throw new IllegalArgumentException("Recent capacity must be >= 0: " + recentCapacity);
+        this.capacity = capacity;
+        count = new long[capacity];
+        finite = new long[capacity];
+        startX = new double[capacity];
+        endX = new double[capacity];
+        minX = new double[capacity];
+        minY = new double[capacity];
+        maxX = new double[capacity];
+        maxY = new double[capacity];
+        sumY = new double[capacity];
+        recentX = new double[recentCapacity];
+        recentY = new double[recentCapacity];
+        }
+
+    public int getCapacity() { return capacity; }
+    public int getRecentCapacity() { return recentX.length; }
+
+    /** Returns the number of points added since the recorder was built or cleared. */
+    public synchronized long getNumPoints() { return numPoints; }
+    /** Returns the x value of the last point added, or negative infinity if there is none. */
+    public synchronized double getLastX() { return lastX; }
+    /** Returns the number of buckets in use. */
+    public synchronized int getNumBuckets() { return numBuckets; }
+    /** Returns the number of points each bucket holds when full. */
+    public synchronized long getBucketSize() { return bucketSize; }
+
+    /** Returns the number of points in the given bucket. */
+    public synchronized long getCount(int bucket) { return count[bucket]; }
+    /** Returns the x value of the first point in the given bucket. */
+    public synchronized double getStartX(int bucket) { return startX[bucket]; }
+    /** Returns the x value of the last point in the given bucket. */
+    public synchronized double getEndX(int bucket) { return endX[bucket]; }
+    /** Returns the minimum y value in the given bucket. */
+    public synchronized double getMin(int bucket) { return (finite[bucket] == 0 ? Double.NaN : minY[bucket]); }
+    /** Returns the maximum y value in the given bucket. */
+    public synchronized double getMax(int bucket) { return (finite[bucket] == 0 ? Double.NaN : maxY[bucket]); }
+    /** Returns the mean y value in the given bucket. */
+    public synchronized double getMean(int bucket) { return (finite[bucket] == 0 ? Double.NaN : sumY[bucket] / finite[bucket]); }
+
+    /** Removes all points. */
+    public synchronized void clear()
+        {
+        bucketSize = 1;
+        numBuckets = 0;
+        recentStart = 0;
+        numRecent = 0;
+        numPoints = 0;
+        lastX = Double.NEGATIVE_INFINITY;
+        }
+
+    /** Adds a point.  The x values must not decrease from point to point. */
+    public synchronized void add(double x, double y)
+        {
+        if (x < lastX || x != x)
+            throw new IllegalArgumentException("X values must not decrease: " + x + " follows " + lastX);
+        lastX = x;
+        numPoints++;
+
+        // the ring of recent points
+        int len = recentX.length;
+        if (len > 0)
+            {
+            int slot = recentStart + numRecent;
+            if (slot >= len) slot -= len;
+            recentX[slot] = x;
+            recentY[slot] = y;
+            if (numRecent < len) numRecent++;
+            else if (++recentStart == len) recentStart = 0;
+            }
+
+        // the buckets
+        if (numBuckets == 0 || count[numBuckets - 1] == bucketSize)
+            {
+            if (numBuckets == capacity) compact();
+            int b = numBuckets++;
+            count[b] = 0;
+            finite[b] = 0;
+            startX[b] = x;
+            sumY[b] = 0;
+            }
+        int b = numBuckets - 1;
+        count[b]++;
+        endX[b] = x;
+        if (y == y)  // not NaN
+            {
+            if (finite[b] == 0 || y < minY[b]) { minY[b] = y; minX[b] = x; }
+            if (finite[b] == 0 || y > maxY[b]) { maxY[b] = y; maxX[b] = x; }
+            sumY[b] += y;
+            finite[b]++;
+            }
+        }
+
+    // Merges each pair of buckets into one.  Only called when all the buckets are full.
+    void compact()
+        {
+        for(int i = 0; i < capacity / 2; i++)
+            {
+            int a = i * 2;
+            int b = a + 1;
+            if (finite[b] > 0 && (finite[a] == 0 || minY[b] < minY[a])) { minY[i] = minY[b]; minX[i] = minX[b]; }
+            else { minY[i] = minY[a]; minX[i] = minX[a]; }
+            if (finite[b] > 0 && (finite[a] == 0 || maxY[b] > maxY[a])) { maxY[i] = maxY[b]; maxX[i] = maxX[b]; }
+            else { maxY[i] = maxY[a]; maxX[i] = maxX[a]; }
+            count[i] = count[a] + count[b];
+            finite[i] = finite[a] + finite[b];
+            startX[i] = startX[a];
+            endX[i] = endX[b];
+            sumY[i] = sumY[a] + sumY[b];
+            }
+        numBuckets = capacity / 2;
+        bucketSize *= 2;
+        }
+
+    /** Returns the points to chart, as { xValues, yValues }: the buckets holding points older than the recent
+        points, each charted according to the given method (MIN_MAX or MEAN), followed by the recent points.  If
+        <i>maxPoints</i> is greater than zero and there would be more points than that, they are reduced to
+        <i>maxPoints</i> points with largestTriangleThreeBuckets(...). */
+    public synchronized double[][] getPoints(int method, int maxPoints)
+        {
+        if (method != MIN_MAX && method != MEAN)
+            throw new IllegalArgumentException("Unknown method for charting buckets: " + method);
+
+        // the recent points cover the end of the series at full resolution, so we only need the buckets before them
+        int nb = 0;
+        double cut = Double.POSITIVE_INFINITY;
+        if (numRecent == 0)
+            nb = numBuckets;
+        else
+            {
+            cut = recentX[recentStart];
+            while(nb < numBuckets && endX[nb] < cut) nb++;
+            }
+
+        double[] xs = new double[(method == MIN_MAX ? 2 * (nb + 1) : nb) + numRecent];
+        double[] ys = new double[xs.length];
+        int n = 0;
+        for(int b = 0; b < nb; b++)
+            {
+            if (finite[b] == 0)
+                {
+                xs[n] = startX[b];
+                ys[n++] = Double.NaN;
+                }
+            else if (method == MEAN)
+                {
+                xs[n] = (startX[b] + endX[b]) / 2;
+                ys[n++] = sumY[b] / finite[b];
+                }
+            else if (finite[b] == 1)
+                {
+                xs[n] = minX[b];
+                ys[n++] = minY[b];
+                }
+            else if (minX[b] <= maxX[b])
+                {
+                xs[n] = minX[b]; ys[n++] = minY[b];
+                xs[n] = maxX[b]; ys[n++] = maxY[b];
+                }
+            else
+                {
+                xs[n] = maxX[b]; ys[n++] = maxY[b];
+                xs[n] = minX[b]; ys[n++] = minY[b];
+                }
+            }
+        // a bucket straddling the start of the recent points may still have a minimum or maximum before them
+        if (method == MIN_MAX && nb < numBuckets && finite[nb] > 0)
+            {
+            boolean min = minX[nb] < cut;
+            boolean max = maxX[nb] < cut && (maxX[nb] != minX[nb] || !min);
+            if (min && (!max || minX[nb] <= maxX[nb])) { xs[n] = minX[nb]; ys[n++] = minY[nb]; min = false; }
+            if (max) { xs[n] = maxX[nb]; ys[n++] = maxY[nb]; }
+            if (min) { xs[n] = minX[nb]; ys[n++] = minY[nb]; }
+            }
+
+        int len = recentX.length;
+        for(int i = 0; i < numRecent; i++)
+            {
+            int slot = recentStart + i;
+            if (slot >= len) slot -= len;
+            xs[n] = recentX[slot];
+            ys[n++] = recentY[slot];
+            }
+
+        if (maxPoints > 0 && n > maxPoints)
+            return largestTriangleThreeBuckets(xs, ys, n, maxPoints);
+        if (n < xs.length)
+            {
+            double[] x2 = new double[n];
+            double[] y2 = new double[n];
+            System.arraycopy(xs, 0, x2, 0, n);
+            System.arraycopy(ys, 0, y2, 0, n);
+            xs = x2;
+            ys = y2;
+            }
+        return new double[][] { xs, ys };
+        }
+
+    /** Reduces the first <i>n</i> points given, whose x values must not decrease, to <i>target</i> points (at least 2)
+        with Steinarsson's Largest-Triangle-Three-Buckets algorithm, returning { xValues, yValues }.  The first and last
+        points are always kept.  The points between are divided into target - 2 buckets, and from each bucket
+        the point is chosen which makes the largest triangle with the point chosen from the previous bucket and
+        the mean of the next bucket.  Points with NaN y values are chosen only if a bucket holds nothing else. */
+    public static double[][] largestTriangleThreeBuckets(double[] xs, double[] ys, int n, int target)
+        {
+        if (target < 2) throw new IllegalArgumentException("Target must be >= 2: " + target);
+        if (target >= n)
+            {
+            double[] x2 = new double[n];
+            double[] y2 = new double[n];
+            System.arraycopy(xs, 0, x2, 0, n);
+            System.arraycopy(ys, 0, y2, 0, n);
+            return new double[][] { x2, y2 };
+            }
+
+        double[] outX = new double[target];
+        double[] outY = new double[target];
+        outX[0] = xs[0];
+        outY[0] = ys[0];
+        double every = (n - 2) / (double)(target - 2);
+        int a = 0;
+        for(int i = 0; i < target - 2; i++)
+            {
+            // the mean of the next bucket (or the last point, if this is the last bucket)
+            int nextStart = (int)((i + 1) * every) + 1;
+            int nextEnd = Math.min((int)((i + 2) * every) + 1, n);
+            if (i == target - 3) { nextStart = n - 1; nextEnd = n; }
+            double avgX = 0;
+            double avgY = 0;
+            int m = 0;
+            for(int j = nextStart; j < nextEnd; j++)
+                if (ys[j] == ys[j])
+                    { avgX += xs[j]; avgY += ys[j]; m++; }
+            if (m > 0) { avgX /= m; avgY /= m; }
+            else { avgX = xs[nextEnd - 1]; avgY = Double.NaN; }
+
+            // the point in this bucket making the largest triangle
+            int start = (int)(i * every) + 1;
+            int end = (i == target - 3 ? n - 1 : (int)((i + 1) * every) + 1);
+            double ax = xs[a];
+            double ay = ys[a];
+            int best = start;
+            double bestArea = -2;
+            for(int j = start; j < end; j++)
+                {
+                double area = Math.abs((ax - avgX) * (ys[j] - ay) - (ax - xs[j]) * (avgY - ay));
+                if (area != area && ys[j] == ys[j]) area = -1;  // a real point, but next to NaNs: better than a NaN
+                if (area > bestArea) { bestArea = area; best = j; }  // false for NaN
+                }
+            outX[i + 1] = xs[best];
+            outY[i + 1] = ys[best];
+            a = best;
+            }
+        outX[target - 1] = xs[n - 1];
+        outY[target - 1] = ys[n - 1];
+        return new double[][] { outX, outY };
+        }
+    }